@@ -158,6 +158,36 @@ public abstract class Folder<T extends Message> {
         return true;
     }
 
+    /**
+     * @return The UIDVALIDITY value of the folder, or {@code -1} if it is unknown.
+     */
+    public long getUidValidity() {
+        return -1L;
+    }
+
+    /**
+     * @return The highest modification sequence of the folder, or {@code -1} if the folder doesn't support
+     *         persistent modification sequences.
+     */
+    public long getHighestModSeq() {
+        return -1L;
+    }
+
+    /**
+     * Fetch the flags of all messages that changed after the given modification sequence.
+     *
+     * <p>
+     * Only call this if {@link #getHighestModSeq()} returned a positive value after opening the folder.
+     * </p>
+     *
+     * @param modSeq The highest modification sequence recorded during the previous synchronization.
+     * @return The changed messages and, if supported by the server, the UIDs of expunged messages.
+     * @throws MessagingException
+     */
+    public FolderChanges<T> fetchChangedSince(long modSeq) throws MessagingException {
+        throw new MessagingException("K-9 does not support fetching changes on this folder type");
+    }
+
     @Override
     public String toString() {
         return getName();
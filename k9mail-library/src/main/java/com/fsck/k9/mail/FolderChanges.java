@@ -0,0 +1,44 @@
+package com.fsck.k9.mail;
+
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Changes to a folder since a previously recorded modification sequence.
+ *
+ * @see Folder#fetchChangedSince(long)
+ */
+public class FolderChanges<T extends Message> {
+    private final List<T> changedMessages;
+    private final List<UidRange> vanishedUidRanges;
+
+
+    public FolderChanges(List<T> changedMessages, List<UidRange> vanishedUidRanges) {
+        this.changedMessages = Collections.unmodifiableList(changedMessages);
+        this.vanishedUidRanges = vanishedUidRanges != null ? Collections.unmodifiableList(vanishedUidRanges) : null;
+    }
+
+    /**
+     * @return The messages whose flags changed (or that were added). Only the UID and flags are populated.
+     */
+    public List<T> getChangedMessages() {
+        return changedMessages;
+    }
+
+    /**
+     * @return {@code true} if the server reported which messages were removed from the folder.
+     */
+    public boolean hasVanishedUids() {
+        return vanishedUidRanges != null;
+    }
+
+    /**
+     * @return The UID ranges of messages that were expunged. They may include UIDs that were never synchronized.
+     *         {@code null} if {@link #hasVanishedUids()} returns {@code false}.
+     */
+    public List<UidRange> getVanishedUidRanges() {
+        return vanishedUidRanges;
+    }
+}
@@ -0,0 +1,63 @@
+package com.fsck.k9.mail;
+
+
+/**
+ * An inclusive range of numeric message UIDs, e.g. from an IMAP sequence set like {@code 100:200}.
+ *
+ * <p>
+ * Servers report expunged messages with ranges that can cover millions of UIDs. Keep them as ranges instead of
+ * expanding them into individual UIDs.
+ * </p>
+ */
+public class UidRange {
+    private final long start;
+    private final long end;
+
+
+    public UidRange(long start, long end) {
+        this.start = Math.min(start, end);
+        this.end = Math.max(start, end);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The number of UIDs in this range.
+     */
+    public long size() {
+        return end - start + 1;
+    }
+
+    public boolean contains(long uid) {
+        return uid >= start && uid <= end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        UidRange uidRange = (UidRange) o;
+        return start == uidRange.start && end == uidRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (start ^ (start >>> 32)) + (int) (end ^ (end >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return start == end ? Long.toString(start) : start + ":" + end;
+    }
+}
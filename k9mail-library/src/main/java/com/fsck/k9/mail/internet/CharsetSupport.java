@@ -10,6 +10,9 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.util.Locale;
@@ -75,6 +78,18 @@ public class CharsetSupport {
 
 
     static String readToString(InputStream in, String charset) throws IOException {
+        return IOUtils.toString(createReader(in, charset));
+    }
+
+    /**
+     * Create a {@link Reader} that decodes {@code in} using the given MIME charset.
+     *
+     * <p>
+     * This applies the same charset fall-backs as {@link #readToString(InputStream, String)} but doesn't decode more
+     * of the stream than the caller reads.
+     * </p>
+     */
+    static Reader createReader(InputStream in, String charset) throws IOException {
         boolean isIphoneString = false;
 
         // iso-2022-jp variants are supported by no versions as of Dec 2010.
@@ -122,14 +137,12 @@ public class CharsetSupport {
             }
         }
 
-        /*
-         * Convert and return as new String
-         */
-        String str = IOUtils.toString(in, charset);
+        if (isIphoneString) {
+            // The code point mapping isn't done incrementally; these messages are rare.
+            return new StringReader(importStringFromIphone(IOUtils.toString(in, charset)));
+        }
 
-        if (isIphoneString)
-            str = importStringFromIphone(str);
-        return str;
+        return new InputStreamReader(in, Charset.forName(charset));
     }
 
     private static String importStringFromIphone(String str) {
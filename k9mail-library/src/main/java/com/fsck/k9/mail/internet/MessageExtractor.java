@@ -1,8 +1,11 @@
 package com.fsck.k9.mail.internet;
 
 
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -69,8 +72,81 @@ public class MessageExtractor {
         return null;
     }
 
+    /**
+     * Get a {@link Reader} for the decoded text of a text part.
+     *
+     * <p>
+     * Transfer encoding and charset are decoded while reading, so callers that only need the beginning of the text
+     * don't have to decode the whole body. The caller has to close the returned reader.
+     * </p>
+     */
+    public static Reader getTextReaderFromPart(Part part) throws IOException, MessagingException {
+        return getTextReaderFromPart(part, NO_TEXT_SIZE_LIMIT);
+    }
+
+    /**
+     * Get a {@link Reader} for the decoded text of a text part that stops after {@code textSizeLimit} bytes of the
+     * decoded body (or characters if the text is already in memory).
+     *
+     * @see #getTextReaderFromPart(Part)
+     */
+    public static Reader getTextReaderFromPart(Part part, long textSizeLimit) throws IOException, MessagingException {
+        if (part == null || part.getBody() == null) {
+            throw new MessagingException("Provided invalid part");
+        }
+
+        Body body = part.getBody();
+        if (body instanceof TextBody) {
+            String text = ((TextBody) body).getRawText();
+            if (text == null) {
+                throw new MessagingException("Provided text part without text");
+            }
+            if (textSizeLimit != NO_TEXT_SIZE_LIMIT && text.length() > textSizeLimit) {
+                text = text.substring(0, (int) textSizeLimit);
+            }
+            return new StringReader(text);
+        }
+
+        String mimeType = part.getMimeType();
+        boolean isTextPart = mimeType != null && MimeUtility.mimeTypeMatches(mimeType, "text/*");
+        if (!isTextPart && !part.isMimeType("application/pgp")) {
+            throw new MessagingException("Provided non-text part: " + mimeType);
+        }
+
+        String charset = getCharsetForTextPart(part, body, mimeType);
+
+        final InputStream in = MimeUtility.decodeBody(body);
+        InputStream possiblyLimitedIn =
+                textSizeLimit != NO_TEXT_SIZE_LIMIT ? new BoundedInputStream(in, textSizeLimit) : in;
+        return new FilterReader(CharsetSupport.createReader(possiblyLimitedIn, charset)) {
+            @Override
+            public void close() throws IOException {
+                MimeUtility.closeInputStreamWithoutDeletingTemporaryFiles(in);
+            }
+        };
+    }
+
     private static String getTextFromTextPart(Part part, Body body, String mimeType, long textSizeLimit)
             throws IOException, MessagingException {
+        String charset = getCharsetForTextPart(part, body, mimeType);
+        /*
+         * Now we read the part into a buffer for further processing. Because
+         * the stream is now wrapped we'll remove any transfer encoding at this point.
+         */
+        InputStream in = MimeUtility.decodeBody(body);
+        InputStream possiblyLimitedIn =
+                textSizeLimit != NO_TEXT_SIZE_LIMIT ? new BoundedInputStream(in, textSizeLimit) : in;
+        try {
+            return CharsetSupport.readToString(possiblyLimitedIn, charset);
+        } finally {
+            try {
+                MimeUtility.closeInputStreamWithoutDeletingTemporaryFiles(in);
+            } catch (IOException e) { /* Ignore */ }
+        }
+    }
+
+    private static String getCharsetForTextPart(Part part, Body body, String mimeType)
+            throws IOException, MessagingException {
         /*
          * We've got a text part, so let's see if it needs to be processed further.
          */
@@ -85,9 +161,6 @@ public class MessageExtractor {
                 in.read(buf, 0, buf.length);
                 String str = new String(buf, "US-ASCII");
 
-                if (str.isEmpty()) {
-                    return "";
-                }
                 Pattern p = Pattern.compile("<meta http-equiv=\"?Content-Type\"? content=\"text/html; charset=(.+?)\">", Pattern.CASE_INSENSITIVE);
                 Matcher m = p.matcher(str);
                 if (m.find()) {
@@ -99,21 +172,7 @@ public class MessageExtractor {
                 } catch (IOException e) { /* ignore */ }
             }
         }
-        charset = fixupCharset(charset, getMessageFromPart(part));
-        /*
-         * Now we read the part into a buffer for further processing. Because
-         * the stream is now wrapped we'll remove any transfer encoding at this point.
-         */
-        InputStream in = MimeUtility.decodeBody(body);
-        InputStream possiblyLimitedIn =
-                textSizeLimit != NO_TEXT_SIZE_LIMIT ? new BoundedInputStream(in, textSizeLimit) : in;
-        try {
-            return CharsetSupport.readToString(possiblyLimitedIn, charset);
-        } finally {
-            try {
-                MimeUtility.closeInputStreamWithoutDeletingTemporaryFiles(in);
-            } catch (IOException e) { /* Ignore */ }
-        }
+        return fixupCharset(charset, getMessageFromPart(part));
     }
 
     public static boolean hasMissingParts(Part part) {
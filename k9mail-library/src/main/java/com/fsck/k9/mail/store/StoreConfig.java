@@ -23,6 +23,9 @@ public interface StoreConfig {
     void setInboxFolderName(String name);
 
     int getMaximumAutoDownloadMessageSize();
+    int getMaximumImapConnections();
+    int getFlagsFetchWindowSize();
+    int getBodyFetchWindowByteBudget();
 
     boolean allowRemoteSearch();
     boolean isRemoteSearchFullText();
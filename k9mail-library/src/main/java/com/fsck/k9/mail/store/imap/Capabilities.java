@@ -13,4 +13,12 @@ class Capabilities {
     public static final String COMPRESS_DEFLATE = "COMPRESS=DEFLATE";
     public static final String STARTTLS = "STARTTLS";
     public static final String SPECIAL_USE = "SPECIAL-USE";
+    public static final String ENABLE = "ENABLE";
+    public static final String CONDSTORE = "CONDSTORE";
+    public static final String QRESYNC = "QRESYNC";
+    public static final String MOVE = "MOVE";
+    public static final String ESEARCH = "ESEARCH";
+    public static final String LITERAL_PLUS = "LITERAL+";
+    public static final String LITERAL_MINUS = "LITERAL-";
+    public static final String MULTIAPPEND = "MULTIAPPEND";
 }
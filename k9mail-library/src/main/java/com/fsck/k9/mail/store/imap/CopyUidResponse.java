@@ -19,8 +19,27 @@ class CopyUidResponse {
     }
 
     public static CopyUidResponse parse(ImapResponse response) {
-        if (!response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.OK) ||
-                !response.isList(1)) {
+        if (!response.isTagged()) {
+            return null;
+        }
+
+        return parseResponseText(response);
+    }
+
+    /**
+     * Parses the untagged {@code OK [COPYUID ...]} response that servers send in reply to {@code UID MOVE}
+     * (RFC 6851).
+     */
+    public static CopyUidResponse parseUntagged(ImapResponse response) {
+        if (response.isTagged()) {
+            return null;
+        }
+
+        return parseResponseText(response);
+    }
+
+    private static CopyUidResponse parseResponseText(ImapResponse response) {
+        if (response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
             return null;
         }
 
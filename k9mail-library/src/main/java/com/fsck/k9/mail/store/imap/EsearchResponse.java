@@ -0,0 +1,150 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+import static com.fsck.k9.mail.store.imap.ImapUtility.getImapSequenceValues;
+
+
+/**
+ * An untagged {@code ESEARCH} response as defined in RFC 4731.
+ *
+ * <p>
+ * Servers supporting ESEARCH send this response instead of {@code SEARCH} when a {@code RETURN} option is given. It
+ * contains only the requested aggregates, e.g. {@code * ESEARCH (TAG "5") UID COUNT 17 MAX 8812}, and represents the
+ * full result ({@code ALL}) as a sequence set.
+ * </p>
+ */
+class EsearchResponse {
+    private static final String RETURN_MIN = "MIN";
+    private static final String RETURN_MAX = "MAX";
+    private static final String RETURN_COUNT = "COUNT";
+    private static final String RETURN_ALL = "ALL";
+    private static final String UID_INDICATOR = "UID";
+
+
+    private final boolean uid;
+    private final long min;
+    private final long max;
+    private final long count;
+    private final String all;
+
+
+    private EsearchResponse(boolean uid, long min, long max, long count, String all) {
+        this.uid = uid;
+        this.min = min;
+        this.max = max;
+        this.count = count;
+        this.all = all;
+    }
+
+    /**
+     * @return The first {@code ESEARCH} response in {@code responses} or {@code null} if there is none.
+     */
+    public static EsearchResponse parse(List<ImapResponse> responses) {
+        for (ImapResponse response : responses) {
+            EsearchResponse esearchResponse = parse(response);
+            if (esearchResponse != null) {
+                return esearchResponse;
+            }
+        }
+
+        return null;
+    }
+
+    public static EsearchResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 1 || !equalsIgnoreCase(response.get(0), Responses.ESEARCH)) {
+            return null;
+        }
+
+        int index = 1;
+
+        // Skip the search correlator, e.g. (TAG "A282")
+        if (response.size() > index && response.isList(index)) {
+            index++;
+        }
+
+        boolean uid = false;
+        if (response.size() > index && equalsIgnoreCase(response.get(index), UID_INDICATOR)) {
+            uid = true;
+            index++;
+        }
+
+        long min = -1L;
+        long max = -1L;
+        long count = -1L;
+        String all = null;
+        try {
+            for (; index + 1 < response.size(); index += 2) {
+                if (!response.isString(index) || !response.isString(index + 1)) {
+                    return null;
+                }
+
+                String name = response.getString(index);
+                if (equalsIgnoreCase(name, RETURN_MIN)) {
+                    min = response.getLong(index + 1);
+                } else if (equalsIgnoreCase(name, RETURN_MAX)) {
+                    max = response.getLong(index + 1);
+                } else if (equalsIgnoreCase(name, RETURN_COUNT)) {
+                    count = response.getLong(index + 1);
+                } else if (equalsIgnoreCase(name, RETURN_ALL)) {
+                    all = response.getString(index + 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (index != response.size()) {
+            return null;
+        }
+
+        return new EsearchResponse(uid, min, max, count, all);
+    }
+
+    /**
+     * @return {@code true} if the numbers in this response are UIDs rather than message sequence numbers.
+     */
+    public boolean isUid() {
+        return uid;
+    }
+
+    /**
+     * @return The lowest matching number or {@code -1} if it wasn't requested or nothing matched.
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return The highest matching number or {@code -1} if it wasn't requested or nothing matched.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return The number of matches or {@code -1} if it wasn't requested.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return All matching numbers. Empty if they weren't requested or nothing matched.
+     */
+    public List<Long> getAll() {
+        List<Long> numbers = new ArrayList<>();
+        if (all == null) {
+            return numbers;
+        }
+
+        for (String value : getImapSequenceValues(all)) {
+            numbers.add(Long.parseLong(value));
+        }
+
+        return numbers;
+    }
+}
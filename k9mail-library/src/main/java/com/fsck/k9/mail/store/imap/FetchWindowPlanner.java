@@ -0,0 +1,93 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.store.StoreConfig;
+
+
+/**
+ * Decides which messages to request with a single {@code UID FETCH} command.
+ *
+ * <p>
+ * Responses that only contain flags are tiny, so windows for flag-only fetches contain up to
+ * {@link StoreConfig#getFlagsFetchWindowSize()} messages. Windows that download message bodies are limited by
+ * {@link StoreConfig#getBodyFetchWindowByteBudget()} using the message sizes obtained by an earlier envelope fetch.
+ * All other windows use the size suggested by {@link FetchWindowSizer}.
+ * </p>
+ */
+class FetchWindowPlanner {
+    static final int DEFAULT_FLAGS_WINDOW_SIZE = 1000;
+    static final int DEFAULT_BODY_WINDOW_BYTE_BUDGET = 1024 * 1024;
+    static final int ESTIMATED_MESSAGE_SIZE = 32 * 1024;
+
+
+    private final boolean flagsOnly;
+    private final boolean fetchesBodies;
+    private final int maximumBodySize;
+    private final int flagsWindowSize;
+    private final int bodyWindowByteBudget;
+
+
+    FetchWindowPlanner(FetchProfile fetchProfile, StoreConfig storeConfig) {
+        fetchesBodies = fetchProfile.contains(FetchProfile.Item.BODY) ||
+                fetchProfile.contains(FetchProfile.Item.BODY_SANE);
+        flagsOnly = fetchProfile.contains(FetchProfile.Item.FLAGS) && !fetchesBodies &&
+                !fetchProfile.contains(FetchProfile.Item.ENVELOPE) &&
+                !fetchProfile.contains(FetchProfile.Item.STRUCTURE);
+        maximumBodySize = fetchProfile.contains(FetchProfile.Item.BODY) ?
+                0 : storeConfig.getMaximumAutoDownloadMessageSize();
+
+        int configuredFlagsWindowSize = storeConfig.getFlagsFetchWindowSize();
+        flagsWindowSize = configuredFlagsWindowSize > 0 ? configuredFlagsWindowSize : DEFAULT_FLAGS_WINDOW_SIZE;
+
+        int configuredByteBudget = storeConfig.getBodyFetchWindowByteBudget();
+        bodyWindowByteBudget = configuredByteBudget > 0 ? configuredByteBudget : DEFAULT_BODY_WINDOW_BYTE_BUDGET;
+    }
+
+    /**
+     * @param messages The messages to fetch.
+     * @param windowStart Index of the first message of the window.
+     * @param suggestedWindowSize The window size suggested by {@link FetchWindowSizer}.
+     * @return The index after the last message of the window. Windows always contain at least one message.
+     */
+    int getWindowEnd(List<? extends Message> messages, int windowStart, int suggestedWindowSize) {
+        if (flagsOnly) {
+            return Math.min(windowStart + Math.max(flagsWindowSize, suggestedWindowSize), messages.size());
+        }
+
+        int maxWindowEnd = Math.min(windowStart + suggestedWindowSize, messages.size());
+        if (!fetchesBodies) {
+            return maxWindowEnd;
+        }
+
+        long windowBytes = 0;
+        int windowEnd = windowStart;
+        while (windowEnd < maxWindowEnd) {
+            long messageBytes = getExpectedSize(messages.get(windowEnd));
+            if (windowEnd > windowStart && windowBytes + messageBytes > bodyWindowByteBudget) {
+                break;
+            }
+
+            windowBytes += messageBytes;
+            windowEnd++;
+        }
+
+        return windowEnd;
+    }
+
+    private long getExpectedSize(Message message) {
+        long size = message.getSize();
+        if (size <= 0) {
+            size = ESTIMATED_MESSAGE_SIZE;
+        }
+
+        if (maximumBodySize > 0) {
+            size = Math.min(size, maximumBodySize);
+        }
+
+        return size;
+    }
+}
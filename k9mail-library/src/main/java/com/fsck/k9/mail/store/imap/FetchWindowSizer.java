@@ -0,0 +1,78 @@
+package com.fsck.k9.mail.store.imap;
+
+
+/**
+ * Picks the number of messages to request with a single {@code UID FETCH} command.
+ *
+ * <p>
+ * The window size is adjusted based on the observed average message size and transfer rate so that the transfer of
+ * one window takes roughly {@link #TARGET_WINDOW_MILLIS}, but at least twice the round-trip time. Together with
+ * having several windows in flight this keeps the connection busy on high-latency links while still returning
+ * results for small windows early.
+ * </p>
+ */
+class FetchWindowSizer {
+    static final int INITIAL_WINDOW_SIZE = 100;
+    static final int MIN_WINDOW_SIZE = 10;
+    static final int MAX_WINDOW_SIZE = 500;
+    static final long TARGET_WINDOW_MILLIS = 1000;
+    private static final double SMOOTHING_FACTOR = 0.5;
+
+
+    private int windowSize = INITIAL_WINDOW_SIZE;
+    private double averageMessageSize = -1;
+    private double bytesPerMilli = -1;
+    private long roundTripMillis = -1;
+
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Records the time it took for the first response to a command to arrive.
+     */
+    void recordRoundTrip(long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        roundTripMillis = roundTripMillis < 0 ? millis : smooth(roundTripMillis, millis);
+    }
+
+    /**
+     * Records the transfer of a completed window and updates the window size.
+     *
+     * @param messageCount The number of messages requested in the window.
+     * @param bytes The number of bytes received while the window was being transferred.
+     * @param elapsedMillis The time it took to transfer the window.
+     */
+    void recordWindow(int messageCount, long bytes, long elapsedMillis) {
+        if (messageCount <= 0 || bytes <= 0 || elapsedMillis <= 0) {
+            return;
+        }
+
+        double messageSize = (double) bytes / messageCount;
+        averageMessageSize = averageMessageSize < 0 ? messageSize : smooth(averageMessageSize, messageSize);
+
+        double rate = (double) bytes / elapsedMillis;
+        bytesPerMilli = bytesPerMilli < 0 ? rate : smooth(bytesPerMilli, rate);
+
+        long targetMillis = Math.max(TARGET_WINDOW_MILLIS, 2 * roundTripMillis);
+        long targetSize = Math.round(bytesPerMilli * targetMillis / averageMessageSize);
+
+        // Don't change the window size too abruptly based on a single window
+        targetSize = Math.max(targetSize, windowSize / 2);
+        targetSize = Math.min(targetSize, windowSize * 2);
+
+        windowSize = (int) Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, targetSize));
+    }
+
+    private static double smooth(double oldValue, double newValue) {
+        return oldValue + SMOOTHING_FACTOR * (newValue - oldValue);
+    }
+
+    private static long smooth(long oldValue, long newValue) {
+        return Math.round(oldValue + SMOOTHING_FACTOR * (newValue - oldValue));
+    }
+}
@@ -46,6 +46,7 @@ import com.jcraft.jzlib.JZlib;
 import com.jcraft.jzlib.ZOutputStream;
 import javax.net.ssl.SSLException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 
 import static com.fsck.k9.mail.ConnectionSecurity.STARTTLS_REQUIRED;
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
@@ -60,6 +61,7 @@ import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
  */
 class ImapConnection {
     private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_LITERAL_MINUS_SIZE = 4096;
 
 
     private final ConnectivityManager connectivityManager;
@@ -70,6 +72,7 @@ class ImapConnection {
 
     private Socket socket;
     private PeekableInputStream inputStream;
+    private CountingInputStream countingInputStream;
     private OutputStream outputStream;
     private ImapResponseParser responseParser;
     private int nextCommandTag;
@@ -78,6 +81,7 @@ class ImapConnection {
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private boolean qresyncEnabled = false;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -129,6 +133,7 @@ class ImapConnection {
             authSuccess = true;
 
             enableCompressionIfRequested();
+            enableQresyncIfSupported();
 
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
@@ -167,6 +172,22 @@ class ImapConnection {
         }
     }
 
+    /**
+     * @return {@code true} if {@link #close()} has been called. A closed connection can't be opened again.
+     */
+    public boolean isClosed() {
+        return stacktraceForClose != null;
+    }
+
+    /**
+     * @return The number of bytes received from the server since the input stream was set up. This number is reset
+     *         when compression is enabled.
+     */
+    public long getBytesRead() {
+        CountingInputStream counter = countingInputStream;
+        return counter != null ? counter.getByteCount() : 0;
+    }
+
     public boolean isConnected() {
         return inputStream != null && outputStream != null && socket != null &&
                 socket.isConnected() && !socket.isClosed();
@@ -236,7 +257,8 @@ class ImapConnection {
     }
 
     private void setUpStreamsAndParser(InputStream input, OutputStream output) {
-        inputStream = new PeekableInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        countingInputStream = new CountingInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        inputStream = new PeekableInputStream(countingInputStream);
         responseParser = new ImapResponseParser(inputStream);
         outputStream = new BufferedOutputStream(output, BUFFER_SIZE);
     }
@@ -413,7 +435,7 @@ class ImapConnection {
     private void attemptXOAuth2() throws MessagingException, IOException {
         String token = oauthTokenProvider.getToken(settings.getUsername(), OAuth2TokenProvider.OAUTH2_TIMEOUT);
         String authString = Authentication.computeXoauth(settings.getUsername(), token);
-        String tag = sendSaslIrCommand(Commands.AUTHENTICATE_XOAUTH2, authString, true);
+        String tag = sendCommand(Commands.AUTHENTICATE_XOAUTH2 + " " + authString, true);
 
         List<ImapResponse> responses = responseParser.readStatusResponse(tag, Commands.AUTHENTICATE_XOAUTH2, getLogId(),
                 new UntaggedHandler() {
@@ -475,17 +497,23 @@ class ImapConnection {
 
     private void saslAuthPlain() throws IOException, MessagingException {
         String command = Commands.AUTHENTICATE_PLAIN;
-        String tag = sendCommand(command, false);
-
-        readContinuationResponse(tag);
-
         String credentials = "\000" + settings.getUsername() + "\000" + settings.getPassword();
         byte[] encodedCredentials = Base64.encodeBase64(credentials.getBytes());
 
-        outputStream.write(encodedCredentials);
-        outputStream.write('\r');
-        outputStream.write('\n');
-        outputStream.flush();
+        String tag;
+        if (hasCapability(Capabilities.SASL_IR)) {
+            // Save the round-trip for the empty server challenge
+            tag = sendCommand(command + " " + new String(encodedCredentials), true);
+        } else {
+            tag = sendCommand(command, false);
+
+            readContinuationResponse(tag);
+
+            outputStream.write(encodedCredentials);
+            outputStream.write('\r');
+            outputStream.write('\n');
+            outputStream.flush();
+        }
 
         try {
             extractCapabilities(responseParser.readStatusResponse(tag, command, getLogId(), null));
@@ -586,6 +614,34 @@ class ImapConnection {
         }
     }
 
+    private void enableQresyncIfSupported() throws IOException, MessagingException {
+        if (!hasCapability(Capabilities.ENABLE) || !hasCapability(Capabilities.QRESYNC)) {
+            return;
+        }
+
+        List<ImapResponse> responses;
+        try {
+            responses = executeSimpleCommand(Commands.ENABLE_QRESYNC);
+        } catch (NegativeImapResponseException e) {
+            Log.d(LOG_TAG, "Unable to enable QRESYNC: " + e.getMessage());
+            return;
+        }
+
+        for (ImapResponse response : responses) {
+            if (!response.isTagged() && !response.isEmpty() && equalsIgnoreCase(response.get(0), Responses.ENABLED)) {
+                for (int i = 1, size = response.size(); i < size; i++) {
+                    if (equalsIgnoreCase(response.get(i), Capabilities.QRESYNC)) {
+                        qresyncEnabled = true;
+                    }
+                }
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, "QRESYNC enabled: " + qresyncEnabled + " for " + getLogId());
+        }
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
         if (settings.getPathPrefix() != null) {
             return;
@@ -676,6 +732,34 @@ class ImapConnection {
         return capabilities.contains(Capabilities.IDLE);
     }
 
+    protected boolean isMoveCapable() {
+        return capabilities.contains(Capabilities.MOVE);
+    }
+
+    protected boolean isEsearchCapable() {
+        return capabilities.contains(Capabilities.ESEARCH);
+    }
+
+    protected boolean isMultiAppendCapable() {
+        return capabilities.contains(Capabilities.MULTIAPPEND);
+    }
+
+    /**
+     * Checks whether a literal of the given size may be sent without waiting for a continuation request (RFC 7888).
+     */
+    protected boolean canSendNonSynchronizingLiteral(long literalSize) {
+        return capabilities.contains(Capabilities.LITERAL_PLUS) ||
+                (capabilities.contains(Capabilities.LITERAL_MINUS) && literalSize <= MAX_LITERAL_MINUS_SIZE);
+    }
+
+    protected boolean isCondstoreCapable() {
+        return qresyncEnabled || capabilities.contains(Capabilities.CONDSTORE);
+    }
+
+    protected boolean isQresyncEnabled() {
+        return qresyncEnabled;
+    }
+
     public void close() {
         open = false;
         stacktraceForClose = new Exception();
@@ -685,6 +769,7 @@ class ImapConnection {
         IOUtils.closeQuietly(socket);
 
         inputStream = null;
+        countingInputStream = null;
         outputStream = null;
         socket = null;
     }
@@ -724,31 +809,6 @@ class ImapConnection {
         return responseParser.readStatusResponse(tag, commandToLog, getLogId(), untaggedHandler);
     }
 
-    public String sendSaslIrCommand(String command, String initialClientResponse, boolean sensitive)
-            throws IOException, MessagingException {
-        try {
-            open();
-
-            String tag = Integer.toString(nextCommandTag++);
-            String commandToSend = tag + " " + command + " " + initialClientResponse + "\r\n";
-            outputStream.write(commandToSend.getBytes());
-            outputStream.flush();
-
-            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
-                if (sensitive && !K9MailLib.isDebugSensitive()) {
-                    Log.v(LOG_TAG, getLogId() + ">>> [Command Hidden, Enable Sensitive Debug Logging To Show]");
-                } else {
-                    Log.v(LOG_TAG, getLogId() + ">>> " + tag + " " + command + " " + initialClientResponse);
-                }
-            }
-
-            return tag;
-        } catch (IOException | MessagingException e) {
-            close();
-            throw e;
-        }
-    }
-
     public String sendCommand(String command, boolean sensitive) throws MessagingException, IOException {
         try {
             open();
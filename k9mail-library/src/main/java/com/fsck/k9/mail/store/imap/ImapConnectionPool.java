@@ -0,0 +1,458 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.MessagingException;
+
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Pool of {@link ImapConnection}s to a single server.
+ *
+ * <p>
+ * At most {@code maxConnections} connections are handed out at the same time. Callers asking for a connection when
+ * the limit has been reached wait for another connection to be released. If none becomes available within
+ * {@link #BORROW_TIMEOUT_MILLIS} a {@link MessagingException} is thrown. The limit is never exceeded.
+ * </p>
+ * <p>
+ * Pushers hold their connection for as long as push is active. They use {@link #getPushConnection()}, which never
+ * waits and doesn't count against the limit. Otherwise an account pushing {@code maxConnections} folders would stall
+ * every other command.
+ * </p>
+ * <p>
+ * Pooled connections are checked with a {@code NOOP} command before they are handed out. Connections that haven't
+ * been used for {@code idleTimeoutMillis} are closed by a timer, so they don't stay open when the pool isn't used.
+ * </p>
+ */
+class ImapConnectionPool {
+    static final int DEFAULT_MAX_CONNECTIONS = 5;
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long BORROW_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static ScheduledExecutorService evictionExecutor;
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+
+    private final Object lock = new Object();
+    private final LinkedList<IdleConnection> idleConnections = new LinkedList<>();
+    private final Set<ImapConnection> borrowedConnections = new HashSet<>();
+    private final Set<ImapConnection> pushConnections = new HashSet<>();
+    private int pendingCreations = 0;
+    private ScheduledFuture<?> evictionTask;
+
+    private long connectionsCreated = 0;
+    private long connectionsReused = 0;
+    private long connectionsEvicted = 0;
+    private long healthCheckFailures = 0;
+    private long borrowTimeouts = 0;
+    private long borrowCount = 0;
+    private long totalBorrowWaitMillis = 0;
+
+
+    ImapConnectionPool(ConnectionFactory connectionFactory, int maxConnections, long idleTimeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.maxConnections = maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    ImapConnection getConnection() throws MessagingException {
+        return getConnection(false);
+    }
+
+    /**
+     * Returns a connection that will be held for a long time by a pusher.
+     */
+    ImapConnection getPushConnection() throws MessagingException {
+        return getConnection(true);
+    }
+
+    private ImapConnection getConnection(boolean push) throws MessagingException {
+        long borrowStart = now();
+
+        ImapConnection connection;
+        while ((connection = borrowConnection(borrowStart, push)) != null) {
+            try {
+                connection.executeSimpleCommand(Commands.NOOP);
+
+                synchronized (lock) {
+                    connectionsReused++;
+                }
+                break;
+            } catch (IOException ioe) {
+                discardBorrowedConnection(connection);
+            } catch (MessagingException e) {
+                discardBorrowedConnection(connection);
+                throw e;
+            }
+        }
+
+        if (connection == null) {
+            connection = createConnection(push);
+        }
+
+        synchronized (lock) {
+            borrowCount++;
+            totalBorrowWaitMillis += now() - borrowStart;
+        }
+
+        return connection;
+    }
+
+    private void discardBorrowedConnection(ImapConnection connection) {
+        synchronized (lock) {
+            healthCheckFailures++;
+            borrowedConnections.remove(connection);
+            pushConnections.remove(connection);
+            lock.notifyAll();
+        }
+
+        connection.close();
+    }
+
+    /**
+     * Returns an idle connection or {@code null} if the caller is allowed to create a new connection.
+     */
+    private ImapConnection borrowConnection(long borrowStart, boolean push) throws MessagingException {
+        List<ImapConnection> evictedConnections;
+        ImapConnection connection = null;
+
+        synchronized (lock) {
+            evictedConnections = removeIdleConnectionsExceedingTimeout();
+
+            while (true) {
+                IdleConnection idleConnection = idleConnections.pollFirst();
+                if (idleConnection != null) {
+                    connection = idleConnection.connection;
+                    if (push) {
+                        pushConnections.add(connection);
+                    } else {
+                        borrowedConnections.add(connection);
+                    }
+                    break;
+                }
+
+                removeClosedBorrowedConnections();
+                if (push) {
+                    break;
+                }
+
+                if (borrowedConnections.size() + pendingCreations < maxConnections) {
+                    pendingCreations++;
+                    break;
+                }
+
+                long remainingWaitTime = borrowStart + BORROW_TIMEOUT_MILLIS - now();
+                if (remainingWaitTime <= 0) {
+                    borrowTimeouts++;
+                    throw new MessagingException("Timed out waiting for one of " + maxConnections +
+                            " IMAP connections to become available");
+                }
+
+                try {
+                    lock.wait(remainingWaitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MessagingException("Interrupted while waiting for an IMAP connection", e);
+                }
+            }
+        }
+
+        closeConnections(evictedConnections);
+
+        return connection;
+    }
+
+    private ImapConnection createConnection(boolean push) {
+        ImapConnection connection;
+        try {
+            connection = connectionFactory.createConnection();
+        } finally {
+            if (!push) {
+                synchronized (lock) {
+                    pendingCreations--;
+                }
+            }
+        }
+
+        synchronized (lock) {
+            if (push) {
+                pushConnections.add(connection);
+            } else {
+                borrowedConnections.add(connection);
+            }
+            connectionsCreated++;
+        }
+
+        return connection;
+    }
+
+    void releaseConnection(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        List<ImapConnection> evictedConnections;
+        boolean closeConnection = false;
+
+        synchronized (lock) {
+            borrowedConnections.remove(connection);
+            pushConnections.remove(connection);
+
+            if (connection.isConnected() && !isIdle(connection)) {
+                if (borrowedConnections.size() + idleConnections.size() < maxConnections) {
+                    idleConnections.addFirst(new IdleConnection(connection, now()));
+                } else {
+                    closeConnection = true;
+                }
+            }
+
+            evictedConnections = removeIdleConnectionsExceedingTimeout();
+            scheduleEvictionIfNeeded();
+
+            lock.notifyAll();
+        }
+
+        if (closeConnection) {
+            connection.close();
+        }
+
+        closeConnections(evictedConnections);
+    }
+
+    private boolean isIdle(ImapConnection connection) {
+        for (IdleConnection idleConnection : idleConnections) {
+            if (idleConnection.connection == connection) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    void closeIdleConnections() {
+        List<ImapConnection> connectionsToClose = new ArrayList<>();
+        synchronized (lock) {
+            for (IdleConnection idleConnection : idleConnections) {
+                connectionsToClose.add(idleConnection.connection);
+            }
+            idleConnections.clear();
+            cancelEviction();
+        }
+
+        closeConnections(connectionsToClose);
+    }
+
+    /**
+     * Closes idle connections exceeding the timeout. Called by the timer scheduled in
+     * {@link #scheduleEvictionIfNeeded()}.
+     */
+    void evictIdleConnections() {
+        List<ImapConnection> evictedConnections;
+        synchronized (lock) {
+            evictionTask = null;
+            evictedConnections = removeIdleConnectionsExceedingTimeout();
+            scheduleEvictionIfNeeded();
+        }
+
+        closeConnections(evictedConnections);
+    }
+
+    private void scheduleEvictionIfNeeded() {
+        if (evictionTask != null || idleConnections.isEmpty()) {
+            return;
+        }
+
+        // New idle connections are added to the front, so the last one is the first to exceed the timeout
+        long delayMillis = idleConnections.getLast().lastUsed + idleTimeoutMillis + 1 - now();
+        evictionTask = scheduleEviction(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, Math.max(delayMillis, 0));
+    }
+
+    private void cancelEviction() {
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+        }
+    }
+
+    ScheduledFuture<?> scheduleEviction(Runnable task, long delayMillis) {
+        return getEvictionExecutor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getEvictionExecutor() {
+        if (evictionExecutor == null) {
+            evictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImapConnectionPoolEviction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return evictionExecutor;
+    }
+
+    private List<ImapConnection> removeIdleConnectionsExceedingTimeout() {
+        List<ImapConnection> evictedConnections = null;
+
+        long now = now();
+        Iterator<IdleConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            if (now - idleConnection.lastUsed > idleTimeoutMillis) {
+                iterator.remove();
+                connectionsEvicted++;
+
+                if (evictedConnections == null) {
+                    evictedConnections = new ArrayList<>();
+                }
+                evictedConnections.add(idleConnection.connection);
+            }
+        }
+
+        return evictedConnections;
+    }
+
+    /**
+     * Some code paths close a connection without returning it to the pool. Don't count those connections against
+     * the limit.
+     */
+    private void removeClosedBorrowedConnections() {
+        removeClosedConnections(borrowedConnections);
+        removeClosedConnections(pushConnections);
+    }
+
+    private static void removeClosedConnections(Set<ImapConnection> connections) {
+        Iterator<ImapConnection> iterator = connections.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isClosed()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void closeConnections(List<ImapConnection> connections) {
+        if (connections == null) {
+            return;
+        }
+
+        for (ImapConnection connection : connections) {
+            if (K9MailLib.isDebug()) {
+                Log.d(LOG_TAG, "Closing idle IMAP connection " + connection.getLogId());
+            }
+
+            connection.close();
+        }
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, toString());
+        }
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    int getIdleConnectionCount() {
+        synchronized (lock) {
+            return idleConnections.size();
+        }
+    }
+
+    int getBorrowedConnectionCount() {
+        synchronized (lock) {
+            return borrowedConnections.size();
+        }
+    }
+
+    int getPushConnectionCount() {
+        synchronized (lock) {
+            return pushConnections.size();
+        }
+    }
+
+    long getConnectionsCreated() {
+        synchronized (lock) {
+            return connectionsCreated;
+        }
+    }
+
+    long getConnectionsReused() {
+        synchronized (lock) {
+            return connectionsReused;
+        }
+    }
+
+    /**
+     * @return The fraction of {@link #getConnection()} calls that were served by an existing connection.
+     */
+    float getReuseRatio() {
+        synchronized (lock) {
+            long total = connectionsCreated + connectionsReused;
+            return total == 0 ? 0f : (float) connectionsReused / total;
+        }
+    }
+
+    long getAverageBorrowWaitMillis() {
+        synchronized (lock) {
+            return borrowCount == 0 ? 0 : totalBorrowWaitMillis / borrowCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format(Locale.US, "ImapConnectionPool{max=%d, idle=%d, borrowed=%d, push=%d, " +
+                    "created=%d, reused=%d, evicted=%d, healthCheckFailures=%d, borrowTimeouts=%d, averageBorrowWait=%dms}",
+                    maxConnections, idleConnections.size(), borrowedConnections.size(), pushConnections.size(),
+                    connectionsCreated,
+                    connectionsReused, connectionsEvicted, healthCheckFailures, borrowTimeouts,
+                    borrowCount == 0 ? 0 : totalBorrowWaitMillis / borrowCount);
+        }
+    }
+
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long lastUsed;
+
+        IdleConnection(ImapConnection connection, long lastUsed) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
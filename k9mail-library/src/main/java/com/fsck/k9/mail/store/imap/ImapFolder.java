@@ -9,13 +9,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -23,11 +26,13 @@ import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.UidRange;
 import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
@@ -47,15 +52,19 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     };
     private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
-    private static final int FETCH_WINDOW_SIZE = 100;
+    private static final int FETCH_PIPELINE_DEPTH = 3;
+    private static final int MAX_SEQUENCE_SET_LENGTH = 4000;
 
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long uidValidity = -1L;
+    protected volatile long highestModSeq = -1L;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<Long, String>();
     private final FolderNameCodec folderNameCodec;
+    private final FetchWindowSizer fetchWindowSizer = new FetchWindowSizer();
     private final String name;
     private int mode;
     private volatile boolean exists;
@@ -118,6 +127,10 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    protected ImapConnection getConnectionForOpen() throws MessagingException {
+        return store.getConnection();
+    }
+
     protected List<ImapResponse> internalOpen(int mode) throws MessagingException {
         if (isOpen() && this.mode == mode) {
             // Make sure the connection is valid. If it's not we'll close it down and continue
@@ -132,16 +145,22 @@ class ImapFolder extends Folder<ImapMessage> {
         store.releaseConnection(connection);
 
         synchronized (this) {
-            connection = store.getConnection();
+            connection = getConnectionForOpen();
         }
 
         try {
             msgSeqUidMap.clear();
+            uidValidity = -1L;
+            highestModSeq = -1L;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (connection.isCondstoreCapable() && !connection.isQresyncEnabled()) {
+                // With QRESYNC enabled CONDSTORE is implicitly enabled, too
+                command += " (CONDSTORE)";
+            }
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -195,6 +214,16 @@ class ImapFolder extends Folder<ImapMessage> {
         return connection != null;
     }
 
+    @Override
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
     @Override
     public int getMode() {
         return mode;
@@ -341,50 +370,73 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapFolder imapFolder = (ImapFolder) folder;
         checkOpen(); //only need READ access
 
-        String[] uids = new String[messages.size()];
-        for (int i = 0, count = messages.size(); i < count; i++) {
-            uids[i] = messages.get(i).getUid();
-        }
+        List<String> uidSets = createUidSets(messages);
 
         try {
-            String encodedDestinationFolderName = folderNameCodec.encode(imapFolder.getPrefixedName());
-            String escapedDestinationFolderName = ImapUtility.encodeString(encodedDestinationFolderName);
+            String escapedDestinationFolderName = getEscapedDestinationFolderName(imapFolder, "copyMessages");
 
-            //TODO: Try to copy/move the messages first and only create the folder if the
-            //      operation fails. This will save a roundtrip if the folder already exists.
-            if (!exists(escapedDestinationFolderName)) {
-                if (K9MailLib.isDebug()) {
-                    Log.i(LOG_TAG, "ImapFolder.copyMessages: attempting to create remote folder '" +
-                            escapedDestinationFolderName + "' for " + getLogId());
-                }
+            Map<String, String> uidMapping = new HashMap<>();
+            for (String uidSet : uidSets) {
+                List<ImapResponse> responses = executeSimpleCommand(String.format("UID COPY %s %s",
+                        uidSet, escapedDestinationFolderName));
+
+                // Get the tagged response for the UID COPY command
+                ImapResponse response = getLastResponse(responses);
 
-                imapFolder.create(FolderType.HOLDS_MESSAGES);
+                CopyUidResponse copyUidResponse = CopyUidResponse.parse(response);
+                if (copyUidResponse != null) {
+                    uidMapping.putAll(copyUidResponse.getUidMapping());
+                }
             }
 
-            //TODO: Split this into multiple commands if the command exceeds a certain length.
-            List<ImapResponse> responses = executeSimpleCommand(String.format("UID COPY %s %s",
-                    combine(uids, ','), escapedDestinationFolderName));
+            return uidMapping.isEmpty() ? null : uidMapping;
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
 
-            // Get the tagged response for the UID COPY command
-            ImapResponse response = getLastResponse(responses);
+    private String getEscapedDestinationFolderName(ImapFolder imapFolder, String operation)
+            throws MessagingException {
+        String encodedDestinationFolderName = folderNameCodec.encode(imapFolder.getPrefixedName());
+        String escapedDestinationFolderName = ImapUtility.encodeString(encodedDestinationFolderName);
 
-            CopyUidResponse copyUidResponse = CopyUidResponse.parse(response);
-            if (copyUidResponse == null) {
-                return null;
+        //TODO: Try to copy/move the messages first and only create the folder if the
+        //      operation fails. This will save a roundtrip if the folder already exists.
+        if (!exists(escapedDestinationFolderName)) {
+            if (K9MailLib.isDebug()) {
+                Log.i(LOG_TAG, "ImapFolder." + operation + ": attempting to create remote folder '" +
+                        escapedDestinationFolderName + "' for " + getLogId());
             }
 
-            return copyUidResponse.getUidMapping();
-        } catch (IOException ioe) {
-            throw ioExceptionHandler(connection, ioe);
+            imapFolder.create(FolderType.HOLDS_MESSAGES);
         }
+
+        return escapedDestinationFolderName;
     }
 
+    /**
+     * Moves the given messages to the specified folder.
+     *
+     * <p>
+     * Uses {@code UID MOVE} (RFC 6851) if the server supports it. Otherwise the messages are copied and then flagged
+     * as deleted in this folder.
+     * </p>
+     *
+     * @return The mapping of original message UIDs to the new server UIDs. May be incomplete or {@code null} if the
+     *         server doesn't support UIDPLUS.
+     */
     @Override
     public Map<String, String> moveMessages(List<? extends Message> messages, Folder folder) throws MessagingException {
         if (messages.isEmpty()) {
             return null;
         }
 
+        checkOpen();
+
+        if (connection.isMoveCapable()) {
+            return uidMoveMessages(messages, folder);
+        }
+
         Map<String, String> uidMapping = copyMessages(messages, folder);
 
         setFlags(messages, Collections.singleton(Flag.DELETED), true);
@@ -392,6 +444,42 @@ class ImapFolder extends Folder<ImapMessage> {
         return uidMapping;
     }
 
+    private Map<String, String> uidMoveMessages(List<? extends Message> messages, Folder folder)
+            throws MessagingException {
+        if (!(folder instanceof ImapFolder)) {
+            throw new MessagingException("ImapFolder.moveMessages passed non-ImapFolder");
+        }
+
+        ImapFolder imapFolder = (ImapFolder) folder;
+
+        // UID MOVE expunges the messages from this folder. So it needs to be opened in read-write mode.
+        open(OPEN_MODE_RW);
+        checkOpen();
+
+        try {
+            String escapedDestinationFolderName = getEscapedDestinationFolderName(imapFolder, "moveMessages");
+
+            Map<String, String> uidMapping = new HashMap<>();
+            for (String uidSet : createUidSets(messages)) {
+                List<ImapResponse> responses = executeSimpleCommand(String.format("UID MOVE %s %s",
+                        uidSet, escapedDestinationFolderName));
+
+                // Servers send COPYUID in an untagged OK response, but some put it in the tagged response instead
+                for (ImapResponse response : responses) {
+                    CopyUidResponse copyUidResponse = response.isTagged() ?
+                            CopyUidResponse.parse(response) : CopyUidResponse.parseUntagged(response);
+                    if (copyUidResponse != null) {
+                        uidMapping.putAll(copyUidResponse.getUidMapping());
+                    }
+                }
+            }
+
+            return uidMapping.isEmpty() ? null : uidMapping;
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
     @Override
     public void delete(List<? extends Message> messages, String trashFolderName) throws MessagingException {
         if (messages.isEmpty()) {
@@ -439,6 +527,13 @@ class ImapFolder extends Folder<ImapMessage> {
             int count = 0;
             int start = 1;
 
+            if (connection.isEsearchCapable()) {
+                String command = String.format(Locale.US, "SEARCH RETURN (COUNT) %d:* %s", start, criteria);
+                EsearchResponse esearchResponse = EsearchResponse.parse(executeSimpleCommand(command));
+
+                return esearchResponse != null ? (int) Math.max(0, esearchResponse.getCount()) : 0;
+            }
+
             String command = String.format(Locale.US, "SEARCH %d:* %s", start, criteria);
             List<ImapResponse> responses = executeSimpleCommand(command);
 
@@ -466,6 +561,13 @@ class ImapFolder extends Folder<ImapMessage> {
 
     protected long getHighestUid() throws MessagingException {
         try {
+            if (connection.isEsearchCapable()) {
+                EsearchResponse esearchResponse = EsearchResponse.parse(
+                        executeSimpleCommand("UID SEARCH RETURN (MAX) ALL"));
+
+                return esearchResponse != null ? esearchResponse.getMax() : -1L;
+            }
+
             String command = "UID SEARCH *:*";
             List<ImapResponse> responses = executeSimpleCommand(command);
 
@@ -523,8 +625,8 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapSearcher searcher = new ImapSearcher() {
             @Override
             public List<ImapResponse> search() throws IOException, MessagingException {
-                String command = String.format(Locale.US, "UID SEARCH %d:%d%s%s", start, end, dateSearchString,
-                        includeDeleted ? "" : " NOT DELETED");
+                String command = String.format(Locale.US, "UID SEARCH %s%d:%d%s%s", getSearchReturnAllOption(),
+                        start, end, dateSearchString, includeDeleted ? "" : " NOT DELETED");
 
                 return executeSimpleCommand(command);
             }
@@ -570,6 +672,14 @@ class ImapFolder extends Folder<ImapMessage> {
     private boolean existsNonDeletedMessageInRange(int startIndex, int endIndex, String dateSearchString)
             throws MessagingException, IOException {
 
+        if (connection.isEsearchCapable()) {
+            String command = String.format(Locale.US, "SEARCH RETURN (MIN) %d:%d%s NOT DELETED", startIndex, endIndex,
+                    dateSearchString);
+            EsearchResponse esearchResponse = EsearchResponse.parse(executeSimpleCommand(command));
+
+            return esearchResponse != null && esearchResponse.getMin() > 0;
+        }
+
         String command = String.format(Locale.US, "SEARCH %d:%d%s NOT DELETED", startIndex, endIndex, dateSearchString);
         List<ImapResponse> responses = executeSimpleCommand(command);
 
@@ -589,10 +699,14 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapSearcher searcher = new ImapSearcher() {
             @Override
             public List<ImapResponse> search() throws IOException, MessagingException {
-                String command = String.format("UID SEARCH %s%s", combine(mesgSeqs.toArray(), ','),
-                        includeDeleted ? "" : " NOT DELETED");
+                List<ImapResponse> responses = new ArrayList<>();
+                for (String sequenceSet : ImapUtility.createSequenceSets(mesgSeqs, MAX_SEQUENCE_SET_LENGTH)) {
+                    String command = String.format("UID SEARCH %s%s%s", getSearchReturnAllOption(), sequenceSet,
+                            includeDeleted ? "" : " NOT DELETED");
+                    responses.addAll(executeSimpleCommand(command));
+                }
 
-                return executeSimpleCommand(command);
+                return responses;
             }
         };
 
@@ -603,15 +717,26 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapSearcher searcher = new ImapSearcher() {
             @Override
             public List<ImapResponse> search() throws IOException, MessagingException {
-                String command = String.format("UID SEARCH UID %s", combine(mesgUids.toArray(), ','));
+                List<ImapResponse> responses = new ArrayList<>();
+                for (String uidSet : ImapUtility.createSequenceSets(mesgUids, MAX_SEQUENCE_SET_LENGTH)) {
+                    String command = String.format("UID SEARCH %sUID %s", getSearchReturnAllOption(), uidSet);
+                    responses.addAll(executeSimpleCommand(command));
+                }
 
-                return executeSimpleCommand(command);
+                return responses;
             }
         };
 
         return search(searcher, null);
     }
 
+    /**
+     * Asks servers supporting ESEARCH to return the search result as a compact sequence set.
+     */
+    private String getSearchReturnAllOption() {
+        return connection.isEsearchCapable() ? "RETURN (ALL) " : "";
+    }
+
     private List<ImapMessage> search(ImapSearcher searcher, MessageRetrievalListener<ImapMessage> listener)
             throws MessagingException {
         checkOpen();
@@ -649,6 +774,60 @@ class ImapFolder extends Folder<ImapMessage> {
         return messages;
     }
 
+    /**
+     * Fetches the flags of all messages that changed after {@code modSeq} using the CONDSTORE extension.
+     *
+     * <p>
+     * If QRESYNC is enabled the server will also report the UIDs of messages that have been expunged in the meantime.
+     * </p>
+     */
+    @Override
+    public FolderChanges<ImapMessage> fetchChangedSince(long modSeq) throws MessagingException {
+        checkOpen();
+
+        boolean qresyncEnabled = connection.isQresyncEnabled();
+        String command = String.format(Locale.US, "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE %d%s)", modSeq,
+                qresyncEnabled ? " VANISHED" : "");
+
+        try {
+            List<ImapResponse> responses = executeSimpleCommand(command);
+
+            List<ImapMessage> changedMessages = new ArrayList<>();
+            List<UidRange> vanishedUidRanges = qresyncEnabled ? new ArrayList<UidRange>() : null;
+            for (ImapResponse response : responses) {
+                if (response.isTagged() || response.size() < 2) {
+                    continue;
+                }
+
+                if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    if (uid == null) {
+                        continue;
+                    }
+
+                    ImapMessage message = new ImapMessage(uid, this);
+                    handleFetchResponse(message, fetchList);
+                    changedMessages.add(message);
+                } else if (vanishedUidRanges != null) {
+                    VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                    if (vanishedResponse != null) {
+                        vanishedUidRanges.addAll(vanishedResponse.getUidRanges());
+                    }
+                }
+            }
+
+            if (K9MailLib.isDebug()) {
+                Log.d(LOG_TAG, "Got " + changedMessages.size() + " changed messages since MODSEQ " + modSeq +
+                        " for " + getLogId());
+            }
+
+            return new FolderChanges<>(changedMessages, vanishedUidRanges);
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
     @Override
     public void fetch(List<ImapMessage> messages, FetchProfile fetchProfile,
             MessageRetrievalListener<ImapMessage> listener) throws MessagingException {
@@ -699,87 +878,167 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = combine(fetchFields.toArray(new String[fetchFields.size()]), ' ');
 
-        for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
-            int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
+        ImapResponseCallback callback = null;
+        if (fetchProfile.contains(FetchProfile.Item.BODY) || fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = new FetchBodyCallback(messageMap);
+        }
 
-            try {
-                String commaSeparatedUids = combine(uidWindow.toArray(new String[uidWindow.size()]), ',');
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                connection.sendCommand(command, false);
+        FetchWindowPlanner windowPlanner = new FetchWindowPlanner(fetchProfile, store.getStoreConfig());
+        LinkedList<FetchWindow> windowsInFlight = new LinkedList<>();
+        LinkedList<String> pendingUidSets = new LinkedList<>();
+        int windowStart = 0;
+        int messageNumber = 0;
+        boolean roundTripRecorded = false;
+        long lastCompletionTime = 0;
+        long lastCompletionBytes = 0;
+        boolean completed = false;
 
-                ImapResponse response;
-                int messageNumber = 0;
+        try {
+            while (windowStart < uids.size() || !pendingUidSets.isEmpty() || !windowsInFlight.isEmpty()) {
+                // Keep several UID FETCH commands in flight so the connection doesn't idle for a round trip after
+                // each window. A window may need more than one command if its sequence set gets too long.
+                while ((windowStart < uids.size() || !pendingUidSets.isEmpty()) &&
+                        windowsInFlight.size() < FETCH_PIPELINE_DEPTH) {
+                    if (pendingUidSets.isEmpty()) {
+                        int windowEnd = windowPlanner.getWindowEnd(messages, windowStart,
+                                fetchWindowSizer.getWindowSize());
+                        List<String> uidWindow = uids.subList(windowStart, windowEnd);
+
+                        if (windowStart == 0) {
+                            lastCompletionTime = SystemClock.elapsedRealtime();
+                            lastCompletionBytes = connection.getBytesRead();
+                        }
 
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
+                        pendingUidSets.addAll(ImapUtility.createSequenceSets(uidWindow, MAX_SEQUENCE_SET_LENGTH));
+                        windowStart = windowEnd;
+                    }
+
+                    String uidSet = pendingUidSets.removeFirst();
+                    String command = String.format("UID FETCH %s (%s)", uidSet, spaceSeparatedFetchFields);
+
+                    long sentTime = SystemClock.elapsedRealtime();
+                    String tag = connection.sendCommand(command, false);
+                    int messageCount = ImapUtility.getImapSequenceValues(uidSet).size();
+                    windowsInFlight.add(new FetchWindow(tag, messageCount, sentTime));
                 }
 
-                do {
-                    response = connection.readResponse(callback);
+                ImapResponse response = connection.readResponse(callback);
 
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Log.v(LOG_TAG, "Stored uid '" + uid + "' for msgSeq " + msgSeq + " into map");
-                                }
-                            } catch (Exception e) {
-                                Log.e(LOG_TAG, "Unable to store uid '" + uid + "' for msgSeq " + msgSeq);
-                            }
-                        }
+                if (!roundTripRecorded) {
+                    long roundTripMillis = SystemClock.elapsedRealtime() - windowsInFlight.getFirst().sentTime;
+                    fetchWindowSizer.recordRoundTrip(roundTripMillis);
+                    roundTripRecorded = true;
+                }
+
+                if (response.getTag() != null) {
+                    FetchWindow window = removeCompletedWindow(windowsInFlight, response.getTag());
+
+                    // Windows are transferred one after the other. Only count the time after the previous window
+                    // completed.
+                    long now = SystemClock.elapsedRealtime();
+                    long bytesRead = connection.getBytesRead();
+                    long startTime = Math.max(window.sentTime, lastCompletionTime);
+                    fetchWindowSizer.recordWindow(window.messageCount, bytesRead - lastCompletionBytes,
+                            now - startTime);
+                    lastCompletionTime = now;
+                    lastCompletionBytes = bytesRead;
+                    continue;
+                }
 
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
+                if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    long msgSeq = response.getLong(0);
+                    if (uid != null) {
+                        try {
+                            msgSeqUidMap.put(msgSeq, uid);
                             if (K9MailLib.isDebug()) {
-                                Log.d(LOG_TAG, "Do not have message in messageMap for UID " + uid + " for " +
-                                        getLogId());
+                                Log.v(LOG_TAG, "Stored uid '" + uid + "' for msgSeq " + msgSeq + " into map");
                             }
-
-                            handleUntaggedResponse(response);
-                            continue;
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "Unable to store uid '" + uid + "' for msgSeq " + msgSeq);
                         }
+                    }
 
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    Message message = messageMap.get(uid);
+                    if (message == null) {
+                        if (K9MailLib.isDebug()) {
+                            Log.d(LOG_TAG, "Do not have message in messageMap for UID " + uid + " for " +
+                                    getLogId());
                         }
 
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
+                        handleUntaggedResponse(response);
+                        response.releaseLiterals();
+                        continue;
+                    }
+
+                    if (listener != null) {
+                        listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    }
+
+                    ImapMessage imapMessage = (ImapMessage) message;
+                    Object literal = handleFetchResponse(imapMessage, fetchList);
 
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                    if (literal != null) {
+                        if (literal instanceof ImapLiteral) {
+                            ImapLiteral imapLiteral = (ImapLiteral) literal;
+                            InputStream bodyStream = imapLiteral.getInputStream();
+                            try {
                                 imapMessage.parse(bodyStream);
-                            } else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            } else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
+                            } finally {
+                                bodyStream.close();
+                                imapLiteral.release();
                             }
+                        } else if (literal instanceof String) {
+                            String bodyString = (String) literal;
+                            InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                            imapMessage.parse(bodyStream);
+                        } else if (literal instanceof Integer) {
+                            // All the work was done in FetchBodyCallback.foundLiteral()
+                        } else {
+                            // This shouldn't happen
+                            throw new MessagingException("Got FETCH response with bogus parameters");
                         }
+                    }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
-                        }
-                    } else {
-                        handleUntaggedResponse(response);
+                    if (listener != null) {
+                        listener.messageFinished(imapMessage, messageNumber, messageMap.size());
                     }
+                } else {
+                    handleUntaggedResponse(response);
+                }
+            }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(connection, ioe);
+            completed = true;
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        } finally {
+            if (!completed && !windowsInFlight.isEmpty() && connection != null) {
+                // The responses to pipelined commands are still on their way. The connection must not be reused.
+                Log.w(LOG_TAG, "Closing connection with " + windowsInFlight.size() + " pending FETCH commands for " +
+                        getLogId());
+                connection.close();
             }
         }
     }
 
+    /**
+     * Removes the window belonging to a tagged response. Servers complete pipelined commands in order, so fall back
+     * to the oldest window if the tag is unknown.
+     */
+    private static FetchWindow removeCompletedWindow(LinkedList<FetchWindow> windowsInFlight, String tag) {
+        Iterator<FetchWindow> iterator = windowsInFlight.iterator();
+        while (iterator.hasNext()) {
+            FetchWindow window = iterator.next();
+            if (tag.equals(window.tag)) {
+                iterator.remove();
+                return window;
+            }
+        }
+
+        return windowsInFlight.removeFirst();
+    }
+
     @Override
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener)
             throws MessagingException {
@@ -817,6 +1076,7 @@ class ImapFolder extends Folder<ImapMessage> {
                         }
 
                         handleUntaggedResponse(response);
+                        response.releaseLiterals();
                         continue;
                     }
 
@@ -832,6 +1092,19 @@ class ImapFolder extends Folder<ImapMessage> {
                         if (literal instanceof Body) {
                             // Most of the work was done in FetchAttchmentCallback.foundLiteral()
                             MimeMessageHelper.setBody(part, (Body) literal);
+                        } else if (literal instanceof ImapLiteral) {
+                            ImapLiteral imapLiteral = (ImapLiteral) literal;
+                            InputStream bodyStream = imapLiteral.getInputStream();
+                            try {
+                                String contentTransferEncoding =
+                                        part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
+                                String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
+                                MimeMessageHelper.setBody(part, MimeUtility.createBody(bodyStream,
+                                        contentTransferEncoding, contentType));
+                            } finally {
+                                bodyStream.close();
+                                imapLiteral.release();
+                            }
                         } else if (literal instanceof String) {
                             String bodyString = (String) literal;
                             InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
@@ -958,6 +1231,33 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    protected void handlePossibleModSeqState(ImapResponse response) {
+        if (!ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
+            return;
+        }
+
+        ImapList responseTextList = response.getList(1);
+        if (responseTextList.isEmpty() || !responseTextList.isString(0)) {
+            return;
+        }
+
+        String responseCode = responseTextList.getString(0);
+        try {
+            if (Responses.UIDVALIDITY.equalsIgnoreCase(responseCode) && responseTextList.size() > 1) {
+                uidValidity = responseTextList.getLong(1);
+            } else if (Responses.HIGHESTMODSEQ.equalsIgnoreCase(responseCode) && responseTextList.size() > 1) {
+                highestModSeq = responseTextList.getLong(1);
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Got HighestModSeq = " + highestModSeq + " for " + getLogId());
+                }
+            } else if (Responses.NOMODSEQ.equalsIgnoreCase(responseCode)) {
+                highestModSeq = -1L;
+            }
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Invalid " + responseCode + " response code for " + getLogId());
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      */
@@ -971,6 +1271,7 @@ class ImapFolder extends Folder<ImapMessage> {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleModSeqState(response);
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && messageCount > 0) {
                 messageCount--;
@@ -978,6 +1279,15 @@ class ImapFolder extends Folder<ImapMessage> {
                     Log.d(LOG_TAG, "Got untagged EXPUNGE with messageCount " + messageCount + " for " + getLogId());
                 }
             }
+
+            // With QRESYNC enabled the server reports expunged messages with VANISHED instead of EXPUNGE
+            VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+            if (vanishedResponse != null && !vanishedResponse.isEarlier() && messageCount > 0) {
+                messageCount = (int) Math.max(0, messageCount - vanishedResponse.getUidCount());
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Got untagged VANISHED with messageCount " + messageCount + " for " + getLogId());
+                }
+            }
         }
     }
 
@@ -1148,60 +1458,23 @@ class ImapFolder extends Folder<ImapMessage> {
         checkOpen();
 
         try {
-            Map<String, String> uidMap = new HashMap<>();
-            for (Message message : messages) {
-                long messageSize = message.calculateSize();
-
-                String encodeFolderName = folderNameCodec.encode(getPrefixedName());
-                String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
-                String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
-                        combineFlags(message.getFlags()), messageSize);
-                connection.sendCommand(command, false);
+            String encodeFolderName = folderNameCodec.encode(getPrefixedName());
+            String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
 
-                ImapResponse response;
-                do {
-                    response = connection.readResponse();
-
-                    handleUntaggedResponse(response);
-
-                    if (response.isContinuationRequested()) {
-                        EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
-                        message.writeTo(eolOut);
-                        eolOut.write('\r');
-                        eolOut.write('\n');
-                        eolOut.flush();
-                    }
-                } while (response.getTag() == null);
-
-                if (response.size() > 1) {
-                    /*
-                     * If the server supports UIDPLUS, then along with the APPEND response it
-                     * will return an APPENDUID response code, e.g.
-                     *
-                     * 11 OK [APPENDUID 2 238268] APPEND completed
-                     *
-                     * We can use the UID included in this response to update our records.
-                     */
-                    Object responseList = response.get(1);
-
-                    if (responseList instanceof ImapList) {
-                        ImapList appendList = (ImapList) responseList;
-                        if (appendList.size() >= 3 && appendList.getString(0).equals("APPENDUID")) {
-                            String newUid = appendList.getString(2);
-
-                            if (!TextUtils.isEmpty(newUid)) {
-                                message.setUid(newUid);
-                                uidMap.put(message.getUid(), newUid);
-                                continue;
-                            }
-                        }
-                    }
-                }
+            Map<String, String> uidMap = new HashMap<>();
+            List<Message> messagesWithoutUid = new ArrayList<>();
+            if (messages.size() > 1 && connection.isMultiAppendCapable() &&
+                    canSendNonSynchronizingLiterals(messages)) {
+                multiAppendMessages(escapedFolderName, messages, uidMap, messagesWithoutUid);
+            } else {
+                appendMessagesPipelined(escapedFolderName, messages, uidMap, messagesWithoutUid);
+            }
 
-                /*
-                 * This part is executed in case the server does not support UIDPLUS or does
-                 * not implement the APPENDUID response code.
-                 */
+            /*
+             * This part is executed in case the server does not support UIDPLUS or does
+             * not implement the APPENDUID response code.
+             */
+            for (Message message : messagesWithoutUid) {
                 String newUid = getUidFromMessageId(message);
                 if (K9MailLib.isDebug()) {
                     Log.d(LOG_TAG, "Got UID " + newUid + " for message for " + getLogId());
@@ -1224,6 +1497,181 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private boolean canSendNonSynchronizingLiterals(List<? extends Message> messages)
+            throws IOException, MessagingException {
+        for (Message message : messages) {
+            if (!connection.canSendNonSynchronizingLiteral(message.calculateSize())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Uploads all messages with a single {@code APPEND} command (RFC 3502) using non-synchronizing literals.
+     */
+    private void multiAppendMessages(String escapedFolderName, List<? extends Message> messages,
+            Map<String, String> uidMap, List<Message> messagesWithoutUid) throws IOException, MessagingException {
+
+        Message firstMessage = messages.get(0);
+        String command = String.format(Locale.US, "APPEND %s (%s) {%d+}", escapedFolderName,
+                combineFlags(firstMessage.getFlags()), firstMessage.calculateSize());
+        connection.sendCommand(command, false);
+        writeMessageLiteral(firstMessage);
+
+        for (Message message : messages.subList(1, messages.size())) {
+            connection.sendContinuation(String.format(Locale.US, " (%s) {%d+}", combineFlags(message.getFlags()),
+                    message.calculateSize()));
+            writeMessageLiteral(message);
+        }
+        connection.sendContinuation("");
+
+        ImapResponse response;
+        do {
+            response = connection.readResponse();
+            handleUntaggedResponse(response);
+        } while (response.getTag() == null);
+
+        // The APPENDUID response code of a MULTIAPPEND command contains the UIDs in the order of the messages
+        String appendUidSet = getAppendUidSet(response);
+        List<String> newUids = appendUidSet != null ?
+                ImapUtility.getImapSequenceValues(appendUidSet) : Collections.<String>emptyList();
+        if (newUids.size() != messages.size()) {
+            messagesWithoutUid.addAll(messages);
+            return;
+        }
+
+        for (int i = 0, end = messages.size(); i < end; i++) {
+            Message message = messages.get(i);
+            String newUid = newUids.get(i);
+            uidMap.put(message.getUid(), newUid);
+            message.setUid(newUid);
+        }
+    }
+
+    /**
+     * Uploads the messages with one {@code APPEND} command each.
+     *
+     * <p>
+     * If the server supports non-synchronizing literals (RFC 7888) the commands are sent back-to-back without waiting
+     * for continuation requests or for the completion of previous commands. Otherwise every message costs a full
+     * round-trip.
+     * </p>
+     */
+    private void appendMessagesPipelined(String escapedFolderName, List<? extends Message> messages,
+            Map<String, String> uidMap, List<Message> messagesWithoutUid) throws IOException, MessagingException {
+
+        LinkedList<AppendCommand> commandsInFlight = new LinkedList<>();
+        for (Message message : messages) {
+            long messageSize = message.calculateSize();
+            String flags = combineFlags(message.getFlags());
+
+            if (connection.canSendNonSynchronizingLiteral(messageSize)) {
+                String command = String.format(Locale.US, "APPEND %s (%s) {%d+}", escapedFolderName, flags,
+                        messageSize);
+                String tag = connection.sendCommand(command, false);
+                writeMessageLiteral(message);
+                connection.sendContinuation("");
+
+                commandsInFlight.add(new AppendCommand(tag, message));
+                continue;
+            }
+
+            // Synchronizing literals can't be mixed with outstanding commands
+            readAppendResponses(commandsInFlight, uidMap, messagesWithoutUid);
+
+            String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName, flags, messageSize);
+            connection.sendCommand(command, false);
+
+            ImapResponse response;
+            do {
+                response = connection.readResponse();
+
+                handleUntaggedResponse(response);
+
+                if (response.isContinuationRequested()) {
+                    writeMessageLiteral(message);
+                    connection.sendContinuation("");
+                }
+            } while (response.getTag() == null);
+
+            handleAppendResponse(response, message, uidMap, messagesWithoutUid);
+        }
+
+        readAppendResponses(commandsInFlight, uidMap, messagesWithoutUid);
+    }
+
+    private void readAppendResponses(LinkedList<AppendCommand> commandsInFlight, Map<String, String> uidMap,
+            List<Message> messagesWithoutUid) throws IOException, MessagingException {
+
+        while (!commandsInFlight.isEmpty()) {
+            ImapResponse response = connection.readResponse();
+
+            handleUntaggedResponse(response);
+
+            if (response.getTag() != null) {
+                AppendCommand appendCommand = removeCompletedAppendCommand(commandsInFlight, response.getTag());
+                handleAppendResponse(response, appendCommand.message, uidMap, messagesWithoutUid);
+            }
+        }
+    }
+
+    private static AppendCommand removeCompletedAppendCommand(LinkedList<AppendCommand> commandsInFlight,
+            String tag) {
+        Iterator<AppendCommand> iterator = commandsInFlight.iterator();
+        while (iterator.hasNext()) {
+            AppendCommand appendCommand = iterator.next();
+            if (tag.equals(appendCommand.tag)) {
+                iterator.remove();
+                return appendCommand;
+            }
+        }
+
+        return commandsInFlight.removeFirst();
+    }
+
+    private void handleAppendResponse(ImapResponse response, Message message, Map<String, String> uidMap,
+            List<Message> messagesWithoutUid) throws MessagingException {
+        /*
+         * If the server supports UIDPLUS, then along with the APPEND response it
+         * will return an APPENDUID response code, e.g.
+         *
+         * 11 OK [APPENDUID 2 238268] APPEND completed
+         *
+         * We can use the UID included in this response to update our records.
+         */
+        String newUid = getAppendUidSet(response);
+        if (TextUtils.isEmpty(newUid)) {
+            messagesWithoutUid.add(message);
+            return;
+        }
+
+        uidMap.put(message.getUid(), newUid);
+        message.setUid(newUid);
+    }
+
+    private static String getAppendUidSet(ImapResponse response) {
+        if (response.size() > 1) {
+            Object responseList = response.get(1);
+
+            if (responseList instanceof ImapList) {
+                ImapList appendList = (ImapList) responseList;
+                if (appendList.size() >= 3 && appendList.getString(0).equals("APPENDUID")) {
+                    return appendList.getString(2);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void writeMessageLiteral(Message message) throws IOException, MessagingException {
+        EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
+        message.writeTo(eolOut);
+        eolOut.flush();
+    }
+
     @Override
     public String getUidFromMessageId(Message message) throws MessagingException {
         try {
@@ -1334,15 +1782,12 @@ class ImapFolder extends Folder<ImapMessage> {
         open(OPEN_MODE_RW);
         checkOpen();
 
-        String[] uids = new String[messages.size()];
-        for (int i = 0, count = messages.size(); i < count; i++) {
-            uids[i] = messages.get(i).getUid();
-        }
-
         try {
-            String command = String.format("UID STORE %s %sFLAGS.SILENT (%s)", combine(uids, ','), value ? "+" : "-",
-                    combineFlags(flags));
-            executeSimpleCommand(command);
+            for (String uidSet : createUidSets(messages)) {
+                String command = String.format("UID STORE %s %sFLAGS.SILENT (%s)", uidSet, value ? "+" : "-",
+                        combineFlags(flags));
+                executeSimpleCommand(command);
+            }
         } catch (IOException ioe) {
             throw ioExceptionHandler(connection, ioe);
         }
@@ -1506,6 +1951,15 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private static List<String> createUidSets(List<? extends Message> messages) {
+        List<String> uids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            uids.add(message.getUid());
+        }
+
+        return ImapUtility.createSequenceSets(uids, MAX_SEQUENCE_SET_LENGTH);
+    }
+
     private static String combine(Object[] parts, char separator) {
         if (parts == null) {
             return null;
@@ -1513,4 +1967,28 @@ class ImapFolder extends Folder<ImapMessage> {
 
         return TextUtils.join(String.valueOf(separator), parts);
     }
+
+
+    private static class AppendCommand {
+        final String tag;
+        final Message message;
+
+        AppendCommand(String tag, Message message) {
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+
+    private static class FetchWindow {
+        final String tag;
+        final int messageCount;
+        final long sentTime;
+
+        FetchWindow(String tag, int messageCount, long sentTime) {
+            this.tag = tag;
+            this.messageCount = messageCount;
+            this.sentTime = sentTime;
+        }
+    }
 }
@@ -5,9 +5,12 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.content.Context;
 import android.os.PowerManager;
@@ -98,12 +101,20 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    /**
+     * The connection is held for as long as push is active, so it mustn't count against the connection limit.
+     */
+    @Override
+    protected ImapConnection getConnectionForOpen() throws MessagingException {
+        return store.getPushConnection();
+    }
+
     @Override
     protected void handleUntaggedResponse(ImapResponse response) {
         if (response.getTag() == null && response.size() > 1) {
             Object responseType = response.get(1);
             if (equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                    equalsIgnoreCase(responseType, "EXISTS")) {
+                    equalsIgnoreCase(responseType, "EXISTS") || isVanishedResponse(response)) {
 
                 if (K9MailLib.isDebug()) {
                     Log.d(LOG_TAG, "Storing response " + response + " for later processing");
@@ -118,6 +129,10 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    private static boolean isVanishedResponse(ImapResponse response) {
+        return equalsIgnoreCase(response.get(0), Responses.VANISHED);
+    }
+
     private void superHandleUntaggedResponse(ImapResponse response) {
         super.handleUntaggedResponse(response);
     }
@@ -379,7 +394,7 @@ class ImapFolderPusher extends ImapFolder {
                     if (response.size() > 1) {
                         Object responseType = response.get(1);
                         if (equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                                equalsIgnoreCase(responseType, "FETCH")) {
+                                equalsIgnoreCase(responseType, "FETCH") || isVanishedResponse(response)) {
 
                             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
@@ -496,6 +511,18 @@ class ImapFolderPusher extends ImapFolder {
                         }
                     }
 
+                    VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                    if (vanishedResponse != null && !vanishedResponse.isEarlier()) {
+                        List<String> vanishedUids = vanishedResponse.getUids();
+
+                        if (K9MailLib.isDebug()) {
+                            Log.d(LOG_TAG, "Got untagged VANISHED for UIDs " + vanishedUids + " for " + getLogId());
+                        }
+
+                        removeMsgUids.addAll(vanishedUids);
+                        messageCountDelta = -expungeVanishedMessages(vanishedUids, flagSyncMsgSeqs);
+                    }
+
                     if (equalsIgnoreCase(responseType, "EXPUNGE")) {
                         long msgSeq = response.getLong(0);
                         if (msgSeq <= oldMessageCount) {
@@ -506,57 +533,111 @@ class ImapFolderPusher extends ImapFolder {
                             Log.d(LOG_TAG, "Got untagged EXPUNGE for msgseq " + msgSeq + " for " + getLogId());
                         }
 
-                        List<Long> newSeqs = new ArrayList<Long>();
-                        Iterator<Long> flagIter = flagSyncMsgSeqs.iterator();
-                        while (flagIter.hasNext()) {
-                            long flagMsg = flagIter.next();
-                            if (flagMsg >= msgSeq) {
-                                flagIter.remove();
-                                if (flagMsg > msgSeq) {
-                                    newSeqs.add(flagMsg);
-                                }
+                        String uid = expungeMessageSequenceNumber(msgSeq, flagSyncMsgSeqs);
+                        if (uid != null) {
+                            if (K9MailLib.isDebug()) {
+                                Log.d(LOG_TAG, "Scheduling removal of UID " + uid + " because msgSeq " + msgSeq +
+                                        " was expunged");
                             }
-                        }
 
-                        flagSyncMsgSeqs.addAll(newSeqs);
+                            removeMsgUids.add(uid);
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Could not handle untagged FETCH for " + getLogId(), e);
+                }
+            }
 
-                        List<Long> msgSeqs = new ArrayList<Long>(msgSeqUidMap.keySet());
-                        Collections.sort(msgSeqs);  // Have to do comparisons in order because of msgSeq reductions
+            return messageCountDelta;
+        }
 
-                        for (long msgSeqNum : msgSeqs) {
-                            if (K9MailLib.isDebug()) {
-                                Log.v(LOG_TAG, "Comparing EXPUNGEd msgSeq " + msgSeq + " to " + msgSeqNum);
-                            }
+        /**
+         * Updates the known message sequence numbers after the message with the given sequence number was expunged.
+         *
+         * @return The UID of the expunged message if it was known, {@code null} otherwise.
+         */
+        private String expungeMessageSequenceNumber(long msgSeq, List<Long> flagSyncMsgSeqs) {
+            List<Long> newSeqs = new ArrayList<Long>();
+            Iterator<Long> flagIter = flagSyncMsgSeqs.iterator();
+            while (flagIter.hasNext()) {
+                long flagMsg = flagIter.next();
+                if (flagMsg >= msgSeq) {
+                    flagIter.remove();
+                    if (flagMsg > msgSeq) {
+                        newSeqs.add(flagMsg - 1);
+                    }
+                }
+            }
 
-                            if (msgSeqNum == msgSeq) {
-                                String uid = msgSeqUidMap.get(msgSeqNum);
+            flagSyncMsgSeqs.addAll(newSeqs);
 
-                                if (K9MailLib.isDebug()) {
-                                    Log.d(LOG_TAG, "Scheduling removal of UID " + uid + " because msgSeq " + msgSeqNum +
-                                            " was expunged");
-                                }
+            String expungedUid = null;
+            List<Long> msgSeqs = new ArrayList<Long>(msgSeqUidMap.keySet());
+            Collections.sort(msgSeqs);  // Have to do comparisons in order because of msgSeq reductions
 
-                                removeMsgUids.add(uid);
-                                msgSeqUidMap.remove(msgSeqNum);
-                            } else if (msgSeqNum > msgSeq) {
-                                String uid = msgSeqUidMap.get(msgSeqNum);
+            for (long msgSeqNum : msgSeqs) {
+                if (K9MailLib.isDebug()) {
+                    Log.v(LOG_TAG, "Comparing EXPUNGEd msgSeq " + msgSeq + " to " + msgSeqNum);
+                }
 
-                                if (K9MailLib.isDebug()) {
-                                    Log.d(LOG_TAG, "Reducing msgSeq for UID " + uid + " from " + msgSeqNum + " to " +
-                                            (msgSeqNum - 1));
-                                }
+                if (msgSeqNum == msgSeq) {
+                    expungedUid = msgSeqUidMap.remove(msgSeqNum);
+                } else if (msgSeqNum > msgSeq) {
+                    String uid = msgSeqUidMap.get(msgSeqNum);
 
-                                msgSeqUidMap.remove(msgSeqNum);
-                                msgSeqUidMap.put(msgSeqNum - 1, uid);
-                            }
-                        }
+                    if (K9MailLib.isDebug()) {
+                        Log.d(LOG_TAG, "Reducing msgSeq for UID " + uid + " from " + msgSeqNum + " to " +
+                                (msgSeqNum - 1));
                     }
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Could not handle untagged FETCH for " + getLogId(), e);
+
+                    msgSeqUidMap.remove(msgSeqNum);
+                    msgSeqUidMap.put(msgSeqNum - 1, uid);
                 }
             }
 
-            return messageCountDelta;
+            return expungedUid;
+        }
+
+        /**
+         * Updates the known message sequence numbers after a {@code VANISHED} response.
+         *
+         * <p>
+         * Servers may include UIDs of messages that were already gone, or that we never saw, in the UID set. Only
+         * vanished messages with a known message sequence number are counted. If any of the UIDs is unknown, the
+         * remaining sequence numbers can't be trusted anymore. Then they are dropped and the folder is polled on the
+         * next connect instead.
+         * </p>
+         *
+         * @return The number of vanished messages that were known to be in the folder.
+         */
+        private int expungeVanishedMessages(List<String> vanishedUids, List<Long> flagSyncMsgSeqs) {
+            Set<String> vanishedUidSet = new HashSet<String>(vanishedUids);
+            List<Long> vanishedMsgSeqs = new ArrayList<Long>();
+            for (Map.Entry<Long, String> entry : msgSeqUidMap.entrySet()) {
+                if (vanishedUidSet.contains(entry.getValue())) {
+                    vanishedMsgSeqs.add(entry.getKey());
+                }
+            }
+
+            if (vanishedMsgSeqs.size() < vanishedUidSet.size()) {
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Message sequence numbers of vanished UIDs unknown; polling " + getLogId());
+                }
+
+                msgSeqUidMap.clear();
+                flagSyncMsgSeqs.clear();
+                needsPoll = true;
+
+                return vanishedMsgSeqs.size();
+            }
+
+            // Highest first, so expunging one message doesn't change the sequence numbers of those still to come
+            Collections.sort(vanishedMsgSeqs, Collections.reverseOrder());
+            for (long msgSeq : vanishedMsgSeqs) {
+                expungeMessageSequenceNumber(msgSeq, flagSyncMsgSeqs);
+            }
+
+            return vanishedMsgSeqs.size();
         }
 
         private void syncMessages(int end) throws MessagingException {
@@ -33,11 +33,19 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getString(int index) {
-        return (String)get(index);
+        return toStringValue(get(index));
     }
 
     public boolean isString(int index) {
-        return inRange(index) && get(index) instanceof String;
+        return inRange(index) && (get(index) instanceof String || get(index) instanceof ImapLiteral);
+    }
+
+    public boolean isLiteral(int index) {
+        return inRange(index) && get(index) instanceof ImapLiteral;
+    }
+
+    public ImapLiteral getLiteral(int index) {
+        return (ImapLiteral) get(index);
     }
 
     public long getLong(int index) {
@@ -82,7 +90,7 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getKeyedString(String key) {
-        return (String)getKeyedValue(key);
+        return toStringValue(getKeyedValue(key));
     }
 
     public int getKeyedNumber(String key) {
@@ -112,6 +120,27 @@ class ImapList extends ArrayList<Object> {
         throw new IllegalArgumentException("getKeyIndex() only works for keys that are in the collection.");
     }
 
+    /**
+     * Releases the resources held by all {@link ImapLiteral}s contained in this list or any of its sub lists.
+     */
+    public void releaseLiterals() {
+        for (Object value : this) {
+            if (value instanceof ImapLiteral) {
+                ((ImapLiteral) value).release();
+            } else if (value instanceof ImapList) {
+                ((ImapList) value).releaseLiterals();
+            }
+        }
+    }
+
+    private static String toStringValue(Object value) {
+        if (value instanceof ImapLiteral) {
+            return value.toString();
+        }
+
+        return (String) value;
+    }
+
     private boolean inRange(int index) {
         return index >= 0 && index < size();
     }
@@ -0,0 +1,179 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * The raw bytes of an IMAP literal that wasn't consumed by an {@link ImapResponseCallback}.
+ *
+ * <p>
+ * Small literals are kept in memory. Literals larger than {@link #SPILL_THRESHOLD} bytes are written to a temporary
+ * file so large message bodies don't have to be held on the heap. Use {@link #getInputStream()} to consume the data.
+ * {@link #toString()} decodes the literal as US-ASCII, which is what {@link ImapList#getString(int)} returns for
+ * literals.
+ * </p>
+ * <p>
+ * The temporary file is deleted when the stream returned by {@link #getInputStream()} is closed, or when
+ * {@link #release()} is called. Call {@link #release()} for literals that are never read. Files left behind when the
+ * process is killed are removed by {@link #deleteStaleSpillFiles(File)}.
+ * </p>
+ */
+class ImapLiteral {
+    static final int SPILL_THRESHOLD = 64 * 1024;
+    private static final String SPILL_FILE_PREFIX = "literal";
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int BUFFER_SIZE = 8192;
+
+
+    private final int size;
+    private byte[] data;
+    private File file;
+
+
+    private ImapLiteral(int size, byte[] data, File file) {
+        this.size = size;
+        this.data = data;
+        this.file = file;
+    }
+
+    /**
+     * Reads exactly {@code size} bytes from {@code inputStream}.
+     */
+    static ImapLiteral read(InputStream inputStream, int size) throws IOException {
+        if (size <= SPILL_THRESHOLD) {
+            byte[] data = new byte[size];
+            readFully(inputStream, data, 0, size);
+
+            return new ImapLiteral(size, data, null);
+        }
+
+        File file = File.createTempFile(SPILL_FILE_PREFIX, null, BinaryTempFileBody.getTempDirectory());
+
+        boolean success = false;
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int remaining = size;
+            while (remaining > 0) {
+                int count = Math.min(remaining, BUFFER_SIZE);
+                readFully(inputStream, buffer, 0, count);
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+            success = true;
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (!success) {
+                file.delete();
+            }
+        }
+
+        return new ImapLiteral(size, null, file);
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read != length) {
+            int count = inputStream.read(buffer, offset + read, length - read);
+            if (count == -1) {
+                throw new IOException("parseLiteral(): end of stream reached");
+            }
+            read += count;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * Returns the data of this literal.
+     *
+     * <p>
+     * A literal that was spilled to a file can only be read once. The file is deleted when the stream is closed.
+     * </p>
+     */
+    public InputStream getInputStream() throws IOException {
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        } else if (file != null) {
+            return new FilterInputStream(new FileInputStream(file)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+
+        throw new IOException("Literal has already been released");
+    }
+
+    /**
+     * Frees the memory or deletes the temporary file backing this literal.
+     */
+    public void release() {
+        data = null;
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * Deletes temporary files of literals that were left behind, e.g. because the process was killed while a
+     * response was being read. Only call this while no IMAP responses are being processed.
+     */
+    static void deleteStaleSpillFiles(File tempDirectory) {
+        File[] files = tempDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isFile() && file.getName().startsWith(SPILL_FILE_PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (data != null) {
+            return new String(data, US_ASCII);
+        }
+
+        if (file == null) {
+            return "";
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return new String(IOUtils.toByteArray(in), US_ASCII);
+        } catch (IOException e) {
+            return "";
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
@@ -210,7 +210,7 @@ class ImapResponseParser {
 
     /**
      * Reads the next token of the response. The token can be one of: String -
-     * for NIL, QUOTED, NUMBER, ATOM. Object - for LITERAL.
+     * for NIL, QUOTED, NUMBER, ATOM. {@link ImapLiteral} or the object returned by the callback - for LITERAL.
      * ImapList - for PARENTHESIZED LIST. Can contain any of the above
      * elements including List.
      *
@@ -267,7 +267,14 @@ class ImapResponseParser {
         if (ch == '"') {
             return parseQuoted();
         } else if (ch == '{') {
-            return (String) parseLiteral();
+            Object literal = parseLiteral();
+            if (literal instanceof ImapLiteral) {
+                ImapLiteral imapLiteral = (ImapLiteral) literal;
+                String value = imapLiteral.toString();
+                imapLiteral.release();
+                return value;
+            }
+            return (String) literal;
         } else {
             return parseBareString(false);
         }
@@ -337,7 +344,8 @@ class ImapResponseParser {
 
     /**
      * A "{" has been read. Read the rest of the size string, the space and then notify the callback with an
-     * {@code InputStream}.
+     * {@code InputStream}. If there's no callback or the callback didn't consume the literal, the data is returned as
+     * {@link ImapLiteral}.
      */
     private Object parseLiteral() throws IOException {
         expect('{');
@@ -383,17 +391,7 @@ class ImapResponseParser {
             }
         }
 
-        byte[] data = new byte[size];
-        int read = 0;
-        while (read != size) {
-            int count = inputStream.read(data, read, size - read);
-            if (count == -1) {
-                throw new IOException("parseLiteral(): end of stream reached");
-            }
-            read += count;
-        }
-
-        return new String(data, "US-ASCII");
+        return ImapLiteral.read(inputStream, size);
     }
 
     private String parseQuoted() throws IOException {
@@ -1,15 +1,14 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,7 +55,7 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private final ImapConnectionPool connectionPool;
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -76,6 +75,13 @@ public class ImapStore extends RemoteStore {
         return ImapStoreUriCreator.create(server);
     }
 
+    /**
+     * Deletes temporary files holding large literals that were left behind by a previous run of the process.
+     */
+    public static void deleteStaleTemporaryFiles(File tempDirectory) {
+        ImapLiteral.deleteStaleSpillFiles(tempDirectory);
+    }
+
     public ImapStore(StoreConfig storeConfig, TrustedSocketFactory trustedSocketFactory,
             ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider) throws MessagingException {
         super(storeConfig, trustedSocketFactory);
@@ -103,6 +109,13 @@ public class ImapStore extends RemoteStore {
         pathPrefix = (settings.autoDetectNamespace) ? null : settings.pathPrefix;
 
         folderNameCodec = FolderNameCodec.newInstance();
+
+        connectionPool = new ImapConnectionPool(new ImapConnectionPool.ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                return createImapConnection();
+            }
+        }, storeConfig.getMaximumImapConnections(), ImapConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
     }
 
     @Override
@@ -312,35 +325,19 @@ public class ImapStore extends RemoteStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
-
-        if (connection == null) {
-            connection = createImapConnection();
-        }
-
-        return connection;
+        return connectionPool.getConnection();
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
-        }
+    ImapConnection getPushConnection() throws MessagingException {
+        return connectionPool.getPushConnection();
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
-        }
+        connectionPool.releaseConnection(connection);
+    }
+
+    ImapConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
     ImapConnection createImapConnection() {
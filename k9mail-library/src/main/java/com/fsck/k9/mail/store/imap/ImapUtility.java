@@ -20,7 +20,11 @@ package com.fsck.k9.mail.store.imap;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.TreeSet;
+
+import com.fsck.k9.mail.UidRange;
 
 import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
 
@@ -67,6 +71,44 @@ class ImapUtility {
         return list;
     }
 
+    /**
+     * Parse the given sequence set into ranges without expanding them into individual numbers.
+     *
+     * <pre>
+     * sequence-number = nz-number / "*"
+     * sequence-range  = sequence-number ":" sequence-number
+     * sequence-set    = (sequence-number / sequence-range) *("," sequence-set)
+     * </pre>
+     *
+     * @param set
+     *         The sequence set string as received by the server.
+     *
+     * @return The ranges in this sequence set. Invalid items are skipped.
+     */
+    public static List<UidRange> getImapSequenceRanges(String set) {
+        List<UidRange> list = new ArrayList<UidRange>();
+        if (set != null) {
+            String[] setItems = set.split(",");
+            for (String item : setItems) {
+                int colonPos = item.indexOf(':');
+                if (colonPos == -1) {
+                    if (isNumberValid(item)) {
+                        long number = Long.parseLong(item);
+                        list.add(new UidRange(number, number));
+                    }
+                } else {
+                    String first = item.substring(0, colonPos);
+                    String second = item.substring(colonPos + 1);
+                    if (isNumberValid(first) && isNumberValid(second)) {
+                        list.add(new UidRange(Long.parseLong(first), Long.parseLong(second)));
+                    }
+                }
+            }
+        }
+
+        return list;
+    }
+
     /**
      * Expand the given number range into a list of individual numbers.
      *
@@ -112,6 +154,99 @@ class ImapUtility {
         return list;
     }
 
+    /**
+     * Creates sequence sets per RFC 3501 for the given UIDs or message sequence numbers.
+     *
+     * <p>
+     * The numbers are sorted and runs of three or more consecutive numbers are collapsed into ranges, e.g.
+     * {@code 1,2,3,4,7,9,10} becomes {@code 1:4,7,9,10}. The result is split into multiple sequence sets so that
+     * each of them is at most {@code maxLength} characters long and can be used in a separate command without
+     * exceeding the command line length limits of servers.
+     * </p>
+     *
+     * @param ids
+     *         The UIDs or message sequence numbers. If any of them is not a valid number, the values are used
+     *         as-is in their original order.
+     * @param maxLength
+     *         The maximum length of a single sequence set.
+     *
+     * @return The list of sequence sets. Empty if {@code ids} is empty.
+     */
+    public static List<String> createSequenceSets(Collection<?> ids, int maxLength) {
+        List<String> items = new ArrayList<String>();
+
+        TreeSet<Long> numbers = new TreeSet<Long>();
+        boolean allNumbersValid = true;
+        for (Object id : ids) {
+            String value = String.valueOf(id);
+            try {
+                long number = Long.parseLong(value);
+                if (number <= 0 || !is32bitValue(number)) {
+                    allNumbersValid = false;
+                    break;
+                }
+                numbers.add(number);
+            } catch (NumberFormatException e) {
+                allNumbersValid = false;
+                break;
+            }
+        }
+
+        if (allNumbersValid) {
+            long rangeStart = -1;
+            long rangeEnd = -1;
+            for (long number : numbers) {
+                if (rangeStart != -1 && number == rangeEnd + 1) {
+                    rangeEnd = number;
+                    continue;
+                }
+
+                addSequenceItems(items, rangeStart, rangeEnd);
+                rangeStart = number;
+                rangeEnd = number;
+            }
+            addSequenceItems(items, rangeStart, rangeEnd);
+        } else {
+            for (Object id : ids) {
+                items.add(String.valueOf(id));
+            }
+        }
+
+        List<String> sequenceSets = new ArrayList<String>();
+        StringBuilder sequenceSet = new StringBuilder();
+        for (String item : items) {
+            if (sequenceSet.length() > 0 && sequenceSet.length() + 1 + item.length() > maxLength) {
+                sequenceSets.add(sequenceSet.toString());
+                sequenceSet.setLength(0);
+            }
+
+            if (sequenceSet.length() > 0) {
+                sequenceSet.append(',');
+            }
+            sequenceSet.append(item);
+        }
+
+        if (sequenceSet.length() > 0) {
+            sequenceSets.add(sequenceSet.toString());
+        }
+
+        return sequenceSets;
+    }
+
+    private static void addSequenceItems(List<String> items, long rangeStart, long rangeEnd) {
+        if (rangeStart == -1) {
+            return;
+        }
+
+        if (rangeEnd - rangeStart >= 2) {
+            items.add(rangeStart + ":" + rangeEnd);
+        } else {
+            for (long number = rangeStart; number <= rangeEnd; number++) {
+                items.add(Long.toString(number));
+            }
+        }
+    }
+
     private static boolean isNumberValid(String number) {
         try {
             long value = Long.parseLong(number);
@@ -26,6 +26,12 @@ class SearchResponse {
     }
 
     private static void parseSingleLine(ImapResponse response, List<Long> numbers) {
+        EsearchResponse esearchResponse = EsearchResponse.parse(response);
+        if (esearchResponse != null) {
+            numbers.addAll(esearchResponse.getAll());
+            return;
+        }
+
         if (response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.SEARCH)) {
             return;
         }
@@ -42,7 +48,7 @@ class SearchResponse {
     }
 
     /**
-     * @return A mutable list of numbers from the SEARCH response(s).
+     * @return A mutable list of numbers from the SEARCH response(s) or the {@code ALL} result of ESEARCH responses.
      */
     public List<Long> getNumbers() {
         return numbers;
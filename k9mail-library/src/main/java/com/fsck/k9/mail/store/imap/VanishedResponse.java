@@ -0,0 +1,99 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fsck.k9.mail.UidRange;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+import static com.fsck.k9.mail.store.imap.ImapUtility.getImapSequenceRanges;
+
+
+/**
+ * An untagged {@code VANISHED} response as defined in RFC 7162.
+ *
+ * <p>
+ * Servers send {@code VANISHED} instead of {@code EXPUNGE} once QRESYNC has been enabled. The {@code (EARLIER)} tag
+ * marks responses that report messages that were expunged before the current command, e.g. in reply to
+ * {@code UID FETCH ... (CHANGEDSINCE n VANISHED)}. Those don't change the number of messages in the selected folder.
+ * They can cover huge UID ranges, so the UIDs are kept as ranges.
+ * </p>
+ */
+class VanishedResponse {
+    private final boolean earlier;
+    private final List<UidRange> uidRanges;
+
+
+    private VanishedResponse(boolean earlier, List<UidRange> uidRanges) {
+        this.earlier = earlier;
+        this.uidRanges = Collections.unmodifiableList(uidRanges);
+    }
+
+    public static VanishedResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.VANISHED)) {
+            return null;
+        }
+
+        boolean earlier = false;
+        int uidSetIndex = 1;
+        if (response.isList(1)) {
+            ImapList tagList = response.getList(1);
+            if (tagList.size() != 1 || !equalsIgnoreCase(tagList.get(0), Responses.EARLIER)) {
+                return null;
+            }
+
+            earlier = true;
+            uidSetIndex = 2;
+        }
+
+        if (response.size() <= uidSetIndex || !response.isString(uidSetIndex)) {
+            return null;
+        }
+
+        List<UidRange> uidRanges = getImapSequenceRanges(response.getString(uidSetIndex));
+        if (uidRanges.isEmpty()) {
+            return null;
+        }
+
+        return new VanishedResponse(earlier, uidRanges);
+    }
+
+    public boolean isEarlier() {
+        return earlier;
+    }
+
+    public List<UidRange> getUidRanges() {
+        return uidRanges;
+    }
+
+    /**
+     * @return The number of UIDs covered by this response.
+     */
+    public long getUidCount() {
+        long count = 0;
+        for (UidRange uidRange : uidRanges) {
+            count += uidRange.size();
+        }
+        return count;
+    }
+
+    /**
+     * Expands the ranges into individual UIDs.
+     *
+     * <p>
+     * Only use this for responses that aren't {@link #isEarlier() EARLIER}. Those only report messages that were
+     * part of the selected folder, so their number is limited by the size of the folder.
+     * </p>
+     */
+    public List<String> getUids() {
+        List<String> uids = new ArrayList<>();
+        for (UidRange uidRange : uidRanges) {
+            for (long uid = uidRange.getStart(); uid <= uidRange.getEnd(); uid++) {
+                uids.add(Long.toString(uid));
+            }
+        }
+        return uids;
+    }
+}
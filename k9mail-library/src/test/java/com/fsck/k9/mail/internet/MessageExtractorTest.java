@@ -119,4 +119,12 @@ public class MessageExtractorTest {
         assertNotNull(result);
         assertEquals(bodyText, result);
     }
+
+    @Test(expected = MessagingException.class)
+    public void getTextReaderFromPart_withTextBodyWithoutText_shouldThrow() throws Exception {
+        part.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain");
+        part.setBody(new TextBody(null));
+
+        MessageExtractor.getTextReaderFromPart(part);
+    }
 }
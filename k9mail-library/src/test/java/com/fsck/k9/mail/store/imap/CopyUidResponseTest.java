@@ -126,6 +126,25 @@ public class CopyUidResponseTest {
         assertNull(result);
     }
 
+    @Test
+    public void parseUntagged_withUntaggedResponse_shouldCreateUidMapping() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* OK [COPYUID 1 1,3:5 7:10] Moved UIDs.");
+
+        CopyUidResponse result = CopyUidResponse.parseUntagged(imapResponse);
+
+        assertNotNull(result);
+        assertEquals(createUidMapping("1=7", "3=8", "4=9", "5=10"), result.getUidMapping());
+    }
+
+    @Test
+    public void parseUntagged_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("x OK [COPYUID 1 1,3:5 7:10] Success");
+
+        CopyUidResponse result = CopyUidResponse.parseUntagged(imapResponse);
+
+        assertNull(result);
+    }
+
     private Map<String, String> createUidMapping(String... values) {
         Map<String, String> mapping = new HashMap<>(values.length);
 
@@ -0,0 +1,122 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class EsearchResponseTest {
+    @Test
+    public void parse_withAllReturnOptions_shouldExtractValues() throws Exception {
+        ImapResponse imapResponse =
+                createImapResponse("* ESEARCH (TAG \"A285\") UID MIN 7 MAX 3800 COUNT 4 ALL 7,9:10,3800");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertTrue(result.isUid());
+        assertEquals(7L, result.getMin());
+        assertEquals(3800L, result.getMax());
+        assertEquals(4L, result.getCount());
+        assertEquals(asList(7L, 9L, 10L, 3800L), result.getAll());
+    }
+
+    @Test
+    public void parse_withoutUidIndicator_shouldReturnSequenceNumbers() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* ESEARCH (TAG \"A284\") COUNT 0");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertFalse(result.isUid());
+        assertEquals(0L, result.getCount());
+        assertEquals(-1L, result.getMin());
+        assertEquals(-1L, result.getMax());
+        assertTrue(result.getAll().isEmpty());
+    }
+
+    @Test
+    public void parse_withoutResults_shouldReturnEmptyResponse() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* ESEARCH (TAG \"A283\") UID");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals(-1L, result.getCount());
+        assertEquals(-1L, result.getMax());
+    }
+
+    @Test
+    public void parse_withoutSearchCorrelator_shouldExtractValues() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* ESEARCH UID MAX 42");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals(42L, result.getMax());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("x ESEARCH UID MAX 42");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withSearchResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* SEARCH 1 2 3");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withInvalidNumber_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* ESEARCH (TAG \"1\") COUNT many");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withMissingValue_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* ESEARCH (TAG \"1\") COUNT");
+
+        EsearchResponse result = EsearchResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withResponseList_shouldReturnFirstEsearchResponse() throws Exception {
+        EsearchResponse result = EsearchResponse.parse(asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* ESEARCH (TAG \"1\") COUNT 5")));
+
+        assertNotNull(result);
+        assertEquals(5L, result.getCount());
+    }
+
+    @Test
+    public void parse_withResponseListWithoutEsearchResponse_shouldReturnNull() throws Exception {
+        EsearchResponse result = EsearchResponse.parse(singletonList(createImapResponse("* SEARCH 1")));
+
+        assertNull(result);
+    }
+}
@@ -0,0 +1,125 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.FetchProfile.Item;
+import com.fsck.k9.mail.store.StoreConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class FetchWindowPlannerTest {
+    private static final int SUGGESTED_WINDOW_SIZE = 100;
+
+
+    private StoreConfig storeConfig;
+
+
+    @Before
+    public void setUp() throws Exception {
+        storeConfig = mock(StoreConfig.class);
+    }
+
+    @Test
+    public void getWindowEnd_withFlagsOnly_shouldUseFlagsWindowSize() throws Exception {
+        FetchWindowPlanner planner = createPlanner(Item.FLAGS);
+        List<ImapMessage> messages = createMessages(1500, 0);
+
+        int windowEnd = planner.getWindowEnd(messages, 0, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(FetchWindowPlanner.DEFAULT_FLAGS_WINDOW_SIZE, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withConfiguredFlagsWindowSize_shouldUseConfiguredValue() throws Exception {
+        when(storeConfig.getFlagsFetchWindowSize()).thenReturn(300);
+        FetchWindowPlanner planner = createPlanner(Item.FLAGS);
+        List<ImapMessage> messages = createMessages(1500, 0);
+
+        int windowEnd = planner.getWindowEnd(messages, 1000, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(1300, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withStructure_shouldUseSuggestedWindowSize() throws Exception {
+        FetchWindowPlanner planner = createPlanner(Item.FLAGS, Item.STRUCTURE);
+        List<ImapMessage> messages = createMessages(250, 0);
+
+        int windowEnd = planner.getWindowEnd(messages, 200, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(250, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withBody_shouldLimitWindowByByteBudget() throws Exception {
+        when(storeConfig.getBodyFetchWindowByteBudget()).thenReturn(1000);
+        FetchWindowPlanner planner = createPlanner(Item.BODY);
+        List<ImapMessage> messages = createMessages(10, 300);
+
+        int windowEnd = planner.getWindowEnd(messages, 0, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(3, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withBodyLargerThanByteBudget_shouldReturnWindowWithOneMessage() throws Exception {
+        when(storeConfig.getBodyFetchWindowByteBudget()).thenReturn(1000);
+        FetchWindowPlanner planner = createPlanner(Item.BODY);
+        List<ImapMessage> messages = createMessages(10, 5000);
+
+        int windowEnd = planner.getWindowEnd(messages, 4, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(5, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withBodySane_shouldOnlyCountTruncatedSize() throws Exception {
+        when(storeConfig.getBodyFetchWindowByteBudget()).thenReturn(1000);
+        when(storeConfig.getMaximumAutoDownloadMessageSize()).thenReturn(100);
+        FetchWindowPlanner planner = createPlanner(Item.BODY_SANE);
+        List<ImapMessage> messages = createMessages(20, 5000);
+
+        int windowEnd = planner.getWindowEnd(messages, 0, SUGGESTED_WINDOW_SIZE);
+
+        assertEquals(10, windowEnd);
+    }
+
+    @Test
+    public void getWindowEnd_withBodyOfUnknownSize_shouldUseEstimatedSize() throws Exception {
+        FetchWindowPlanner planner = createPlanner(Item.BODY);
+        List<ImapMessage> messages = createMessages(100, 0);
+
+        int windowEnd = planner.getWindowEnd(messages, 0, SUGGESTED_WINDOW_SIZE);
+
+        int expectedWindowSize = FetchWindowPlanner.DEFAULT_BODY_WINDOW_BYTE_BUDGET /
+                FetchWindowPlanner.ESTIMATED_MESSAGE_SIZE;
+        assertEquals(expectedWindowSize, windowEnd);
+    }
+
+    private FetchWindowPlanner createPlanner(Item... items) {
+        FetchProfile fetchProfile = new FetchProfile();
+        Collections.addAll(fetchProfile, items);
+
+        return new FetchWindowPlanner(fetchProfile, storeConfig);
+    }
+
+    private List<ImapMessage> createMessages(int count, long size) {
+        List<ImapMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ImapMessage message = mock(ImapMessage.class);
+            when(message.getSize()).thenReturn(size);
+            messages.add(message);
+        }
+
+        return messages;
+    }
+}
@@ -0,0 +1,76 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class FetchWindowSizerTest {
+    private FetchWindowSizer sizer;
+
+
+    @Before
+    public void setUp() throws Exception {
+        sizer = new FetchWindowSizer();
+    }
+
+    @Test
+    public void getWindowSize_withoutRecordedWindows_shouldReturnInitialWindowSize() throws Exception {
+        assertEquals(FetchWindowSizer.INITIAL_WINDOW_SIZE, sizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withSmallMessagesOnFastLink_shouldIncreaseWindowSize() throws Exception {
+        // 100 messages of 1 KiB in 100 ms -> 1000 messages could be transferred in the target time
+        sizer.recordWindow(100, 100 * 1024, 100);
+
+        assertEquals(200, sizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_repeatedly_shouldNotExceedMaximum() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            sizer.recordWindow(sizer.getWindowSize(), sizer.getWindowSize() * 1024L, 10);
+        }
+
+        assertEquals(FetchWindowSizer.MAX_WINDOW_SIZE, sizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withLargeMessagesOnSlowLink_shouldDecreaseWindowSize() throws Exception {
+        // 100 messages of 100 KiB in 20 s -> 5 messages could be transferred in the target time
+        sizer.recordWindow(100, 100 * 100 * 1024, 20000);
+
+        assertEquals(50, sizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_repeatedly_shouldNotGoBelowMinimum() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            sizer.recordWindow(sizer.getWindowSize(), sizer.getWindowSize() * 100 * 1024L, 100000);
+        }
+
+        assertEquals(FetchWindowSizer.MIN_WINDOW_SIZE, sizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withHighRoundTripTime_shouldUseLargerWindows() throws Exception {
+        FetchWindowSizer sizerWithoutLatency = new FetchWindowSizer();
+        sizer.recordRoundTrip(1500);
+
+        sizer.recordWindow(100, 100 * 10 * 1024, 4000);
+        sizerWithoutLatency.recordWindow(100, 100 * 10 * 1024, 4000);
+
+        assertEquals(75, sizer.getWindowSize());
+        assertEquals(50, sizerWithoutLatency.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withoutBytes_shouldKeepWindowSize() throws Exception {
+        sizer.recordWindow(100, 0, 100);
+
+        assertEquals(FetchWindowSizer.INITIAL_WINDOW_SIZE, sizer.getWindowSize());
+    }
+}
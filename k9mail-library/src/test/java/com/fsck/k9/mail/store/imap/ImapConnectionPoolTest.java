@@ -0,0 +1,316 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.MessagingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapConnectionPoolTest {
+    private static final long IDLE_TIMEOUT = 60 * 1000;
+
+
+    private TestConnectionFactory connectionFactory;
+    private TestImapConnectionPool pool;
+
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new TestConnectionFactory();
+        pool = new TestImapConnectionPool(connectionFactory, 2);
+    }
+
+    @Test
+    public void getConnection_withEmptyPool_shouldCreateConnection() throws Exception {
+        ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnection, result);
+        assertEquals(1, pool.getConnectionsCreated());
+        assertEquals(1, pool.getBorrowedConnectionCount());
+    }
+
+    @Test
+    public void getConnection_afterRelease_shouldReuseConnectionAfterHealthCheck() throws Exception {
+        ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+        pool.releaseConnection(pool.getConnection());
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnection, result);
+        verify(imapConnection).executeSimpleCommand(Commands.NOOP);
+        assertEquals(1, pool.getConnectionsReused());
+        assertEquals(0.5f, pool.getReuseRatio(), 0.001f);
+    }
+
+    @Test
+    public void getConnection_withFailingHealthCheck_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection imapConnectionOne = createConnectedImapConnection();
+        ImapConnection imapConnectionTwo = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnectionOne);
+        connectionFactory.enqueue(imapConnectionTwo);
+        pool.releaseConnection(pool.getConnection());
+        doThrow(IOException.class).when(imapConnectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnectionTwo, result);
+        verify(imapConnectionOne).close();
+        assertEquals(1, pool.getBorrowedConnectionCount());
+    }
+
+    @Test
+    public void getConnection_withIdleConnectionExceedingTimeout_shouldCloseIdleConnection() throws Exception {
+        ImapConnection imapConnectionOne = createConnectedImapConnection();
+        ImapConnection imapConnectionTwo = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnectionOne);
+        connectionFactory.enqueue(imapConnectionTwo);
+        pool.releaseConnection(pool.getConnection());
+        pool.time += IDLE_TIMEOUT + 1;
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnectionTwo, result);
+        verify(imapConnectionOne).close();
+        verify(imapConnectionOne, never()).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void releaseConnection_withAllConnectionsReleased_shouldKeepConnectionsIdle() throws Exception {
+        ImapConnection imapConnectionOne = createConnectedImapConnection();
+        ImapConnection imapConnectionTwo = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnectionOne);
+        connectionFactory.enqueue(imapConnectionTwo);
+        pool.getConnection();
+        pool.getConnection();
+        pool.releaseConnection(imapConnectionOne);
+        pool.releaseConnection(imapConnectionTwo);
+
+        assertEquals(2, pool.getIdleConnectionCount());
+        assertEquals(0, pool.getBorrowedConnectionCount());
+    }
+
+    @Test
+    public void releaseConnection_calledTwice_shouldOnlyPoolConnectionOnce() throws Exception {
+        ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+        ImapConnection connection = pool.getConnection();
+
+        pool.releaseConnection(connection);
+        pool.releaseConnection(connection);
+
+        assertEquals(1, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void getConnection_withLimitReached_shouldWaitForReleasedConnection() throws Exception {
+        pool = new TestImapConnectionPool(connectionFactory, 1);
+        final ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+        pool.getConnection();
+
+        Thread releaseThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                pool.releaseConnection(imapConnection);
+            }
+        };
+        releaseThread.start();
+
+        ImapConnection result = pool.getConnection();
+        releaseThread.join();
+
+        assertSame(imapConnection, result);
+        assertEquals(1, pool.getConnectionsCreated());
+    }
+
+    @Test
+    public void getConnection_withLimitReachedAndTimeoutExceeded_shouldThrow() throws Exception {
+        pool = new TestImapConnectionPool(connectionFactory, 1);
+        connectionFactory.enqueue(createConnectedImapConnection());
+        pool.getConnection();
+        pool.timeStep = ImapConnectionPool.BORROW_TIMEOUT_MILLIS;
+
+        try {
+            pool.getConnection();
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals(1, pool.getConnectionsCreated());
+            assertEquals(1, pool.getBorrowedConnectionCount());
+        }
+    }
+
+    @Test
+    public void releaseConnection_shouldScheduleEvictionOfIdleConnection() throws Exception {
+        ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+        pool.releaseConnection(pool.getConnection());
+
+        assertEquals(IDLE_TIMEOUT + 1, pool.evictionDelayMillis);
+
+        pool.time += IDLE_TIMEOUT + 1;
+        pool.runEvictionTask();
+
+        verify(imapConnection).close();
+        assertEquals(0, pool.getIdleConnectionCount());
+        assertNull(pool.evictionTask);
+    }
+
+    @Test
+    public void evictIdleConnections_withRemainingIdleConnection_shouldScheduleEvictionAgain() throws Exception {
+        ImapConnection imapConnectionOne = createConnectedImapConnection();
+        ImapConnection imapConnectionTwo = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnectionOne);
+        connectionFactory.enqueue(imapConnectionTwo);
+        pool.getConnection();
+        pool.getConnection();
+        pool.releaseConnection(imapConnectionOne);
+        pool.time += 1000;
+        pool.releaseConnection(imapConnectionTwo);
+
+        pool.time += IDLE_TIMEOUT;
+        pool.runEvictionTask();
+
+        verify(imapConnectionOne).close();
+        verify(imapConnectionTwo, never()).close();
+        assertEquals(1, pool.getIdleConnectionCount());
+        assertEquals(1, pool.evictionDelayMillis);
+    }
+
+    @Test
+    public void getConnection_withClosedBorrowedConnection_shouldNotCountAgainstLimit() throws Exception {
+        pool = new TestImapConnectionPool(connectionFactory, 1);
+        ImapConnection imapConnectionOne = createConnectedImapConnection();
+        ImapConnection imapConnectionTwo = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnectionOne);
+        connectionFactory.enqueue(imapConnectionTwo);
+        pool.getConnection();
+        when(imapConnectionOne.isClosed()).thenReturn(true);
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnectionTwo, result);
+    }
+
+    @Test
+    public void getPushConnection_shouldNotCountAgainstLimit() throws Exception {
+        pool = new TestImapConnectionPool(connectionFactory, 1);
+        ImapConnection pushConnection = createConnectedImapConnection();
+        ImapConnection imapConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(pushConnection);
+        connectionFactory.enqueue(imapConnection);
+        pool.getPushConnection();
+
+        ImapConnection result = pool.getConnection();
+
+        assertSame(imapConnection, result);
+        assertEquals(1, pool.getPushConnectionCount());
+        assertEquals(1, pool.getBorrowedConnectionCount());
+    }
+
+    @Test
+    public void getPushConnection_withLimitReached_shouldNotWait() throws Exception {
+        pool = new TestImapConnectionPool(connectionFactory, 1);
+        ImapConnection imapConnection = createConnectedImapConnection();
+        ImapConnection pushConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(imapConnection);
+        connectionFactory.enqueue(pushConnection);
+        pool.getConnection();
+
+        ImapConnection result = pool.getPushConnection();
+
+        assertSame(pushConnection, result);
+        assertEquals(1, pool.getBorrowedConnectionCount());
+    }
+
+    @Test
+    public void releaseConnection_withPushConnection_shouldKeepConnectionIdle() throws Exception {
+        ImapConnection pushConnection = createConnectedImapConnection();
+        connectionFactory.enqueue(pushConnection);
+        pool.getPushConnection();
+
+        pool.releaseConnection(pushConnection);
+
+        assertEquals(0, pool.getPushConnectionCount());
+        assertEquals(1, pool.getIdleConnectionCount());
+    }
+
+    private ImapConnection createConnectedImapConnection() {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.isConnected()).thenReturn(true);
+        return imapConnection;
+    }
+
+
+    static class TestConnectionFactory implements ImapConnectionPool.ConnectionFactory {
+        private final Deque<ImapConnection> imapConnections = new ArrayDeque<>();
+
+        @Override
+        public ImapConnection createConnection() {
+            if (imapConnections.isEmpty()) {
+                throw new AssertionError("Unexpectedly tried to create an ImapConnection instance");
+            }
+            return imapConnections.pop();
+        }
+
+        void enqueue(ImapConnection imapConnection) {
+            imapConnections.add(imapConnection);
+        }
+    }
+
+    static class TestImapConnectionPool extends ImapConnectionPool {
+        long time = 1000;
+        long timeStep = 0;
+        Runnable evictionTask;
+        long evictionDelayMillis = -1;
+
+        TestImapConnectionPool(ConnectionFactory connectionFactory, int maxConnections) {
+            super(connectionFactory, maxConnections, IDLE_TIMEOUT);
+        }
+
+        @Override
+        long now() {
+            long now = time;
+            time += timeStep;
+            return now;
+        }
+
+        @Override
+        ScheduledFuture<?> scheduleEviction(Runnable task, long delayMillis) {
+            evictionTask = task;
+            evictionDelayMillis = delayMillis;
+            return mock(ScheduledFuture.class);
+        }
+
+        void runEvictionTask() {
+            Runnable task = evictionTask;
+            evictionTask = null;
+            task.run();
+        }
+    }
+}
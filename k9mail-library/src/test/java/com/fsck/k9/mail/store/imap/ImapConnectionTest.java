@@ -112,6 +112,22 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_authPlainWithSaslIr_shouldSendInitialResponse() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        preAuthenticationDialog(server, "SASL-IR AUTH=PLAIN");
+        server.expect("2 AUTHENTICATE PLAIN " + ByteString.encodeUtf8("\000" + USERNAME + "\000" + PASSWORD).base64());
+        server.output("2 OK Success");
+        simplePostAuthenticationDialog(server);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_afterCloseWasCalled_shouldThrow() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
@@ -682,6 +698,42 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withQresyncCapability_shouldEnableQresync() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        simplePreAuthAndLoginDialog(server, "ENABLE QRESYNC");
+        server.expect("3 ENABLE QRESYNC");
+        server.output("* ENABLED QRESYNC");
+        server.output("3 OK");
+        simplePostAuthenticationDialog(server, "4");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        assertTrue(imapConnection.isQresyncEnabled());
+        assertTrue(imapConnection.isCondstoreCapable());
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void open_withNegativeResponseToEnableCommand_shouldContinue() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        simplePreAuthAndLoginDialog(server, "ENABLE QRESYNC");
+        server.expect("3 ENABLE QRESYNC");
+        server.output("3 NO");
+        simplePostAuthenticationDialog(server, "4");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        assertFalse(imapConnection.isQresyncEnabled());
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_withIoExceptionDuringListCommand_shouldThrow() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
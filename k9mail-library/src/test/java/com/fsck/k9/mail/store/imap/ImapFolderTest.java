@@ -1,6 +1,7 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -17,11 +18,13 @@ import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.UidRange;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.store.StoreConfig;
@@ -31,6 +34,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
@@ -47,9 +51,14 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -105,6 +114,69 @@ public class ImapFolderTest {
         assertEquals(23, imapFolder.getMessageCount());
     }
 
+    @Test
+    public void handleUntaggedResponse_withVanished_shouldDecreaseMessageCount() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        imapFolder.open(OPEN_MODE_RW);
+
+        imapFolder.handleUntaggedResponse(createImapResponse("* VANISHED 1:3,5"));
+
+        assertEquals(19, imapFolder.getMessageCount());
+    }
+
+    @Test
+    public void handleUntaggedResponse_withVanishedEarlier_shouldNotChangeMessageCount() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        imapFolder.open(OPEN_MODE_RW);
+
+        imapFolder.handleUntaggedResponse(createImapResponse("* VANISHED (EARLIER) 1:3,5"));
+
+        assertEquals(23, imapFolder.getMessageCount());
+    }
+
+    @Test
+    public void open_shouldFetchUidValidity() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(1125022061L, imapFolder.getUidValidity());
+        assertEquals(-1L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void open_withCondstoreCapability_shouldEnableCondstoreAndFetchHighestModSeq() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (CONDSTORE)")).thenReturn(selectResponses);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(715194045007L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void open_withQresyncEnabled_shouldNotAddCondstoreParameter() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        when(imapConnection.isQresyncEnabled()).thenReturn(true);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"");
+    }
+
     @Test
     public void open_readWrite_shouldMakeGetModeReturnReadWrite() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -373,6 +445,68 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("UID STORE 1 +FLAGS.SILENT (\\Deleted)");
     }
 
+    @Test
+    public void moveMessages_withMoveCapability_shouldIssueUidMoveCommand() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isMoveCapable()).thenReturn(true);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = asList(createImapMessage("1"), createImapMessage("3"));
+        List<ImapResponse> moveResponses = asList(
+                createImapResponse("* OK [COPYUID 23 1,3 101:102] Moved UIDs."),
+                createImapResponse("* 1 EXPUNGE"),
+                createImapResponse("* 2 EXPUNGE"),
+                createImapResponse("x OK Move completed")
+        );
+        when(imapConnection.executeSimpleCommand("UID MOVE 1,3 \"Destination\"")).thenReturn(moveResponses);
+        sourceFolder.open(OPEN_MODE_RW);
+
+        Map<String, String> uidMapping = sourceFolder.moveMessages(messages, destinationFolder);
+
+        assertNotNull(uidMapping);
+        assertEquals("101", uidMapping.get("1"));
+        assertEquals("102", uidMapping.get("3"));
+        verify(imapConnection, never()).executeSimpleCommand("UID COPY 1,3 \"Destination\"");
+        verify(imapConnection, never()).executeSimpleCommand("UID STORE 1,3 +FLAGS.SILENT (\\Deleted)");
+    }
+
+    @Test
+    public void moveMessages_withMoveCapabilityAndConsecutiveUids_shouldUseUidRange() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        when(imapConnection.isMoveCapable()).thenReturn(true);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 501; i++) {
+            messages.add(createImapMessage(String.valueOf(i)));
+        }
+        when(imapConnection.executeSimpleCommand(anyString())).thenReturn(Collections.<ImapResponse>emptyList());
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        sourceFolder.open(OPEN_MODE_RW);
+
+        Map<String, String> uidMapping = sourceFolder.moveMessages(messages, destinationFolder);
+
+        assertNull(uidMapping);
+        verify(imapConnection).executeSimpleCommand("UID MOVE 1:501 \"Destination\"");
+    }
+
+    @Test
+    public void moveMessages_withMoveCapabilityAndManyMessages_shouldSplitIntoMultipleCommands() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        when(imapConnection.isMoveCapable()).thenReturn(true);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 4001; i += 2) {
+            messages.add(createImapMessage(String.valueOf(i)));
+        }
+        when(imapConnection.executeSimpleCommand(anyString())).thenReturn(Collections.<ImapResponse>emptyList());
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        sourceFolder.open(OPEN_MODE_RW);
+
+        sourceFolder.moveMessages(messages, destinationFolder);
+
+        verify(imapConnection, times(3)).executeSimpleCommand(startsWith("UID MOVE "));
+    }
+
     @Test
     public void moveMessages_withEmptyMessageList_shouldReturnNull() throws Exception {
         ImapFolder sourceFolder = createFolder("Source");
@@ -485,6 +619,21 @@ public class ImapFolderTest {
         assertEquals(3, unreadMessageCount);
     }
 
+    @Test
+    public void getUnreadMessageCount_withEsearchCapability_shouldUseReturnCount() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") COUNT 1337"));
+        when(imapConnection.executeSimpleCommand("SEARCH RETURN (COUNT) 1:* UNSEEN NOT DELETED"))
+                .thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        int unreadMessageCount = folder.getUnreadMessageCount();
+
+        assertEquals(1337, unreadMessageCount);
+    }
+
     @Test
     public void getFlaggedMessageCount_withClosedFolder_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -527,6 +676,34 @@ public class ImapFolderTest {
         assertEquals(42L, highestUid);
     }
 
+    @Test
+    public void getHighestUid_withEsearchCapability_shouldUseReturnMax() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") UID MAX 4711"));
+        when(imapConnection.executeSimpleCommand("UID SEARCH RETURN (MAX) ALL")).thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        long highestUid = folder.getHighestUid();
+
+        assertEquals(4711L, highestUid);
+    }
+
+    @Test
+    public void getHighestUid_withEsearchCapabilityAndEmptyFolder_shouldReturnMinusOne() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") UID"));
+        when(imapConnection.executeSimpleCommand("UID SEARCH RETURN (MAX) ALL")).thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        long highestUid = folder.getHighestUid();
+
+        assertEquals(-1L, highestUid);
+    }
+
     @Test
     public void getHighestUid_imapConnectionThrowsNegativesResponse_shouldReturnMinusOne() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -572,6 +749,21 @@ public class ImapFolderTest {
         assertEquals(newSet("3", "5", "6"), extractMessageUids(messages));
     }
 
+    @Test
+    public void getMessages_withEsearchCapability_shouldUseReturnAll() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") UID ALL 3,5:6"));
+        when(imapConnection.executeSimpleCommand("UID SEARCH RETURN (ALL) 1:10 NOT DELETED")).thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        List<ImapMessage> messages = folder.getMessages(1, 10, null, null);
+
+        assertNotNull(messages);
+        assertEquals(newSet("3", "5", "6"), extractMessageUids(messages));
+    }
+
     @Test
     public void getMessages_withDateConstraint() throws Exception {
         TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
@@ -762,6 +954,20 @@ public class ImapFolderTest {
         assertTrue(areMoreMessagesAvailable);
     }
 
+    @Test
+    public void areMoreMessagesAvailable_withEsearchCapability_shouldUseReturnMin() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") MIN 7"));
+        when(imapConnection.executeSimpleCommand("SEARCH RETURN (MIN) 1:9 NOT DELETED")).thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        boolean areMoreMessagesAvailable = folder.areMoreMessagesAvailable(10, null);
+
+        assertTrue(areMoreMessagesAvailable);
+    }
+
     @Test
     public void areMoreMessagesAvailable_withoutAdditionalMessages_shouldReturnFalse() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -907,6 +1113,109 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[])", false);
     }
 
+    @Test
+    public void fetchChangedSince_withClosedFolder_shouldThrow() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+
+        try {
+            folder.fetchChangedSince(12345L);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertCheckOpenErrorMessage("Folder", e);
+        }
+    }
+
+    @Test
+    public void fetchChangedSince_shouldIssueRespectiveCommandAndReturnChangedMessages() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        List<ImapResponse> fetchResponses = asList(
+                createImapResponse("* 3 FETCH (UID 7 FLAGS (\\Seen) MODSEQ (12346))"),
+                createImapResponse("* 5 FETCH (UID 9 FLAGS () MODSEQ (12350))"),
+                createImapResponse("x OK Fetch completed")
+        );
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)"))
+                .thenReturn(fetchResponses);
+
+        FolderChanges<ImapMessage> changes = folder.fetchChangedSince(12345L);
+
+        List<ImapMessage> changedMessages = changes.getChangedMessages();
+        assertEquals(2, changedMessages.size());
+        assertEquals("7", changedMessages.get(0).getUid());
+        assertTrue(changedMessages.get(0).isSet(Flag.SEEN));
+        assertEquals("9", changedMessages.get(1).getUid());
+        assertFalse(changedMessages.get(1).isSet(Flag.SEEN));
+        assertFalse(changes.hasVanishedUids());
+    }
+
+    @Test
+    public void fetchChangedSince_withQresyncEnabled_shouldReturnVanishedUids() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isQresyncEnabled()).thenReturn(true);
+        folder.open(OPEN_MODE_RW);
+        List<ImapResponse> fetchResponses = asList(
+                createImapResponse("* VANISHED (EARLIER) 1:3,5"),
+                createImapResponse("* 3 FETCH (UID 7 FLAGS (\\Seen) MODSEQ (12346))"),
+                createImapResponse("x OK Fetch completed")
+        );
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345 VANISHED)"))
+                .thenReturn(fetchResponses);
+
+        FolderChanges<ImapMessage> changes = folder.fetchChangedSince(12345L);
+
+        assertEquals(1, changes.getChangedMessages().size());
+        assertTrue(changes.hasVanishedUids());
+        assertEquals(asList(new UidRange(1L, 3L), new UidRange(5L, 5L)), changes.getVanishedUidRanges());
+    }
+
+    @Test
+    public void fetch_withMoreMessagesThanWindowSize_shouldPipelineCommands() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.sendCommand(anyString(), eq(false))).thenReturn("1", "2", "3");
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("1 OK"))
+                .thenReturn(createImapResponse("2 OK"))
+                .thenReturn(createImapResponse("3 OK"));
+        List<ImapMessage> messages = createImapMessagesWithUidRange(1, 250);
+        FetchProfile fetchProfile = createFetchProfile(Item.STRUCTURE);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 1:100 (UID BODYSTRUCTURE)", false);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 101:200 (UID BODYSTRUCTURE)", false);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 201:250 (UID BODYSTRUCTURE)", false);
+        inOrder.verify(imapConnection, times(3)).readResponse(any(ImapResponseCallback.class));
+    }
+
+    @Test
+    public void fetch_withFailureWhileCommandsInFlight_shouldCloseConnection() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.sendCommand(anyString(), eq(false))).thenReturn("1", "2", "3");
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (FLAGS (\\Seen) UID 1)"));
+        List<ImapMessage> messages = createImapMessagesWithUidRange(1, 250);
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+        MessageRetrievalListener<ImapMessage> listener = createMessageRetrievalListener();
+        doThrow(new RuntimeException("Test")).when(listener).messageStarted("1", 0, 250);
+
+        try {
+            folder.fetch(messages, fetchProfile, listener);
+            fail("Expected exception");
+        } catch (RuntimeException e) {
+            assertEquals("Test", e.getMessage());
+        }
+
+        verify(imapConnection).close();
+    }
+
     @Test
     public void fetch_withFlagsFetchProfile_shouldSetFlags() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -985,6 +1294,68 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("APPEND \"Folder\" () {0}", false);
     }
 
+    @Test
+    public void appendMessages_withLiteralPlus_shouldNotWaitForContinuationRequests() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.canSendNonSynchronizingLiteral(anyLong())).thenReturn(true);
+        when(imapConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(imapConnection.sendCommand("APPEND \"Folder\" () {0+}", false)).thenReturn("5", "6");
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("5 OK [APPENDUID 1 23]"),
+                createImapResponse("6 OK [APPENDUID 1 24]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection, times(2)).sendCommand("APPEND \"Folder\" () {0+}", false);
+        inOrder.verify(imapConnection, times(2)).readResponse();
+        assertEquals("23", uidMap.get("1"));
+        assertEquals("24", uidMap.get("2"));
+    }
+
+    @Test
+    public void appendMessages_withMultiAppend_shouldIssueSingleCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.isMultiAppendCapable()).thenReturn(true);
+        when(imapConnection.canSendNonSynchronizingLiteral(anyLong())).thenReturn(true);
+        when(imapConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(imapConnection.readResponse()).thenReturn(createImapResponse("x OK [APPENDUID 1 23:24]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand("APPEND \"Folder\" () {0+}", false);
+        inOrder.verify(imapConnection).sendContinuation(" () {0+}");
+        inOrder.verify(imapConnection).sendContinuation("");
+        inOrder.verify(imapConnection).readResponse();
+        assertEquals("23", uidMap.get("1"));
+        assertEquals("24", uidMap.get("2"));
+    }
+
+    @Test
+    public void appendMessages_withMultiAppendAndLargeMessage_shouldIssueOneCommandPerMessage() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.isMultiAppendCapable()).thenReturn(true);
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("x OK [APPENDUID 1 23]"),
+                createImapResponse("x OK [APPENDUID 1 24]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        verify(imapConnection, times(2)).sendCommand("APPEND \"Folder\" () {0}", false);
+        assertEquals("23", uidMap.get("1"));
+        assertEquals("24", uidMap.get("2"));
+    }
+
     @Test
     public void getUidFromMessageId_withoutMessageIdHeader_shouldReturnNull() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1044,6 +1415,17 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("UID STORE 1:* +FLAGS.SILENT (\\Seen)");
     }
 
+    @Test
+    public void setFlags_withConsecutiveUids_shouldUseUidRange() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("3", "1", "2", "4", "7");
+
+        folder.setFlags(messages, Collections.singleton(Flag.SEEN), true);
+
+        verify(imapConnection).executeSimpleCommand("UID STORE 1:4,7 +FLAGS.SILENT (\\Seen)");
+    }
+
     @Test
     public void getNewPushState_withNewerUid_shouldReturnNewPushState() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1183,6 +1565,15 @@ public class ImapFolderTest {
         return message;
     }
 
+    private List<ImapMessage> createImapMessagesWithUidRange(int firstUid, int lastUid) {
+        List<ImapMessage> imapMessages = new ArrayList<>();
+        for (int uid = firstUid; uid <= lastUid; uid++) {
+            imapMessages.add(createImapMessage(Integer.toString(uid)));
+        }
+
+        return imapMessages;
+    }
+
     private List<ImapMessage> createImapMessages(String... uids) {
         List<ImapMessage> imapMessages = new ArrayList<>(uids.length);
 
@@ -0,0 +1,78 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ImapLiteralTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File tempDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = temporaryFolder.newFolder();
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    @Test
+    public void read_withLargeLiteral_shouldSpillToFile() throws Exception {
+        ImapLiteral literal = readLargeLiteral();
+
+        assertFalse(literal.isInMemory());
+        assertEquals(1, tempDirectory.listFiles().length);
+    }
+
+    @Test
+    public void getInputStream_withSpilledLiteral_shouldDeleteFileWhenClosed() throws Exception {
+        ImapLiteral literal = readLargeLiteral();
+
+        InputStream inputStream = literal.getInputStream();
+        assertEquals(ImapLiteral.SPILL_THRESHOLD + 1, IOUtils.toByteArray(inputStream).length);
+        inputStream.close();
+
+        assertEquals(0, tempDirectory.listFiles().length);
+    }
+
+    @Test
+    public void release_withSpilledLiteral_shouldDeleteFile() throws Exception {
+        ImapLiteral literal = readLargeLiteral();
+
+        literal.release();
+
+        assertEquals(0, tempDirectory.listFiles().length);
+    }
+
+    @Test
+    public void deleteStaleSpillFiles_shouldOnlyDeleteLiteralFiles() throws Exception {
+        readLargeLiteral();
+        File otherFile = new File(tempDirectory, "body123.tmp");
+        assertTrue(otherFile.createNewFile());
+
+        ImapLiteral.deleteStaleSpillFiles(tempDirectory);
+
+        File[] remainingFiles = tempDirectory.listFiles();
+        assertEquals(1, remainingFiles.length);
+        assertEquals(otherFile, remainingFiles[0]);
+    }
+
+    private ImapLiteral readLargeLiteral() throws Exception {
+        int size = ImapLiteral.SPILL_THRESHOLD + 1;
+        return ImapLiteral.read(new ByteArrayInputStream(new byte[size]), size);
+    }
+}
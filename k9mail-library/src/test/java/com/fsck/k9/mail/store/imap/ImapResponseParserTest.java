@@ -4,16 +4,19 @@ package com.fsck.k9.mail.store.imap;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -211,6 +214,36 @@ public class ImapResponseParserTest {
         assertEquals("test", response.getString(0));
     }
 
+    @Test
+    public void testParseLiteral_shouldReturnImapLiteral() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 BODY[] {4}\r\ntest)\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        ImapList fetchList = response.getList(2);
+        assertTrue(fetchList.isLiteral(4));
+        ImapLiteral literal = fetchList.getLiteral(4);
+        assertEquals(4, literal.size());
+        assertEquals("test", IOUtils.toString(literal.getInputStream(), "US-ASCII"));
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void testParseLiteral_withLargeLiteral_shouldSpillToFile() throws Exception {
+        int size = ImapLiteral.SPILL_THRESHOLD + 1;
+        String data = createString('a', size);
+        ImapResponseParser parser = createParser("* {" + size + "}\r\n" + data + "\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        ImapLiteral literal = response.getLiteral(0);
+        assertFalse(literal.isInMemory());
+        assertEquals(size, literal.size());
+        assertEquals(data, IOUtils.toString(literal.getInputStream(), "US-ASCII"));
+        literal.release();
+        assertAllInputConsumed();
+    }
+
     @Test
     public void testParseLiteralWithEmptyString() throws Exception {
         ImapResponseParser parser = createParser("* {0}\r\n\r\n");
@@ -478,6 +511,12 @@ public class ImapResponseParserTest {
         }
     }
 
+    private String createString(char c, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
     private ImapResponseParser createParser(String response) {
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(response.getBytes());
         peekableInputStream = new PeekableInputStream(byteArrayInputStream);
@@ -18,13 +18,18 @@
 package com.fsck.k9.mail.store.imap;
 
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.UidRange;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 
 @RunWith(K9LibRobolectricTestRunner.class)
@@ -104,6 +109,20 @@ public class ImapUtilityTest  {
         assertArrayEquals(expected, actual.toArray());
     }
 
+    @Test
+    public void getImapSequenceRanges_shouldKeepRanges() {
+        List<UidRange> ranges = ImapUtility.getImapSequenceRanges("1,3:4000000000,9:7");
+
+        assertEquals(asList(new UidRange(1L, 1L), new UidRange(3L, 4000000000L), new UidRange(7L, 9L)), ranges);
+    }
+
+    @Test
+    public void getImapSequenceRanges_withInvalidItems_shouldSkipThem() {
+        List<UidRange> ranges = ImapUtility.getImapSequenceRanges("x,1:x,5,4294967296:4294967297");
+
+        assertEquals(asList(new UidRange(5L, 5L)), ranges);
+    }
+
     @Test public void testGetImapRangeValues() {
         String[] expected;
         List<String> actual;
@@ -146,4 +165,39 @@ public class ImapUtilityTest  {
         actual = ImapUtility.getImapRangeValues("1:*");
         assertArrayEquals(expected, actual.toArray());
     }
+
+    @Test
+    public void createSequenceSets_withConsecutiveNumbers_shouldCollapseIntoRange() {
+        List<String> result = ImapUtility.createSequenceSets(asList("4", "1", "3", "2", "7", "9", "10"), 1000);
+
+        assertEquals(asList("1:4,7,9,10"), result);
+    }
+
+    @Test
+    public void createSequenceSets_withDuplicates_shouldRemoveDuplicates() {
+        List<String> result = ImapUtility.createSequenceSets(asList(5L, 5L, 6L, 7L), 1000);
+
+        assertEquals(asList("5:7"), result);
+    }
+
+    @Test
+    public void createSequenceSets_withEmptyCollection_shouldReturnEmptyList() {
+        List<String> result = ImapUtility.createSequenceSets(new ArrayList<String>(), 1000);
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void createSequenceSets_withInvalidNumber_shouldKeepValuesInOriginalOrder() {
+        List<String> result = ImapUtility.createSequenceSets(asList("3", "2", "1", "x"), 1000);
+
+        assertEquals(asList("3,2,1,x"), result);
+    }
+
+    @Test
+    public void createSequenceSets_exceedingMaxLength_shouldSplitIntoMultipleSets() {
+        List<String> result = ImapUtility.createSequenceSets(asList("1", "3", "5", "10", "11", "12", "20"), 8);
+
+        assertEquals(asList("1,3,5", "10:12,20"), result);
+    }
 }
@@ -65,4 +65,14 @@ public class SearchResponseTest {
         assertNotNull(result);
         assertEquals(Collections.emptyList(), result.getNumbers());
     }
+
+    @Test
+    public void parse_withEsearchResponse_shouldExtractAllNumbers() throws Exception {
+        List<ImapResponse> responses = singletonList(createImapResponse("* ESEARCH (TAG \"1\") UID ALL 1:3,7"));
+
+        SearchResponse result = SearchResponse.parse(responses);
+
+        assertNotNull(result);
+        assertEquals(asList(1L, 2L, 3L, 7L), result.getNumbers());
+    }
 }
@@ -0,0 +1,98 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.UidRange;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class VanishedResponseTest {
+    @Test
+    public void parse_withVanishedResponse_shouldExtractUids() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED 405,407:409");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertFalse(result.isEarlier());
+        assertEquals(asList(new UidRange(405L, 405L), new UidRange(407L, 409L)), result.getUidRanges());
+        assertEquals(asList("405", "407", "408", "409"), result.getUids());
+    }
+
+    @Test
+    public void parse_withVanishedEarlierResponse_shouldSetEarlier() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (EARLIER) 41,43:44");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertTrue(result.isEarlier());
+        assertEquals(asList(new UidRange(41L, 41L), new UidRange(43L, 44L)), result.getUidRanges());
+    }
+
+    @Test
+    public void parse_withLargeRange_shouldNotExpandUids() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (EARLIER) 1:4000000000");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals(asList(new UidRange(1L, 4000000000L)), result.getUidRanges());
+        assertEquals(4000000000L, result.getUidCount());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("x VANISHED 405");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutUidSet_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (EARLIER)");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withUnknownTag_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (LATER) 1");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withInvalidUidSet_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED foo");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withExpungeResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* 23 EXPUNGE");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+}
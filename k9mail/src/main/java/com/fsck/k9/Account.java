@@ -106,6 +106,10 @@ public class Account implements BaseAccount, StoreConfig {
     public static final boolean DEFAULT_REPLY_AFTER_QUOTE = false;
     public static final boolean DEFAULT_STRIP_SIGNATURE = true;
     public static final int DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25;
+    public static final int DEFAULT_MAXIMUM_IMAP_CONNECTIONS = 5;
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_FOLDER_SYNCS = 2;
+    public static final int DEFAULT_FLAGS_FETCH_WINDOW_SIZE = 1000;
+    public static final int DEFAULT_BODY_FETCH_WINDOW_BYTE_BUDGET = 1024 * 1024;
 
     public static final String ACCOUNT_DESCRIPTION_KEY = "description";
     public static final String STORE_URI_KEY = "storeUri";
@@ -207,6 +211,10 @@ public class Account implements BaseAccount, StoreConfig {
     private boolean subscribedFoldersOnly;
     private int maximumPolledMessageAge;
     private int maximumAutoDownloadMessageSize;
+    private int maximumImapConnections;
+    private int maximumConcurrentFolderSyncs;
+    private int flagsFetchWindowSize;
+    private int bodyFetchWindowByteBudget;
     // Tracks if we have sent a notification for this account for
     // current set of fetched messages
     private boolean mRingNotified;
@@ -305,6 +313,10 @@ public class Account implements BaseAccount, StoreConfig {
         subscribedFoldersOnly = false;
         maximumPolledMessageAge = -1;
         maximumAutoDownloadMessageSize = 32768;
+        maximumImapConnections = DEFAULT_MAXIMUM_IMAP_CONNECTIONS;
+        maximumConcurrentFolderSyncs = DEFAULT_MAXIMUM_CONCURRENT_FOLDER_SYNCS;
+        flagsFetchWindowSize = DEFAULT_FLAGS_FETCH_WINDOW_SIZE;
+        bodyFetchWindowByteBudget = DEFAULT_BODY_FETCH_WINDOW_BYTE_BUDGET;
         mMessageFormat = DEFAULT_MESSAGE_FORMAT;
         mMessageFormatAuto = DEFAULT_MESSAGE_FORMAT_AUTO;
         mMessageReadReceipt = DEFAULT_MESSAGE_READ_RECEIPT;
@@ -411,6 +423,13 @@ public class Account implements BaseAccount, StoreConfig {
         subscribedFoldersOnly = storage.getBoolean(mUuid + ".subscribedFoldersOnly", false);
         maximumPolledMessageAge = storage.getInt(mUuid + ".maximumPolledMessageAge", -1);
         maximumAutoDownloadMessageSize = storage.getInt(mUuid + ".maximumAutoDownloadMessageSize", 32768);
+        maximumImapConnections = storage.getInt(mUuid + ".maximumImapConnections",
+                DEFAULT_MAXIMUM_IMAP_CONNECTIONS);
+        maximumConcurrentFolderSyncs = storage.getInt(mUuid + ".maximumConcurrentFolderSyncs",
+                DEFAULT_MAXIMUM_CONCURRENT_FOLDER_SYNCS);
+        flagsFetchWindowSize = storage.getInt(mUuid + ".flagsFetchWindowSize", DEFAULT_FLAGS_FETCH_WINDOW_SIZE);
+        bodyFetchWindowByteBudget = storage.getInt(mUuid + ".bodyFetchWindowByteBudget",
+                DEFAULT_BODY_FETCH_WINDOW_BYTE_BUDGET);
         mMessageFormat =  getEnumStringPref(storage, mUuid + ".messageFormat", DEFAULT_MESSAGE_FORMAT);
         mMessageFormatAuto = storage.getBoolean(mUuid + ".messageFormatAuto", DEFAULT_MESSAGE_FORMAT_AUTO);
         if (mMessageFormatAuto && mMessageFormat == MessageFormat.TEXT) {
@@ -543,6 +562,10 @@ public class Account implements BaseAccount, StoreConfig {
         editor.remove(mUuid + ".subscribedFoldersOnly");
         editor.remove(mUuid + ".maximumPolledMessageAge");
         editor.remove(mUuid + ".maximumAutoDownloadMessageSize");
+        editor.remove(mUuid + ".maximumImapConnections");
+        editor.remove(mUuid + ".maximumConcurrentFolderSyncs");
+        editor.remove(mUuid + ".flagsFetchWindowSize");
+        editor.remove(mUuid + ".bodyFetchWindowByteBudget");
         editor.remove(mUuid + ".messageFormatAuto");
         editor.remove(mUuid + ".quoteStyle");
         editor.remove(mUuid + ".quotePrefix");
@@ -712,6 +735,10 @@ public class Account implements BaseAccount, StoreConfig {
         editor.putBoolean(mUuid + ".subscribedFoldersOnly", subscribedFoldersOnly);
         editor.putInt(mUuid + ".maximumPolledMessageAge", maximumPolledMessageAge);
         editor.putInt(mUuid + ".maximumAutoDownloadMessageSize", maximumAutoDownloadMessageSize);
+        editor.putInt(mUuid + ".maximumImapConnections", maximumImapConnections);
+        editor.putInt(mUuid + ".maximumConcurrentFolderSyncs", maximumConcurrentFolderSyncs);
+        editor.putInt(mUuid + ".flagsFetchWindowSize", flagsFetchWindowSize);
+        editor.putInt(mUuid + ".bodyFetchWindowByteBudget", bodyFetchWindowByteBudget);
         if (MessageFormat.AUTO.equals(mMessageFormat)) {
             // saving MessageFormat.AUTO as is to the database will cause downgrades to crash on
             // startup, so we save as MessageFormat.TEXT instead with a separate flag for auto.
@@ -1501,6 +1528,47 @@ public class Account implements BaseAccount, StoreConfig {
         this.maximumAutoDownloadMessageSize = maximumAutoDownloadMessageSize;
     }
 
+    public synchronized int getMaximumImapConnections() {
+        return maximumImapConnections;
+    }
+
+    public synchronized void setMaximumImapConnections(int maximumImapConnections) {
+        this.maximumImapConnections = maximumImapConnections;
+    }
+
+    /**
+     * @return The maximum number of folders of this account that are synchronized at the same time.
+     */
+    public synchronized int getMaximumConcurrentFolderSyncs() {
+        return maximumConcurrentFolderSyncs;
+    }
+
+    public synchronized void setMaximumConcurrentFolderSyncs(int maximumConcurrentFolderSyncs) {
+        this.maximumConcurrentFolderSyncs = maximumConcurrentFolderSyncs;
+    }
+
+    /**
+     * @return The maximum number of messages whose flags are requested with a single IMAP FETCH command.
+     */
+    public synchronized int getFlagsFetchWindowSize() {
+        return flagsFetchWindowSize;
+    }
+
+    public synchronized void setFlagsFetchWindowSize(int flagsFetchWindowSize) {
+        this.flagsFetchWindowSize = flagsFetchWindowSize;
+    }
+
+    /**
+     * @return The approximate number of bytes of message bodies requested with a single IMAP FETCH command.
+     */
+    public synchronized int getBodyFetchWindowByteBudget() {
+        return bodyFetchWindowByteBudget;
+    }
+
+    public synchronized void setBodyFetchWindowByteBudget(int bodyFetchWindowByteBudget) {
+        this.bodyFetchWindowByteBudget = bodyFetchWindowByteBudget;
+    }
+
     public Date getEarliestPollDate() {
         int age = getMaximumPolledMessageAge();
         if (age >= 0) {
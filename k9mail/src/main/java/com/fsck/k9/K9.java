@@ -35,7 +35,9 @@ import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.ssl.LocalKeyStore;
+import com.fsck.k9.mail.store.imap.ImapStore;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LockableDatabase.SynchronousMode;
 import com.fsck.k9.preferences.Storage;
 import com.fsck.k9.preferences.StorageEditor;
 import com.fsck.k9.provider.UnreadWidgetProvider;
@@ -243,6 +245,10 @@ public class K9 extends Application {
     private static boolean mWrapFolderNames = false;
     private static boolean mHideUserAgent = false;
     private static boolean mHideTimeZone = false;
+    private static int sMaxConcurrentFolderSyncs = DEFAULT_MAX_CONCURRENT_FOLDER_SYNCS;
+    private static boolean sDatabaseWriteAheadLogging = true;
+    private static SynchronousMode sDatabaseSynchronousMode = DEFAULT_DATABASE_SYNCHRONOUS_MODE;
+    private static int sDatabaseWalAutoCheckpoint = DEFAULT_DATABASE_WAL_AUTO_CHECKPOINT;
 
     private static String sOpenPgpProvider = "";
     private static boolean sOpenPgpSupportSignOnly = false;
@@ -288,6 +294,22 @@ public class K9 extends Application {
      */
     public static final int DEFAULT_VISIBLE_LIMIT = 25;
 
+    /**
+     * The maximum number of folders (across all accounts) that are synchronized at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_FOLDER_SYNCS = 4;
+
+    /**
+     * With a write-ahead log {@code NORMAL} can't corrupt the message database. Only the most recent transactions can
+     * be lost on power failure, and those are restored by the next synchronization.
+     */
+    public static final SynchronousMode DEFAULT_DATABASE_SYNCHRONOUS_MODE = SynchronousMode.NORMAL;
+
+    /**
+     * Size of the write-ahead log (in pages) that triggers a checkpoint. This is the SQLite default.
+     */
+    public static final int DEFAULT_DATABASE_WAL_AUTO_CHECKPOINT = 1000;
+
     /**
      * The maximum size of an attachment we're willing to download (either View or Save)
      * Attachments that are base64 encoded (most) will be about 1.375x their actual size
@@ -470,6 +492,10 @@ public class K9 extends Application {
         editor.putBoolean("wrapFolderNames", mWrapFolderNames);
         editor.putBoolean("hideUserAgent", mHideUserAgent);
         editor.putBoolean("hideTimeZone", mHideTimeZone);
+        editor.putInt("maxConcurrentFolderSyncs", sMaxConcurrentFolderSyncs);
+        editor.putBoolean("databaseWriteAheadLogging", sDatabaseWriteAheadLogging);
+        editor.putString("databaseSynchronousMode", sDatabaseSynchronousMode.name());
+        editor.putInt("databaseWalAutoCheckpoint", sDatabaseWalAutoCheckpoint);
 
         editor.putString("openPgpProvider", sOpenPgpProvider);
         editor.putBoolean("openPgpSupportSignOnly", sOpenPgpSupportSignOnly);
@@ -543,6 +569,7 @@ public class K9 extends Application {
          * doesn't work in Android and MimeMessage does not have access to a Context.
          */
         BinaryTempFileBody.setTempDirectory(getCacheDir());
+        ImapStore.deleteStaleTemporaryFiles(getCacheDir());
 
         LocalKeyStore.setKeyStoreLocation(getDir("KeyStore", MODE_PRIVATE).toString());
 
@@ -704,6 +731,15 @@ public class K9 extends Application {
         mWrapFolderNames = storage.getBoolean("wrapFolderNames", false);
         mHideUserAgent = storage.getBoolean("hideUserAgent", false);
         mHideTimeZone = storage.getBoolean("hideTimeZone", false);
+        sMaxConcurrentFolderSyncs = storage.getInt("maxConcurrentFolderSyncs", DEFAULT_MAX_CONCURRENT_FOLDER_SYNCS);
+        sDatabaseWriteAheadLogging = storage.getBoolean("databaseWriteAheadLogging", true);
+        try {
+            sDatabaseSynchronousMode = SynchronousMode.valueOf(storage.getString("databaseSynchronousMode",
+                    DEFAULT_DATABASE_SYNCHRONOUS_MODE.name()));
+        } catch (Exception e) {
+            sDatabaseSynchronousMode = DEFAULT_DATABASE_SYNCHRONOUS_MODE;
+        }
+        sDatabaseWalAutoCheckpoint = storage.getInt("databaseWalAutoCheckpoint", DEFAULT_DATABASE_WAL_AUTO_CHECKPOINT);
 
         sOpenPgpProvider = storage.getString("openPgpProvider", NO_OPENPGP_PROVIDER);
         sOpenPgpSupportSignOnly = storage.getBoolean("openPgpSupportSignOnly", false);
@@ -1249,6 +1285,38 @@ public class K9 extends Application {
         mHideTimeZone = state;
     }
 
+    public static int getMaxConcurrentFolderSyncs() {
+        return sMaxConcurrentFolderSyncs;
+    }
+
+    public static void setMaxConcurrentFolderSyncs(int maxConcurrentFolderSyncs) {
+        sMaxConcurrentFolderSyncs = maxConcurrentFolderSyncs;
+    }
+
+    public static boolean isDatabaseWriteAheadLogging() {
+        return sDatabaseWriteAheadLogging;
+    }
+
+    public static void setDatabaseWriteAheadLogging(boolean databaseWriteAheadLogging) {
+        sDatabaseWriteAheadLogging = databaseWriteAheadLogging;
+    }
+
+    public static SynchronousMode getDatabaseSynchronousMode() {
+        return sDatabaseSynchronousMode;
+    }
+
+    public static void setDatabaseSynchronousMode(SynchronousMode databaseSynchronousMode) {
+        sDatabaseSynchronousMode = databaseSynchronousMode;
+    }
+
+    public static int getDatabaseWalAutoCheckpoint() {
+        return sDatabaseWalAutoCheckpoint;
+    }
+
+    public static void setDatabaseWalAutoCheckpoint(int databaseWalAutoCheckpoint) {
+        sDatabaseWalAutoCheckpoint = databaseWalAutoCheckpoint;
+    }
+
     public static boolean isOpenPgpProviderConfigured() {
         return !NO_OPENPGP_PROVIDER.equals(sOpenPgpProvider);
     }
@@ -3,10 +3,15 @@ package com.fsck.k9.cache;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.fsck.k9.fragment.MessageListFragment;
@@ -14,6 +19,7 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.provider.EmailProvider;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
 
 /**
  * Cache to bridge the time needed to write (user-initiated) changes to the database.
@@ -21,6 +27,28 @@ import com.fsck.k9.provider.EmailProvider;
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
+    /**
+     * Maximum number of messages and threads with pending flag changes. Changes exceeding this limit are only visible
+     * once they have been written to the database.
+     */
+    static final int MAX_ENTRIES = 20000;
+
+    /**
+     * Multiple changes within this time frame result in a single notification.
+     */
+    private static final long NOTIFICATION_DELAY_MILLIS = 100;
+
+    /**
+     * The columns that can be overridden by the cache. Every column uses two bits of the state stored in
+     * {@link FlagStateTable}: one to signal that a value is present and one for the value.
+     */
+    private static final String[] CACHED_COLUMNS = {
+            MessageColumns.READ,
+            MessageColumns.FLAGGED,
+            MessageColumns.ANSWERED,
+            MessageColumns.FORWARDED
+    };
+
     private static Context sContext;
     private static Map<String, EmailProviderCache> sInstances =
             new HashMap<String, EmailProviderCache>();
@@ -41,118 +69,146 @@ public class EmailProviderCache {
     }
 
 
-    private String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<Long, Long>();
+    private final String mAccountUuid;
+    private final FlagStateTable mMessageCache = new FlagStateTable(MAX_ENTRIES);
+    private final FlagStateTable mThreadCache = new FlagStateTable(MAX_ENTRIES);
+    private final OtherColumnCache mOtherMessageCache = new OtherColumnCache();
+    private final OtherColumnCache mOtherThreadCache = new OtherColumnCache();
+    private final ConcurrentHashMap<Long, Long> mHiddenMessageCache = new ConcurrentHashMap<Long, Long>();
+    private final AtomicBoolean mNotificationPending = new AtomicBoolean(false);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNotificationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mNotificationPending.set(false);
+            sendNotifications();
+        }
+    };
 
 
     private EmailProviderCache(String accountUuid) {
         mAccountUuid = accountUuid;
     }
 
-    public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
-            return (map == null) ? null : map.get(columnName);
+    /**
+     * @return The index of the column in the state returned by {@link #getMessageState(long)} and
+     *         {@link #getThreadState(long)}, or {@code -1} if the cache doesn't contain values for the column.
+     */
+    static int getCachedColumnIndex(String columnName) {
+        for (int i = 0; i < CACHED_COLUMNS.length; i++) {
+            if (CACHED_COLUMNS[i].equals(columnName)) {
+                return i;
+            }
         }
+
+        return -1;
+    }
+
+    static boolean hasValue(int state, int cachedColumnIndex) {
+        return (state & (1 << (2 * cachedColumnIndex))) != 0;
+    }
+
+    static int getValue(int state, int cachedColumnIndex) {
+        return (state >>> (2 * cachedColumnIndex + 1)) & 1;
+    }
+
+    int getMessageState(long messageId) {
+        return mMessageCache.get(messageId);
+    }
+
+    int getThreadState(long threadRootId) {
+        return mThreadCache.get(threadRootId);
+    }
+
+    /**
+     * @return {@code true} if values for columns other than the flag columns have been stored in this cache.
+     */
+    boolean hasOtherColumnValues() {
+        return !mOtherMessageCache.isEmpty() || !mOtherThreadCache.isEmpty();
+    }
+
+    public String getValueForMessage(Long messageId, String columnName) {
+        return getValue(mMessageCache, mOtherMessageCache, messageId, columnName);
     }
 
     public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
-            return (map == null) ? null : map.get(columnName);
-        }
+        return getValue(mThreadCache, mOtherThreadCache, threadRootId, columnName);
     }
 
-    public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
-            }
+    private static String getValue(FlagStateTable table, OtherColumnCache otherColumnCache, long id,
+            String columnName) {
+        int cachedColumnIndex = getCachedColumnIndex(columnName);
+        if (cachedColumnIndex == -1) {
+            return otherColumnCache.get(id, columnName);
         }
 
+        int state = table.get(id);
+        return hasValue(state, cachedColumnIndex) ? Integer.toString(getValue(state, cachedColumnIndex)) : null;
+    }
+
+    public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
+        setValue(mMessageCache, mOtherMessageCache, messageIds, columnName, value);
         notifyChange();
     }
 
     public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
-
+        setValue(mThreadCache, mOtherThreadCache, threadRootIds, columnName, value);
         notifyChange();
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
-            }
-        }
+        removeValue(mMessageCache, mOtherMessageCache, messageIds, columnName);
     }
 
     public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
-            }
+        removeValue(mThreadCache, mOtherThreadCache, threadRootIds, columnName);
+    }
+
+    private static void setValue(FlagStateTable table, OtherColumnCache otherColumnCache, List<Long> ids,
+            String columnName, String value) {
+        int cachedColumnIndex = getCachedColumnIndex(columnName);
+        if (cachedColumnIndex == -1) {
+            otherColumnCache.put(ids, columnName, value);
+            return;
+        }
+
+        int presentBit = 1 << (2 * cachedColumnIndex);
+        int valueBit = ("0".equals(value)) ? 0 : presentBit << 1;
+        table.update(ids, presentBit | (presentBit << 1), presentBit | valueBit);
+    }
+
+    private static void removeValue(FlagStateTable table, OtherColumnCache otherColumnCache, List<Long> ids,
+            String columnName) {
+        int cachedColumnIndex = getCachedColumnIndex(columnName);
+        if (cachedColumnIndex == -1) {
+            otherColumnCache.remove(ids, columnName);
+            return;
         }
+
+        table.update(ids, 3 << (2 * cachedColumnIndex), 0);
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (LocalMessage message : messages) {
-                long messageId = message.getId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getId());
-            }
+        for (LocalMessage message : messages) {
+            long messageId = message.getId();
+            mHiddenMessageCache.put(messageId, message.getFolder().getId());
         }
 
         notifyChange();
     }
 
     public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-            return (hiddenInFolder != null && hiddenInFolder.longValue() == folderId);
-        }
+        Long hiddenInFolder = mHiddenMessageCache.get(messageId);
+        return (hiddenInFolder != null && hiddenInFolder.longValue() == folderId);
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (Message message : messages) {
-                LocalMessage localMessage = (LocalMessage) message;
-                long messageId = localMessage.getId();
-                long folderId = ((LocalFolder) localMessage.getFolder()).getId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-
-                if (hiddenInFolder != null && hiddenInFolder.longValue() == folderId) {
-                    mHiddenMessageCache.remove(messageId);
-                }
-            }
+        for (Message message : messages) {
+            LocalMessage localMessage = (LocalMessage) message;
+            long messageId = localMessage.getId();
+            long folderId = ((LocalFolder) localMessage.getFolder()).getId();
+
+            mHiddenMessageCache.remove(messageId, folderId);
         }
     }
 
@@ -166,12 +222,69 @@ public class EmailProviderCache {
      * {@link LocalBroadcastManager} to send a {@link #ACTION_CACHE_UPDATED} broadcast. This way
      * {@code MessageListFragment} can update the view without reloading the cursor.
      * </p>
+     *
+     * <p>
+     * Notifications are delayed by {@link #NOTIFICATION_DELAY_MILLIS}. All changes made in the meantime are covered by
+     * the same notification, so a burst of flag changes results in a single reload of the message list.
+     * </p>
      */
     private void notifyChange() {
+        if (mNotificationPending.compareAndSet(false, true)) {
+            mHandler.postDelayed(mNotificationRunnable, NOTIFICATION_DELAY_MILLIS);
+        }
+    }
+
+    private void sendNotifications() {
         LocalBroadcastManager.getInstance(sContext).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
                 "/messages");
         sContext.getContentResolver().notifyChange(uri, null);
     }
+
+
+    /**
+     * Stores values of columns that aren't flags. {@link EmailProviderCacheCursor} only consults it while it contains
+     * values, so it doesn't slow down reading the message list when it isn't used.
+     */
+    private static class OtherColumnCache {
+        private final ConcurrentHashMap<String, ConcurrentHashMap<Long, String>> mColumns =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Long, String>>();
+
+        private final AtomicInteger mSize = new AtomicInteger();
+
+        boolean isEmpty() {
+            return mSize.get() == 0;
+        }
+
+        String get(long id, String columnName) {
+            ConcurrentHashMap<Long, String> values = mColumns.get(columnName);
+            return (values == null) ? null : values.get(id);
+        }
+
+        void put(List<Long> ids, String columnName, String value) {
+            ConcurrentHashMap<Long, String> values = mColumns.get(columnName);
+            if (values == null) {
+                mColumns.putIfAbsent(columnName, new ConcurrentHashMap<Long, String>());
+                values = mColumns.get(columnName);
+            }
+
+            for (Long id : ids) {
+                if (values.put(id, value) == null) {
+                    mSize.incrementAndGet();
+                }
+            }
+        }
+
+        void remove(List<Long> ids, String columnName) {
+            ConcurrentHashMap<Long, String> values = mColumns.get(columnName);
+            if (values != null) {
+                for (Long id : ids) {
+                    if (values.remove(id) != null) {
+                        mSize.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
 }
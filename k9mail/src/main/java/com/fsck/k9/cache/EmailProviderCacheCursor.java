@@ -20,6 +20,12 @@ public class EmailProviderCacheCursor extends CursorWrapper {
     private int mFolderIdColumn;
     private int mThreadRootColumn;
 
+    /**
+     * Maps the index of a column to the index used by {@link EmailProviderCache} for that column, or {@code -1} if the
+     * cache doesn't contain values for the column.
+     */
+    private int[] mCachedColumnIndexes;
+
     /**
      * The cursor's current position.
      *
@@ -43,6 +49,12 @@ public class EmailProviderCacheCursor extends CursorWrapper {
                     ", " + ThreadColumns.ROOT);
         }
 
+        String[] columnNames = cursor.getColumnNames();
+        mCachedColumnIndexes = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            mCachedColumnIndexes[i] = EmailProviderCache.getCachedColumnIndex(columnNames[i]);
+        }
+
         while (cursor.moveToNext()) {
             long messageId = cursor.getLong(mMessageIdColumn);
             long folderId = cursor.getLong(mFolderIdColumn);
@@ -58,17 +70,43 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
     @Override
     public int getInt(int columnIndex) {
+        int cachedColumnIndex = (columnIndex >= 0 && columnIndex < mCachedColumnIndexes.length) ?
+                mCachedColumnIndexes[columnIndex] : -1;
+        if (cachedColumnIndex == -1) {
+            return getUncachedColumnInt(columnIndex);
+        }
+
         long messageId = getLong(mMessageIdColumn);
+        int state = mCache.getMessageState(messageId);
+        if (EmailProviderCache.hasValue(state, cachedColumnIndex)) {
+            return EmailProviderCache.getValue(state, cachedColumnIndex);
+        }
+
         long threadRootId = getLong(mThreadRootColumn);
+        state = mCache.getThreadState(threadRootId);
+        if (EmailProviderCache.hasValue(state, cachedColumnIndex)) {
+            return EmailProviderCache.getValue(state, cachedColumnIndex);
+        }
 
-        String columnName = getColumnName(columnIndex);
-        String value = mCache.getValueForMessage(messageId, columnName);
+        return super.getInt(columnIndex);
+    }
 
+    /**
+     * Columns that aren't flags are kept in a map by {@link EmailProviderCache}. They are only looked up when the
+     * cache actually contains values for such a column.
+     */
+    private int getUncachedColumnInt(int columnIndex) {
+        if (!mCache.hasOtherColumnValues()) {
+            return super.getInt(columnIndex);
+        }
+
+        String columnName = getColumnName(columnIndex);
+        String value = mCache.getValueForMessage(getLong(mMessageIdColumn), columnName);
         if (value != null) {
             return Integer.parseInt(value);
         }
 
-        value = mCache.getValueForThread(threadRootId, columnName);
+        value = mCache.getValueForThread(getLong(mThreadRootColumn), columnName);
         if (value != null) {
             return Integer.parseInt(value);
         }
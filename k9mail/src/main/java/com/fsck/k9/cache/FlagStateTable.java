@@ -0,0 +1,135 @@
+package com.fsck.k9.cache;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Maps {@code long} IDs to {@code int} flag states.
+ *
+ * <p>
+ * The table is copy-on-write: lookups work on an immutable snapshot of sorted arrays and never block. Updates are
+ * applied to a whole list of IDs at once, so a bulk operation creates a single new snapshot instead of one object per
+ * message. Entries with a state of {@code 0} are removed.
+ * </p>
+ *
+ * <p>
+ * The number of entries is limited to {@code maxSize}. When the table is full new IDs are not added. Entries are
+ * only needed until the database has been updated, so the worst case is a short delay until the user sees a change.
+ * </p>
+ */
+class FlagStateTable {
+    private static final Snapshot EMPTY = new Snapshot(new long[0], new int[0], 0);
+
+
+    private final int maxSize;
+    private volatile Snapshot snapshot = EMPTY;
+
+
+    FlagStateTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The state for {@code id} or {@code 0} if there is none.
+     */
+    int get(long id) {
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.keys, 0, current.size, id);
+        return (index >= 0) ? current.values[index] : 0;
+    }
+
+    int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Changes the state of all {@code ids} to {@code (state & ~clearMask) | setBits}.
+     */
+    synchronized void update(List<Long> ids, int clearMask, int setBits) {
+        long[] updateIds = toSortedArray(ids);
+        Snapshot current = snapshot;
+
+        int newEntriesAllowed = Math.max(0, maxSize - current.size);
+        long[] keys = new long[current.size + Math.min(newEntriesAllowed, updateIds.length)];
+        int[] values = new int[keys.length];
+        int size = 0;
+        int newEntries = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < current.size || j < updateIds.length) {
+            long key;
+            int oldValue;
+            boolean updated;
+            if (j == updateIds.length || (i < current.size && current.keys[i] < updateIds[j])) {
+                key = current.keys[i];
+                oldValue = current.values[i];
+                updated = false;
+                i++;
+            } else if (i == current.size || updateIds[j] < current.keys[i]) {
+                key = updateIds[j];
+                oldValue = 0;
+                updated = true;
+                j++;
+            } else {
+                key = current.keys[i];
+                oldValue = current.values[i];
+                updated = true;
+                i++;
+                j++;
+            }
+
+            int value = updated ? (oldValue & ~clearMask) | setBits : oldValue;
+            if (value == 0) {
+                continue;
+            }
+
+            if (oldValue == 0) {
+                if (newEntries == newEntriesAllowed) {
+                    continue;
+                }
+                newEntries++;
+            }
+
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        snapshot = new Snapshot(keys, values, size);
+    }
+
+    private static long[] toSortedArray(List<Long> ids) {
+        long[] result = new long[ids.size()];
+        int size = 0;
+        for (Long id : ids) {
+            result[size++] = id;
+        }
+        Arrays.sort(result);
+
+        // Remove duplicates
+        int uniqueSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (uniqueSize == 0 || result[uniqueSize - 1] != result[i]) {
+                result[uniqueSize++] = result[i];
+            }
+        }
+
+        return (uniqueSize == size) ? result : Arrays.copyOf(result, uniqueSize);
+    }
+
+
+    private static class Snapshot {
+        final long[] keys;
+        final int[] values;
+        final int size;
+
+        Snapshot(long[] keys, int[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+    }
+}
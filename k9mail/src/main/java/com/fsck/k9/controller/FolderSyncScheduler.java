@@ -0,0 +1,149 @@
+package com.fsck.k9.controller;
+
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import timber.log.Timber;
+
+
+/**
+ * Runs folder synchronizations in parallel.
+ *
+ * <p>
+ * Tasks are started in the order they were submitted, subject to three restrictions:
+ * <ul>
+ * <li>no more than {@code maxConcurrentSyncs} tasks run at the same time,</li>
+ * <li>no more than the per-account limit supplied with a task run at the same time for that account,</li>
+ * <li>tasks for the same folder never run at the same time and are started in submission order.</li>
+ * </ul>
+ * </p>
+ */
+class FolderSyncScheduler {
+    private final Executor executor;
+    private int maxConcurrentSyncs;
+
+    private final LinkedList<SyncTask> pendingTasks = new LinkedList<>();
+    private final Map<String, Integer> runningTasksPerAccount = new HashMap<>();
+    private final Set<String> busyFolders = new HashSet<>();
+    private int runningTasks = 0;
+
+
+    FolderSyncScheduler(Executor executor, int maxConcurrentSyncs) {
+        this.executor = executor;
+        this.maxConcurrentSyncs = Math.max(1, maxConcurrentSyncs);
+    }
+
+    void execute(String accountUuid, int maxAccountSyncs, String folderName, String description, Runnable runnable) {
+        SyncTask task = new SyncTask(accountUuid, Math.max(1, maxAccountSyncs), folderName, description, runnable);
+
+        synchronized (this) {
+            pendingTasks.add(task);
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Changes the global limit. Running tasks are not affected; pending tasks are started if the limit was raised.
+     */
+    void setMaxConcurrentSyncs(int maxConcurrentSyncs) {
+        synchronized (this) {
+            this.maxConcurrentSyncs = Math.max(1, maxConcurrentSyncs);
+        }
+
+        dispatch();
+    }
+
+    synchronized int getRunningTaskCount() {
+        return runningTasks;
+    }
+
+    synchronized int getPendingTaskCount() {
+        return pendingTasks.size();
+    }
+
+    private void dispatch() {
+        LinkedList<SyncTask> tasksToStart = new LinkedList<>();
+
+        synchronized (this) {
+            Set<String> skippedFolders = new HashSet<>();
+            Iterator<SyncTask> iterator = pendingTasks.iterator();
+            while (iterator.hasNext() && runningTasks < maxConcurrentSyncs) {
+                SyncTask task = iterator.next();
+
+                // Once a task for a folder has to wait, all later tasks for that folder have to wait as well
+                if (busyFolders.contains(task.folderKey) || skippedFolders.contains(task.folderKey) ||
+                        getRunningTasks(task.accountUuid) >= task.maxAccountSyncs) {
+                    skippedFolders.add(task.folderKey);
+                    continue;
+                }
+
+                iterator.remove();
+                runningTasks++;
+                runningTasksPerAccount.put(task.accountUuid, getRunningTasks(task.accountUuid) + 1);
+                busyFolders.add(task.folderKey);
+                tasksToStart.add(task);
+            }
+        }
+
+        for (SyncTask task : tasksToStart) {
+            executor.execute(task);
+        }
+    }
+
+    private int getRunningTasks(String accountUuid) {
+        Integer count = runningTasksPerAccount.get(accountUuid);
+        return count != null ? count : 0;
+    }
+
+    private void taskFinished(SyncTask task) {
+        synchronized (this) {
+            runningTasks--;
+            int accountTasks = getRunningTasks(task.accountUuid) - 1;
+            if (accountTasks > 0) {
+                runningTasksPerAccount.put(task.accountUuid, accountTasks);
+            } else {
+                runningTasksPerAccount.remove(task.accountUuid);
+            }
+            busyFolders.remove(task.folderKey);
+        }
+
+        dispatch();
+    }
+
+
+    private class SyncTask implements Runnable {
+        final String accountUuid;
+        final int maxAccountSyncs;
+        final String folderKey;
+        final String description;
+        final Runnable runnable;
+
+        SyncTask(String accountUuid, int maxAccountSyncs, String folderName, String description, Runnable runnable) {
+            this.accountUuid = accountUuid;
+            this.maxAccountSyncs = maxAccountSyncs;
+            this.folderKey = accountUuid + ":" + folderName;
+            this.description = description;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            Timber.i("Running sync task '%s'", description);
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Timber.e(e, "Error running sync task '%s'", description);
+            } finally {
+                taskFinished(this);
+            }
+            Timber.i(" Sync task '%s' completed", description);
+        }
+    }
+}
@@ -22,12 +22,14 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import android.annotation.SuppressLint;
 import android.content.ContentResolver;
@@ -72,6 +74,7 @@ import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -81,6 +84,7 @@ import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.Pusher;
 import com.fsck.k9.mail.Store;
 import com.fsck.k9.mail.Transport;
+import com.fsck.k9.mail.UidRange;
 import com.fsck.k9.mail.TransportProvider;
 import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.internet.MimeMessage;
@@ -95,6 +99,7 @@ import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.mailstore.MessageRemovalListener;
+import com.fsck.k9.mailstore.SmallMessageWriter;
 import com.fsck.k9.mailstore.UnavailableStorageException;
 import com.fsck.k9.notification.NotificationController;
 import com.fsck.k9.provider.EmailProvider;
@@ -104,6 +109,7 @@ import com.fsck.k9.search.LocalSearch;
 import com.fsck.k9.search.SearchAccount;
 import com.fsck.k9.search.SearchSpecification;
 import com.fsck.k9.search.SqlQueryBuilder;
+import com.fsck.k9.service.FulltextIndexerService;
 import timber.log.Timber;
 
 import static com.fsck.k9.K9.MAX_SEND_ATTEMPTS;
@@ -143,6 +149,11 @@ public class MessagingController {
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, ReentrantLock> pendingCommandLocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ReentrantLock> folderLocks = new ConcurrentHashMap<>();
+    private final Set<String> accountsWithPostponedCommands =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final FolderSyncScheduler folderSyncScheduler;
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final TransportProvider transportProvider;
 
@@ -171,6 +182,20 @@ public class MessagingController {
         this.contacts = contacts;
         this.transportProvider = transportProvider;
 
+        final ExecutorService syncThreadPool = Executors.newCachedThreadPool();
+        folderSyncScheduler = new FolderSyncScheduler(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable runnable) {
+                syncThreadPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                });
+            }
+        }, K9.getMaxConcurrentFolderSyncs());
+
         controllerThread = new Thread(new Runnable() {
             @Override
             public void run() {
@@ -238,6 +263,31 @@ public class MessagingController {
         putCommand(queuedCommands, description, listener, runnable, false);
     }
 
+    /**
+     * Schedules the synchronization of a folder. Folders of different accounts, and of the same account up to
+     * {@link Account#getMaximumConcurrentFolderSyncs()}, are synchronized in parallel. Synchronizations of the same
+     * folder are run one after the other.
+     */
+    private void putFolderSync(final Account account, final String folderName, String description,
+            final MessagingListener listener, final Runnable runnable) {
+        // The global limit is a setting that can change at any time
+        folderSyncScheduler.setMaxConcurrentSyncs(K9.getMaxConcurrentFolderSyncs());
+        folderSyncScheduler.execute(account.getUuid(), account.getMaximumConcurrentFolderSyncs(), folderName,
+                description, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runnable.run();
+                        } catch (RuntimeException e) {
+                            for (MessagingListener l : getListeners(listener)) {
+                                l.synchronizeMailboxFailed(account, folderName, getRootCauseMessage(e));
+                            }
+                            throw e;
+                        }
+                    }
+                });
+    }
+
     private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
             Runnable runnable, boolean isForeground) {
         int retries = 10;
@@ -712,7 +762,7 @@ public class MessagingController {
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putFolderSync(account, folder, "synchronizeMailbox", listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -748,12 +798,13 @@ public class MessagingController {
             return;
         }
 
+        ReentrantLock folderLock = getFolderLock(account, folder);
         Exception commandException = null;
         try {
             Timber.d("SYNC: About to process pending commands for account %s", account.getDescription());
 
             try {
-                processPendingCommandsSynchronous(account);
+                processPendingCommandsAndLockFolder(account, folderLock);
             } catch (Exception e) {
                 addErrorMessage(account, null, e);
 
@@ -918,10 +969,24 @@ public class MessagingController {
                 updateMoreMessages(remoteFolder, localFolder, earliestDate, remoteStart);
             }
 
+            /*
+             * If the server supports CONDSTORE and the folder didn't change its UIDVALIDITY we only need to look at
+             * the flags of messages that changed since the last synchronization.
+             */
+            long remoteUidValidity = remoteFolder.getUidValidity();
+            long remoteHighestModSeq = remoteFolder.getHighestModSeq();
+            FolderChanges<Message> folderChanges = fetchChangedMessages(remoteFolder, localFolder,
+                    remoteUidValidity, remoteHighestModSeq);
+            if (folderChanges != null && folderChanges.hasVanishedUids() && account.syncRemoteDeletions()) {
+                destroyVanishedMessages(account, localFolder, folderChanges.getVanishedUidRanges(), listener);
+            }
+            Map<String, Message> changedMessages = getChangedMessagesByUid(folderChanges);
+
             /*
              * Now we download the actual content of messages.
              */
-            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true,
+                    changedMessages);
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -930,6 +995,7 @@ public class MessagingController {
 
             /* Notify listeners that we're finally done. */
 
+            localFolder.setModSeqState(remoteUidValidity, remoteHighestModSeq);
             localFolder.setLastChecked(System.currentTimeMillis());
             localFolder.setStatus(null);
 
@@ -991,10 +1057,91 @@ public class MessagingController {
             }
 
             closeFolder(tLocalFolder);
+
+            if (folderLock.isHeldByCurrentThread()) {
+                folderLock.unlock();
+            }
+
+            if (accountsWithPostponedCommands.remove(account.getUuid())) {
+                processPendingCommands(account);
+            }
         }
 
     }
 
+    /**
+     * Fetches the flags of the messages that changed since the last synchronization of the folder.
+     *
+     * @return The messages containing the current flags and, if the server supports QRESYNC, the UIDs of messages
+     *         that were expunged. {@code null} if a full flag synchronization is necessary.
+     */
+    private FolderChanges<Message> fetchChangedMessages(Folder remoteFolder, LocalFolder localFolder,
+            long remoteUidValidity, long remoteHighestModSeq) throws MessagingException {
+        long localHighestModSeq = localFolder.getHighestModSeq();
+        if (remoteHighestModSeq <= 0 || localHighestModSeq <= 0 || remoteUidValidity == -1L ||
+                remoteUidValidity != localFolder.getUidValidity()) {
+            return null;
+        }
+
+        if (remoteHighestModSeq == localHighestModSeq) {
+            Timber.d("SYNC: No flag changes for folder %s since MODSEQ %d", remoteFolder.getName(),
+                    localHighestModSeq);
+            return new FolderChanges<>(Collections.<Message>emptyList(), null);
+        }
+
+        @SuppressWarnings("unchecked")
+        FolderChanges<Message> folderChanges = remoteFolder.fetchChangedSince(localHighestModSeq);
+
+        Timber.d("SYNC: %d messages in folder %s changed since MODSEQ %d",
+                folderChanges.getChangedMessages().size(), remoteFolder.getName(), localHighestModSeq);
+
+        return folderChanges;
+    }
+
+    private static Map<String, Message> getChangedMessagesByUid(FolderChanges<Message> folderChanges) {
+        if (folderChanges == null) {
+            return null;
+        }
+
+        Map<String, Message> changedMessages = new HashMap<>();
+        for (Message message : folderChanges.getChangedMessages()) {
+            changedMessages.put(message.getUid(), message);
+        }
+
+        return changedMessages;
+    }
+
+    /**
+     * Removes messages that the server reported as expunged (QRESYNC {@code VANISHED}) from the local folder.
+     *
+     * <p>
+     * This also catches messages outside of the synchronized window that the comparison of UID lists doesn't see.
+     * </p>
+     */
+    private void destroyVanishedMessages(Account account, LocalFolder localFolder, List<UidRange> vanishedUidRanges,
+            MessagingListener listener) throws MessagingException {
+        if (vanishedUidRanges.isEmpty()) {
+            return;
+        }
+
+        // VANISHED (EARLIER) may cover large UID ranges, so let the database find the messages we actually have
+        List<LocalMessage> destroyMessages = localFolder.getMessagesInUidRanges(vanishedUidRanges);
+        if (destroyMessages.isEmpty()) {
+            return;
+        }
+
+        Timber.d("SYNC: Removing %d messages that vanished from folder %s", destroyMessages.size(),
+                localFolder.getName());
+
+        localFolder.destroyMessages(destroyMessages);
+
+        for (Message destroyMessage : destroyMessages) {
+            for (MessagingListener l : getListeners(listener)) {
+                l.synchronizeMailboxRemovedMessage(account, localFolder.getName(), destroyMessage);
+            }
+        }
+    }
+
     void handleAuthenticationFailure(Account account, boolean incoming) {
         notificationController.showAuthenticationErrorNotification(account, incoming);
     }
@@ -1068,6 +1215,22 @@ public class MessagingController {
     private int downloadMessages(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder, List<Message> inputMessages,
             boolean flagSyncOnly, boolean purgeToVisibleLimit) throws MessagingException {
+        return downloadMessages(account, remoteFolder, localFolder, inputMessages, flagSyncOnly, purgeToVisibleLimit,
+                null);
+    }
+
+    /**
+     * Same as {@link #downloadMessages(Account, Folder, LocalFolder, List, boolean, boolean)}, but only refreshes the
+     * flags of messages contained in {@code changedMessages}, if present.
+     *
+     * @param changedMessages
+     *         The messages that changed since the last synchronization mapped by UID, including their current flags.
+     *         Pass {@code null} to fetch the flags of all messages that have already been downloaded.
+     */
+    private int downloadMessages(final Account account, final Folder remoteFolder,
+            final LocalFolder localFolder, List<Message> inputMessages,
+            boolean flagSyncOnly, boolean purgeToVisibleLimit, Map<String, Message> changedMessages)
+            throws MessagingException {
 
         final Date earliestDate = account.getEarliestPollDate();
         Date downloadStarted = new Date(); // now
@@ -1176,7 +1339,8 @@ public class MessagingController {
          * download.
          */
 
-        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, changedMessages, progress,
+                todo);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
@@ -1352,63 +1516,83 @@ public class MessagingController {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
-        remoteFolder.fetch(smallMessages,
-                fp, new MessageRetrievalListener<T>() {
+        final SmallMessageWriter smallMessageWriter = new SmallMessageWriter(localFolder,
+                new SmallMessageWriter.Callback() {
                     @Override
-                    public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
-
-                            if (!shouldImportMessage(account, message, earliestDate)) {
-                                progress.incrementAndGet();
+                    public void messageStored(Message message, LocalMessage localMessage) {
+                        progress.incrementAndGet();
 
-                                return;
-                            }
+                        // Increment the number of "new messages" if the newly downloaded message is
+                        // not marked as read.
+                        if (!localMessage.isSet(Flag.SEEN)) {
+                            newMessages.incrementAndGet();
+                        }
 
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
+                        Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                                account, folder, message.getUid());
 
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
+                        // Update the listener with what we've found
+                        for (MessagingListener l : getListeners()) {
+                            l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
                             if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
+                                l.synchronizeMailboxNewMessage(account, folder, localMessage);
                             }
+                        }
+                        // Send a notification of this message
 
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
+                        if (shouldNotifyForMessage(account, localFolder, message)) {
+                            // Notify with the localMessage so that we don't have to recalculate the content preview.
+                            notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                        }
+                    }
+                });
 
-                            // Update the listener with what we've found
-                            for (MessagingListener l : getListeners()) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
+        try {
+            remoteFolder.fetch(smallMessages,
+                    fp, new MessageRetrievalListener<T>() {
+                        @Override
+                        public void messageFinished(final T message, int number, int ofTotal) {
+                            try {
+
+                                if (!shouldImportMessage(account, message, earliestDate)) {
+                                    progress.incrementAndGet();
+
+                                    smallMessageWriter.flushIfOverdue();
+                                    return;
                                 }
-                            }
-                            // Send a notification of this message
 
-                            if (shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
+                                // Store the updated message locally. Messages are written in batches.
+                                smallMessageWriter.add(message);
 
-                        } catch (MessagingException me) {
-                            addErrorMessage(account, null, me);
-                            Timber.e(me, "SYNC: fetch small messages");
+                            } catch (MessagingException me) {
+                                addErrorMessage(account, null, me);
+                                Timber.e(me, "SYNC: fetch small messages");
+                            }
                         }
-                    }
 
-                    @Override
-                    public void messageStarted(String uid, int number, int ofTotal) {
-                    }
+                        @Override
+                        public void messageStarted(String uid, int number, int ofTotal) {
+                            try {
+                                smallMessageWriter.flushIfOverdue();
+                            } catch (MessagingException me) {
+                                addErrorMessage(account, null, me);
+                                Timber.e(me, "SYNC: fetch small messages");
+                            }
+                        }
 
-                    @Override
-                    public void messagesFinished(int total) {
-                    }
-                });
+                        @Override
+                        public void messagesFinished(int total) {
+                        }
+                    });
+        } finally {
+            // Store the messages that were downloaded before a failure, too
+            try {
+                smallMessageWriter.flush();
+            } catch (MessagingException me) {
+                addErrorMessage(account, null, me);
+                Timber.e(me, "SYNC: fetch small messages");
+            }
+        }
 
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
@@ -1545,6 +1729,7 @@ public class MessagingController {
     private void refreshLocalMessageFlags(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder,
             List<Message> syncFlagMessages,
+            Map<String, Message> changedMessages,
             final AtomicInteger progress,
             final int todo
     ) throws MessagingException {
@@ -1553,18 +1738,31 @@ public class MessagingController {
         if (remoteFolder.supportsFetchingFlags()) {
             Timber.d("SYNC: About to sync flags for %d remote messages for folder %s", syncFlagMessages.size(), folder);
 
-            FetchProfile fp = new FetchProfile();
-            fp.add(FetchProfile.Item.FLAGS);
+            if (changedMessages == null) {
+                FetchProfile fp = new FetchProfile();
+                fp.add(FetchProfile.Item.FLAGS);
 
-            List<Message> undeletedMessages = new LinkedList<>();
-            for (Message message : syncFlagMessages) {
-                if (!message.isSet(Flag.DELETED)) {
-                    undeletedMessages.add(message);
+                List<Message> undeletedMessages = new LinkedList<>();
+                for (Message message : syncFlagMessages) {
+                    if (!message.isSet(Flag.DELETED)) {
+                        undeletedMessages.add(message);
+                    }
                 }
+
+                remoteFolder.fetch(undeletedMessages, fp, null);
             }
 
-            remoteFolder.fetch(undeletedMessages, fp, null);
-            for (Message remoteMessage : syncFlagMessages) {
+            for (Message syncFlagMessage : syncFlagMessages) {
+                Message remoteMessage = syncFlagMessage;
+                if (changedMessages != null) {
+                    remoteMessage = changedMessages.get(syncFlagMessage.getUid());
+                    if (remoteMessage == null) {
+                        // Flags didn't change since the last synchronization
+                        progress.incrementAndGet();
+                        continue;
+                    }
+                }
+
                 LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
                 boolean messageChanged = syncFlags(localMessage, remoteMessage);
                 if (messageChanged) {
@@ -1670,6 +1868,66 @@ public class MessagingController {
     }
 
     private void processPendingCommandsSynchronous(Account account) throws MessagingException {
+        // Folders are synchronized in parallel. Make sure pending commands are still executed one at a time.
+        ReentrantLock pendingCommandsLock = getLock(pendingCommandLocks, account.getUuid());
+        pendingCommandsLock.lock();
+        try {
+            processPendingCommandsSynchronousLocked(account);
+        } finally {
+            pendingCommandsLock.unlock();
+        }
+    }
+
+    /**
+     * Processes the pending commands of an account and then acquires the lock of the folder that is about to be
+     * synchronized.
+     *
+     * <p>
+     * If the folder is free, its lock is taken before the pending commands lock is released. So commands that are
+     * added while the folder is synchronized are only executed once the synchronization has finished, like they were
+     * when all synchronizations went through the command queue. If another synchronization of the folder is still
+     * running, the pending commands lock is released before waiting for the folder lock, so the pending commands of
+     * the account don't have to wait for that synchronization. The folder lock is acquired even if processing the
+     * pending commands failed.
+     * </p>
+     */
+    private void processPendingCommandsAndLockFolder(Account account, ReentrantLock folderLock)
+            throws MessagingException {
+        ReentrantLock pendingCommandsLock = getLock(pendingCommandLocks, account.getUuid());
+        boolean folderLocked = false;
+        pendingCommandsLock.lock();
+        try {
+            try {
+                processPendingCommandsSynchronousLocked(account);
+            } finally {
+                folderLocked = folderLock.tryLock();
+            }
+        } finally {
+            pendingCommandsLock.unlock();
+
+            if (!folderLocked) {
+                folderLock.lock();
+            }
+        }
+    }
+
+    private ReentrantLock getFolderLock(Account account, String folderName) {
+        return getLock(folderLocks, account.getUuid() + ":" + folderName);
+    }
+
+    private static ReentrantLock getLock(ConcurrentHashMap<String, ReentrantLock> locks, String key) {
+        ReentrantLock lock = locks.get(key);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = locks.putIfAbsent(key, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    private void processPendingCommandsSynchronousLocked(Account account) throws MessagingException {
         LocalStore localStore = account.getLocalStore();
         List<PendingCommand> commands = localStore.getPendingCommands();
 
@@ -1693,6 +1951,19 @@ public class MessagingController {
                 for (MessagingListener l : getListeners()) {
                     l.pendingCommandStarted(account, command.getCommandName());
                 }
+                List<ReentrantLock> commandFolderLocks = lockFoldersOrPostpone(account, command);
+                if (commandFolderLocks == null) {
+                    /*
+                     * A folder used by the command is being synchronized. Keep this and all later commands in the
+                     * queue to maintain their order. They are processed when the synchronization has finished.
+                     */
+                    Timber.d("Folder of pending command '%s' is being synchronized; postponing commands", command);
+                    for (MessagingListener l : getListeners()) {
+                        l.pendingCommandCompleted(account, command.getCommandName());
+                    }
+                    break;
+                }
+
                 /*
                  * We specifically do not catch any exceptions here. If a command fails it is
                  * most likely due to a server or IO error and it must be retried before any
@@ -1713,6 +1984,8 @@ public class MessagingController {
                         throw me;
                     }
                 } finally {
+                    unlockFolders(commandFolderLocks);
+
                     progress++;
                     for (MessagingListener l : getListeners()) {
                         l.synchronizeMailboxProgress(account, null, progress, todo);
@@ -1732,6 +2005,61 @@ public class MessagingController {
         }
     }
 
+    /**
+     * Locks the folders used by a pending command. If a folder is being synchronized the account is marked, so the
+     * pending commands are processed again once the synchronization has released its folder lock.
+     *
+     * @return The acquired locks, or {@code null} if the command has to be postponed.
+     */
+    private List<ReentrantLock> lockFoldersOrPostpone(Account account, PendingCommand command) {
+        List<String> folderNames = command.getFolderNames(account);
+        List<ReentrantLock> locks = tryLockFolders(account, folderNames);
+        if (locks != null) {
+            return locks;
+        }
+
+        // Mark the account before trying again, so a synchronization releasing its lock in between can't miss it
+        accountsWithPostponedCommands.add(account.getUuid());
+        locks = tryLockFolders(account, folderNames);
+        if (locks != null) {
+            accountsWithPostponedCommands.remove(account.getUuid());
+        }
+        return locks;
+    }
+
+    /**
+     * Keeps the given folders from being synchronized until {@link #unlockFolders(List)} is called.
+     *
+     * <p>
+     * Must only be called while holding the pending commands lock of the account. This never waits for a running
+     * synchronization, because that would keep all other pending commands of the account waiting, too.
+     * </p>
+     *
+     * @return The acquired locks, or {@code null} if one of the folders is currently being synchronized.
+     */
+    private List<ReentrantLock> tryLockFolders(Account account, List<String> folderNames) {
+        List<ReentrantLock> locks = new ArrayList<>(folderNames.size());
+        for (String folderName : folderNames) {
+            if (folderName == null) {
+                continue;
+            }
+
+            ReentrantLock lock = getFolderLock(account, folderName);
+            if (!lock.tryLock()) {
+                unlockFolders(locks);
+                return null;
+            }
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    private void unlockFolders(List<ReentrantLock> locks) {
+        for (ReentrantLock lock : locks) {
+            lock.unlock();
+        }
+    }
+
     /**
      * Process a pending append message command. This command uploads a local message to the
      * server, first checking to be sure that the server message is not newer than
@@ -3423,7 +3751,7 @@ public class MessagingController {
 
                 // When we empty trash, we need to actually synchronize the folder
                 // or local deletes will never get cleaned up
-                synchronizeFolder(account, remoteFolder, true, 0, null);
+                synchronizeFolder(account, remoteFolder, true, 0, null, null);
                 compact(account, null);
 
 
@@ -3590,6 +3918,32 @@ public class MessagingController {
             @Override
             public void run() {
 
+                // Finalize the mail check once all folder synchronizations have completed
+                final SyncGroup checkMailGroup = new SyncGroup(new Runnable() {
+                    @Override
+                    public void run() {
+                        putBackground("finalize sync", null, new Runnable() {
+                                    @Override
+                                    public void run() {
+
+                                        Timber.i("Finished mail sync");
+
+                                        if (wakeLock != null) {
+                                            wakeLock.release();
+                                        }
+                                        for (MessagingListener l : getListeners()) {
+                                            l.checkMailFinished(context, account);
+                                        }
+
+                                        // Index the messages that have been downloaded
+                                        FulltextIndexerService.startService(context);
+
+                                    }
+                                }
+                        );
+                    }
+                });
+
                 try {
                     Timber.i("Starting mail check");
 
@@ -3604,29 +3958,15 @@ public class MessagingController {
                     }
 
                     for (final Account account : accounts) {
-                        checkMailForAccount(context, account, ignoreLastCheckedTime, listener);
+                        checkMailForAccount(context, account, ignoreLastCheckedTime, listener, checkMailGroup);
                     }
 
                 } catch (Exception e) {
                     Timber.e(e, "Unable to synchronize mail");
                     addErrorMessage(account, null, e);
+                } finally {
+                    checkMailGroup.finish();
                 }
-                putBackground("finalize sync", null, new Runnable() {
-                            @Override
-                            public void run() {
-
-                                Timber.i("Finished mail sync");
-
-                                if (wakeLock != null) {
-                                    wakeLock.release();
-                                }
-                                for (MessagingListener l : getListeners()) {
-                                    l.checkMailFinished(context, account);
-                                }
-
-                            }
-                        }
-                );
             }
         });
     }
@@ -3634,7 +3974,7 @@ public class MessagingController {
 
     private void checkMailForAccount(final Context context, final Account account,
             final boolean ignoreLastCheckedTime,
-            final MessagingListener listener) {
+            final MessagingListener listener, final SyncGroup checkMailGroup) {
         if (!account.isAvailable(context)) {
             Timber.i("Skipping synchronizing unavailable account %s", account.getDescription());
             return;
@@ -3651,6 +3991,31 @@ public class MessagingController {
 
         sendPendingMessages(account, listener);
 
+        checkMailGroup.add();
+        final SyncGroup accountGroup = new SyncGroup(new Runnable() {
+            @Override
+            public void run() {
+                putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+                            @Override
+                            public void run() {
+                                Timber.v("Clearing notification flag for %s", account.getDescription());
+
+                                account.setRingNotified(false);
+                                try {
+                                    AccountStats stats = account.getStats(context);
+                                    if (stats == null || stats.unreadMessageCount == 0) {
+                                        notificationController.clearNewMailNotifications(account);
+                                    }
+                                } catch (MessagingException e) {
+                                    Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
+                                }
+                            }
+                        }
+                );
+                checkMailGroup.finish();
+            }
+        });
+
         try {
             Account.FolderMode aDisplayMode = account.getFolderDisplayMode();
             Account.FolderMode aSyncMode = account.getFolderSyncMode();
@@ -3685,29 +4050,13 @@ public class MessagingController {
 
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener, accountGroup);
             }
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
             addErrorMessage(account, null, e);
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
-                        @Override
-                        public void run() {
-                            Timber.v("Clearing notification flag for %s", account.getDescription());
-
-                            account.setRingNotified(false);
-                            try {
-                                AccountStats stats = account.getStats(context);
-                                if (stats == null || stats.unreadMessageCount == 0) {
-                                    notificationController.clearNewMailNotifications(account);
-                                }
-                            } catch (MessagingException e) {
-                                Timber.e(e, "Unable to getUnreadMessageCount for account: %s", account);
-                            }
-                        }
-                    }
-            );
+            accountGroup.finish();
         }
 
 
@@ -3719,7 +4068,8 @@ public class MessagingController {
             final Folder folder,
             final boolean ignoreLastCheckedTime,
             final long accountInterval,
-            final MessagingListener listener) {
+            final MessagingListener listener,
+            final SyncGroup accountGroup) {
 
         Timber.v("Folder %s was last synced @ %tc", folder.getName(), folder.getLastChecked());
 
@@ -3729,7 +4079,10 @@ public class MessagingController {
             return;
         }
 
-        putBackground("sync" + folder.getName(), null, new Runnable() {
+        if (accountGroup != null) {
+            accountGroup.add();
+        }
+        putFolderSync(account, folder.getName(), "sync" + folder.getName(), listener, new Runnable() {
                     @Override
                     public void run() {
                         LocalFolder tLocalFolder = null;
@@ -3759,6 +4112,9 @@ public class MessagingController {
                             addErrorMessage(account, null, e);
                         } finally {
                             closeFolder(tLocalFolder);
+                            if (accountGroup != null) {
+                                accountGroup.finish();
+                            }
                         }
                     }
                 }
@@ -4009,6 +4365,33 @@ public class MessagingController {
 
     private static AtomicInteger sequencing = new AtomicInteger(0);
 
+    /**
+     * Keeps track of a group of folder synchronizations and runs a callback once all of them have finished.
+     *
+     * <p>
+     * The group starts out with one outstanding member that has to be released with {@link #finish()} once all
+     * synchronizations have been added.
+     * </p>
+     */
+    private static class SyncGroup {
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final Runnable onFinished;
+
+        SyncGroup(Runnable onFinished) {
+            this.onFinished = onFinished;
+        }
+
+        void add() {
+            outstanding.incrementAndGet();
+        }
+
+        void finish() {
+            if (outstanding.decrementAndGet() == 0) {
+                onFinished.run();
+            }
+        }
+    }
+
     private static class Command implements Comparable<Command> {
         public Runnable runnable;
         public MessagingListener listener;
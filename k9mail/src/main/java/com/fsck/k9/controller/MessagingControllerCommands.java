@@ -1,6 +1,8 @@
 package com.fsck.k9.controller;
 
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -25,6 +27,13 @@ public class MessagingControllerCommands {
         PendingCommand() { }
 
         public abstract String getCommandName();
+
+        /**
+         * Returns the names of the folders this command operates on. Synchronizations of these folders must not run
+         * while the command is executed.
+         */
+        public abstract List<String> getFolderNames(Account account);
+
         public abstract void execute(MessagingController controller, Account account) throws MessagingException;
     }
 
@@ -59,6 +68,11 @@ public class MessagingControllerCommands {
             return COMMAND_MOVE_OR_COPY;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Arrays.asList(srcFolder, destFolder);
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingMoveOrCopy(this, account);
@@ -75,6 +89,11 @@ public class MessagingControllerCommands {
             return COMMAND_EMPTY_TRASH;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Collections.singletonList(account.getTrashFolderName());
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingEmptyTrash(account);
@@ -104,6 +123,11 @@ public class MessagingControllerCommands {
             return COMMAND_SET_FLAG;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Collections.singletonList(folder);
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingSetFlag(this, account);
@@ -129,6 +153,11 @@ public class MessagingControllerCommands {
             return COMMAND_APPEND;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Collections.singletonList(folder);
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingAppend(this, account);
@@ -152,6 +181,11 @@ public class MessagingControllerCommands {
             return COMMAND_MARK_ALL_AS_READ;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Collections.singletonList(folder);
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingMarkAllAsRead(this, account);
@@ -175,6 +209,11 @@ public class MessagingControllerCommands {
             return COMMAND_EXPUNGE;
         }
 
+        @Override
+        public List<String> getFolderNames(Account account) {
+            return Collections.singletonList(folder);
+        }
+
         @Override
         public void execute(MessagingController controller, Account account) throws MessagingException {
             controller.processPendingExpunge(this, account);
@@ -56,6 +56,8 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
@@ -91,6 +93,7 @@ import com.fsck.k9.fragment.MessageListFragmentComparators.SenderComparator;
 import com.fsck.k9.fragment.MessageListFragmentComparators.SubjectComparator;
 import com.fsck.k9.fragment.MessageListFragmentComparators.UnreadComparator;
 import com.fsck.k9.helper.ContactPicture;
+import com.fsck.k9.helper.LimitCursor;
 import com.fsck.k9.helper.MergeCursorWithUniqueId;
 import com.fsck.k9.helper.MessageHelper;
 import com.fsck.k9.helper.Utility;
@@ -192,6 +195,17 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final String STATE_ACTIVE_MESSAGE = "activeMessage";
     private static final String STATE_REMOTE_SEARCH_PERFORMED = "remoteSearchPerformed";
     private static final String STATE_MESSAGE_LIST = "listState";
+    private static final String STATE_MESSAGE_LIMIT = "messageLimit";
+
+    /**
+     * Number of messages loaded at once. More messages are loaded when the list is scrolled to the end.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Start loading the next page when the user scrolled to this many rows before the end of the loaded messages.
+     */
+    private static final int LOAD_NEXT_PAGE_THRESHOLD = 20;
 
     /**
      * Maps a {@link SortType} to a {@link Comparator} implementation.
@@ -239,6 +253,27 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private boolean[] mCursorValid;
     private int mUniqueIdColumn;
 
+    /**
+     * The maximum number of messages loaded per account.
+     */
+    private int mMessageLimit = PAGE_SIZE;
+
+    /**
+     * {@code true} if at least one of the queries returned {@link #mMessageLimit} messages, i.e. there might be more
+     * messages than are currently loaded.
+     */
+    private boolean mMoreMessagesAvailable = false;
+
+    /**
+     * {@code true} if all messages are being loaded because the user chose "select all" before they were loaded.
+     */
+    private boolean mSelectAllPending = false;
+
+    /**
+     * The message whose successor should be opened once the next page has been loaded.
+     */
+    private MessageReference mOpenNextPending = null;
+
     /**
      * Stores the name of the folder that we want to open as soon as possible after load.
      */
@@ -716,6 +751,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         saveListState(outState);
 
         outState.putBoolean(STATE_REMOTE_SEARCH_PERFORMED, mRemoteSearchPerformed);
+        outState.putInt(STATE_MESSAGE_LIMIT, mMessageLimit);
         if (mActiveMessage != null) {
             outState.putString(STATE_ACTIVE_MESSAGE, mActiveMessage.toIdentityString());
         }
@@ -734,6 +770,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         restoreSelectedMessages(savedInstanceState);
 
         mRemoteSearchPerformed = savedInstanceState.getBoolean(STATE_REMOTE_SEARCH_PERFORMED);
+        mMessageLimit = savedInstanceState.getInt(STATE_MESSAGE_LIMIT, PAGE_SIZE);
         mSavedListState = savedInstanceState.getParcelable(STATE_MESSAGE_LIST);
         String messageReferenceString = savedInstanceState.getString(STATE_ACTIVE_MESSAGE);
         mActiveMessage = MessageReference.parse(messageReferenceString);
@@ -843,6 +880,46 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
 
         mListView.setAdapter(mAdapter);
+        mListView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // Do nothing
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= mAdapter.getCount() - LOAD_NEXT_PAGE_THRESHOLD) {
+                    loadNextPage();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the next {@link #PAGE_SIZE} messages if there are more messages than are currently loaded.
+     *
+     * <p>
+     * Only the first {@link #mMessageLimit} messages of every account are queried. So loading the list and refreshing
+     * it after a change doesn't depend on the number of messages in the database, only on how far the user scrolled.
+     * </p>
+     */
+    private void loadNextPage() {
+        if (!mMoreMessagesAvailable || !isLoadFinished()) {
+            return;
+        }
+
+        mMoreMessagesAvailable = false;
+        mMessageLimit += PAGE_SIZE;
+        restartLoader();
+    }
+
+    /**
+     * Loads all messages, so operations on all messages of the list don't miss the ones that haven't been loaded yet.
+     */
+    private void loadAllMessages() {
+        mMoreMessagesAvailable = false;
+        mMessageLimit = Integer.MAX_VALUE;
+        restartLoader();
     }
 
     private void createCacheBroadcastReceiver(Context appContext) {
@@ -1089,6 +1166,11 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         Toast toast = Toast.makeText(getActivity(), toastString, Toast.LENGTH_SHORT);
         toast.show();
 
+        mMessageLimit = PAGE_SIZE;
+        mMoreMessagesAvailable = false;
+        mSelectAllPending = false;
+        mOpenNextPending = null;
+
         LoaderManager loaderManager = getLoaderManager();
         for (int i = 0, len = mAccountUuids.length; i < len; i++) {
             loaderManager.restartLoader(i, null, this);
@@ -2042,7 +2124,15 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
      *         action mode is finished.
      */
     private void setSelectionState(boolean selected) {
+        mSelectAllPending = false;
         if (selected) {
+            if (mMoreMessagesAvailable) {
+                // The selection is completed when all messages have been loaded
+                mSelectAllPending = true;
+                loadAllMessages();
+                return;
+            }
+
             if (mAdapter.getCount() == 0) {
                 // Nothing to do if there are no messages
                 return;
@@ -2871,10 +2961,21 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
     public boolean openNext(MessageReference messageReference) {
         int position = getPosition(messageReference);
-        if (position < 0 || position == mAdapter.getCount() - 1) {
+        if (position < 0) {
             return false;
         }
 
+        if (position == mAdapter.getCount() - 1) {
+            if (!mMoreMessagesAvailable) {
+                return false;
+            }
+
+            // The next message is opened when the next page has been loaded
+            mOpenNextPending = messageReference;
+            loadNextPage();
+            return true;
+        }
+
         openMessageAtPosition(position + 1);
         return true;
     }
@@ -2884,7 +2985,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     }
 
     public boolean isLast(MessageReference messageReference) {
-        return mAdapter.isEmpty() || messageReference.equals(getReferenceForPosition(mAdapter.getCount() - 1));
+        return mAdapter.isEmpty() || (!mMoreMessagesAvailable &&
+                messageReference.equals(getReferenceForPosition(mAdapter.getCount() - 1)));
     }
 
     private MessageReference getReferenceForPosition(int position) {
@@ -3142,10 +3244,12 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             needConditions = false;
         } else if (mThreadedList) {
             uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + accountUuid + "/messages/threaded");
+            uri = appendMessageLimit(uri);
             projection = THREADED_PROJECTION;
             needConditions = true;
         } else {
             uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + accountUuid + "/messages");
+            uri = appendMessageLimit(uri);
             projection = PROJECTION;
             needConditions = true;
         }
@@ -3177,6 +3281,12 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 sortOrder);
     }
 
+    private Uri appendMessageLimit(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(EmailProvider.LIMIT_PARAMETER, Integer.toString(mMessageLimit))
+                .build();
+    }
+
     private String getThreadId(LocalSearch search) {
         for (ConditionsTreeNode node : search.getLeafSet()) {
             SearchCondition condition = node.mCondition;
@@ -3247,9 +3357,25 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         mCursors[loaderId] = data;
         mCursorValid[loaderId] = true;
 
+        boolean moreMessagesAvailable = false;
+        if (getThreadId(mSearch) == null) {
+            for (Cursor accountCursor : mCursors) {
+                if (accountCursor != null && accountCursor.getCount() >= mMessageLimit) {
+                    moreMessagesAvailable = true;
+                    break;
+                }
+            }
+        }
+        mMoreMessagesAvailable = moreMessagesAvailable;
+
         Cursor cursor;
         if (mCursors.length > 1) {
             cursor = new MergeCursorWithUniqueId(mCursors, getComparator());
+            if (moreMessagesAvailable) {
+                // Only the first rows of the merged cursor are complete. Other accounts might have messages that
+                // belong between the rows after that.
+                cursor = new LimitCursor(cursor, mMessageLimit);
+            }
             mUniqueIdColumn = cursor.getColumnIndex("_id");
         } else {
             cursor = data;
@@ -3284,6 +3410,16 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 mHandler.restoreListPosition();
             }
 
+            if (mSelectAllPending) {
+                setSelectionState(true);
+            }
+
+            if (mOpenNextPending != null) {
+                MessageReference messageReference = mOpenNextPending;
+                mOpenNextPending = null;
+                openNext(messageReference);
+            }
+
             mFragmentListener.updateMenu();
         }
     }
@@ -0,0 +1,72 @@
+package com.fsck.k9.helper;
+
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+
+/**
+ * A {@link Cursor} that only exposes the first {@code limit} rows of the wrapped cursor.
+ */
+public class LimitCursor extends CursorWrapper {
+    private final int mLimit;
+
+
+    public LimitCursor(Cursor cursor, int limit) {
+        super(cursor);
+        mLimit = limit;
+    }
+
+    @Override
+    public int getCount() {
+        return Math.min(super.getCount(), mLimit);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        int count = getCount();
+        if (position >= count) {
+            super.moveToPosition(count);
+            return false;
+        }
+
+        return super.moveToPosition(position);
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(getPosition() + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(getPosition() + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(getPosition() - 1);
+    }
+
+    @Override
+    public boolean isLast() {
+        int count = getCount();
+        return count != 0 && getPosition() == count - 1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        int count = getCount();
+        return count == 0 || getPosition() >= count;
+    }
+}
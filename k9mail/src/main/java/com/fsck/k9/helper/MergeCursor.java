@@ -17,7 +17,9 @@
 
 package com.fsck.k9.helper;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.PriorityQueue;
 
 import android.annotation.TargetApi;
 import android.content.ContentResolver;
@@ -32,6 +34,13 @@ import android.os.Bundle;
 
 /**
  * This class can be used to combine multiple {@link Cursor}s into one.
+ *
+ * <p>
+ * The individual cursors have to be sorted according to the comparator passed to the constructor. They are merged
+ * lazily using a heap, so moving to the next row of the merged cursor costs {@code O(log k)} comparisons for
+ * {@code k} cursors. Every merged row is recorded in a position index, so moving to a row that has been visited
+ * before doesn't require any comparisons at all.
+ * </p>
  */
 public class MergeCursor implements Cursor {
     /**
@@ -66,6 +75,32 @@ public class MergeCursor implements Cursor {
      */
     private final Comparator<Cursor> mComparator;
 
+    /**
+     * Contains the indexes (into {@link #mCursors}) of all cursors that have rows that haven't been merged yet. The
+     * head of the heap is the cursor containing the next row of the merged cursor.
+     */
+    private final PriorityQueue<Integer> mHeap;
+
+    /**
+     * The position of the first row of every cursor that hasn't been merged yet.
+     */
+    private final int[] mNextPositions;
+
+    /**
+     * The index of the cursor that contains the row at the given position of the merged cursor.
+     */
+    private short[] mIndexCursors = new short[0];
+
+    /**
+     * The position inside the source cursor of the row at the given position of the merged cursor.
+     */
+    private int[] mIndexPositions = new int[0];
+
+    /**
+     * The number of rows in {@link #mIndexCursors} and {@link #mIndexPositions}.
+     */
+    private int mIndexSize = 0;
+
 
     /**
      * Constructor
@@ -76,10 +111,84 @@ public class MergeCursor implements Cursor {
      *         A comparator that is used to decide in what order the individual cursors are merged.
      */
     public MergeCursor(Cursor[] cursors, Comparator<Cursor> comparator) {
+        if (cursors.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cursors");
+        }
+
         mCursors = cursors.clone();
         mComparator = comparator;
+        mNextPositions = new int[mCursors.length];
+        mHeap = new PriorityQueue<>(Math.max(1, mCursors.length), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareNextRows(lhs, rhs);
+            }
+        });
+
+        startMerge();
+    }
+
+    /**
+     * Discards all merged rows and prepares merging the source cursors from their first row.
+     */
+    private void startMerge() {
+        mHeap.clear();
+        Arrays.fill(mNextPositions, 0);
+        mIndexSize = 0;
+        mCount = -1;
 
         resetCursors();
+
+        for (int i = 0, len = mCursors.length; i < len; i++) {
+            Cursor cursor = mCursors[i];
+            if (cursor != null && cursor.getCount() > 0) {
+                mHeap.add(i);
+            }
+        }
+    }
+
+    private int compareNextRows(int leftIndex, int rightIndex) {
+        Cursor left = mCursors[leftIndex];
+        Cursor right = mCursors[rightIndex];
+        left.moveToPosition(mNextPositions[leftIndex]);
+        right.moveToPosition(mNextPositions[rightIndex]);
+
+        int result = mComparator.compare(left, right);
+
+        // Prefer the cursor that was passed in first when the rows are equal
+        return (result != 0) ? result : leftIndex - rightIndex;
+    }
+
+    /**
+     * Merges rows until the position index contains the given position.
+     *
+     * @return {@code false} if there are not enough rows.
+     */
+    private boolean fillIndex(int position) {
+        while (mIndexSize <= position) {
+            Integer cursorIndex = mHeap.poll();
+            if (cursorIndex == null) {
+                return false;
+            }
+
+            if (mIndexSize == mIndexPositions.length) {
+                int capacity = Math.max(16, mIndexSize * 2);
+                mIndexCursors = Arrays.copyOf(mIndexCursors, capacity);
+                mIndexPositions = Arrays.copyOf(mIndexPositions, capacity);
+            }
+
+            int nextPosition = mNextPositions[cursorIndex];
+            mIndexCursors[mIndexSize] = (short) (int) cursorIndex;
+            mIndexPositions[mIndexSize] = nextPosition;
+            mIndexSize++;
+
+            mNextPositions[cursorIndex] = nextPosition + 1;
+            if (nextPosition + 1 < mCursors[cursorIndex].getCount()) {
+                mHeap.add(cursorIndex);
+            }
+        }
+
+        return true;
     }
 
     private void resetCursors() {
@@ -286,50 +395,7 @@ public class MergeCursor implements Cursor {
 
     @Override
     public boolean moveToNext() {
-        int count = getCount();
-        if (mPosition == count) {
-            return false;
-        }
-
-        if (mPosition == count - 1) {
-            mActiveCursor.moveToNext();
-            mPosition++;
-            return false;
-        }
-
-        int smallest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].getCount() == 0 || mCursors[i].isLast()) {
-                continue;
-            }
-
-            if (smallest == -1) {
-                smallest = i;
-                mCursors[smallest].moveToNext();
-                continue;
-            }
-
-            Cursor left = mCursors[smallest];
-            Cursor right = mCursors[i];
-
-            right.moveToNext();
-
-            int result = mComparator.compare(left, right);
-            if (result > 0) {
-                smallest = i;
-                left.moveToPrevious();
-            } else {
-                right.moveToPrevious();
-            }
-        }
-
-        mPosition++;
-        if (smallest != -1) {
-            mActiveCursorIndex = smallest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
-
-        return true;
+        return moveToPosition(mPosition + 1);
     }
 
     @Override
@@ -347,68 +413,22 @@ public class MergeCursor implements Cursor {
             return false;
         }
 
-        // Check for no-op moves, and skip the rest of the work for them
-        if (position == mPosition) {
-            return true;
+        if (!fillIndex(position)) {
+            mPosition = count;
+            return false;
         }
 
-        if (position > mPosition) {
-            for (int i = 0, end = position - mPosition; i < end; i++) {
-                if (!moveToNext()) {
-                    return false;
-                }
-            }
-        } else {
-            for (int i = 0, end = mPosition - position; i < end; i++) {
-                if (!moveToPrevious()) {
-                    return false;
-                }
-            }
-        }
+        mActiveCursorIndex = mIndexCursors[position];
+        mActiveCursor = mCursors[mActiveCursorIndex];
+        mActiveCursor.moveToPosition(mIndexPositions[position]);
+        mPosition = position;
 
         return true;
     }
 
     @Override
     public boolean moveToPrevious() {
-        if (mPosition < 0) {
-            return false;
-        }
-
-        mActiveCursor.moveToPrevious();
-
-        if (mPosition == 0) {
-            mPosition = -1;
-            return false;
-        }
-
-        int greatest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].isBeforeFirst()) {
-                continue;
-            }
-
-            if (greatest == -1) {
-                greatest = i;
-                continue;
-            }
-
-            Cursor left = mCursors[greatest];
-            Cursor right = mCursors[i];
-
-            int result = mComparator.compare(left, right);
-            if (result <= 0) {
-                greatest = i;
-            }
-        }
-
-        mPosition--;
-        if (greatest != -1) {
-            mActiveCursorIndex = greatest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
-
-        return true;
+        return moveToPosition(mPosition - 1);
     }
 
     @Override
@@ -430,9 +450,14 @@ public class MergeCursor implements Cursor {
     public boolean requery() {
         boolean success = true;
         for (Cursor cursor : mCursors) {
-            success &= cursor.requery();
+            if (cursor != null) {
+                success &= cursor.requery();
+            }
         }
 
+        // The rows of the source cursors may have changed, so the merged order has to be computed again
+        startMerge();
+
         return success;
     }
 
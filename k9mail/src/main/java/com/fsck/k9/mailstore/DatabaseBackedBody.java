@@ -0,0 +1,70 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.RawDataBody;
+import com.fsck.k9.mail.internet.SizeAware;
+
+
+/**
+ * The body of a message part that is stored in the {@code data} column of {@code message_parts}.
+ *
+ * <p>
+ * The data is only read from the database when the body is first used. If the message part has been removed in the
+ * meantime, reading the body fails with a {@link MessagingException}.
+ * </p>
+ */
+class DatabaseBackedBody implements Body, RawDataBody, SizeAware {
+    private final MessagePartLoader partLoader;
+    private final long messagePartId;
+    private final String encoding;
+    private final long size;
+    private byte[] data;
+
+
+    DatabaseBackedBody(MessagePartLoader partLoader, long messagePartId, String encoding, long size) {
+        this.partLoader = partLoader;
+        this.messagePartId = messagePartId;
+        this.encoding = encoding;
+        this.size = size;
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public InputStream getInputStream() throws MessagingException {
+        return new ByteArrayInputStream(getData());
+    }
+
+    @Override
+    public void setEncoding(String encoding) throws MessagingException {
+        throw new RuntimeException("not supported");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException, MessagingException {
+        out.write(getData());
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    private synchronized byte[] getData() throws MessagingException {
+        if (data == null) {
+            data = partLoader.loadData(messagePartId);
+        }
+
+        return data;
+    }
+}
@@ -0,0 +1,264 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import timber.log.Timber;
+
+import com.fsck.k9.helper.Utility;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.message.extractors.MessageFulltext;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+
+
+/**
+ * Adds queued messages to the fulltext index of an account.
+ *
+ * <p>
+ * {@link LocalFolder} doesn't update {@code messages_fulltext} when storing a message. It only adds the message to the
+ * {@code fulltext_queue} table. This class works through that queue in small batches so indexing can happen in the
+ * background, see {@link com.fsck.k9.service.FulltextIndexerService}. Until a message has been indexed
+ * {@link com.fsck.k9.search.SqlQueryBuilder} matches its subject, addresses and preview instead.
+ * </p>
+ */
+public class FulltextIndexer {
+    /**
+     * Number of times indexing a message is attempted before the message is dropped from the queue.
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+
+    private final LocalStore localStore;
+    private final MessageFulltextCreator fulltextCreator;
+
+
+    FulltextIndexer(LocalStore localStore, MessageFulltextCreator fulltextCreator) {
+        this.localStore = localStore;
+        this.fulltextCreator = fulltextCreator;
+    }
+
+    /**
+     * Returns the option that adds prefix indexes to {@code messages_fulltext} to speed up search-as-you-type queries.
+     * Prefix indexes require SQLite 3.7.7 (Android 4.1).
+     *
+     * <p>
+     * Used by both {@link StoreSchemaDefinition} and the migration that recreates the table.
+     * </p>
+     */
+    public static String getPrefixIndexOption() {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) ? ", prefix=\"2,3\"" : "";
+    }
+
+    /**
+     * Returns the number of messages that still need to be indexed.
+     */
+    public int getPendingMessageCount() throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM fulltext_queue", null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the messages that have been waiting the longest.
+     *
+     * <p>
+     * Message bodies are loaded and converted to text outside of a transaction. Only writing the results holds the
+     * database lock. If a message is stored again while it's being indexed it stays in the queue.
+     * </p>
+     *
+     * <p>
+     * Messages without any text are removed from the queue. If creating the text of a message fails, the message stays
+     * in the queue behind the messages that haven't been attempted yet. After {@link #MAX_ATTEMPTS} failures only the
+     * subject and the addresses of the message are indexed, so the message can still be found.
+     * </p>
+     *
+     * @param batchSize
+     *         The maximum number of messages to index.
+     *
+     * @return The number of queue entries that were processed. {@code 0} if the queue is empty.
+     */
+    public int indexNextBatch(int batchSize) throws MessagingException {
+        List<QueueEntry> entries = loadQueueEntries(batchSize);
+        for (QueueEntry entry : entries) {
+            try {
+                entry.fulltext = createFulltext(entry.messageId);
+            } catch (UnavailableStorageException e) {
+                throw e;
+            } catch (Exception e) {
+                Timber.w(e, "Couldn't create fulltext for message %d", entry.messageId);
+                entry.failed = true;
+
+                if (entry.isLastAttempt()) {
+                    entry.fulltext = createHeaderFulltext(entry.messageId);
+                }
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            saveFulltexts(entries);
+        }
+
+        return entries.size();
+    }
+
+    private List<QueueEntry> loadQueueEntries(final int batchSize) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<List<QueueEntry>>() {
+            @Override
+            public List<QueueEntry> doDbWork(SQLiteDatabase db) {
+                List<QueueEntry> entries = new ArrayList<>();
+                Cursor cursor = db.rawQuery("SELECT id, message_id, attempts FROM fulltext_queue " +
+                        "ORDER BY attempts, id LIMIT ?", new String[] { Integer.toString(batchSize) });
+                try {
+                    while (cursor.moveToNext()) {
+                        entries.add(new QueueEntry(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * @return The text to index, or {@code null} if the message no longer exists or doesn't contain any text.
+     */
+    private MessageFulltext createFulltext(long messageId) throws MessagingException {
+        LocalMessage message = loadMessage(messageId);
+        if (message == null) {
+            return null;
+        }
+
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.BODY);
+        message.getFolder().fetch(Collections.singletonList(message), fp, null);
+
+        return fulltextCreator.createFulltext(message);
+    }
+
+    /**
+     * @return The subject and addresses of the message, or {@code null} if those can't be loaded either.
+     */
+    private MessageFulltext createHeaderFulltext(long messageId) throws UnavailableStorageException {
+        try {
+            LocalMessage message = loadMessage(messageId);
+            return message != null ? fulltextCreator.createHeaderFulltext(message) : null;
+        } catch (UnavailableStorageException e) {
+            throw e;
+        } catch (Exception e) {
+            Timber.w(e, "Couldn't load headers of message %d", messageId);
+            return null;
+        }
+    }
+
+    private LocalMessage loadMessage(final long messageId) throws MessagingException {
+        try {
+            return localStore.database.execute(false, new DbCallback<LocalMessage>() {
+                @Override
+                public LocalMessage doDbWork(SQLiteDatabase db) throws WrappedException {
+                    Cursor cursor = null;
+                    try {
+                        cursor = db.rawQuery("SELECT " + LocalStore.GET_MESSAGES_COLS +
+                                "FROM messages " +
+                                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                                "WHERE messages.id = ? AND empty = 0 AND deleted = 0",
+                                new String[] { Long.toString(messageId) });
+
+                        if (!cursor.moveToNext()) {
+                            return null;
+                        }
+
+                        LocalMessage message = new LocalMessage(localStore, null, null);
+                        message.populateFromGetMessageCursor(cursor);
+                        return message;
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    } finally {
+                        Utility.closeQuietly(cursor);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
+    private void saveFulltexts(final List<QueueEntry> entries) throws MessagingException {
+        localStore.database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                for (QueueEntry entry : entries) {
+                    String[] idArg = new String[] { Long.toString(entry.id) };
+                    if (entry.failed && !entry.isLastAttempt()) {
+                        db.execSQL("UPDATE fulltext_queue SET attempts = attempts + 1 WHERE id = ?", idArg);
+                        continue;
+                    }
+
+                    int removed = db.delete("fulltext_queue", "id = ?", idArg);
+                    if (removed == 0) {
+                        // The message has been deleted or stored again in the meantime
+                        continue;
+                    }
+
+                    if (entry.failed) {
+                        Timber.w("Giving up on indexing the body of message %d after %d attempts", entry.messageId,
+                                MAX_ATTEMPTS);
+                    }
+
+                    if (entry.fulltext == null) {
+                        db.delete("messages_fulltext", "docid = ?", new String[] { Long.toString(entry.messageId) });
+                    } else {
+                        ContentValues cv = new ContentValues();
+                        cv.put("docid", entry.messageId);
+                        cv.put("subject", entry.fulltext.getSubject());
+                        cv.put("sender", entry.fulltext.getSender());
+                        cv.put("recipients", entry.fulltext.getRecipients());
+                        cv.put("body", entry.fulltext.getBody());
+                        db.replace("messages_fulltext", null, cv);
+                    }
+                }
+
+                return null;
+            }
+        });
+    }
+
+
+    private static class QueueEntry {
+        final long id;
+        final long messageId;
+        final int attempts;
+        MessageFulltext fulltext;
+        boolean failed;
+
+        QueueEntry(long id, long messageId, int attempts) {
+            this.id = id;
+            this.messageId = messageId;
+            this.attempts = attempts;
+        }
+
+        boolean isLastAttempt() {
+            return attempts + 1 >= MAX_ATTEMPTS;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -47,20 +48,17 @@ import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.UidRange;
 import com.fsck.k9.mail.filter.CountingOutputStream;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessage;
-import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.SizeAware;
-import com.fsck.k9.mail.message.MessageHeaderParser;
 import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
-import com.fsck.k9.message.extractors.AttachmentCounter;
+import com.fsck.k9.mailstore.MessageExtractionPipeline.ExtractedData;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
-import com.fsck.k9.message.extractors.MessageFulltextCreator;
-import com.fsck.k9.message.extractors.MessagePreviewCreator;
 import com.fsck.k9.message.extractors.PreviewResult;
 import com.fsck.k9.message.extractors.PreviewResult.PreviewType;
 import com.fsck.k9.preferences.Storage;
@@ -73,6 +71,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
     private static final long serialVersionUID = -1973296520918624767L;
     private static final int MAX_BODY_SIZE_FOR_DATABASE = 16 * 1024;
+    private static final int UID_RANGES_PER_QUERY = 100;
     static final long INVALID_MESSAGE_PART_ID = -1;
 
     private final LocalStore localStore;
@@ -93,6 +92,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer mLastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private boolean modSeqStateLoaded = false;
+    private long uidValidity = -1L;
+    private long highestModSeq = -1L;
 
     public LocalFolder(LocalStore localStore, String name) {
         super();
@@ -289,12 +291,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     }
                     Cursor cursor = null;
                     try {
-                        cursor = db.rawQuery(
-                                "SELECT COUNT(id) FROM messages " +
-                                "WHERE empty = 0 AND deleted = 0 and folder_id = ?",
+                        cursor = db.rawQuery("SELECT message_count FROM folder_counts WHERE folder_id = ?",
                                 new String[] { Long.toString(mFolderId) });
-                        cursor.moveToFirst();
-                        return cursor.getInt(0);   //messagecount
+                        return cursor.moveToFirst() ? cursor.getInt(0) : 0;   //messagecount
                     } finally {
                         Utility.closeQuietly(cursor);
                     }
@@ -316,8 +315,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int unreadMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND read=0",
+                    Cursor cursor = db.query("folder_counts", new String[] { "unread_count" }, "folder_id = ?",
                             new String[] { Long.toString(mFolderId) }, null, null, null);
 
                     try {
@@ -347,8 +345,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int flaggedMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND flagged = 1",
+                    Cursor cursor = db.query("folder_counts", new String[] { "flagged_count" }, "folder_id = ?",
                             new String[] { Long.toString(mFolderId) }, null, null, null);
 
                     try {
@@ -537,6 +534,108 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         updateFolderColumn("more_messages", moreMessages.getDatabaseName());
     }
 
+    /**
+     * @return The UIDVALIDITY value of the remote folder recorded during the last full synchronization, or {@code -1}.
+     */
+    @Override
+    public long getUidValidity() {
+        loadModSeqStateQuietly();
+        return uidValidity;
+    }
+
+    /**
+     * @return The HIGHESTMODSEQ value of the remote folder recorded during the last full synchronization, or
+     *         {@code -1}.
+     */
+    @Override
+    public long getHighestModSeq() {
+        loadModSeqStateQuietly();
+        return highestModSeq;
+    }
+
+    /**
+     * Records the state of the remote folder so the next synchronization only has to fetch the changes.
+     *
+     * <p>
+     * Pass {@code -1} as {@code highestModSeq} to force a full flag synchronization next time.
+     * </p>
+     */
+    public void setModSeqState(final long uidValidity, final long highestModSeq) throws MessagingException {
+        loadModSeqState();
+        if (this.uidValidity == uidValidity && this.highestModSeq == highestModSeq) {
+            return;
+        }
+
+        try {
+            this.localStore.database.execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    db.execSQL("UPDATE folders SET uid_validity = ?, highest_mod_seq = ? WHERE id = ?",
+                            new Object[] { uidValidity, highestModSeq, mFolderId });
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+    }
+
+    /*
+     * The QRESYNC state is kept out of LocalStore.GET_FOLDER_COLS because migrations that run before the columns
+     * were added (MigrationTo61) open folders, too.
+     */
+    private void loadModSeqState() throws MessagingException {
+        if (modSeqStateLoaded) {
+            return;
+        }
+
+        try {
+            this.localStore.database.execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+
+                    Cursor cursor = db.rawQuery("SELECT uid_validity, highest_mod_seq FROM folders WHERE id = ?",
+                            new String[] { Long.toString(mFolderId) });
+                    try {
+                        if (cursor.moveToFirst()) {
+                            uidValidity = cursor.isNull(0) ? -1L : cursor.getLong(0);
+                            highestModSeq = cursor.isNull(1) ? -1L : cursor.getLong(1);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+
+        modSeqStateLoaded = true;
+    }
+
+    private void loadModSeqStateQuietly() {
+        try {
+            loadModSeqState();
+        } catch (MessagingException e) {
+            // -1 makes the next synchronization fall back to a full flag synchronization
+            Timber.w(e, "Unable to load QRESYNC state of folder %s", getName());
+        }
+    }
+
     private String getPrefId(String name) {
         if (prefId == null) {
             prefId = this.localStore.uUid + "." + name;
@@ -680,108 +779,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     }
 
     private void loadMessageParts(SQLiteDatabase db, LocalMessage message) throws MessagingException {
-        Map<Long, Part> partById = new HashMap<>();
-
-        String[] columns = {
-                "id",                   // 0
-                "type",                 // 1
-                "parent",               // 2
-                "mime_type",            // 3
-                "decoded_body_size",    // 4
-                "display_name",         // 5
-                "header",               // 6
-                "encoding",             // 7
-                "charset",              // 8
-                "data_location",        // 9
-                "data",                 // 10
-                "preamble",             // 11
-                "epilogue",             // 12
-                "boundary",             // 13
-                "content_id",           // 14
-                "server_extra",         // 15
-        };
-        Cursor cursor = db.query("message_parts", columns, "root = ?",
-                new String[] { String.valueOf(message.getMessagePartId()) }, null, null, "seq");
-        try {
-            while (cursor.moveToNext()) {
-                loadMessagePart(message, partById, cursor);
-            }
-        } finally {
-            cursor.close();
-        }
-    }
-
-    private void loadMessagePart(LocalMessage message, Map<Long, Part> partById, Cursor cursor)
-            throws MessagingException {
-
-        long id = cursor.getLong(0);
-        long parentId = cursor.getLong(2);
-        String mimeType = cursor.getString(3);
-        long size = cursor.getLong(4);
-        byte[] header = cursor.getBlob(6);
-        int dataLocation = cursor.getInt(9);
-        String serverExtra = cursor.getString(15);
-        // TODO we don't currently cache much of the part data which is computed with AttachmentInfoExtractor,
-        // TODO might want to do that at a later point?
-        // String displayName = cursor.getString(5);
-        // int type = cursor.getInt(1);
-        // boolean inlineAttachment = (type == MessagePartType.HIDDEN_ATTACHMENT);
-
-        final Part part;
-        if (id == message.getMessagePartId()) {
-            part = message;
-        } else {
-            Part parentPart = partById.get(parentId);
-            if (parentPart == null) {
-                throw new IllegalStateException("Parent part not found");
-            }
-
-            String parentMimeType = parentPart.getMimeType();
-            if (MimeUtility.isMultipart(parentMimeType)) {
-                BodyPart bodyPart = new LocalBodyPart(getAccountUuid(), message, id, size);
-                ((Multipart) parentPart.getBody()).addBodyPart(bodyPart);
-                part = bodyPart;
-            } else if (MimeUtility.isMessage(parentMimeType)) {
-                Message innerMessage = new LocalMimeMessage(getAccountUuid(), message, id);
-                parentPart.setBody(innerMessage);
-                part = innerMessage;
-            } else {
-                throw new IllegalStateException("Parent is neither a multipart nor a message");
-            }
-
-            parseHeaderBytes(part, header);
-        }
-        partById.put(id, part);
-        part.setServerExtra(serverExtra);
-
-        if (MimeUtility.isMultipart(mimeType)) {
-            byte[] preamble = cursor.getBlob(11);
-            byte[] epilogue = cursor.getBlob(12);
-            String boundary = cursor.getString(13);
-
-            MimeMultipart multipart = new MimeMultipart(mimeType, boundary);
-            part.setBody(multipart);
-            multipart.setPreamble(preamble);
-            multipart.setEpilogue(epilogue);
-        } else if (dataLocation == DataLocation.IN_DATABASE) {
-            String encoding = cursor.getString(7);
-            byte[] data = cursor.getBlob(10);
-
-            Body body = new BinaryMemoryBody(data, encoding);
-            part.setBody(body);
-        } else if (dataLocation == DataLocation.ON_DISK) {
-            String encoding = cursor.getString(7);
-
-            File file = localStore.getAttachmentFile(Long.toString(id));
-            if (file.exists()) {
-                Body body = new FileBackedBody(file, encoding);
-                part.setBody(body);
-            }
-        }
-    }
-
-    private void parseHeaderBytes(Part part, byte[] header) throws MessagingException {
-        MessageHeaderParser.parse(part, new ByteArrayInputStream(header));
+        MessagePartLoader.loadMessageParts(db, localStore, getAccountUuid(), message);
     }
 
     @Override
@@ -983,6 +981,48 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return messages;
     }
 
+    /**
+     * Returns the messages whose UIDs are in one of the given ranges.
+     *
+     * <p>
+     * The ranges are matched by the database, so they can be arbitrarily large. Local-only messages never match
+     * because their UIDs aren't numbers.
+     * </p>
+     */
+    public List<LocalMessage> getMessagesInUidRanges(@NonNull List<UidRange> uidRanges) throws MessagingException {
+        open(OPEN_MODE_RW);
+
+        // Ranges of different VANISHED responses may overlap
+        Map<String, LocalMessage> messages = new LinkedHashMap<>();
+        for (int start = 0, size = uidRanges.size(); start < size; start += UID_RANGES_PER_QUERY) {
+            int end = Math.min(start + UID_RANGES_PER_QUERY, size);
+
+            StringBuilder rangeConditions = new StringBuilder();
+            for (UidRange uidRange : uidRanges.subList(start, end)) {
+                if (rangeConditions.length() > 0) {
+                    rangeConditions.append(" OR ");
+                }
+                // Non-numeric UIDs of local-only messages are cast to 0, so make sure ranges never include 0
+                rangeConditions.append("CAST(uid AS INTEGER) BETWEEN ")
+                        .append(Math.max(1L, uidRange.getStart()))
+                        .append(" AND ")
+                        .append(uidRange.getEnd());
+            }
+
+            List<LocalMessage> rangeMessages = localStore.getMessages(null, this,
+                    "SELECT " + LocalStore.GET_MESSAGES_COLS +
+                    "FROM messages " +
+                    "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                    "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                    "WHERE folder_id = ? AND (" + rangeConditions + ")",
+                    new String[] { Long.toString(mFolderId) });
+            for (LocalMessage message : rangeMessages) {
+                messages.put(message.getUid(), message);
+            }
+        }
+        return new ArrayList<>(messages.values());
+    }
+
     public List<LocalMessage> getMessagesByReference(@NonNull List<MessageReference> messageReferences)
             throws MessagingException {
         open(OPEN_MODE_RW);
@@ -1147,27 +1187,62 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
      * Convenience transaction wrapper for storing a message and set it as fully downloaded. Implemented mainly to speed up DB transaction commit.
      *
      * @param message Message to store. Never <code>null</code>.
-     * @param runnable What to do before setting {@link Flag#X_DOWNLOADED_FULL}. Never <code>null</code>.
+     * @param runnable What to do after the message has been stored. Never <code>null</code>.
      * @return The local version of the message. Never <code>null</code>.
      * @throws MessagingException
+     * @see SmallMessageWriter
      */
     public LocalMessage storeSmallMessage(final Message message, final Runnable runnable) throws MessagingException {
-        return this.localStore.database.execute(true, new DbCallback<LocalMessage>() {
-            @Override
-            public LocalMessage doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                try {
-                    appendMessages(Collections.singletonList(message));
-                    final String uid = message.getUid();
-                    final LocalMessage result = getMessage(uid);
-                    runnable.run();
-                    // Set a flag indicating this message has now be fully downloaded
-                    result.setFlag(Flag.X_DOWNLOADED_FULL, true);
-                    return result;
-                } catch (MessagingException e) {
-                    throw new WrappedException(e);
+        LocalMessage result = storeSmallMessages(Collections.singletonList(message)).get(0);
+        runnable.run();
+        return result;
+    }
+
+    /**
+     * Stores the messages and sets them as fully downloaded using a single transaction.
+     *
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the messages in the order of {@code messages}.
+     * @throws MessagingException
+     */
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        final List<ExtractedData> extractedData = extractMessageData(messages);
+
+        List<LocalMessage> result;
+        try {
+            result = this.localStore.database.execute(true, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+                    try {
+                        appendMessages(messages, extractedData, false);
+
+                        List<LocalMessage> localMessages = new ArrayList<>(messages.size());
+                        for (Message message : messages) {
+                            LocalMessage localMessage = getMessage(message.getUid());
+
+                            // Set a flag indicating this message has now be fully downloaded
+                            localMessage.setFlagInternal(Flag.X_DOWNLOADED_FULL, true);
+                            ContentValues cv = new ContentValues();
+                            cv.put("flags", localStore.serializeFlags(localMessage.getFlags()));
+                            db.update("messages", cv, "id = ?", new String[] { Long.toString(localMessage.getId()) });
+
+                            localMessages.add(localMessage);
+                        }
+
+                        return localMessages;
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
                 }
-            }
-        });
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+
+        this.localStore.notifyChange();
+
+        return result;
     }
 
     /**
@@ -1206,39 +1281,6 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
-    private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty) {
-        if (messageId == null) {
-            return null;
-        }
-
-        String sql = "SELECT t.id, t.message_id, t.root, t.parent " +
-                "FROM messages m " +
-                "LEFT JOIN threads t ON (t.message_id = m.id) " +
-                "WHERE m.folder_id = ? AND m.message_id = ? " +
-                ((onlyEmpty) ? "AND m.empty = 1 " : "") +
-                "ORDER BY m.id LIMIT 1";
-        String[] selectionArgs = { Long.toString(mFolderId), messageId };
-        Cursor cursor = db.rawQuery(sql, selectionArgs);
-
-        if (cursor != null) {
-            try {
-                if (cursor.getCount() > 0) {
-                    cursor.moveToFirst();
-                    long threadId = cursor.getLong(0);
-                    long msgId = cursor.getLong(1);
-                    long rootId = (cursor.isNull(2)) ? -1 : cursor.getLong(2);
-                    long parentId = (cursor.isNull(3)) ? -1 : cursor.getLong(3);
-
-                    return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        return null;
-    }
-
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace
@@ -1253,6 +1295,25 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
      */
     private Map<String, String> appendMessages(final List<? extends Message> messages, final boolean copy)
             throws MessagingException {
+        List<ExtractedData> extractedData = extractMessageData(messages);
+        Map<String, String> uidMap = appendMessages(messages, extractedData, copy);
+
+        this.localStore.notifyChange();
+
+        return uidMap;
+    }
+
+    /**
+     * Extracts preview, full text and attachment count of the messages before the write transaction is started.
+     */
+    private List<ExtractedData> extractMessageData(List<? extends Message> messages) throws MessagingException {
+        // Worker threads must not wait for the database while this thread holds a transaction
+        boolean parallel = !localStore.database.isInTransaction();
+        return localStore.getMessageExtractionPipeline().extract(messages, parallel);
+    }
+
+    private Map<String, String> appendMessages(final List<? extends Message> messages,
+            final List<ExtractedData> extractedData, final boolean copy) throws MessagingException {
         open(OPEN_MODE_RW);
         try {
             final Map<String, String> uidMap = new HashMap<>();
@@ -1260,8 +1321,9 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                     try {
-                        for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                        ThreadingIndex threadingIndex = new ThreadingIndex(db, mFolderId);
+                        for (int i = 0, end = messages.size(); i < end; i++) {
+                            saveMessage(db, messages.get(i), extractedData.get(i), copy, uidMap, threadingIndex);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
@@ -1270,16 +1332,14 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                 }
             });
 
-            this.localStore.notifyChange();
-
             return uidMap;
         } catch (WrappedException e) {
             throw (MessagingException) e.getCause();
         }
     }
 
-    protected void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    protected void saveMessage(SQLiteDatabase db, Message message, ExtractedData extractedData, boolean copy,
+            Map<String, String> uidMap, ThreadingIndex threadingIndex) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1306,6 +1366,10 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             if (oldMessage != null) {
                 oldMessageId = oldMessage.getId();
 
+                // The Message-ID stored for this row might change
+                threadingIndex.invalidate(oldMessage.getMessageId());
+                threadingIndex.invalidate(message.getMessageId());
+
                 long oldRootMessagePartId = oldMessage.getMessagePartId();
                 deleteMessagePartsAndDataFromDisk(oldRootMessagePartId);
             }
@@ -1317,23 +1381,18 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = doMessageThreading(db, message, threadingIndex);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
         }
 
         try {
-            MessagePreviewCreator previewCreator = localStore.getMessagePreviewCreator();
-            PreviewResult previewResult = previewCreator.createPreview(message);
+            PreviewResult previewResult = extractedData.previewResult;
             PreviewType previewType = previewResult.getPreviewType();
             DatabasePreviewType databasePreviewType = DatabasePreviewType.fromPreviewType(previewType);
 
-            MessageFulltextCreator fulltextCreator = localStore.getMessageFulltextCreator();
-            String fulltext = fulltextCreator.createFulltext(message);
-
-            AttachmentCounter attachmentCounter = localStore.getAttachmentCounter();
-            int attachmentCount = attachmentCounter.getAttachmentCount(message);
+            int attachmentCount = extractedData.attachmentCount;
 
             long rootMessagePartId = saveMessageParts(db, message);
 
@@ -1387,18 +1446,21 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     cv.put("parent", parentId);
                 }
 
-                db.insert("threads", null, cv);
+                long threadId = db.insert("threads", null, cv);
+
+                // The set_thread_root trigger makes a thread without root its own root
+                threadingIndex.messageInserted(messageId, msgId, threadId, (rootId != -1) ? rootId : threadId,
+                        parentId, false);
             } else {
                 msgId = oldMessageId;
                 db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
-            }
 
-            if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
+                threadingIndex.placeholderFilled(messageId, msgId);
             }
+
+            // The fulltext index is updated in the background by FulltextIndexer. Re-queuing a message that is
+            // already in the queue moves it to the end so an indexer run in progress doesn't drop the new content.
+            db.execSQL("INSERT OR REPLACE INTO fulltext_queue (message_id) VALUES (?)", new Object[] { msgId });
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
@@ -1962,14 +2024,16 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
     private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message)
             throws MessagingException {
+        return doMessageThreading(db, message, new ThreadingIndex(db, mFolderId));
+    }
+
+    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message, ThreadingIndex threadingIndex)
+            throws MessagingException {
         long rootId = -1;
         long parentId = -1;
 
         String messageId = message.getMessageId();
 
-        // If there's already an empty message in the database, update that
-        ThreadInfo msgThreadInfo = getThreadInfo(db, messageId, true);
-
         // Get the message IDs from the "References" header line
         String[] referencesArray = message.getHeader("References");
         List<String> messageIds = null;
@@ -1992,6 +2056,17 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             }
         }
 
+        // Look up the message itself and all referenced messages with as few queries as possible
+        List<String> lookupMessageIds = new ArrayList<>();
+        lookupMessageIds.add(messageId);
+        if (messageIds != null) {
+            lookupMessageIds.addAll(messageIds);
+        }
+        threadingIndex.preload(lookupMessageIds);
+
+        // If there's already an empty message in the database, update that
+        ThreadInfo msgThreadInfo = threadingIndex.getEmpty(messageId);
+
         if (messageIds == null) {
             // This is not a reply, nothing to do for us.
             return (msgThreadInfo != null) ?
@@ -1999,7 +2074,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
 
         for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
+            ThreadInfo threadInfo = threadingIndex.get(reference);
 
             if (threadInfo == null) {
                 // Create placeholder message in 'messages' table
@@ -2020,7 +2095,11 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     cv.put("parent", parentId);
                 }
 
-                parentId = db.insert("threads", null, cv);
+                long newThreadId = db.insert("threads", null, cv);
+                threadingIndex.messageInserted(reference, newMsgId, newThreadId,
+                        (rootId != -1) ? rootId : newThreadId, parentId, true);
+
+                parentId = newThreadId;
                 if (rootId == -1) {
                     rootId = parentId;
                 }
@@ -2035,11 +2114,13 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
                     cv.put("root", rootId);
                     db.update("threads", cv, "root = ?",
                             new String[] { Long.toString(threadInfo.threadId) });
+                    threadingIndex.rootChanged(threadInfo.threadId, rootId);
 
                     // Connect the message to the current parent
                     cv.put("parent", parentId);
                     db.update("threads", cv, "id = ?",
                             new String[] { Long.toString(threadInfo.threadId) });
+                    threadingIndex.threadChanged(threadInfo.threadId, rootId, parentId);
                 } else {
                     rootId = (threadInfo.rootId == -1) ?
                             threadInfo.threadId : threadInfo.rootId;
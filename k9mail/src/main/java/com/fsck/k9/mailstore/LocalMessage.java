@@ -495,6 +495,7 @@ public class LocalMessage extends MimeMessage {
     private void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
         String[] idArg = { Long.toString(messageId) };
         db.delete("messages_fulltext", "docid = ?", idArg);
+        db.delete("fulltext_queue", "message_id = ?", idArg);
     }
 
     /**
@@ -0,0 +1,64 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.List;
+
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.internet.MimeMultipart;
+
+
+/**
+ * A multipart of a {@link LocalMessage} whose body parts are loaded from the database when they are first accessed.
+ */
+class LocalMultipart extends MimeMultipart {
+    private final MessagePartLoader partLoader;
+    private final long messagePartId;
+    private boolean bodyPartsLoaded;
+
+
+    LocalMultipart(MessagePartLoader partLoader, long messagePartId, String mimeType, String boundary) {
+        super(mimeType, boundary);
+        this.partLoader = partLoader;
+        this.messagePartId = messagePartId;
+    }
+
+    long getMessagePartId() {
+        return messagePartId;
+    }
+
+    @Override
+    public void addBodyPart(BodyPart part) {
+        ensureBodyPartsLoaded();
+        super.addBodyPart(part);
+    }
+
+    @Override
+    public BodyPart getBodyPart(int index) {
+        ensureBodyPartsLoaded();
+        return super.getBodyPart(index);
+    }
+
+    @Override
+    public List<BodyPart> getBodyParts() {
+        ensureBodyPartsLoaded();
+        return super.getBodyParts();
+    }
+
+    @Override
+    public int getCount() {
+        ensureBodyPartsLoaded();
+        return super.getCount();
+    }
+
+    private synchronized void ensureBodyPartsLoaded() {
+        if (bodyPartsLoaded) {
+            return;
+        }
+
+        List<BodyPart> bodyParts = partLoader.loadChildren(messagePartId);
+        bodyPartsLoaded = true;
+        for (BodyPart bodyPart : bodyParts) {
+            super.addBodyPart(bodyPart);
+        }
+    }
+}
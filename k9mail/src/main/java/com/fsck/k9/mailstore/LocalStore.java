@@ -26,6 +26,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -140,20 +141,13 @@ public class LocalStore extends Store implements Serializable {
     static final int UID_CHECK_BATCH_SIZE = 500;
 
     /**
-     * Maximum number of messages to perform flag updates on at once.
+     * Name of the temporary table used to stage the IDs of a bulk operation.
      *
-     * @see #setFlag(List, Flag, boolean)
+     * @see #doBulkSelection(List, BulkSelection)
      */
-    private static final int FLAG_UPDATE_BATCH_SIZE = 500;
+    private static final String BULK_SELECTION_TABLE = "bulk_selection_ids";
 
-    /**
-     * Maximum number of threads to perform flag updates on at once.
-     *
-     * @see #setFlagForThreads(List, Flag, boolean)
-     */
-    private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
-
-    public static final int DB_VERSION = 60;
+    public static final int DB_VERSION = 67;
 
 
     public static String getColumnNameForFlag(Flag flag) {
@@ -188,6 +182,8 @@ public class LocalStore extends Store implements Serializable {
     private final MessagePreviewCreator messagePreviewCreator;
     private final MessageFulltextCreator messageFulltextCreator;
     private final AttachmentCounter attachmentCounter;
+    private final MessageExtractionPipeline messageExtractionPipeline;
+    private final FulltextIndexer fulltextIndexer;
     private final PendingCommandSerializer pendingCommandSerializer;
     final AttachmentInfoExtractor attachmentInfoExtractor;
 
@@ -203,11 +199,16 @@ public class LocalStore extends Store implements Serializable {
         this.context = context;
         mContentResolver = context.getContentResolver();
         database.setStorageProviderId(account.getLocalStorageProviderId());
+        database.setWriteAheadLoggingEnabled(K9.isDatabaseWriteAheadLogging());
+        database.setSynchronousMode(K9.getDatabaseSynchronousMode());
+        database.setWalAutoCheckpoint(K9.getDatabaseWalAutoCheckpoint());
         uUid = account.getUuid();
 
         messagePreviewCreator = MessagePreviewCreator.newInstance();
         messageFulltextCreator = MessageFulltextCreator.newInstance();
         attachmentCounter = AttachmentCounter.newInstance();
+        messageExtractionPipeline = new MessageExtractionPipeline(messagePreviewCreator, attachmentCounter);
+        fulltextIndexer = new FulltextIndexer(this, messageFulltextCreator);
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
 
@@ -345,6 +346,7 @@ public class LocalStore extends Store implements Serializable {
 
                 // We don't need the search data now either
                 db.delete("messages_fulltext", null, null);
+                db.delete("fulltext_queue", null, null);
 
                 return null;
             }
@@ -990,114 +992,96 @@ public class LocalStore extends Store implements Serializable {
         return attachmentCounter;
     }
 
+    MessageExtractionPipeline getMessageExtractionPipeline() {
+        return messageExtractionPipeline;
+    }
+
+    public FulltextIndexer getFulltextIndexer() {
+        return fulltextIndexer;
+    }
+
     void notifyChange() {
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + uUid + "/messages");
         mContentResolver.notifyChange(uri, null);
     }
 
     /**
-     * Split database operations with a large set of arguments into multiple SQL statements.
+     * Run database operations on a large set of IDs using a single SQL statement.
      *
      * <p>
-     * At the time of this writing (2012-12-06) SQLite only supports around 1000 arguments. That's
-     * why we have to split SQL statements with a large set of arguments into multiple SQL
-     * statements each working on a subset of the arguments.
+     * The IDs are written to a temporary table that is then referenced in a sub-select, e.g.
+     * {@code "id IN (SELECT id FROM bulk_selection_ids)"}. That way the operation isn't limited by the
+     * maximum number of SQL arguments (around 1000 in SQLite) and is one statement in one transaction.
      * </p>
      *
+     * @param ids
+     *         The IDs to operate on.
      * @param selectionCallback
-     *         Supplies the argument set and the code to query/update the database.
-     * @param batchSize
-     *         The maximum size of the selection set in each SQL statement.
+     *         Supplies the code to query/update the database.
      *
      * @throws MessagingException
      */
-    public void doBatchSetSelection(final BatchSetSelection selectionCallback, final int batchSize)
+    public void doBulkSelection(final List<Long> ids, final BulkSelection selectionCallback)
             throws MessagingException {
 
-        final List<String> selectionArgs = new ArrayList<>();
-        int start = 0;
-
-        while (start < selectionCallback.getListSize()) {
-            final StringBuilder selection = new StringBuilder();
-
-            selection.append(" IN (");
-
-            int count = Math.min(selectionCallback.getListSize() - start, batchSize);
-
-            for (int i = start, end = start + count; i < end; i++) {
-                if (i > start) {
-                    selection.append(",?");
-                } else {
-                    selection.append("?");
-                }
+        if (ids.isEmpty()) {
+            return;
+        }
 
-                selectionArgs.add(selectionCallback.getListItem(i));
-            }
+        try {
+            database.execute(true, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
 
-            selection.append(")");
+                    db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + BULK_SELECTION_TABLE +
+                            " (id INTEGER PRIMARY KEY)");
+                    db.execSQL("DELETE FROM " + BULK_SELECTION_TABLE);
 
-            try {
-                database.execute(true, new DbCallback<Void>() {
-                    @Override
-                    public Void doDbWork(final SQLiteDatabase db) throws WrappedException,
-                            UnavailableStorageException {
+                    SQLiteStatement insertStatement = db.compileStatement(
+                            "INSERT OR IGNORE INTO " + BULK_SELECTION_TABLE + " (id) VALUES (?)");
+                    try {
+                        for (Long id : ids) {
+                            insertStatement.bindLong(1, id);
+                            insertStatement.executeInsert();
+                        }
+                    } finally {
+                        insertStatement.close();
+                    }
 
-                        selectionCallback.doDbWork(db, selection.toString(),
-                                selectionArgs.toArray(new String[selectionArgs.size()]));
+                    selectionCallback.doDbWork(db, "SELECT id FROM " + BULK_SELECTION_TABLE);
 
-                        return null;
-                    }
-                });
+                    db.execSQL("DELETE FROM " + BULK_SELECTION_TABLE);
 
-                selectionCallback.postDbWork();
+                    return null;
+                }
+            });
 
-            } catch (WrappedException e) {
-                throw(MessagingException) e.getCause();
-            }
+            selectionCallback.postDbWork();
 
-            selectionArgs.clear();
-            start += count;
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
         }
     }
 
     /**
-     * Defines the behavior of {@link LocalStore#doBatchSetSelection(BatchSetSelection, int)}.
+     * Defines the behavior of {@link LocalStore#doBulkSelection(List, BulkSelection)}.
      */
-    public interface BatchSetSelection {
-        /**
-         * @return The size of the argument list.
-         */
-        int getListSize();
-
-        /**
-         * Get a specific item of the argument list.
-         *
-         * @param index
-         *         The index of the item.
-         *
-         * @return Item at position {@code i} of the argument list.
-         */
-        String getListItem(int index);
-
+    public interface BulkSelection {
         /**
          * Execute the SQL statement.
          *
          * @param db
          *         Use this {@link SQLiteDatabase} instance for your SQL statement.
-         * @param selectionSet
-         *         A partial selection string containing place holders for the argument list, e.g.
-         *         {@code " IN (?,?,?)"} (starts with a space).
-         * @param selectionArgs
-         *         The current subset of the argument list.
+         * @param idSelect
+         *         A sub-select returning all IDs, e.g. {@code "SELECT id FROM bulk_selection_ids"}.
          * @throws UnavailableStorageException
          */
-        void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                throws UnavailableStorageException;
+        void doDbWork(SQLiteDatabase db, String idSelect) throws UnavailableStorageException;
 
         /**
-         * This will be executed after each invocation of
-         * {@link #doDbWork(SQLiteDatabase, String, String[])} (after the transaction has been
-         * committed).
+         * This will be executed after {@link #doDbWork(SQLiteDatabase, String)} (after the
+         * transaction has been committed).
          */
         void postDbWork();
     }
@@ -1121,34 +1105,20 @@ public class LocalStore extends Store implements Serializable {
     public void setFlag(final List<Long> messageIds, final Flag flag, final boolean newState)
             throws MessagingException {
 
-        final ContentValues cv = new ContentValues();
-        cv.put(getColumnNameForFlag(flag), newState);
-
-        doBatchSetSelection(new BatchSetSelection() {
-
-            @Override
-            public int getListSize() {
-                return messageIds.size();
-            }
-
-            @Override
-            public String getListItem(int index) {
-                return Long.toString(messageIds.get(index));
-            }
+        final String flagColumn = getColumnNameForFlag(flag);
 
+        doBulkSelection(messageIds, new BulkSelection() {
             @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                    throws UnavailableStorageException {
-
-                db.update("messages", cv, "empty = 0 AND id" + selectionSet,
-                        selectionArgs);
+            public void doDbWork(SQLiteDatabase db, String idSelect) throws UnavailableStorageException {
+                db.execSQL("UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
+                        " WHERE empty = 0 AND id IN (" + idSelect + ")");
             }
 
             @Override
             public void postDbWork() {
                 notifyChange();
             }
-        }, FLAG_UPDATE_BATCH_SIZE);
+        });
     }
 
     /**
@@ -1172,36 +1142,22 @@ public class LocalStore extends Store implements Serializable {
 
         final String flagColumn = getColumnNameForFlag(flag);
 
-        doBatchSetSelection(new BatchSetSelection() {
-
+        doBulkSelection(threadRootIds, new BulkSelection() {
             @Override
-            public int getListSize() {
-                return threadRootIds.size();
-            }
-
-            @Override
-            public String getListItem(int index) {
-                return Long.toString(threadRootIds.get(index));
-            }
-
-            @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                    throws UnavailableStorageException {
-
+            public void doDbWork(SQLiteDatabase db, String idSelect) throws UnavailableStorageException {
                 db.execSQL("UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
                         " WHERE id IN (" +
                         "SELECT m.id FROM threads t " +
-                        "LEFT JOIN messages m ON (t.message_id = m.id) " +
+                        "JOIN messages m ON (t.message_id = m.id) " +
                         "WHERE m.empty = 0 AND m.deleted = 0 " +
-                        "AND t.root" + selectionSet + ")",
-                        selectionArgs);
+                        "AND t.root IN (" + idSelect + "))");
             }
 
             @Override
             public void postDbWork() {
                 notifyChange();
             }
-        }, THREAD_FLAG_UPDATE_BATCH_SIZE);
+        });
     }
 
     /**
@@ -1224,40 +1180,27 @@ public class LocalStore extends Store implements Serializable {
 
         final Map<String, List<String>> folderMap = new HashMap<>();
 
-        doBatchSetSelection(new BatchSetSelection() {
-
+        doBulkSelection(messageIds, new BulkSelection() {
             @Override
-            public int getListSize() {
-                return messageIds.size();
-            }
-
-            @Override
-            public String getListItem(int index) {
-                return Long.toString(messageIds.get(index));
-            }
-
-            @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                    throws UnavailableStorageException {
-
+            public void doDbWork(SQLiteDatabase db, String idSelect) throws UnavailableStorageException {
                 if (threadedList) {
                     String sql = "SELECT m.uid, f.name " +
                             "FROM threads t " +
-                            "LEFT JOIN messages m ON (t.message_id = m.id) " +
+                            "JOIN messages m ON (t.message_id = m.id) " +
                             "LEFT JOIN folders f ON (m.folder_id = f.id) " +
                             "WHERE m.empty = 0 AND m.deleted = 0 " +
-                            "AND t.root" + selectionSet;
+                            "AND t.root IN (" + idSelect + ")";
 
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
+                    getDataFromCursor(db.rawQuery(sql, null));
 
                 } else {
                     String sql =
                             "SELECT m.uid, f.name " +
                             "FROM messages m " +
                             "LEFT JOIN folders f ON (m.folder_id = f.id) " +
-                            "WHERE m.empty = 0 AND m.id" + selectionSet;
+                            "WHERE m.empty = 0 AND m.id IN (" + idSelect + ")";
 
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
+                    getDataFromCursor(db.rawQuery(sql, null));
                 }
             }
 
@@ -1283,9 +1226,8 @@ public class LocalStore extends Store implements Serializable {
             @Override
             public void postDbWork() {
                 notifyChange();
-
             }
-        }, UID_CHECK_BATCH_SIZE);
+        });
 
         return folderMap;
     }
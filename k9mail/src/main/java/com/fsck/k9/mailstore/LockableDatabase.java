@@ -7,8 +7,10 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
 import timber.log.Timber;
 
@@ -41,6 +43,15 @@ public class LockableDatabase {
         T doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException;
     }
 
+    /**
+     * Values of SQLite's {@code PRAGMA synchronous}.
+     */
+    public enum SynchronousMode {
+        OFF,
+        NORMAL,
+        FULL
+    }
+
     public interface SchemaDefinition {
         int getVersion();
 
@@ -80,7 +91,8 @@ public class LockableDatabase {
             try {
                 lockWrite();
                 try {
-                    mDb.close();
+                    // Make sure the database file is complete before the storage goes away
+                    closeDatabase();
                 } finally {
                     unlockWrite();
                 }
@@ -140,6 +152,10 @@ public class LockableDatabase {
 
     private String uUid;
 
+    private boolean writeAheadLoggingEnabled = false;
+    private SynchronousMode synchronousMode = null;
+    private int walAutoCheckpoint = -1;
+
     /**
      * @param context
      *            Never <code>null</code>.
@@ -158,6 +174,37 @@ public class LockableDatabase {
         this.mStorageProviderId = mStorageProviderId;
     }
 
+    /**
+     * Use a write-ahead log instead of a rollback journal.
+     *
+     * <p>
+     * With a write-ahead log readers don't block writers and a writer doesn't block readers. Android then uses a
+     * dedicated connection for writes and a small pool of connections for reads, so queries from the UI can run while
+     * messages are being stored. Has to be called before {@link #open()}.
+     * </p>
+     */
+    public void setWriteAheadLoggingEnabled(boolean writeAheadLoggingEnabled) {
+        this.writeAheadLoggingEnabled = writeAheadLoggingEnabled;
+    }
+
+    /**
+     * @param synchronousMode
+     *         The value of {@code PRAGMA synchronous} or {@code null} to use the platform default. Has to be called
+     *         before {@link #open()}.
+     */
+    public void setSynchronousMode(SynchronousMode synchronousMode) {
+        this.synchronousMode = synchronousMode;
+    }
+
+    /**
+     * @param walAutoCheckpoint
+     *         The number of pages in the write-ahead log that trigger a checkpoint, or a negative value to use the
+     *         SQLite default. Has to be called before {@link #open()}.
+     */
+    public void setWalAutoCheckpoint(int walAutoCheckpoint) {
+        this.walAutoCheckpoint = walAutoCheckpoint;
+    }
+
     public String getStorageProviderId() {
         return mStorageProviderId;
     }
@@ -301,6 +348,13 @@ public class LockableDatabase {
         }
     }
 
+    /**
+     * @return <code>true</code> if the current thread is executing a transactional callback.
+     */
+    public boolean isInTransaction() {
+        return inTransaction.get() != null;
+    }
+
     /**
      * @param newProviderId
      *            Never <code>null</code>.
@@ -318,7 +372,8 @@ public class LockableDatabase {
             lockWrite(newProviderId);
             try {
                 try {
-                    mDb.close();
+                    // Only the database file is moved, so the write-ahead log has to be checkpointed first
+                    closeDatabase();
                 } catch (Exception e) {
                     Timber.i(e, "Unable to close DB on local store migration");
                 }
@@ -395,6 +450,69 @@ public class LockableDatabase {
             // external storage
             mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
         }
+
+        configureDatabase();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void configureDatabase() {
+        if (writeAheadLoggingEnabled) {
+            if (!mDb.enableWriteAheadLogging()) {
+                Timber.w("LockableDatabase: Unable to enable write-ahead logging for DB %s", uUid);
+            }
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && mDb.isWriteAheadLoggingEnabled()) {
+            mDb.disableWriteAheadLogging();
+        }
+
+        // Android resets the synchronous mode whenever write-ahead logging is switched on or off
+        if (synchronousMode != null) {
+            applyConnectionPragma("synchronous = " + synchronousMode.name());
+        }
+
+        if (writeAheadLoggingEnabled && walAutoCheckpoint >= 0) {
+            applyConnectionPragma("wal_autocheckpoint = " + walAutoCheckpoint);
+        }
+    }
+
+    /**
+     * Applies a pragma that configures the primary database connection, the one Android uses for all writes.
+     *
+     * <p>
+     * With a write-ahead log, Android runs read-only statements (and to SQLite these pragmas are read-only) on a pool
+     * of secondary connections, so {@code rawQuery()} might configure the wrong connection. SQLite applies these
+     * pragmas when the statement is compiled, though, and Android compiles everything but {@code SELECT} statements on
+     * the primary connection. A write transaction can't be used to get hold of the primary connection because SQLite
+     * refuses to change the synchronous mode inside a transaction.
+     * </p>
+     */
+    private void applyConnectionPragma(String pragma) {
+        SQLiteStatement statement = mDb.compileStatement("PRAGMA " + pragma);
+        statement.close();
+    }
+
+    private void executePragma(String pragma) {
+        // Some pragmas return a row, so execSQL() can't be used
+        Cursor cursor = mDb.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Closes the database after transferring the content of the write-ahead log (if any) to the database file.
+     */
+    private void closeDatabase() {
+        if (writeAheadLoggingEnabled && mDb.isOpen()) {
+            try {
+                executePragma("wal_checkpoint(FULL)");
+            } catch (SQLiteException e) {
+                Timber.w(e, "LockableDatabase: Unable to checkpoint DB %s", uUid);
+            }
+        }
+
+        mDb.close();
     }
 
     /**
@@ -507,6 +625,8 @@ public class LockableDatabase {
         } else {
             deleted = database.delete();
             deleted |= new File(database.getPath() + "-journal").delete();
+            deleted |= new File(database.getPath() + "-wal").delete();
+            deleted |= new File(database.getPath() + "-shm").delete();
         }
         if (!deleted) {
             Timber.i("LockableDatabase: deleteDatabase(): No files deleted.");
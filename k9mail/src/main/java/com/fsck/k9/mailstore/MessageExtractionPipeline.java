@@ -0,0 +1,151 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.message.extractors.AttachmentCounter;
+import com.fsck.k9.message.extractors.MessagePreviewCreator;
+import com.fsck.k9.message.extractors.PreviewResult;
+
+
+/**
+ * Extracts the data stored alongside a message (preview, attachment count) before the message is written to the
+ * database. The fulltext index is built later by {@link FulltextIndexer}.
+ *
+ * <p>
+ * Parsing message bodies is CPU-heavy. Doing it before the write transaction is started keeps the transaction short,
+ * so queries of the message list aren't blocked while messages are being synchronized. Multiple messages are
+ * processed in parallel on a small worker pool shared by all accounts.
+ * </p>
+ */
+class MessageExtractionPipeline {
+    private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+
+    private final MessagePreviewCreator previewCreator;
+    private final AttachmentCounter attachmentCounter;
+
+
+    MessageExtractionPipeline(MessagePreviewCreator previewCreator, AttachmentCounter attachmentCounter) {
+        this.previewCreator = previewCreator;
+        this.attachmentCounter = attachmentCounter;
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "MessageExtraction");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Extracts the data of all messages.
+     *
+     * @param messages
+     *         The messages to process.
+     * @param parallel
+     *         {@code false} to process the messages on the calling thread. This has to be used when the caller holds
+     *         a database transaction because the worker threads might need to read from the database.
+     *
+     * @return The extracted data in the order of {@code messages}.
+     */
+    List<ExtractedData> extract(List<? extends Message> messages, boolean parallel) throws MessagingException {
+        List<ExtractedData> result = new ArrayList<>(messages.size());
+        if (!parallel || messages.size() < 2) {
+            for (Message message : messages) {
+                result.add(extract(message));
+            }
+
+            return result;
+        }
+
+        List<Future<ExtractedData>> futures = new ArrayList<>(messages.size());
+        for (final Message message : messages) {
+            futures.add(EXECUTOR.submit(new Callable<ExtractedData>() {
+                @Override
+                public ExtractedData call() throws MessagingException {
+                    return extract(message);
+                }
+            }));
+        }
+
+        try {
+            for (Future<ExtractedData> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while extracting message data", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            throw new MessagingException("Error extracting message data", cause);
+        }
+
+        return result;
+    }
+
+    ExtractedData extract(Message message) throws MessagingException {
+        try {
+            PreviewResult previewResult = previewCreator.createPreview(message);
+            int attachmentCount = attachmentCounter.getAttachmentCount(message);
+
+            return new ExtractedData(previewResult, attachmentCount);
+        } catch (Exception e) {
+            throw new MessagingException("Error appending message: " + message.getSubject(), e);
+        }
+    }
+
+    private static void cancel(List<Future<ExtractedData>> futures) {
+        for (Future<ExtractedData> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+
+    static class ExtractedData {
+        final PreviewResult previewResult;
+        final int attachmentCount;
+
+        ExtractedData(PreviewResult previewResult, int attachmentCount) {
+            this.previewResult = previewResult;
+            this.attachmentCount = attachmentCount;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import timber.log.Timber;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.message.MessageHeaderParser;
+import com.fsck.k9.mailstore.LocalFolder.DataLocation;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+
+
+/**
+ * Builds the part tree of a {@link LocalMessage} from {@code message_parts} on demand.
+ *
+ * <p>
+ * Only the structure and the raw headers of the message are read up front, in a single query. The parts below a
+ * multipart are created (and their headers parsed) when they are first accessed, and the contents of parts stored in
+ * the database are only read when the body is used. That way opening a message with many attachments or nested
+ * messages only pays for the parts that are actually looked at.
+ * </p>
+ *
+ * <p>
+ * Since the part tree is built from what was read up front, it stays consistent even if the message is downloaded
+ * again or deleted in the meantime. Only reading the contents of a part can fail then, which is reported as
+ * {@link MessagingException} by the body.
+ * </p>
+ */
+class MessagePartLoader {
+    private static final String[] STRUCTURE_COLUMNS = {
+            "id",                   // 0
+            "parent",               // 1
+            "mime_type",            // 2
+            "decoded_body_size",    // 3
+            "encoding",             // 4
+            "data_location",        // 5
+            "preamble",             // 6
+            "epilogue",             // 7
+            "boundary",             // 8
+            "server_extra",         // 9
+            "header",               // 10
+            "LENGTH(data)",         // 11
+    };
+
+
+    private final LocalStore localStore;
+    private final String accountUuid;
+    private final LocalMessage message;
+    private final Map<Long, List<PartInfo>> childrenByParentId;
+
+
+    private MessagePartLoader(LocalStore localStore, String accountUuid, LocalMessage message,
+            Map<Long, List<PartInfo>> childrenByParentId) {
+        this.localStore = localStore;
+        this.accountUuid = accountUuid;
+        this.message = message;
+        this.childrenByParentId = childrenByParentId;
+    }
+
+    static void loadMessageParts(SQLiteDatabase db, LocalStore localStore, String accountUuid, LocalMessage message)
+            throws MessagingException {
+        long rootPartId = message.getMessagePartId();
+
+        PartInfo rootPartInfo = null;
+        Map<Long, List<PartInfo>> childrenByParentId = new HashMap<>();
+
+        Cursor cursor = db.query("message_parts", STRUCTURE_COLUMNS, "root = ?",
+                new String[] { String.valueOf(rootPartId) }, null, null, "seq");
+        try {
+            while (cursor.moveToNext()) {
+                PartInfo partInfo = new PartInfo(cursor);
+                if (partInfo.id == rootPartId) {
+                    rootPartInfo = partInfo;
+                    continue;
+                }
+
+                List<PartInfo> children = childrenByParentId.get(partInfo.parentId);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    childrenByParentId.put(partInfo.parentId, children);
+                }
+                children.add(partInfo);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (rootPartInfo == null) {
+            return;
+        }
+
+        MessagePartLoader loader = new MessagePartLoader(localStore, accountUuid, message, childrenByParentId);
+        loader.initializePart(message, rootPartInfo);
+    }
+
+    List<BodyPart> loadChildren(long messagePartId) {
+        List<PartInfo> children = getChildren(messagePartId);
+        if (children.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<BodyPart> bodyParts = new ArrayList<>(children.size());
+        for (PartInfo child : children) {
+            LocalBodyPart bodyPart = new LocalBodyPart(accountUuid, message, child.id, child.size);
+            parseHeader(bodyPart, child);
+            initializePart(bodyPart, child);
+
+            bodyParts.add(bodyPart);
+        }
+        return bodyParts;
+    }
+
+    byte[] loadData(final long messagePartId) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<byte[]>() {
+            @Override
+            public byte[] doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                Cursor cursor = db.query("message_parts", new String[] { "data" }, "id = ?",
+                        new String[] { String.valueOf(messagePartId) }, null, null, null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        throw new MessagingException("Message part not found");
+                    }
+
+                    byte[] data = cursor.getBlob(0);
+                    return (data != null) ? data : new byte[0];
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void initializePart(Part part, PartInfo partInfo) {
+        part.setServerExtra(partInfo.serverExtra);
+
+        if (MimeUtility.isMultipart(partInfo.mimeType)) {
+            LocalMultipart multipart = new LocalMultipart(this, partInfo.id, partInfo.mimeType, partInfo.boundary);
+            multipart.setPreamble(partInfo.preamble);
+            multipart.setEpilogue(partInfo.epilogue);
+            part.setBody(multipart);
+        } else if (partInfo.dataLocation == DataLocation.IN_DATABASE) {
+            Body body = new DatabaseBackedBody(this, partInfo.id, partInfo.encoding, partInfo.dataSize);
+            part.setBody(body);
+        } else if (partInfo.dataLocation == DataLocation.ON_DISK) {
+            File file = localStore.getAttachmentFile(Long.toString(partInfo.id));
+            if (file.exists()) {
+                Body body = new FileBackedBody(file, partInfo.encoding);
+                part.setBody(body);
+            }
+        }
+
+        if (MimeUtility.isMessage(partInfo.mimeType)) {
+            // A message part only has a single child, and its header is needed to do anything with it
+            for (PartInfo child : getChildren(partInfo.id)) {
+                LocalMimeMessage innerMessage = new LocalMimeMessage(accountUuid, message, child.id);
+                parseHeader(innerMessage, child);
+                part.setBody(innerMessage);
+
+                initializePart(innerMessage, child);
+            }
+        }
+    }
+
+    private void parseHeader(Part part, PartInfo partInfo) {
+        if (partInfo.header == null) {
+            return;
+        }
+
+        try {
+            MessageHeaderParser.parse(part, new ByteArrayInputStream(partInfo.header));
+        } catch (MessagingException e) {
+            Timber.w(e, "Couldn't parse header of message part %d", partInfo.id);
+        }
+    }
+
+    private List<PartInfo> getChildren(long messagePartId) {
+        List<PartInfo> children = childrenByParentId.get(messagePartId);
+        return (children != null) ? children : Collections.<PartInfo>emptyList();
+    }
+
+
+    private static class PartInfo {
+        final long id;
+        final long parentId;
+        final String mimeType;
+        final long size;
+        final String encoding;
+        final int dataLocation;
+        final byte[] preamble;
+        final byte[] epilogue;
+        final String boundary;
+        final String serverExtra;
+        final byte[] header;
+        final long dataSize;
+
+        PartInfo(Cursor cursor) {
+            id = cursor.getLong(0);
+            parentId = cursor.getLong(1);
+            mimeType = cursor.getString(2);
+            size = cursor.getLong(3);
+            encoding = cursor.getString(4);
+            dataLocation = cursor.getInt(5);
+            preamble = cursor.getBlob(6);
+            epilogue = cursor.getBlob(7);
+            boundary = cursor.getString(8);
+            serverExtra = cursor.getString(9);
+            header = cursor.getBlob(10);
+            dataSize = cursor.getLong(11);
+        }
+    }
+}
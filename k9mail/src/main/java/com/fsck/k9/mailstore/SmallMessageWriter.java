@@ -0,0 +1,163 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.SystemClock;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import timber.log.Timber;
+
+
+/**
+ * Stores fully downloaded small messages in batches.
+ *
+ * <p>
+ * Storing every message in its own transaction costs one commit (and one fsync) and one change notification per
+ * message. This writer collects messages and stores them with {@link LocalFolder#storeSmallMessages(List)} once the
+ * batch contains {@link #DEFAULT_MAX_BATCH_MESSAGES} messages, {@link #DEFAULT_MAX_BATCH_BYTES} bytes, or when the
+ * oldest message has been waiting for {@link #DEFAULT_MAX_BATCH_DELAY_MILLIS}. The caller has to call {@link #flush()}
+ * when it's done adding messages.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class SmallMessageWriter {
+    static final int DEFAULT_MAX_BATCH_MESSAGES = 50;
+    static final long DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1000;
+
+
+    private final LocalFolder localFolder;
+    private final Callback callback;
+    private final int maxBatchMessages;
+    private final long maxBatchBytes;
+    private final long maxBatchDelayMillis;
+
+    private final List<Message> batch = new ArrayList<>();
+    private long batchBytes = 0;
+    private long batchStartTime = 0;
+
+
+    public SmallMessageWriter(LocalFolder localFolder, Callback callback) {
+        this(localFolder, callback, DEFAULT_MAX_BATCH_MESSAGES, DEFAULT_MAX_BATCH_BYTES,
+                DEFAULT_MAX_BATCH_DELAY_MILLIS);
+    }
+
+    SmallMessageWriter(LocalFolder localFolder, Callback callback, int maxBatchMessages, long maxBatchBytes,
+            long maxBatchDelayMillis) {
+        this.localFolder = localFolder;
+        this.callback = callback;
+        this.maxBatchMessages = maxBatchMessages;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+    }
+
+    /**
+     * Adds a message to the current batch and stores the batch if one of the limits has been reached.
+     */
+    public void add(Message message) throws MessagingException {
+        if (batch.isEmpty()) {
+            batchStartTime = now();
+        }
+
+        batch.add(message);
+        batchBytes += Math.max(0, message.getSize());
+
+        if (batch.size() >= maxBatchMessages || batchBytes >= maxBatchBytes || isBatchOverdue()) {
+            flush();
+        }
+    }
+
+    /**
+     * Stores the current batch if its oldest message has been waiting for longer than the maximum delay.
+     *
+     * <p>
+     * {@link #add(Message)} only checks the delay when a message is added. Call this while waiting for the next
+     * message, e.g. when the server skipped a message or starts sending the next one, so a slow download doesn't keep
+     * already downloaded messages from showing up.
+     * </p>
+     */
+    public void flushIfOverdue() throws MessagingException {
+        if (isBatchOverdue()) {
+            flush();
+        }
+    }
+
+    private boolean isBatchOverdue() {
+        return !batch.isEmpty() && now() - batchStartTime >= maxBatchDelayMillis;
+    }
+
+    /**
+     * Stores all messages of the current batch.
+     *
+     * <p>
+     * If the batch can't be stored the messages are stored one by one, so a single broken message doesn't prevent the
+     * others from being stored. In that case the first error is thrown after all messages have been processed.
+     * </p>
+     */
+    public void flush() throws MessagingException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Message> messages = new ArrayList<>(batch);
+        batch.clear();
+        batchBytes = 0;
+
+        List<LocalMessage> localMessages;
+        try {
+            localMessages = localFolder.storeSmallMessages(messages);
+        } catch (MessagingException e) {
+            if (messages.size() == 1) {
+                throw e;
+            }
+
+            Timber.w(e, "Storing batch of %d messages failed. Storing them one by one.", messages.size());
+            storeIndividually(messages);
+            return;
+        }
+
+        for (int i = 0, end = messages.size(); i < end; i++) {
+            callback.messageStored(messages.get(i), localMessages.get(i));
+        }
+    }
+
+    private void storeIndividually(List<Message> messages) throws MessagingException {
+        MessagingException firstException = null;
+        for (Message message : messages) {
+            try {
+                LocalMessage localMessage = localFolder.storeSmallMessages(Collections.singletonList(message)).get(0);
+                callback.messageStored(message, localMessage);
+            } catch (MessagingException e) {
+                if (firstException == null) {
+                    firstException = e;
+                }
+            }
+        }
+
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+
+    public interface Callback {
+        /**
+         * Called after a message has been stored and the transaction has been committed.
+         *
+         * @param message The message passed to {@link #add(Message)}.
+         * @param localMessage The stored version of the message.
+         */
+        void messageStored(Message message, LocalMessage localMessage);
+    }
+}
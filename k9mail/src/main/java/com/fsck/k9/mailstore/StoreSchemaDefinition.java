@@ -94,7 +94,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "push_class TEXT, " +
                 "display_class TEXT, " +
                 "notify_class TEXT default '"+ Folder.FolderClass.INHERITED.name() + "', " +
-                "more_messages TEXT default \"unknown\"" +
+                "more_messages TEXT default \"unknown\", " +
+                "uid_validity INTEGER, " +
+                "highest_mod_seq INTEGER" +
                 ")");
 
         db.execSQL("CREATE INDEX IF NOT EXISTS folder_name ON folders (name)");
@@ -172,6 +174,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS msg_composite");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_composite ON messages (deleted, empty,folder_id,flagged,read)");
 
+        db.execSQL("DROP INDEX IF EXISTS msg_folder_id_message_id");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_folder_id_message_id ON messages (folder_id, message_id)");
+
 
         db.execSQL("DROP TABLE IF EXISTS threads");
         db.execSQL("CREATE TABLE threads (" +
@@ -210,10 +215,161 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "BEGIN " +
                 "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
                 "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM fulltext_queue WHERE message_id = OLD.id; " +
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
-        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (" +
+                "subject, sender, recipients, body" + FulltextIndexer.getPrefixIndexOption() +
+                ")");
+
+        // Messages waiting to be added to messages_fulltext by FulltextIndexer
+        db.execSQL("DROP TABLE IF EXISTS fulltext_queue");
+        db.execSQL("CREATE TABLE fulltext_queue (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER UNIQUE, " +
+                "attempts INTEGER DEFAULT 0" +
+                ")");
+
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "folder_id INTEGER, " +
+                "root INTEGER, " +
+                "message_count INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "attachment_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "latest_message_id INTEGER, " +
+                "PRIMARY KEY (folder_id, root)" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_date");
+        db.execSQL("CREATE INDEX IF NOT EXISTS thread_summaries_folder_id_date ON thread_summaries (folder_id, date)");
+
+        // Keep thread_summaries in sync with the 'messages' and 'threads' tables
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_update_message");
+        db.execSQL("CREATE TRIGGER thread_summary_update_message " +
+                "AFTER UPDATE OF folder_id, date, internal_date, attachment_count, read, flagged, answered, " +
+                "forwarded, empty, deleted ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("NEW.folder_id", "(SELECT root FROM threads WHERE message_id = NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_move_message");
+        db.execSQL("CREATE TRIGGER thread_summary_move_message " +
+                "AFTER UPDATE OF folder_id ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.folder_id", "(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_delete_message");
+        db.execSQL("CREATE TRIGGER thread_summary_delete_message " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.folder_id", "(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_insert_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_insert_thread " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = NEW.message_id)",
+                        "COALESCE(NEW.root, NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_update_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_update_thread " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_delete_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_delete_thread " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                "END");
+
+        db.execSQL("DROP TABLE IF EXISTS folder_counts");
+        db.execSQL("CREATE TABLE folder_counts (" +
+                "folder_id INTEGER PRIMARY KEY, " +
+                "message_count INTEGER DEFAULT 0, " +
+                "unread_count INTEGER DEFAULT 0, " +
+                "flagged_count INTEGER DEFAULT 0" +
+                ")");
+
+        // Keep folder_counts in sync with the 'messages' and 'folders' tables
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_insert_message");
+        db.execSQL("CREATE TRIGGER folder_counts_insert_message " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty = 0 AND NEW.deleted = 0 " +
+                "BEGIN " +
+                addToFolderCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_update_message");
+        db.execSQL("CREATE TRIGGER folder_counts_update_message " +
+                "AFTER UPDATE OF folder_id, read, flagged, empty, deleted ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.read IS NOT NEW.read " +
+                "OR OLD.flagged IS NOT NEW.flagged OR OLD.empty IS NOT NEW.empty OR OLD.deleted IS NOT NEW.deleted " +
+                "BEGIN " +
+                addToFolderCounts("OLD", "-") +
+                addToFolderCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_message");
+        db.execSQL("CREATE TRIGGER folder_counts_delete_message " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty = 0 AND OLD.deleted = 0 " +
+                "BEGIN " +
+                addToFolderCounts("OLD", "-") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_folder");
+        db.execSQL("CREATE TRIGGER folder_counts_delete_folder " +
+                "AFTER DELETE ON folders " +
+                "BEGIN " +
+                "DELETE FROM folder_counts WHERE folder_id = OLD.id; " +
+                "END");
+    }
+
+    /**
+     * Creates the SQL statements that recompute the row of {@code thread_summaries} for the given folder and thread
+     * root. The row is removed if the folder doesn't contain any visible message of the thread.
+     */
+    private static String refreshThreadSummary(String folderId, String root) {
+        return "DELETE FROM thread_summaries WHERE folder_id = " + folderId + " AND root = " + root + "; " +
+                "INSERT INTO thread_summaries " +
+                "SELECT m.folder_id, t.root, COUNT(*), MAX(m.date), MAX(m.internal_date), " +
+                "SUM(m.attachment_count), MIN(m.read), MAX(m.flagged), MIN(m.answered), MIN(m.forwarded), " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.empty = 0 AND lm.deleted = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE m.empty = 0 AND m.deleted = 0 " +
+                "AND m.folder_id = " + folderId + " AND t.root = " + root + " " +
+                "GROUP BY m.folder_id, t.root; ";
+    }
+
+    /**
+     * Creates the SQL statements that add ({@code "+"}) or subtract ({@code "-"}) the message in {@code row} (either
+     * {@code "NEW"} or {@code "OLD"}) to/from the counters of its folder. Empty and deleted messages aren't counted.
+     */
+    private static String addToFolderCounts(String row, String operator) {
+        String counted = row + ".empty = 0 AND " + row + ".deleted = 0";
+        return "INSERT OR IGNORE INTO folder_counts (folder_id) SELECT " + row + ".folder_id WHERE " + counted + "; " +
+                "UPDATE folder_counts SET " +
+                "message_count = message_count " + operator + " 1, " +
+                "unread_count = unread_count " + operator + " (" + row + ".read IS 0), " +
+                "flagged_count = flagged_count " + operator + " (" + row + ".flagged IS 1) " +
+                "WHERE folder_id = " + row + ".folder_id AND " + counted + "; ";
     }
 
 
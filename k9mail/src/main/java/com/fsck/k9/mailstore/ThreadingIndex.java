@@ -0,0 +1,255 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+
+/**
+ * In-memory index of Message-ID → thread information used while threading a batch of messages.
+ *
+ * <p>
+ * Looking up every entry of the {@code References} header with a separate query makes threading messages of long
+ * threads expensive. This index loads all Message-IDs a message refers to with a single query and remembers the
+ * result (including the absence of a Message-ID), so messages of the same thread in a batch are threaded using
+ * memory lookups only.
+ * </p>
+ *
+ * <p>
+ * An instance must only be used inside a single write transaction. No other connection can modify the
+ * {@code messages} and {@code threads} tables while the transaction is active, so the index only has to be told about
+ * the changes made by the threading code itself.
+ * </p>
+ */
+class ThreadingIndex {
+    static final int MAX_ENTRIES = 2000;
+    private static final int MAX_QUERY_ARGUMENTS = 500;
+
+    private static final Entry NOT_FOUND = new Entry(-1, -1, -1, -1, false);
+
+
+    private final SQLiteDatabase db;
+    private final long folderId;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+
+    ThreadingIndex(SQLiteDatabase db, long folderId) {
+        this.db = db;
+        this.folderId = folderId;
+    }
+
+    /**
+     * Loads the thread information of all Message-IDs not already in the index with as few queries as possible.
+     */
+    void preload(Collection<String> messageIds) {
+        List<String> unknownMessageIds = new ArrayList<>();
+        for (String messageId : new HashSet<>(messageIds)) {
+            if (messageId != null && !entries.containsKey(messageId)) {
+                unknownMessageIds.add(messageId);
+            }
+        }
+
+        for (int start = 0, size = unknownMessageIds.size(); start < size; start += MAX_QUERY_ARGUMENTS) {
+            int end = Math.min(start + MAX_QUERY_ARGUMENTS, size);
+            load(unknownMessageIds.subList(start, end));
+        }
+    }
+
+    private void load(List<String> messageIds) {
+        StringBuilder sql = new StringBuilder("SELECT m.message_id, m.id, m.empty, t.id, t.root, t.parent " +
+                "FROM messages m " +
+                "LEFT JOIN threads t ON (t.message_id = m.id) " +
+                "WHERE m.folder_id = ? AND m.message_id IN (");
+        String[] selectionArgs = new String[messageIds.size() + 1];
+        selectionArgs[0] = Long.toString(folderId);
+        for (int i = 0, size = messageIds.size(); i < size; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+            selectionArgs[i + 1] = messageIds.get(i);
+        }
+        sql.append(") ORDER BY m.id");
+
+        Set<String> found = new HashSet<>();
+        Cursor cursor = db.rawQuery(sql.toString(), selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                String messageId = cursor.getString(0);
+
+                // Like LocalFolder.getThreadInfo() we use the message with the lowest ID
+                if (found.add(messageId)) {
+                    long msgId = cursor.getLong(1);
+                    boolean empty = cursor.getInt(2) == 1;
+                    long threadId = cursor.getLong(3);
+                    long rootId = cursor.isNull(4) ? -1 : cursor.getLong(4);
+                    long parentId = cursor.isNull(5) ? -1 : cursor.getLong(5);
+
+                    entries.put(messageId, new Entry(threadId, msgId, rootId, parentId, empty));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String messageId : messageIds) {
+            if (!found.contains(messageId)) {
+                entries.put(messageId, NOT_FOUND);
+            }
+        }
+    }
+
+    /**
+     * @return The thread information of the message with the lowest ID using {@code messageId} or {@code null} if
+     *         there is no such message in the folder.
+     */
+    ThreadInfo get(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(messageId);
+        if (entry == null) {
+            load(Collections.singletonList(messageId));
+            entry = entries.get(messageId);
+        }
+
+        return toThreadInfo(messageId, entry);
+    }
+
+    /**
+     * @return The thread information of the empty placeholder message for {@code messageId} or {@code null} if the
+     *         folder doesn't contain such a message.
+     */
+    ThreadInfo getEmpty(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(messageId);
+        if (entry == NOT_FOUND) {
+            return null;
+        } else if (entry != null && entry.empty) {
+            return toThreadInfo(messageId, entry);
+        }
+
+        // An empty message with a higher ID than the indexed message is unusual, so it's not worth indexing
+        return queryEmpty(messageId);
+    }
+
+    private ThreadInfo queryEmpty(String messageId) {
+        String sql = "SELECT t.id, t.message_id, t.root, t.parent " +
+                "FROM messages m " +
+                "LEFT JOIN threads t ON (t.message_id = m.id) " +
+                "WHERE m.folder_id = ? AND m.message_id = ? AND m.empty = 1 " +
+                "ORDER BY m.id LIMIT 1";
+        String[] selectionArgs = { Long.toString(folderId), messageId };
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            if (cursor.moveToFirst()) {
+                long threadId = cursor.getLong(0);
+                long msgId = cursor.getLong(1);
+                long rootId = cursor.isNull(2) ? -1 : cursor.getLong(2);
+                long parentId = cursor.isNull(3) ? -1 : cursor.getLong(3);
+
+                return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return null;
+    }
+
+    /**
+     * Records a message that was inserted into the {@code messages} table together with its {@code threads} row.
+     */
+    void messageInserted(String messageId, long msgId, long threadId, long rootId, long parentId, boolean empty) {
+        if (messageId == null) {
+            return;
+        }
+
+        // Inserted messages have the highest ID, so they only become the indexed message if there was none before
+        if (entries.get(messageId) == NOT_FOUND) {
+            entries.put(messageId, new Entry(threadId, msgId, rootId, parentId, empty));
+        }
+    }
+
+    /**
+     * Records that the empty placeholder message with the given ID now contains an actual message.
+     */
+    void placeholderFilled(String messageId, long msgId) {
+        Entry entry = messageId != null ? entries.get(messageId) : null;
+        if (entry != null && entry != NOT_FOUND && entry.msgId == msgId) {
+            entry.empty = false;
+        }
+    }
+
+    /**
+     * Records {@code UPDATE threads SET root = newRootId WHERE root = oldRootId}.
+     */
+    void rootChanged(long oldRootId, long newRootId) {
+        for (Entry entry : entries.values()) {
+            if (entry != NOT_FOUND && entry.rootId == oldRootId) {
+                entry.rootId = newRootId;
+            }
+        }
+    }
+
+    /**
+     * Records {@code UPDATE threads SET root = rootId, parent = parentId WHERE id = threadId}.
+     */
+    void threadChanged(long threadId, long rootId, long parentId) {
+        for (Entry entry : entries.values()) {
+            if (entry != NOT_FOUND && entry.threadId == threadId) {
+                entry.rootId = rootId;
+                entry.parentId = parentId;
+            }
+        }
+    }
+
+    /**
+     * Removes the information about {@code messageId}. It will be loaded from the database when needed again.
+     */
+    void invalidate(String messageId) {
+        if (messageId != null) {
+            entries.remove(messageId);
+        }
+    }
+
+    private static ThreadInfo toThreadInfo(String messageId, Entry entry) {
+        if (entry == null || entry == NOT_FOUND) {
+            return null;
+        }
+
+        return new ThreadInfo(entry.threadId, entry.msgId, messageId, entry.rootId, entry.parentId);
+    }
+
+
+    private static class Entry {
+        final long threadId;
+        final long msgId;
+        long rootId;
+        long parentId;
+        boolean empty;
+
+        Entry(long threadId, long msgId, long rootId, long parentId, boolean empty) {
+            this.threadId = threadId;
+            this.msgId = msgId;
+            this.rootId = rootId;
+            this.parentId = parentId;
+            this.empty = empty;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.message.extractors.MessageFulltext;
 import com.fsck.k9.message.extractors.MessageFulltextCreator;
 
 
@@ -36,7 +37,8 @@ class MigrationTo55 {
                     LocalMessage localMessage = folder.getMessage(messageUid);
                     folder.fetch(Collections.singletonList(localMessage), fp, null);
 
-                    String fulltext = fulltextCreator.createFulltext(localMessage);
+                    MessageFulltext messageFulltext = fulltextCreator.createFulltext(localMessage);
+                    String fulltext = (messageFulltext != null) ? messageFulltext.getBody() : null;
                     if (!TextUtils.isEmpty(fulltext)) {
                         Timber.d("fulltext for msg id %d is %d chars long", localMessage.getId(), fulltext.length());
                         cv.clear();
@@ -0,0 +1,12 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo61 {
+    public static void addModSeqColumnsToFoldersTable(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE folders ADD uid_validity INTEGER");
+        db.execSQL("ALTER TABLE folders ADD highest_mod_seq INTEGER");
+    }
+}
@@ -0,0 +1,11 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo62 {
+    static void addMessageIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_folder_id_message_id ON messages (folder_id, message_id)");
+    }
+}
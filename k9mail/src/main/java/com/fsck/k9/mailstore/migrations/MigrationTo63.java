@@ -0,0 +1,95 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo63 {
+    static void createThreadSummariesTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "folder_id INTEGER, " +
+                "root INTEGER, " +
+                "message_count INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "attachment_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "latest_message_id INTEGER, " +
+                "PRIMARY KEY (folder_id, root)" +
+                ")");
+
+        db.execSQL("DROP INDEX IF EXISTS thread_summaries_folder_id_date");
+        db.execSQL("CREATE INDEX IF NOT EXISTS thread_summaries_folder_id_date ON thread_summaries (folder_id, date)");
+
+        db.execSQL("INSERT INTO thread_summaries " + selectThreadSummaries(""));
+    }
+
+    static void createThreadSummaryTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_update_message");
+        db.execSQL("CREATE TRIGGER thread_summary_update_message " +
+                "AFTER UPDATE OF folder_id, date, internal_date, attachment_count, read, flagged, answered, " +
+                "forwarded, empty, deleted ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("NEW.folder_id", "(SELECT root FROM threads WHERE message_id = NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_move_message");
+        db.execSQL("CREATE TRIGGER thread_summary_move_message " +
+                "AFTER UPDATE OF folder_id ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.folder_id", "(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_delete_message");
+        db.execSQL("CREATE TRIGGER thread_summary_delete_message " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.folder_id", "(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_insert_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_insert_thread " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = NEW.message_id)",
+                        "COALESCE(NEW.root, NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_update_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_update_thread " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = NEW.message_id)", "NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS thread_summary_delete_thread");
+        db.execSQL("CREATE TRIGGER thread_summary_delete_thread " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT folder_id FROM messages WHERE id = OLD.message_id)", "OLD.root") +
+                "END");
+    }
+
+    private static String refreshThreadSummary(String folderId, String root) {
+        return "DELETE FROM thread_summaries WHERE folder_id = " + folderId + " AND root = " + root + "; " +
+                "INSERT INTO thread_summaries " +
+                selectThreadSummaries("AND m.folder_id = " + folderId + " AND t.root = " + root + " ") + "; ";
+    }
+
+    private static String selectThreadSummaries(String condition) {
+        return "SELECT m.folder_id, t.root, COUNT(*), MAX(m.date), MAX(m.internal_date), " +
+                "SUM(m.attachment_count), MIN(m.read), MAX(m.flagged), MIN(m.answered), MIN(m.forwarded), " +
+                "(SELECT lm.id FROM threads lt JOIN messages lm ON (lm.id = lt.message_id) " +
+                "WHERE lt.root = t.root AND lm.folder_id = m.folder_id AND lm.empty = 0 AND lm.deleted = 0 " +
+                "ORDER BY lm.date DESC, lm.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE m.empty = 0 AND m.deleted = 0 " + condition +
+                "GROUP BY m.folder_id, t.root";
+    }
+}
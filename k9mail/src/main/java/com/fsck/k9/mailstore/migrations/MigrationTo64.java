@@ -0,0 +1,68 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo64 {
+    static void createFolderCountsTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS folder_counts");
+        db.execSQL("CREATE TABLE folder_counts (" +
+                "folder_id INTEGER PRIMARY KEY, " +
+                "message_count INTEGER DEFAULT 0, " +
+                "unread_count INTEGER DEFAULT 0, " +
+                "flagged_count INTEGER DEFAULT 0" +
+                ")");
+
+        db.execSQL("INSERT INTO folder_counts (folder_id, message_count, unread_count, flagged_count) " +
+                "SELECT folder_id, COUNT(*), SUM(read IS 0), SUM(flagged IS 1) " +
+                "FROM messages " +
+                "WHERE empty = 0 AND deleted = 0 " +
+                "GROUP BY folder_id");
+    }
+
+    static void createFolderCountsTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_insert_message");
+        db.execSQL("CREATE TRIGGER folder_counts_insert_message " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty = 0 AND NEW.deleted = 0 " +
+                "BEGIN " +
+                addToFolderCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_update_message");
+        db.execSQL("CREATE TRIGGER folder_counts_update_message " +
+                "AFTER UPDATE OF folder_id, read, flagged, empty, deleted ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.read IS NOT NEW.read " +
+                "OR OLD.flagged IS NOT NEW.flagged OR OLD.empty IS NOT NEW.empty OR OLD.deleted IS NOT NEW.deleted " +
+                "BEGIN " +
+                addToFolderCounts("OLD", "-") +
+                addToFolderCounts("NEW", "+") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_message");
+        db.execSQL("CREATE TRIGGER folder_counts_delete_message " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty = 0 AND OLD.deleted = 0 " +
+                "BEGIN " +
+                addToFolderCounts("OLD", "-") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_folder");
+        db.execSQL("CREATE TRIGGER folder_counts_delete_folder " +
+                "AFTER DELETE ON folders " +
+                "BEGIN " +
+                "DELETE FROM folder_counts WHERE folder_id = OLD.id; " +
+                "END");
+    }
+
+    private static String addToFolderCounts(String row, String operator) {
+        String counted = row + ".empty = 0 AND " + row + ".deleted = 0";
+        return "INSERT OR IGNORE INTO folder_counts (folder_id) SELECT " + row + ".folder_id WHERE " + counted + "; " +
+                "UPDATE folder_counts SET " +
+                "message_count = message_count " + operator + " 1, " +
+                "unread_count = unread_count " + operator + " (" + row + ".read IS 0), " +
+                "flagged_count = flagged_count " + operator + " (" + row + ".flagged IS 1) " +
+                "WHERE folder_id = " + row + ".folder_id AND " + counted + "; ";
+    }
+}
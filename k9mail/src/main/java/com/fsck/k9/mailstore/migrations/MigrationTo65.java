@@ -0,0 +1,30 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo65 {
+    static void createFulltextQueueTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS fulltext_queue");
+        db.execSQL("CREATE TABLE fulltext_queue (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER UNIQUE" +
+                ")");
+
+        // Previously only the first text part of a message was indexed. Queue all messages so the index is rebuilt.
+        db.execSQL("INSERT INTO fulltext_queue (message_id) " +
+                "SELECT id FROM messages WHERE empty = 0 AND deleted = 0 ORDER BY date DESC");
+    }
+
+    static void updateDeleteMessageTrigger(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message");
+        db.execSQL("CREATE TRIGGER delete_message " +
+                "BEFORE DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
+                "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM fulltext_queue WHERE message_id = OLD.id; " +
+                "END");
+    }
+}
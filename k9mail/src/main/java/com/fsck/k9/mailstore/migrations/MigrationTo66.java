@@ -0,0 +1,20 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.mailstore.FulltextIndexer;
+
+
+class MigrationTo66 {
+    static void recreateFtsSearchTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (" +
+                "subject, sender, recipients, body" + FulltextIndexer.getPrefixIndexOption() +
+                ")");
+
+        // The old index can't be converted. Queue all messages so FulltextIndexer rebuilds it.
+        db.execSQL("INSERT OR IGNORE INTO fulltext_queue (message_id) " +
+                "SELECT id FROM messages WHERE empty = 0 AND deleted = 0 ORDER BY date DESC");
+    }
+}
@@ -0,0 +1,11 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo67 {
+    static void addAttemptsColumnToFulltextQueueTable(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE fulltext_queue ADD attempts INTEGER DEFAULT 0");
+    }
+}
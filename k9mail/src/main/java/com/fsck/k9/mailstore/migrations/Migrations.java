@@ -75,6 +75,23 @@ public class Migrations {
                 MigrationTo59.addMissingIndexes(db);
             case 59:
                 MigrationTo60.migratePendingCommands(db);
+            case 60:
+                MigrationTo61.addModSeqColumnsToFoldersTable(db);
+            case 61:
+                MigrationTo62.addMessageIdIndex(db);
+            case 62:
+                MigrationTo63.createThreadSummariesTable(db);
+                MigrationTo63.createThreadSummaryTriggers(db);
+            case 63:
+                MigrationTo64.createFolderCountsTable(db);
+                MigrationTo64.createFolderCountsTriggers(db);
+            case 64:
+                MigrationTo65.createFulltextQueueTable(db);
+                MigrationTo65.updateDeleteMessageTrigger(db);
+            case 65:
+                MigrationTo66.recreateFtsSearchTable(db);
+            case 66:
+                MigrationTo67.addAttemptsColumnToFulltextQueueTable(db);
         }
     }
 }
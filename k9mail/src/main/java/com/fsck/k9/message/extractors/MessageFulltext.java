@@ -0,0 +1,47 @@
+package com.fsck.k9.message.extractors;
+
+
+import android.support.annotation.Nullable;
+
+
+/**
+ * The text of a message that is added to the fulltext index, split into the columns of {@code messages_fulltext}.
+ */
+public class MessageFulltext {
+    private final String subject;
+    private final String sender;
+    private final String recipients;
+    private final String body;
+
+
+    MessageFulltext(String subject, String sender, String recipients, String body) {
+        this.subject = subject;
+        this.sender = sender;
+        this.recipients = recipients;
+        this.body = body;
+    }
+
+    @Nullable
+    public String getSubject() {
+        return subject;
+    }
+
+    @Nullable
+    public String getSender() {
+        return sender;
+    }
+
+    @Nullable
+    public String getRecipients() {
+        return recipients;
+    }
+
+    @Nullable
+    public String getBody() {
+        return body;
+    }
+
+    boolean isEmpty() {
+        return subject == null && sender == null && recipients == null && body == null;
+    }
+}
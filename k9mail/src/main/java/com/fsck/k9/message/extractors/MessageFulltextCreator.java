@@ -1,59 +1,195 @@
 package com.fsck.k9.message.extractors;
 
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import timber.log.Timber;
 
-import com.fsck.k9.message.html.HtmlConverter;
+import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.Message.RecipientType;
+import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
-import com.fsck.k9.mail.internet.MimeUtility;
-
-
+import com.fsck.k9.mail.internet.Viewable;
+import com.fsck.k9.mail.internet.Viewable.Alternative;
+import com.fsck.k9.mail.internet.Viewable.MessageHeader;
+import com.fsck.k9.mail.internet.Viewable.Textual;
+import com.fsck.k9.message.html.HtmlToTextConverter;
+
+import static com.fsck.k9.mail.internet.MimeUtility.isSameMimeType;
+
+
+/**
+ * Creates the text that is added to the fulltext index for a message.
+ *
+ * <p>
+ * The subject, the sender and recipient addresses, and the text of all viewable parts (including those of attached
+ * messages) are indexed in separate columns. The body of encrypted messages is not indexed.
+ * </p>
+ */
 public class MessageFulltextCreator {
     private static final int MAX_CHARACTERS_CHECKED_FOR_FTS = 200*1024;
 
 
-    private final TextPartFinder textPartFinder;
     private final EncryptionDetector encryptionDetector;
 
 
-    MessageFulltextCreator(TextPartFinder textPartFinder, EncryptionDetector encryptionDetector) {
-        this.textPartFinder = textPartFinder;
+    MessageFulltextCreator(EncryptionDetector encryptionDetector) {
         this.encryptionDetector = encryptionDetector;
     }
 
     public static MessageFulltextCreator newInstance() {
         TextPartFinder textPartFinder = new TextPartFinder();
         EncryptionDetector encryptionDetector = new EncryptionDetector(textPartFinder);
-        return new MessageFulltextCreator(textPartFinder, encryptionDetector);
+        return new MessageFulltextCreator(encryptionDetector);
+    }
+
+    @Nullable
+    public MessageFulltext createFulltext(@NonNull Message message) {
+        StringBuilder body = new StringBuilder();
+        if (!encryptionDetector.isEncrypted(message)) {
+            appendTextParts(body, message);
+        }
+
+        return createFulltext(message, trimToNull(body));
+    }
+
+    /**
+     * Creates the text to index for a message whose body can't be read. Only the subject and the addresses are
+     * included.
+     */
+    @Nullable
+    public MessageFulltext createHeaderFulltext(@NonNull Message message) {
+        return createFulltext(message, null);
+    }
+
+    @Nullable
+    private MessageFulltext createFulltext(Message message, String body) {
+        String subject = emptyToNull(message.getSubject());
+
+        StringBuilder sender = new StringBuilder();
+        appendAddresses(sender, message.getFrom());
+
+        StringBuilder recipients = new StringBuilder();
+        appendAddresses(recipients, message.getRecipients(RecipientType.TO));
+        appendAddresses(recipients, message.getRecipients(RecipientType.CC));
+        appendAddresses(recipients, message.getRecipients(RecipientType.BCC));
+
+        MessageFulltext fulltext = new MessageFulltext(subject, trimToNull(sender), trimToNull(recipients), body);
+        return fulltext.isEmpty() ? null : fulltext;
+    }
+
+    private void appendHeaders(StringBuilder fulltext, Message message) {
+        appendLine(fulltext, message.getSubject());
+        appendAddresses(fulltext, message.getFrom());
+        appendAddresses(fulltext, message.getRecipients(RecipientType.TO));
+        appendAddresses(fulltext, message.getRecipients(RecipientType.CC));
+        appendAddresses(fulltext, message.getRecipients(RecipientType.BCC));
     }
 
-    public String createFulltext(@NonNull Message message) {
-        if (encryptionDetector.isEncrypted(message)) {
-            return null;
+    private void appendAddresses(StringBuilder fulltext, Address[] addresses) {
+        if (addresses == null) {
+            return;
         }
 
-        return extractText(message);
+        for (Address address : addresses) {
+            appendLine(fulltext, address.getPersonal());
+            appendLine(fulltext, address.getAddress());
+        }
+    }
+
+    private void appendTextParts(StringBuilder fulltext, Message message) {
+        List<Viewable> viewables = new ArrayList<>();
+        try {
+            MessageExtractor.findViewablesAndAttachments(message, viewables, null);
+        } catch (MessagingException e) {
+            Timber.w(e, "Couldn't find text parts of message");
+            return;
+        }
+
+        appendViewables(fulltext, viewables);
+    }
+
+    private void appendViewables(StringBuilder fulltext, List<Viewable> viewables) {
+        for (Viewable viewable : viewables) {
+            if (fulltext.length() >= MAX_CHARACTERS_CHECKED_FOR_FTS) {
+                return;
+            }
+
+            if (viewable instanceof Textual) {
+                appendText(fulltext, ((Textual) viewable).getPart());
+            } else if (viewable instanceof Alternative) {
+                // Only index one version of the text. Prefer text/plain because it's cheaper to process.
+                Alternative alternative = (Alternative) viewable;
+                List<Viewable> text = alternative.getText();
+                appendViewables(fulltext, text.isEmpty() ? alternative.getHtml() : text);
+            } else if (viewable instanceof MessageHeader) {
+                appendHeaders(fulltext, ((MessageHeader) viewable).getMessage());
+            }
+        }
     }
 
-    private String extractText(Message message) {
-        Part textPart = textPartFinder.findFirstTextPart(message);
-        if (textPart == null || hasEmptyBody(textPart)) {
-            return null;
+    private void appendText(StringBuilder fulltext, Part textPart) {
+        if (textPart.getBody() == null) {
+            return;
         }
 
-        String text = MessageExtractor.getTextFromPart(textPart, MAX_CHARACTERS_CHECKED_FOR_FTS);
-        String mimeType = textPart.getMimeType();
-        if (!MimeUtility.isSameMimeType(mimeType, "text/html")) {
-            return text;
+        int maxLength = MAX_CHARACTERS_CHECKED_FOR_FTS - fulltext.length();
+        Reader reader = null;
+        try {
+            reader = MessageExtractor.getTextReaderFromPart(textPart);
+
+            String text;
+            if (isSameMimeType(textPart.getMimeType(), "text/html")) {
+                text = HtmlToTextConverter.convert(reader, maxLength);
+            } else {
+                text = readText(reader, maxLength);
+            }
+
+            appendLine(fulltext, text);
+        } catch (IOException e) {
+            Timber.w(e, "Couldn't read text part");
+        } catch (MessagingException e) {
+            Timber.w(e, "Couldn't read text part");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) { /* ignore */ }
+            }
+        }
+    }
+
+    private static String readText(Reader reader, int maxLength) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[4096];
+
+        int read;
+        while (text.length() < maxLength &&
+                (read = reader.read(buffer, 0, Math.min(buffer.length, maxLength - text.length()))) != -1) {
+            text.append(buffer, 0, read);
         }
 
-        return HtmlConverter.htmlToText(text);
+        return text.toString();
     }
 
-    private boolean hasEmptyBody(Part textPart) {
-        return textPart.getBody() == null;
+    private static void appendLine(StringBuilder fulltext, String text) {
+        if (text != null && !text.isEmpty()) {
+            fulltext.append(text).append('\n');
+        }
+    }
+
+    private static String trimToNull(StringBuilder text) {
+        return emptyToNull(text.toString().trim());
     }
 
+    private static String emptyToNull(String text) {
+        return (text == null || text.isEmpty()) ? null : text;
+    }
 }
@@ -1,68 +1,159 @@
 package com.fsck.k9.message.extractors;
 
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
 import android.support.annotation.NonNull;
 
-import com.fsck.k9.message.html.HtmlConverter;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.message.html.HtmlToTextConverter;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
 
 import static com.fsck.k9.mail.internet.MimeUtility.isSameMimeType;
 
 
+/**
+ * Creates the preview text of a message.
+ *
+ * <p>
+ * The text is read line by line from the (decoded) body. Signatures, quoted text and quote headers are dropped as
+ * they are encountered, and reading stops as soon as enough text for the preview has been collected. At most
+ * {@link #MAX_CHARACTERS_CHECKED_FOR_PREVIEW} bytes of the body are read, also when HTML has to be converted first.
+ * </p>
+ */
 class PreviewTextExtractor {
     private static final int MAX_PREVIEW_LENGTH = 512;
     private static final int MAX_CHARACTERS_CHECKED_FOR_PREVIEW = 8192;
 
+    private static final String SIGNATURE_SEPARATOR = "-- ";
+    private static final Pattern QUOTE_HEADER = Pattern.compile("^On .*wrote.?$");
+    private static final Pattern GENERIC_QUOTE_HEADER = Pattern.compile("^.*\\w+:$");
+    private static final Pattern HORIZONTAL_RULE = Pattern.compile("\\s*([-=_]{30,}+)\\s*");
+    private static final Pattern URL = Pattern.compile("https?://\\S+");
+
 
     @NonNull
     public String extractPreview(@NonNull Part textPart) throws PreviewExtractionException {
-        String text = MessageExtractor.getTextFromPart(textPart, MAX_CHARACTERS_CHECKED_FOR_PREVIEW);
-        if (text == null) {
+        Reader reader;
+        try {
+            reader = MessageExtractor.getTextReaderFromPart(textPart, MAX_CHARACTERS_CHECKED_FOR_PREVIEW);
+        } catch (IOException e) {
+            throw new PreviewExtractionException("Couldn't get text from part");
+        } catch (MessagingException e) {
             throw new PreviewExtractionException("Couldn't get text from part");
         }
 
-        String plainText = convertFromHtmlIfNecessary(textPart, text);
-
-        return stripTextForPreview(plainText);
+        try {
+            Reader textReader = convertFromHtmlIfNecessary(textPart, reader);
+            return buildPreview(textReader);
+        } catch (IOException e) {
+            throw new PreviewExtractionException("Couldn't read text from part");
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) { /* ignore */ }
+        }
     }
 
-    private String convertFromHtmlIfNecessary(Part textPart, String text) {
+    private Reader convertFromHtmlIfNecessary(Part textPart, Reader reader) throws IOException {
         String mimeType = textPart.getMimeType();
         if (!isSameMimeType(mimeType, "text/html")) {
-            return text;
+            return reader;
+        }
+
+        String text = HtmlToTextConverter.convert(reader, MAX_CHARACTERS_CHECKED_FOR_PREVIEW);
+        return new StringReader(text);
+    }
+
+    private String buildPreview(Reader reader) throws IOException {
+        StringBuilder preview = new StringBuilder(MAX_PREVIEW_LENGTH + 1);
+        StringBuilder line = new StringBuilder();
+        int charactersChecked = 0;
+
+        int c;
+        while (preview.length() <= MAX_PREVIEW_LENGTH && charactersChecked < MAX_CHARACTERS_CHECKED_FOR_PREVIEW &&
+                (c = reader.read()) != -1) {
+            charactersChecked++;
+            if (c == '\n') {
+                if (!appendLine(preview, line)) {
+                    return finishPreview(preview);
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) c);
+            }
         }
 
-        return HtmlConverter.htmlToText(text);
+        if (preview.length() <= MAX_PREVIEW_LENGTH) {
+            appendLine(preview, line);
+        }
+
+        return finishPreview(preview);
     }
 
-    private String stripTextForPreview(String text) {
-        if (text == null) {
-            return "";
+    /**
+     * Appends a line of text to the preview unless it's part of a quote or signature.
+     *
+     * @return {@code false} if the rest of the text is a signature and should be skipped.
+     */
+    private boolean appendLine(StringBuilder preview, StringBuilder lineBuilder) {
+        int length = lineBuilder.length();
+        if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+            lineBuilder.setLength(length - 1);
         }
+        String line = lineBuilder.toString();
 
         // Remove (correctly delimited by '-- \n') signatures
-        text = text.replaceAll("(?ms)^-- [\\r\\n]+.*", "");
-        // try to remove lines of dashes in the preview
-        text = text.replaceAll("(?m)^----.*?$", "");
-        // remove quoted text from the preview
-        text = text.replaceAll("(?m)^[#>].*$", "");
-        // Remove a common quote header from the preview
-        text = text.replaceAll("(?m)^On .*wrote.?$", "");
-        // Remove a more generic quote header from the preview
-        text = text.replaceAll("(?m)^.*\\w+:$", "");
+        if (line.equals(SIGNATURE_SEPARATOR)) {
+            return false;
+        }
+
+        // Skip lines of dashes, quoted text, a common quote header and a more generic quote header
+        if (line.startsWith("----") || line.startsWith("#") || line.startsWith(">") ||
+                QUOTE_HEADER.matcher(line).matches() || GENERIC_QUOTE_HEADER.matcher(line).matches()) {
+            return true;
+        }
+
         // Remove horizontal rules.
-        text = text.replaceAll("\\s*([-=_]{30,}+)\\s*", " ");
+        line = HORIZONTAL_RULE.matcher(line).replaceAll(" ");
 
         // URLs in the preview should just be shown as "..." - They're not
         // clickable and they usually overwhelm the preview
-        text = text.replaceAll("https?://\\S+", "...");
-        // Don't show newlines in the preview
-        text = text.replaceAll("(\\r|\\n)+", " ");
-        // Collapse whitespace in the preview
-        text = text.replaceAll("\\s+", " ");
-        // Remove any whitespace at the beginning and end of the string.
-        text = text.trim();
+        line = URL.matcher(line).replaceAll("...");
+
+        // Don't show newlines in the preview and collapse whitespace
+        appendCollapsingWhitespace(preview, line);
+        appendCollapsingWhitespace(preview, " ");
+
+        return true;
+    }
+
+    private void appendCollapsingWhitespace(StringBuilder preview, String text) {
+        for (int i = 0, end = text.length(); i < end; i++) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                int length = preview.length();
+                if (length > 0 && preview.charAt(length - 1) != ' ') {
+                    preview.append(' ');
+                }
+            } else {
+                preview.append(c);
+            }
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        // Same as \s in regular expressions
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private String finishPreview(StringBuilder preview) {
+        // Remove any whitespace at the end of the string.
+        String text = preview.toString().trim();
 
         return (text.length() > MAX_PREVIEW_LENGTH) ? text.substring(0, MAX_PREVIEW_LENGTH - 1) + "…" : text;
     }
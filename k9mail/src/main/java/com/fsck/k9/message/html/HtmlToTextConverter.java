@@ -0,0 +1,419 @@
+package com.fsck.k9.message.html;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Converts HTML to plain text in a single pass over the input.
+ *
+ * <p>
+ * The output mimics what {@code Html.fromHtml()} produced for the purpose of previews, the fulltext index and quoting:
+ * whitespace is collapsed, paragraph-like elements are separated by blank lines, {@code <br>} becomes a line break,
+ * {@code <hr>} a line of underscores, and the content of {@code <style>}, {@code <script>}, {@code <title>} and
+ * comments is dropped. Unlike {@code Html.fromHtml()} no document tree or {@code Spanned} is created, and conversion
+ * stops as soon as {@code maxLength} characters of text have been produced.
+ * </p>
+ */
+public class HtmlToTextConverter {
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private static final String HORIZONTAL_RULE = "_____________________________________________\r\n";
+    private static final int MAX_ENTITY_LENGTH = 32;
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final Set<String> TAGS_WITH_IGNORED_CONTENT = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("style", "script", "title")));
+
+    private static final Set<String> PARAGRAPH_TAGS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("p", "div", "blockquote", "h1", "h2", "h3", "h4", "h5", "h6")));
+
+    // Names of the Latin-1 entities for the code points 160 to 255, in order
+    private static final String[] LATIN1_ENTITIES = {
+            "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect", "uml", "copy", "ordf", "laquo", "not",
+            "shy", "reg", "macr", "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot", "cedil", "sup1",
+            "ordm", "raquo", "frac14", "frac12", "frac34", "iquest", "Agrave", "Aacute", "Acirc", "Atilde", "Auml",
+            "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml", "ETH",
+            "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc",
+            "Uuml", "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig",
+            "ccedil", "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml", "eth", "ntilde",
+            "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash", "ugrave", "uacute", "ucirc", "uuml",
+            "yacute", "thorn", "yuml"
+    };
+
+    private static final Map<String, Character> ENTITIES = new HashMap<>();
+    static {
+        for (int i = 0; i < LATIN1_ENTITIES.length; i++) {
+            ENTITIES.put(LATIN1_ENTITIES[i], (char) (160 + i));
+        }
+        ENTITIES.put("amp", '&');
+        ENTITIES.put("lt", '<');
+        ENTITIES.put("gt", '>');
+        ENTITIES.put("quot", '"');
+        ENTITIES.put("apos", '\'');
+        ENTITIES.put("ensp", '\u2002');
+        ENTITIES.put("emsp", '\u2003');
+        ENTITIES.put("thinsp", '\u2009');
+        ENTITIES.put("zwnj", '\u200c');
+        ENTITIES.put("zwj", '\u200d');
+        ENTITIES.put("lrm", '\u200e');
+        ENTITIES.put("rlm", '\u200f');
+        ENTITIES.put("ndash", '\u2013');
+        ENTITIES.put("mdash", '\u2014');
+        ENTITIES.put("lsquo", '\u2018');
+        ENTITIES.put("rsquo", '\u2019');
+        ENTITIES.put("sbquo", '\u201a');
+        ENTITIES.put("ldquo", '\u201c');
+        ENTITIES.put("rdquo", '\u201d');
+        ENTITIES.put("bdquo", '\u201e');
+        ENTITIES.put("dagger", '\u2020');
+        ENTITIES.put("Dagger", '\u2021');
+        ENTITIES.put("bull", '\u2022');
+        ENTITIES.put("hellip", '\u2026');
+        ENTITIES.put("permil", '\u2030');
+        ENTITIES.put("lsaquo", '\u2039');
+        ENTITIES.put("rsaquo", '\u203a');
+        ENTITIES.put("euro", '\u20ac');
+        ENTITIES.put("trade", '\u2122');
+        ENTITIES.put("larr", '\u2190');
+        ENTITIES.put("rarr", '\u2192');
+    }
+
+
+    private final Reader reader;
+    private final int maxLength;
+    private final StringBuilder output = new StringBuilder();
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private int pushedBack = -1;
+
+
+    /**
+     * Convert an HTML string to plain text.
+     */
+    public static String convert(String html) {
+        return convert(html, NO_LIMIT);
+    }
+
+    /**
+     * Convert an HTML string to plain text, stopping after {@code maxLength} characters of text.
+     */
+    public static String convert(String html, int maxLength) {
+        try {
+            return convert(new StringReader(html), maxLength);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Convert HTML read from {@code reader} to plain text, stopping after {@code maxLength} characters of text.
+     *
+     * <p>
+     * The reader is not read any further once enough text has been produced. It's not closed by this method.
+     * </p>
+     */
+    public static String convert(Reader reader, int maxLength) throws IOException {
+        HtmlToTextConverter converter = new HtmlToTextConverter(reader, maxLength);
+        converter.parse();
+        return converter.getText();
+    }
+
+    private HtmlToTextConverter(Reader reader, int maxLength) {
+        this.reader = reader;
+        this.maxLength = maxLength;
+    }
+
+    private String getText() {
+        if (output.length() > maxLength) {
+            output.setLength(maxLength);
+        }
+        return output.toString();
+    }
+
+    private boolean isFull() {
+        return output.length() >= maxLength;
+    }
+
+    private void parse() throws IOException {
+        int c;
+        while (!isFull() && (c = read()) != -1) {
+            if (c == '<') {
+                parseMarkup();
+            } else if (c == '&') {
+                appendText(parseEntity());
+            } else {
+                appendCharacter((char) c);
+            }
+        }
+    }
+
+    private void parseMarkup() throws IOException {
+        int c = read();
+        if (c == '!') {
+            skipCommentOrDeclaration();
+            return;
+        } else if (c == '?') {
+            skipPast('>');
+            return;
+        }
+
+        boolean closing = (c == '/');
+        if (closing) {
+            c = read();
+        }
+
+        if (!isLetter(c)) {
+            // Not a tag; treat the '<' as text
+            appendCharacter('<');
+            if (closing) {
+                appendCharacter('/');
+            }
+            unread(c);
+            return;
+        }
+
+        StringBuilder tagName = new StringBuilder();
+        while (isLetter(c) || (c >= '0' && c <= '9')) {
+            tagName.append((char) c);
+            c = read();
+        }
+        unread(c);
+
+        boolean selfClosing = skipAttributes();
+        String tag = tagName.toString().toLowerCase(Locale.US);
+
+        handleTag(tag, !closing);
+
+        if (!closing && !selfClosing && TAGS_WITH_IGNORED_CONTENT.contains(tag)) {
+            skipRawText(tag);
+        }
+    }
+
+    private void handleTag(String tag, boolean opening) {
+        if (PARAGRAPH_TAGS.contains(tag)) {
+            appendParagraphBreak();
+        } else if (!opening) {
+            return;
+        } else if (tag.equals("br")) {
+            output.append('\n');
+        } else if (tag.equals("hr")) {
+            // In the case of an <hr>, replace it with a bunch of underscores. This is roughly the behaviour of Outlook
+            // in Rich Text mode.
+            output.append(HORIZONTAL_RULE);
+        } else if (tag.equals("img")) {
+            output.append(' ');
+        }
+    }
+
+    /**
+     * Skips the rest of a tag.
+     *
+     * @return {@code true} if the tag was self-closing, e.g. {@code <br/>}.
+     */
+    private boolean skipAttributes() throws IOException {
+        int quote = -1;
+        int previous = -1;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != -1) {
+                if (c == quote) {
+                    quote = -1;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return previous == '/';
+            }
+            previous = c;
+        }
+        return false;
+    }
+
+    private void skipCommentOrDeclaration() throws IOException {
+        int c = read();
+        if (c != '-') {
+            unread(c);
+            skipPast('>');
+            return;
+        }
+
+        c = read();
+        if (c != '-') {
+            unread(c);
+            skipPast('>');
+            return;
+        }
+
+        // Skip to the end of the comment ("-->")
+        int dashes = 0;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = (c == '-') ? dashes + 1 : 0;
+        }
+    }
+
+    /**
+     * Skips everything up to and including the end tag {@code </tag>}.
+     */
+    private void skipRawText(String tag) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+
+            c = read();
+            if (c != '/') {
+                unread(c);
+                continue;
+            }
+
+            int matched = 0;
+            while (matched < tag.length()) {
+                c = read();
+                if (c == -1 || Character.toLowerCase((char) c) != tag.charAt(matched)) {
+                    break;
+                }
+                matched++;
+            }
+
+            if (matched == tag.length()) {
+                skipPast('>');
+                return;
+            }
+
+            unread(c);
+        }
+    }
+
+    private void skipPast(char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != end);
+    }
+
+    private String parseEntity() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c = read();
+        while (name.length() < MAX_ENTITY_LENGTH && (isLetter(c) || (c >= '0' && c <= '9') || c == '#')) {
+            name.append((char) c);
+            c = read();
+        }
+
+        boolean terminated = (c == ';');
+        if (!terminated) {
+            unread(c);
+        }
+
+        String decoded = decodeEntity(name.toString());
+        if (decoded != null) {
+            return decoded;
+        }
+
+        return "&" + name + (terminated ? ";" : "");
+    }
+
+    private static String decodeEntity(String name) {
+        if (name.startsWith("#")) {
+            try {
+                int codePoint;
+                if (name.startsWith("#x") || name.startsWith("#X")) {
+                    codePoint = Integer.parseInt(name.substring(2), 16);
+                } else {
+                    codePoint = Integer.parseInt(name.substring(1));
+                }
+
+                if (Character.isValidCodePoint(codePoint) && codePoint != 0) {
+                    return new String(Character.toChars(codePoint));
+                }
+            } catch (NumberFormatException e) {
+                // Not a valid character reference
+            }
+            return null;
+        }
+
+        Character character = ENTITIES.get(name);
+        return (character != null) ? String.valueOf(character) : null;
+    }
+
+    private void appendText(String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            appendCharacter(text.charAt(i));
+        }
+    }
+
+    /**
+     * Appends a character of text content, collapsing whitespace the way {@code Html.fromHtml()} does.
+     */
+    private void appendCharacter(char c) {
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            int length = output.length();
+            char previous = (length == 0) ? '\n' : output.charAt(length - 1);
+            if (previous != ' ' && previous != '\n') {
+                output.append(' ');
+            }
+        } else if (c == '\u00a0') {
+            // Non-breaking spaces don't render properly in some clients. Replace them with simple spaces.
+            output.append(' ');
+        } else if (c == '\ufffc') {
+            // Object replacement characters show up as squares
+            output.append(' ');
+        } else {
+            output.append(c);
+        }
+    }
+
+    private void appendParagraphBreak() {
+        int length = output.length();
+        if (length >= 1 && output.charAt(length - 1) == '\n') {
+            if (length < 2 || output.charAt(length - 2) != '\n') {
+                output.append('\n');
+            }
+        } else if (length != 0) {
+            output.append("\n\n");
+        }
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+
+        if (bufferPosition == bufferLimit) {
+            bufferLimit = reader.read(buffer, 0, buffer.length);
+            bufferPosition = 0;
+            if (bufferLimit <= 0) {
+                bufferLimit = 0;
+                return -1;
+            }
+        }
+
+        return buffer[bufferPosition++];
+    }
+
+    private void unread(int c) {
+        if (c != -1) {
+            pushedBack = c;
+        }
+    }
+}
@@ -224,6 +224,19 @@ public class AccountSettings {
         s.put("notifyContactsMailOnly", Settings.versions(
                 new V(42, new BooleanSetting(false))
         ));
+        s.put("maximumImapConnections", Settings.versions(
+                new V(48, new IntegerRangeSetting(1, 20, Account.DEFAULT_MAXIMUM_IMAP_CONNECTIONS))
+        ));
+        s.put("maximumConcurrentFolderSyncs", Settings.versions(
+                new V(48, new IntegerRangeSetting(1, 10, Account.DEFAULT_MAXIMUM_CONCURRENT_FOLDER_SYNCS))
+        ));
+        s.put("flagsFetchWindowSize", Settings.versions(
+                new V(48, new IntegerRangeSetting(10, 10000, Account.DEFAULT_FLAGS_FETCH_WINDOW_SIZE))
+        ));
+        s.put("bodyFetchWindowByteBudget", Settings.versions(
+                new V(48, new IntegerRangeSetting(64 * 1024, 16 * 1024 * 1024,
+                        Account.DEFAULT_BODY_FETCH_WINDOW_BYTE_BUDGET))
+        ));
 
         SETTINGS = Collections.unmodifiableMap(s);
 
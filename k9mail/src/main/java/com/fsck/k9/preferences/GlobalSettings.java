@@ -20,6 +20,7 @@ import com.fsck.k9.K9.NotificationHideSubject;
 import com.fsck.k9.K9.NotificationQuickDelete;
 import com.fsck.k9.K9.SplitViewMode;
 import com.fsck.k9.K9.Theme;
+import com.fsck.k9.mailstore.LockableDatabase.SynchronousMode;
 import com.fsck.k9.preferences.Settings.BooleanSetting;
 import com.fsck.k9.preferences.Settings.ColorSetting;
 import com.fsck.k9.preferences.Settings.EnumSetting;
@@ -291,6 +292,18 @@ public class GlobalSettings {
         s.put("openpgpSupportSignOnly", Settings.versions(
                 new V(47, new BooleanSetting(false))
         ));
+        s.put("maxConcurrentFolderSyncs", Settings.versions(
+                new V(48, new IntegerRangeSetting(1, 20, K9.DEFAULT_MAX_CONCURRENT_FOLDER_SYNCS))
+        ));
+        s.put("databaseWriteAheadLogging", Settings.versions(
+                new V(48, new BooleanSetting(true))
+        ));
+        s.put("databaseSynchronousMode", Settings.versions(
+                new V(48, new EnumSetting<>(SynchronousMode.class, K9.DEFAULT_DATABASE_SYNCHRONOUS_MODE))
+        ));
+        s.put("databaseWalAutoCheckpoint", Settings.versions(
+                new V(48, new IntegerRangeSetting(0, 100000, K9.DEFAULT_DATABASE_WAL_AUTO_CHECKPOINT))
+        ));
 
         SETTINGS = Collections.unmodifiableMap(s);
 
@@ -2,9 +2,15 @@ package com.fsck.k9.provider;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import android.content.ContentProvider;
 import android.content.ContentResolver;
@@ -50,6 +56,12 @@ public class EmailProvider extends ContentProvider {
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Query parameter that limits the number of rows returned for the {@code messages} and {@code messages/threaded}
+     * URIs.
+     */
+    public static final String LIMIT_PARAMETER = "limit";
+
 
     /*
      * Constants that are used for the URI matching.
@@ -111,6 +123,29 @@ public class EmailProvider extends ContentProvider {
 
     private static final String THREADS_TABLE = "threads";
 
+    private static final String THREAD_SUMMARIES_TABLE = "thread_summaries";
+
+    /**
+     * The selection used for the message list of a single folder. Threaded lists with this selection can be read from
+     * the {@code thread_summaries} table.
+     */
+    private static final String FOLDER_SELECTION = MessageColumns.FOLDER_ID + " = ?";
+
+    private static final String FOLDER_COUNTS_TABLE = "folder_counts";
+
+    private static final Pattern SELECTION_TOKEN = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+    /**
+     * The identifiers and keywords a stats selection may contain to be answered from the {@code folder_counts} table.
+     * Anything else refers to message columns and needs a query on the {@code messages} table.
+     */
+    private static final Set<String> FOLDER_LEVEL_SELECTION_TOKENS = new HashSet<>(Arrays.asList(
+            MessageColumns.FOLDER_ID,
+            FolderColumns.INTEGRATE,
+            FolderColumns.DISPLAY_CLASS,
+            "and", "or", "not", "is", "null", "like"
+    ));
+
     static {
         UriMatcher matcher = URI_MATCHER;
 
@@ -234,11 +269,13 @@ public class EmailProvider extends ContentProvider {
                 }
 
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
+                String limit = getLimit(uri);
 
                 if (match == MESSAGES) {
-                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder, limit);
                 } else if (match == MESSAGES_THREADED) {
-                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder,
+                            limit);
                 } else if (match == MESSAGES_THREAD) {
                     String threadId = segments.get(3);
                     cursor = getThread(accountUuid, dbProjection, threadId, sortOrder);
@@ -284,8 +321,21 @@ public class EmailProvider extends ContentProvider {
         throw new RuntimeException("not implemented yet");
     }
 
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(LIMIT_PARAMETER);
+        if (limit == null) {
+            return null;
+        }
+
+        try {
+            return Integer.toString(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limit, e);
+        }
+    }
+
     protected Cursor getMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -333,10 +383,12 @@ public class EmailProvider extends ContentProvider {
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", sortOrder));
+                        appendLimit(query, limit);
 
                         cursor = db.rawQuery(query.toString(), selectionArgs);
                     } else {
-                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder);
+                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder,
+                                limit);
                     }
 
                     return cursor;
@@ -350,7 +402,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getThreadedMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -361,6 +413,11 @@ public class EmailProvider extends ContentProvider {
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
 
+                    if (FOLDER_SELECTION.equals(selection) && selectionArgs != null && selectionArgs.length == 1) {
+                        String query = createThreadSummaryQuery(projection, sortOrder, limit);
+                        return db.rawQuery(query, selectionArgs);
+                    }
+
                     StringBuilder query = new StringBuilder();
 
                     query.append("SELECT ");
@@ -414,6 +471,8 @@ public class EmailProvider extends ContentProvider {
                                 FIXUP_AGGREGATED_MESSAGES_COLUMNS, "a.", sortOrder));
                     }
 
+                    appendLimit(query, limit);
+
                     return db.rawQuery(query.toString(), selectionArgs);
                 }
             });
@@ -424,6 +483,72 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Creates the query for the threaded message list of a single folder.
+     *
+     * <p>
+     * The aggregated values of every thread are maintained in the {@code thread_summaries} table by database triggers,
+     * so the list can be read with an index scan instead of grouping all messages of the folder.
+     * </p>
+     */
+    private String createThreadSummaryQuery(String[] projection, String sortOrder, String limit) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT ");
+        boolean first = true;
+        for (String columnName : projection) {
+            if (!first) {
+                query.append(",");
+            } else {
+                first = false;
+            }
+
+            if (MessageColumns.ID.equals(columnName)) {
+                query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
+            } else if (SpecialColumns.THREAD_COUNT.equals(columnName)) {
+                query.append("s.message_count AS " + SpecialColumns.THREAD_COUNT);
+            } else if (THREAD_AGGREGATION_FUNCS.containsKey(columnName) || ThreadColumns.ROOT.equals(columnName)) {
+                query.append("s.");
+                query.append(columnName);
+                query.append(" AS ");
+                query.append(columnName);
+            } else if (Utility.arrayContains(FOLDERS_COLUMNS, columnName)) {
+                query.append(columnName);
+            } else {
+                query.append("m.");
+                query.append(columnName);
+                query.append(" AS ");
+                query.append(columnName);
+            }
+        }
+
+        query.append(" FROM " + THREAD_SUMMARIES_TABLE + " s " +
+                "JOIN " + MESSAGES_TABLE + " m ON (m." + MessageColumns.ID + " = s.latest_message_id)");
+
+        if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
+            query.append(" JOIN " + FOLDERS_TABLE + " f " +
+                    "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ")");
+        }
+
+        query.append(" WHERE s." + MessageColumns.FOLDER_ID + " = ?");
+
+        if (!TextUtils.isEmpty(sortOrder)) {
+            query.append(" ORDER BY ");
+            query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_AGGREGATED_MESSAGES_COLUMNS, "s.", sortOrder));
+        }
+
+        appendLimit(query, limit);
+
+        return query.toString();
+    }
+
+    private static void appendLimit(StringBuilder query, String limit) {
+        if (limit != null) {
+            query.append(" LIMIT ");
+            query.append(limit);
+        }
+    }
+
     private void createThreadedSubQuery(String[] projection, String selection, StringBuilder query) {
         query.append("SELECT t." + ThreadColumns.ROOT + " AS thread_root");
         for (String columnName : projection) {
@@ -539,6 +664,9 @@ public class EmailProvider extends ContentProvider {
         // Use default projection if none was given
         String[] sourceProjection = (columns == null) ? STATS_DEFAULT_PROJECTION : columns;
 
+        // Selections that only restrict the set of folders can be answered from the per-folder counters
+        boolean useFolderCounts = isFolderLevelSelection(selection);
+
         // Create SQL query string
         final StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
@@ -554,27 +682,51 @@ public class EmailProvider extends ContentProvider {
             }
 
             if (StatsColumns.UNREAD_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                if (useFolderCounts) {
+                    sql.append("SUM(c.unread_count) AS " + StatsColumns.UNREAD_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
+                }
             } else if (StatsColumns.FLAGGED_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                if (useFolderCounts) {
+                    sql.append("SUM(c.flagged_count) AS " + StatsColumns.FLAGGED_COUNT);
+                } else {
+                    sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
+                }
             } else {
                 throw new IllegalArgumentException("Column name not allowed: " + columnName);
             }
         }
 
-        // Table selection
-        sql.append(" FROM messages");
+        if (useFolderCounts) {
+            // Table selection
+            sql.append(" FROM " + FOLDER_COUNTS_TABLE + " c");
 
-        if (containsAny(selection, FOLDERS_COLUMNS)) {
-            sql.append(" JOIN folders ON (folders.id = messages.folder_id)");
-        }
+            if (containsAny(selection, FOLDERS_COLUMNS)) {
+                sql.append(" JOIN folders ON (folders.id = c.folder_id)");
+            }
 
-        // WHERE clause
-        sql.append(" WHERE (deleted = 0 AND empty = 0)");
-        if (!TextUtils.isEmpty(selection)) {
-            sql.append(" AND (");
-            sql.append(selection);
-            sql.append(")");
+            // WHERE clause
+            if (!TextUtils.isEmpty(selection)) {
+                sql.append(" WHERE (");
+                sql.append(selection);
+                sql.append(")");
+            }
+        } else {
+            // Table selection
+            sql.append(" FROM messages");
+
+            if (containsAny(selection, FOLDERS_COLUMNS)) {
+                sql.append(" JOIN folders ON (folders.id = messages.folder_id)");
+            }
+
+            // WHERE clause
+            sql.append(" WHERE (deleted = 0 AND empty = 0)");
+            if (!TextUtils.isEmpty(selection)) {
+                sql.append(" AND (");
+                sql.append(selection);
+                sql.append(")");
+            }
         }
 
         // Query the database and return the result cursor
@@ -809,6 +961,26 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Check whether a stats selection only refers to folder properties, i.e. whether it can be evaluated against the
+     * {@code folder_counts} table.
+     */
+    static boolean isFolderLevelSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return true;
+        }
+
+        Matcher matcher = SELECTION_TOKEN.matcher(selection);
+        while (matcher.find()) {
+            String token = matcher.group().toLowerCase(Locale.US);
+            if (!FOLDER_LEVEL_SELECTION_TOKENS.contains(token)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     private static boolean containsAny(String haystack, String[] needles) {
         if (haystack == null) {
             return false;
@@ -16,6 +16,10 @@ import com.fsck.k9.search.SearchSpecification.SearchField;
 
 
 public class SqlQueryBuilder {
+    private static final String[] FULLTEXT_FALLBACK_COLUMNS = { "subject", "sender_list", "to_list", "cc_list",
+            "preview" };
+
+
     public static void buildWhereClause(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         buildWhereClauseInternal(account, node, query, selectionArgs);
@@ -80,8 +84,27 @@ public class SqlQueryBuilder {
                     if (condition.attribute != Attribute.CONTAINS) {
                         Timber.e("message contents can only be matched!");
                     }
-                    query.append("(EXISTS (SELECT docid FROM messages_fulltext WHERE docid = id AND fulltext MATCH ?))");
-                    selectionArgs.add(fulltextQueryString);
+                    String fulltextQuery = createFulltextQuery(fulltextQueryString);
+                    if (fulltextQuery == null) {
+                        query.append("0");
+                        break;
+                    }
+
+                    // The fulltext query is evaluated once instead of once per message
+                    query.append("(id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)");
+                    selectionArgs.add(fulltextQuery);
+
+                    // Messages still waiting for FulltextIndexer are matched by their headers and preview
+                    query.append(" OR (id IN (SELECT message_id FROM fulltext_queue) AND (");
+                    String likeArgument = "%" + fulltextQueryString + "%";
+                    for (int i = 0; i < FULLTEXT_FALLBACK_COLUMNS.length; i++) {
+                        if (i > 0) {
+                            query.append(" OR ");
+                        }
+                        query.append(FULLTEXT_FALLBACK_COLUMNS[i]).append(" LIKE ?");
+                        selectionArgs.add(likeArgument);
+                    }
+                    query.append(")))");
                     break;
                 }
                 default: {
@@ -99,6 +122,45 @@ public class SqlQueryBuilder {
         }
     }
 
+    /**
+     * Converts text entered by the user to a query for {@code messages_fulltext}.
+     *
+     * <p>
+     * The query matches messages containing all words of the text. The words are also matched as prefixes, so
+     * results can be shown while the user is still typing. Characters with a special meaning in fulltext queries are
+     * ignored, and so are words that don't contain any letters or digits.
+     * </p>
+     *
+     * @return The fulltext query, or {@code null} if {@code text} doesn't contain any words.
+     */
+    public static String createFulltextQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        for (String word : text.split("\\s+")) {
+            String term = word.replace("\"", "").replace("*", "");
+            if (!containsLetterOrDigit(term)) {
+                // Such a term wouldn't match anything
+                continue;
+            }
+
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(term).append("*\"");
+        }
+
+        return (query.length() > 0) ? query.toString() : null;
+    }
+
+    private static boolean containsLetterOrDigit(String text) {
+        for (int i = 0, end = text.length(); i < end; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private static void appendCondition(SearchCondition condition, StringBuilder query,
             List<String> selectionArgs) {
         query.append(getColumnName(condition));
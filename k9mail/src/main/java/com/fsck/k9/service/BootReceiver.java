@@ -40,6 +40,8 @@ public class BootReceiver extends CoreReceiver {
         } else if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
             MailService.connectivityChange(context, tmpWakeLockId);
             tmpWakeLockId = null;
+        } else if (Intent.ACTION_POWER_CONNECTED.equals(action)) {
+            FulltextIndexerService.startService(context);
         } else if ("com.android.sync.SYNC_CONN_STATUS_CHANGED".equals(action)) {
             K9.BACKGROUND_OPS bOps = K9.getBackgroundOps();
             if (bOps == K9.BACKGROUND_OPS.WHEN_CHECKED_AUTO_SYNC) {
@@ -0,0 +1,129 @@
+package com.fsck.k9.service;
+
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import timber.log.Timber;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.FulltextIndexer;
+
+
+/**
+ * Adds newly stored messages of all accounts to the fulltext index (see {@link FulltextIndexer}).
+ *
+ * <p>
+ * The service is started after mail has been checked and when the device is connected to a power source. Messages
+ * are indexed in small batches. While the device runs on battery only a few batches are processed per run. The rest
+ * is left for later runs, preferably while the device is charging.
+ * </p>
+ *
+ * <p>
+ * A run also ends after {@link #MAX_BATCHES_WHILE_CHARGING} batches or {@link #MAX_RUN_TIME_MILLIS}, well within the
+ * wake lock timeout. If messages are left and the device is still charging, another run is scheduled.
+ * </p>
+ */
+public class FulltextIndexerService extends CoreService {
+    private static final String ACTION_INDEX = "com.fsck.k9.service.FulltextIndexerService.index";
+
+    private static final int BATCH_SIZE = 20;
+    private static final int MAX_BATCHES_ON_BATTERY = 5;
+    private static final int MAX_BATCHES_WHILE_CHARGING = 100;
+    private static final long MAX_RUN_TIME_MILLIS = 2 * 60 * 1000;
+    private static final long NEXT_RUN_DELAY_MILLIS = 60 * 1000;
+
+
+    public static void startService(Context context) {
+        Intent i = createIndexIntent(context);
+        addWakeLock(context, i);
+        context.startService(i);
+    }
+
+    private static Intent createIndexIntent(Context context) {
+        Intent i = new Intent();
+        i.setClass(context, FulltextIndexerService.class);
+        i.setAction(ACTION_INDEX);
+        return i;
+    }
+
+    @Override
+    public int startService(Intent intent, int startId) {
+        if (ACTION_INDEX.equals(intent.getAction())) {
+            Timber.i("FulltextIndexerService started with startId = %d", startId);
+
+            execute(getApplication(), new Runnable() {
+                @Override
+                public void run() {
+                    indexAccounts();
+                }
+            }, K9.WAKE_LOCK_TIMEOUT, startId);
+        }
+
+        return START_NOT_STICKY;
+    }
+
+    private void indexAccounts() {
+        long endTime = SystemClock.elapsedRealtime() + MAX_RUN_TIME_MILLIS;
+        boolean messagesRemaining = false;
+
+        Preferences preferences = Preferences.getPreferences(this);
+        for (Account account : preferences.getAvailableAccounts()) {
+            try {
+                messagesRemaining |= indexAccount(account, endTime);
+            } catch (MessagingException e) {
+                Timber.e(e, "Error while indexing messages of account %s", account.getDescription());
+            }
+        }
+
+        if (messagesRemaining && isCharging()) {
+            scheduleNextRun();
+        }
+    }
+
+    /**
+     * @return {@code true} if messages of the account are left in the queue.
+     */
+    private boolean indexAccount(Account account, long endTime) throws MessagingException {
+        FulltextIndexer fulltextIndexer = account.getLocalStore().getFulltextIndexer();
+
+        int indexedCount = 0;
+        int batchCount = 0;
+        boolean queueEmpty = false;
+        while (batchCount < MAX_BATCHES_ON_BATTERY ||
+                (batchCount < MAX_BATCHES_WHILE_CHARGING && SystemClock.elapsedRealtime() < endTime &&
+                        isCharging())) {
+            int count = fulltextIndexer.indexNextBatch(BATCH_SIZE);
+            if (count == 0) {
+                queueEmpty = true;
+                break;
+            }
+
+            indexedCount += count;
+            batchCount++;
+        }
+
+        int remainingCount = queueEmpty ? 0 : fulltextIndexer.getPendingMessageCount();
+        if (indexedCount > 0) {
+            Timber.i("Indexed %d messages of account %s, %d remaining", indexedCount, account.getDescription(),
+                    remainingCount);
+        }
+
+        return remainingCount > 0;
+    }
+
+    private void scheduleNextRun() {
+        long nextTime = System.currentTimeMillis() + NEXT_RUN_DELAY_MILLIS;
+        BootReceiver.scheduleIntent(this, nextTime, createIndexIntent(this));
+    }
+
+    private boolean isCharging() {
+        Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return batteryStatus != null && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fsck.k9.cache;
+
+
+import java.util.Collections;
+import java.util.UUID;
+
+import android.database.MatrixCursor;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+import com.fsck.k9.provider.EmailProvider.ThreadColumns;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class EmailProviderCacheCursorTest {
+    private static final long MESSAGE_ID = 1L;
+    private static final long FOLDER_ID = 2L;
+    private static final long THREAD_ROOT_ID = 3L;
+    private static final String[] COLUMNS = {
+            MessageColumns.ID,
+            MessageColumns.FOLDER_ID,
+            ThreadColumns.ROOT,
+            MessageColumns.READ,
+            MessageColumns.ATTACHMENT_COUNT
+    };
+    private static final int READ_COLUMN = 3;
+    private static final int ATTACHMENT_COUNT_COLUMN = 4;
+
+
+    private String accountUuid;
+    private EmailProviderCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        accountUuid = UUID.randomUUID().toString();
+        cache = EmailProviderCache.getCache(accountUuid, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void getInt_withoutCachedValues_shouldReturnValuesFromCursor() throws Exception {
+        EmailProviderCacheCursor cursor = createCursor();
+
+        assertEquals(0, cursor.getInt(READ_COLUMN));
+        assertEquals(5, cursor.getInt(ATTACHMENT_COUNT_COLUMN));
+    }
+
+    @Test
+    public void getInt_withCachedFlag_shouldReturnCachedValue() throws Exception {
+        cache.setValueForMessages(Collections.singletonList(MESSAGE_ID), MessageColumns.READ, "1");
+        EmailProviderCacheCursor cursor = createCursor();
+
+        assertEquals(1, cursor.getInt(READ_COLUMN));
+    }
+
+    @Test
+    public void getInt_withCachedValueForOtherColumn_shouldReturnCachedValue() throws Exception {
+        cache.setValueForMessages(Collections.singletonList(MESSAGE_ID), MessageColumns.ATTACHMENT_COUNT, "7");
+        EmailProviderCacheCursor cursor = createCursor();
+
+        assertEquals(7, cursor.getInt(ATTACHMENT_COUNT_COLUMN));
+    }
+
+    @Test
+    public void getInt_withCachedThreadValueForOtherColumn_shouldReturnCachedValue() throws Exception {
+        cache.setValueForThreads(Collections.singletonList(THREAD_ROOT_ID), MessageColumns.ATTACHMENT_COUNT, "9");
+        EmailProviderCacheCursor cursor = createCursor();
+
+        assertEquals(9, cursor.getInt(ATTACHMENT_COUNT_COLUMN));
+    }
+
+    @Test
+    public void getInt_withRemovedValueForOtherColumn_shouldReturnValueFromCursor() throws Exception {
+        cache.setValueForMessages(Collections.singletonList(MESSAGE_ID), MessageColumns.ATTACHMENT_COUNT, "7");
+        cache.removeValueForMessages(Collections.singletonList(MESSAGE_ID), MessageColumns.ATTACHMENT_COUNT);
+        EmailProviderCacheCursor cursor = createCursor();
+
+        assertEquals(5, cursor.getInt(ATTACHMENT_COUNT_COLUMN));
+    }
+
+    private EmailProviderCacheCursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] { MESSAGE_ID, FOLDER_ID, THREAD_ROOT_ID, 0, 5 });
+
+        EmailProviderCacheCursor cacheCursor =
+                new EmailProviderCacheCursor(accountUuid, cursor, RuntimeEnvironment.application);
+        assertTrue(cacheCursor.moveToFirst());
+        return cacheCursor;
+    }
+}
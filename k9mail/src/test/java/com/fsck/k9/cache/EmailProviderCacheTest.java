@@ -12,6 +12,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.UUID;
 
@@ -113,6 +114,35 @@ public class EmailProviderCacheTest {
         assertNull(result);
     }
 
+    @Test
+    public void getValueForMessage_withFlagColumn_returnsValueSetForMessage() {
+        cache.setValueForMessages(Arrays.asList(1L, 2L), "read", "1");
+        cache.setValueForMessages(Collections.singletonList(2L), "flagged", "0");
+
+        assertEquals("1", cache.getValueForMessage(1L, "read"));
+        assertNull(cache.getValueForMessage(1L, "flagged"));
+        assertEquals("1", cache.getValueForMessage(2L, "read"));
+        assertEquals("0", cache.getValueForMessage(2L, "flagged"));
+    }
+
+    @Test
+    public void getValueForMessage_withFlagColumn_returnsNullWhenRemoved() {
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+        cache.setValueForMessages(Collections.singletonList(1L), "flagged", "1");
+        cache.removeValueForMessages(Collections.singletonList(1L), "read");
+
+        assertNull(cache.getValueForMessage(1L, "read"));
+        assertEquals("1", cache.getValueForMessage(1L, "flagged"));
+    }
+
+    @Test
+    public void getValueForThread_withFlagColumn_returnsValueSetForThread() {
+        cache.setValueForThreads(Collections.singletonList(1L), "answered", "1");
+
+        assertEquals("1", cache.getValueForThread(1L, "answered"));
+        assertNull(cache.getValueForMessage(1L, "answered"));
+    }
+
     @Test
     public void isMessageHidden_returnsTrueForHiddenMessage() {
         cache.hideMessages(Collections.singletonList(mockLocalMessage));
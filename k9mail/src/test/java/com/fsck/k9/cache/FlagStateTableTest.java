@@ -0,0 +1,67 @@
+package com.fsck.k9.cache;
+
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+
+public class FlagStateTableTest {
+    private final FlagStateTable table = new FlagStateTable(3);
+
+
+    @Test
+    public void get_withUnknownId_shouldReturnZero() {
+        assertEquals(0, table.get(1L));
+    }
+
+    @Test
+    public void update_shouldSetStateOfAllIds() {
+        table.update(asList(3L, 1L, 2L), 0, 5);
+
+        assertEquals(5, table.get(1L));
+        assertEquals(5, table.get(2L));
+        assertEquals(5, table.get(3L));
+    }
+
+    @Test
+    public void update_shouldOnlyChangeBitsOfMask() {
+        table.update(Collections.singletonList(1L), 0, 3);
+
+        table.update(Collections.singletonList(1L), 12, 4);
+
+        assertEquals(7, table.get(1L));
+    }
+
+    @Test
+    public void update_withClearedState_shouldRemoveEntry() {
+        table.update(asList(1L, 2L), 0, 3);
+
+        table.update(Collections.singletonList(1L), 3, 0);
+
+        assertEquals(0, table.get(1L));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void update_withDuplicateIds_shouldAddEntryOnce() {
+        table.update(asList(1L, 1L, 1L), 0, 3);
+
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void update_withFullTable_shouldNotAddNewEntries() {
+        table.update(asList(1L, 2L, 3L), 0, 3);
+
+        table.update(asList(0L, 2L, 4L), 0, 4);
+
+        assertEquals(3, table.size());
+        assertEquals(0, table.get(0L));
+        assertEquals(7, table.get(2L));
+        assertEquals(0, table.get(4L));
+    }
+}
@@ -0,0 +1,158 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+
+public class FolderSyncSchedulerTest {
+    private static final String ACCOUNT_ONE = "account1";
+    private static final String ACCOUNT_TWO = "account2";
+
+
+    private ManualExecutor executor;
+    private FolderSyncScheduler scheduler;
+    private List<String> executedTasks;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new ManualExecutor();
+        scheduler = new FolderSyncScheduler(executor, 3);
+        executedTasks = new ArrayList<>();
+    }
+
+    @Test
+    public void execute_withFoldersOfDifferentAccounts_shouldRunInParallel() throws Exception {
+        execute(ACCOUNT_ONE, 1, "INBOX");
+        execute(ACCOUNT_TWO, 1, "INBOX");
+
+        assertEquals(2, executor.getQueuedTaskCount());
+        assertEquals(2, scheduler.getRunningTaskCount());
+    }
+
+    @Test
+    public void execute_withAccountLimitReached_shouldWait() throws Exception {
+        execute(ACCOUNT_ONE, 2, "INBOX");
+        execute(ACCOUNT_ONE, 2, "Sent");
+        execute(ACCOUNT_ONE, 2, "Drafts");
+
+        assertEquals(2, scheduler.getRunningTaskCount());
+        assertEquals(1, scheduler.getPendingTaskCount());
+
+        executor.runNext();
+
+        assertEquals(2, scheduler.getRunningTaskCount());
+        assertEquals(0, scheduler.getPendingTaskCount());
+    }
+
+    @Test
+    public void execute_withGlobalLimitReached_shouldWait() throws Exception {
+        execute(ACCOUNT_ONE, 5, "INBOX");
+        execute(ACCOUNT_ONE, 5, "Sent");
+        execute(ACCOUNT_TWO, 5, "INBOX");
+        execute(ACCOUNT_TWO, 5, "Sent");
+
+        assertEquals(3, scheduler.getRunningTaskCount());
+        assertEquals(1, scheduler.getPendingTaskCount());
+    }
+
+    @Test
+    public void setMaxConcurrentSyncs_withHigherLimit_shouldStartPendingTasks() throws Exception {
+        execute(ACCOUNT_ONE, 5, "INBOX");
+        execute(ACCOUNT_ONE, 5, "Sent");
+        execute(ACCOUNT_TWO, 5, "INBOX");
+        execute(ACCOUNT_TWO, 5, "Sent");
+
+        scheduler.setMaxConcurrentSyncs(4);
+
+        assertEquals(4, scheduler.getRunningTaskCount());
+        assertEquals(0, scheduler.getPendingTaskCount());
+    }
+
+    @Test
+    public void setMaxConcurrentSyncs_withLowerLimit_shouldApplyToNewTasks() throws Exception {
+        scheduler.setMaxConcurrentSyncs(1);
+
+        execute(ACCOUNT_ONE, 5, "INBOX");
+        execute(ACCOUNT_TWO, 5, "INBOX");
+
+        assertEquals(1, scheduler.getRunningTaskCount());
+        assertEquals(1, scheduler.getPendingTaskCount());
+    }
+
+    @Test
+    public void execute_withSameFolderTwice_shouldRunOneAfterTheOther() throws Exception {
+        execute(ACCOUNT_ONE, 2, "INBOX", "first");
+        execute(ACCOUNT_ONE, 2, "INBOX", "second");
+        execute(ACCOUNT_ONE, 2, "Sent", "third");
+
+        assertEquals(2, executor.getQueuedTaskCount());
+
+        executor.runAll();
+
+        assertEquals(asList("first", "third", "second"), executedTasks);
+    }
+
+    @Test
+    public void execute_withFailingTask_shouldStartNextTask() throws Exception {
+        scheduler.execute(ACCOUNT_ONE, 1, "INBOX", "failing", new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Test");
+            }
+        });
+        execute(ACCOUNT_ONE, 1, "Sent", "next");
+
+        executor.runAll();
+
+        assertEquals(asList("next"), executedTasks);
+        assertEquals(0, scheduler.getRunningTaskCount());
+    }
+
+    private void execute(String accountUuid, int maxAccountSyncs, String folderName) {
+        execute(accountUuid, maxAccountSyncs, folderName, folderName);
+    }
+
+    private void execute(String accountUuid, int maxAccountSyncs, String folderName, final String name) {
+        scheduler.execute(accountUuid, maxAccountSyncs, folderName, name, new Runnable() {
+            @Override
+            public void run() {
+                executedTasks.add(name);
+            }
+        });
+    }
+
+
+    static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.add(command);
+        }
+
+        int getQueuedTaskCount() {
+            return tasks.size();
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -16,11 +16,13 @@ import com.fsck.k9.AccountStats;
 import com.fsck.k9.K9;
 import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.Preferences;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.FolderChanges;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -28,6 +30,7 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Store;
 import com.fsck.k9.mail.Transport;
 import com.fsck.k9.mail.TransportProvider;
+import com.fsck.k9.mail.UidRange;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
@@ -59,6 +62,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
@@ -657,6 +661,21 @@ public class MessagingControllerTest {
                 "Exception: Message count -1 for folder Folder");
     }
 
+    @Test
+    public void synchronizeMailboxSynchronous_withPendingCommand_shouldExecuteCommandBeforeSynchronizingFolder()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        PendingCommand pendingCommand = mock(PendingCommand.class);
+        when(pendingCommand.getFolderNames(account)).thenReturn(Collections.singletonList(FOLDER_NAME));
+        when(localStore.getPendingCommands()).thenReturn(Collections.singletonList(pendingCommand));
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        InOrder inOrder = inOrder(pendingCommand, remoteFolder);
+        inOrder.verify(pendingCommand).execute(controller, account);
+        inOrder.verify(remoteFolder, atLeastOnce()).getMessageCount();
+    }
+
     @Test
     public void synchronizeMailboxSynchronous_withRemoteFolderProvided_shouldNotOpenRemoteFolder() throws Exception {
         messageCountInRemoteFolder(1);
@@ -770,6 +789,27 @@ public class MessagingControllerTest {
         assertEquals(localMessage, messageListCaptor.getValue().get(0));
     }
 
+    @Test
+    public void synchronizeMailboxSynchronous_withVanishedUids_shouldDeleteLocalCopiesOfVanishedMessages()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        LocalMessage localMessage = localMessageWithCopyOnServer();
+        when(account.syncRemoteDeletions()).thenReturn(true);
+        List<UidRange> vanishedUidRanges = Collections.singletonList(new UidRange(1L, 100000L));
+        when(localFolder.getMessagesInUidRanges(vanishedUidRanges)).thenReturn(Collections.singletonList(localMessage));
+        when(localFolder.getUidValidity()).thenReturn(42L);
+        when(localFolder.getHighestModSeq()).thenReturn(10L);
+        when(remoteFolder.getUidValidity()).thenReturn(42L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(20L);
+        FolderChanges<Message> folderChanges = new FolderChanges<>(Collections.<Message>emptyList(), vanishedUidRanges);
+        doReturn(folderChanges).when(remoteFolder).fetchChangedSince(10L);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(localFolder).destroyMessages(messageListCaptor.capture());
+        assertEquals(localMessage, messageListCaptor.getValue().get(0));
+    }
+
     @Test
     public void synchronizeMailboxSynchronous_withAccountSetNotToSyncRemoteDeletions_shouldNotDeleteLocalCopiesOfMessages()
             throws Exception {
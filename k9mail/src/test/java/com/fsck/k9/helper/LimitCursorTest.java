@@ -0,0 +1,70 @@
+package com.fsck.k9.helper;
+
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class LimitCursorTest {
+
+    @Test
+    public void getCount_withMoreRowsThanLimit_shouldReturnLimit() {
+        Cursor cursor = new LimitCursor(createCursor(5), 3);
+
+        assertEquals(3, cursor.getCount());
+    }
+
+    @Test
+    public void getCount_withFewerRowsThanLimit_shouldReturnRowCount() {
+        Cursor cursor = new LimitCursor(createCursor(2), 3);
+
+        assertEquals(2, cursor.getCount());
+    }
+
+    @Test
+    public void moveToNext_shouldStopAtLimit() {
+        Cursor cursor = new LimitCursor(createCursor(5), 3);
+
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(rows, cursor.getLong(0));
+            rows++;
+        }
+
+        assertEquals(3, rows);
+        assertTrue(cursor.isAfterLast());
+    }
+
+    @Test
+    public void moveToLast_shouldMoveToLastRowWithinLimit() {
+        Cursor cursor = new LimitCursor(createCursor(5), 3);
+
+        assertTrue(cursor.moveToLast());
+        assertEquals(2, cursor.getLong(0));
+        assertTrue(cursor.isLast());
+    }
+
+    @Test
+    public void moveToPosition_beyondLimit_shouldReturnFalse() {
+        Cursor cursor = new LimitCursor(createCursor(5), 3);
+
+        assertFalse(cursor.moveToPosition(3));
+    }
+
+    private Cursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[] { (long) i });
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,129 @@
+package com.fsck.k9.helper;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class MergeCursorTest {
+    private static final Comparator<Cursor> VALUE_COMPARATOR = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor lhs, Cursor rhs) {
+            long left = lhs.getLong(0);
+            long right = rhs.getLong(0);
+            return (left < right) ? -1 : ((left == right) ? 0 : 1);
+        }
+    };
+
+
+    @Test
+    public void moveToNext_shouldReturnRowsInSortOrder() {
+        Cursor cursor = new MergeCursor(new Cursor[] {
+                createCursor(1, 4, 7),
+                createCursor(2, 5),
+                createCursor(3, 6, 8, 9)
+        }, VALUE_COMPARATOR);
+
+        assertEquals(asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), readAll(cursor));
+        assertTrue(cursor.isAfterLast());
+    }
+
+    @Test
+    public void moveToNext_withEmptyAndNullCursors_shouldSkipThem() {
+        Cursor cursor = new MergeCursor(new Cursor[] {
+                createCursor(),
+                createCursor(2, 3),
+                null,
+                createCursor(1)
+        }, VALUE_COMPARATOR);
+
+        assertEquals(3, cursor.getCount());
+        assertEquals(asList(1L, 2L, 3L), readAll(cursor));
+    }
+
+    @Test
+    public void moveToNext_withEqualRows_shouldPreferFirstCursor() {
+        Cursor first = createCursor(1);
+        Cursor second = createCursor(1);
+        MergeCursor cursor = new MergeCursor(new Cursor[] { second, first }, VALUE_COMPARATOR);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.mActiveCursorIndex);
+    }
+
+    @Test
+    public void moveToPosition_shouldAllowRandomAccess() {
+        Cursor cursor = new MergeCursor(new Cursor[] {
+                createCursor(1, 4, 7),
+                createCursor(2, 5, 8),
+                createCursor(3, 6, 9)
+        }, VALUE_COMPARATOR);
+
+        assertTrue(cursor.moveToPosition(7));
+        assertEquals(8, cursor.getLong(0));
+
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(3, cursor.getLong(0));
+
+        assertTrue(cursor.moveToPrevious());
+        assertEquals(2, cursor.getLong(0));
+
+        assertTrue(cursor.moveToLast());
+        assertEquals(9, cursor.getLong(0));
+    }
+
+    @Test
+    public void moveToPosition_outOfRange_shouldReturnFalse() {
+        Cursor cursor = new MergeCursor(new Cursor[] { createCursor(1, 2) }, VALUE_COMPARATOR);
+
+        assertFalse(cursor.moveToPosition(2));
+        assertTrue(cursor.isAfterLast());
+        assertFalse(cursor.moveToPosition(-1));
+        assertTrue(cursor.isBeforeFirst());
+    }
+
+    @Test
+    public void requery_withChangedSourceCursor_shouldMergeRowsAgain() {
+        MatrixCursor first = createCursor(1, 3);
+        Cursor cursor = new MergeCursor(new Cursor[] { first, createCursor(2) }, VALUE_COMPARATOR);
+        assertEquals(asList(1L, 2L, 3L), readAll(cursor));
+
+        first.addRow(new Object[] { 4L });
+        cursor.requery();
+
+        assertTrue(cursor.isBeforeFirst());
+        assertEquals(4, cursor.getCount());
+        assertEquals(asList(1L, 2L, 3L, 4L), readAll(cursor));
+    }
+
+    private List<Long> readAll(Cursor cursor) {
+        List<Long> values = new ArrayList<>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            values.add(cursor.getLong(0));
+        }
+        return values;
+    }
+
+    private MatrixCursor createCursor(long... values) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "value" });
+        for (long value : values) {
+            cursor.addRow(new Object[] { value });
+        }
+        return cursor;
+    }
+}
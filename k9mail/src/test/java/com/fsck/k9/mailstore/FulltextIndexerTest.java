@@ -0,0 +1,115 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.util.Collections;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static com.fsck.k9.message.MessageCreationHelper.createTextMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class FulltextIndexerTest {
+    private LocalStore localStore;
+    private MessageFulltextCreator fulltextCreator;
+    private FulltextIndexer fulltextIndexer;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        File databaseFile = StorageManager.getInstance(RuntimeEnvironment.application)
+                .getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        fulltextCreator = mock(MessageFulltextCreator.class);
+        fulltextIndexer = new FulltextIndexer(localStore, fulltextCreator);
+
+        LocalFolder folder = localStore.getFolder("INBOX");
+        folder.create(FolderType.HOLDS_MESSAGES);
+
+        Message message = createTextMessage("text/plain", "text");
+        message.setUid("1");
+        message.setSubject("Test subject");
+        message.setFrom(new Address("alice@example.com"));
+        // Storing the message adds it to the fulltext queue
+        folder.appendMessages(Collections.singletonList(message));
+    }
+
+    @Test
+    public void indexNextBatch_withoutText_shouldRemoveMessageFromQueue() throws Exception {
+        when(fulltextCreator.createFulltext(any(Message.class))).thenReturn(null);
+
+        int count = fulltextIndexer.indexNextBatch(10);
+
+        assertEquals(1, count);
+        assertEquals(0, fulltextIndexer.getPendingMessageCount());
+    }
+
+    @Test
+    public void indexNextBatch_withError_shouldKeepMessageInQueue() throws Exception {
+        when(fulltextCreator.createFulltext(any(Message.class))).thenThrow(new RuntimeException("test"));
+
+        fulltextIndexer.indexNextBatch(10);
+
+        assertEquals(1, fulltextIndexer.getPendingMessageCount());
+    }
+
+    @Test
+    public void indexNextBatch_withRepeatedErrors_shouldDropMessageAfterMaxAttempts() throws Exception {
+        when(fulltextCreator.createFulltext(any(Message.class))).thenThrow(new RuntimeException("test"));
+        when(fulltextCreator.createHeaderFulltext(any(Message.class))).thenCallRealMethod();
+
+        for (int i = 0; i < FulltextIndexer.MAX_ATTEMPTS - 1; i++) {
+            fulltextIndexer.indexNextBatch(10);
+        }
+        assertEquals(1, fulltextIndexer.getPendingMessageCount());
+
+        fulltextIndexer.indexNextBatch(10);
+        assertEquals(0, fulltextIndexer.getPendingMessageCount());
+        assertEquals("Test subject", queryFulltextColumn("subject"));
+        assertEquals("alice@example.com", queryFulltextColumn("sender"));
+    }
+
+    private String queryFulltextColumn(final String column) throws Exception {
+        return localStore.database.execute(false, new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT " + column + " FROM messages_fulltext", null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                    return cursor.getString(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.UidRange;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static com.fsck.k9.message.MessageCreationHelper.createTextMessage;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class LocalFolderTest {
+    private LocalFolder folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        File databaseFile = StorageManager.getInstance(RuntimeEnvironment.application)
+                .getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        LocalStore localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        folder = localStore.getFolder("INBOX");
+        folder.create(FolderType.HOLDS_MESSAGES);
+
+        appendMessage("5");
+        appendMessage("50");
+        appendMessage("4000000000");
+        appendMessage(K9.LOCAL_UID_PREFIX + "local");
+    }
+
+    @Test
+    public void getMessagesInUidRanges_shouldReturnMessagesInRanges() throws Exception {
+        List<LocalMessage> messages = folder.getMessagesInUidRanges(
+                asList(new UidRange(1L, 10L), new UidRange(40L, 60L), new UidRange(70L, 80L)));
+
+        assertEquals(asList("5", "50"), getSortedUids(messages));
+    }
+
+    @Test
+    public void getMessagesInUidRanges_withLargeRange_shouldReturnMessagesInRange() throws Exception {
+        List<LocalMessage> messages = folder.getMessagesInUidRanges(
+                Collections.singletonList(new UidRange(10L, 4294967295L)));
+
+        assertEquals(asList("4000000000", "50"), getSortedUids(messages));
+    }
+
+    @Test
+    public void getMessagesInUidRanges_withRangeIncludingZero_shouldNotReturnLocalMessages() throws Exception {
+        List<LocalMessage> messages = folder.getMessagesInUidRanges(
+                Collections.singletonList(new UidRange(0L, 10L)));
+
+        assertEquals(Collections.singletonList("5"), getSortedUids(messages));
+    }
+
+    @Test
+    public void getMessagesInUidRanges_withOverlappingRanges_shouldReturnMessagesOnce() throws Exception {
+        List<LocalMessage> messages = folder.getMessagesInUidRanges(
+                asList(new UidRange(1L, 10L), new UidRange(5L, 5L)));
+
+        assertEquals(Collections.singletonList("5"), getSortedUids(messages));
+    }
+
+    private void appendMessage(String uid) throws Exception {
+        Message message = createTextMessage("text/plain", "text");
+        message.setUid(uid);
+        folder.appendMessages(Collections.singletonList(message));
+    }
+
+    private static List<String> getSortedUids(List<LocalMessage> messages) {
+        List<String> uids = new ArrayList<>();
+        for (LocalMessage message : messages) {
+            uids.add(message.getUid());
+        }
+        Collections.sort(uids);
+        return uids;
+    }
+}
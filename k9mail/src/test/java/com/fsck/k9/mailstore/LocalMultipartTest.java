@@ -0,0 +1,72 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+
+public class LocalMultipartTest {
+    private static final long MESSAGE_PART_ID = 23L;
+
+
+    private MessagePartLoader partLoader;
+    private LocalMultipart multipart;
+    private BodyPart firstPart;
+    private BodyPart secondPart;
+
+
+    @Before
+    public void setUp() throws Exception {
+        partLoader = mock(MessagePartLoader.class);
+        firstPart = new MimeBodyPart();
+        secondPart = new MimeBodyPart();
+        List<BodyPart> bodyParts = Arrays.asList(firstPart, secondPart);
+        when(partLoader.loadChildren(MESSAGE_PART_ID)).thenReturn(bodyParts);
+
+        multipart = new LocalMultipart(partLoader, MESSAGE_PART_ID, "multipart/mixed", "boundary");
+    }
+
+    @Test
+    public void constructor_shouldNotLoadBodyParts() throws Exception {
+        assertEquals("multipart/mixed", multipart.getMimeType());
+        verifyZeroInteractions(partLoader);
+    }
+
+    @Test
+    public void getBodyParts_shouldLoadBodyPartsOnlyOnce() throws Exception {
+        assertEquals(2, multipart.getCount());
+        assertSame(secondPart, multipart.getBodyPart(1));
+        assertEquals(Arrays.asList(firstPart, secondPart), multipart.getBodyParts());
+
+        verify(partLoader, times(1)).loadChildren(MESSAGE_PART_ID);
+    }
+
+    @Test
+    public void getBodyParts_shouldSetParent() throws Exception {
+        multipart.getBodyParts();
+
+        assertSame(multipart, firstPart.getParent());
+    }
+
+    @Test
+    public void addBodyPart_shouldAppendToLoadedBodyParts() throws Exception {
+        BodyPart newPart = new MimeBodyPart();
+
+        multipart.addBodyPart(newPart);
+
+        assertEquals(Arrays.asList(firstPart, secondPart, newPart), multipart.getBodyParts());
+    }
+}
@@ -1,16 +1,40 @@
 package com.fsck.k9.mailstore;
 
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
 
 import static org.junit.Assert.*;
 
 
+@RunWith(K9RobolectricTestRunner.class)
 public class LocalStoreTest {
+    /**
+     * More than the maximum number of SQL arguments supported by SQLite (999 by default).
+     */
+    private static final int MORE_THAN_MAX_SQL_ARGUMENTS = 1500;
+
 
     @Test
     public void findPartById__withRootLocalBodyPart() throws Exception {
@@ -80,4 +104,111 @@ public class LocalStoreTest {
 
         assertSame(needlePart, part);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void setFlag_withMoreIdsThanMaxSqlArguments_shouldUpdateAllMessages() throws Exception {
+        LocalStore localStore = createLocalStore();
+        List<Long> messageIds = insertMessages(localStore, MORE_THAN_MAX_SQL_ARGUMENTS + 1);
+        Long untouchedMessageId = messageIds.remove(messageIds.size() - 1);
+
+        localStore.setFlag(messageIds, Flag.SEEN, true);
+
+        assertEquals(MORE_THAN_MAX_SQL_ARGUMENTS, countReadMessages(localStore));
+        assertFalse(isRead(localStore, untouchedMessageId));
+    }
+
+    @Test
+    public void doBulkSelection_withMoreIdsThanMaxSqlArguments_shouldSelectAllIds() throws Exception {
+        LocalStore localStore = createLocalStore();
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= MORE_THAN_MAX_SQL_ARGUMENTS; id++) {
+            ids.add(id);
+        }
+        final long[] result = new long[2];
+
+        localStore.doBulkSelection(ids, new LocalStore.BulkSelection() {
+            @Override
+            public void doDbWork(SQLiteDatabase db, String idSelect) {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*), SUM(id) FROM (" + idSelect + ")", null);
+                try {
+                    cursor.moveToFirst();
+                    result[0] = cursor.getLong(0);
+                    result[1] = cursor.getLong(1);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            @Override
+            public void postDbWork() {
+            }
+        });
+
+        assertEquals(MORE_THAN_MAX_SQL_ARGUMENTS, result[0]);
+        assertEquals((long) MORE_THAN_MAX_SQL_ARGUMENTS * (MORE_THAN_MAX_SQL_ARGUMENTS + 1) / 2, result[1]);
+    }
+
+    private LocalStore createLocalStore() throws MessagingException {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        File databaseFile = StorageManager.getInstance(RuntimeEnvironment.application)
+                .getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        return LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    private List<Long> insertMessages(LocalStore localStore, final int count) throws MessagingException {
+        return localStore.database.execute(true, new DbCallback<List<Long>>() {
+            @Override
+            public List<Long> doDbWork(SQLiteDatabase db) throws WrappedException {
+                List<Long> messageIds = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ContentValues values = new ContentValues();
+                    values.put("folder_id", 1);
+                    values.put("uid", "uid" + i);
+                    values.put("empty", 0);
+                    values.put("deleted", 0);
+                    values.put("read", 0);
+                    messageIds.add(db.insert("messages", null, values));
+                }
+                return messageIds;
+            }
+        });
+    }
+
+    private int countReadMessages(LocalStore localStore) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM messages WHERE read = 1", null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private boolean isRead(LocalStore localStore, final long messageId) throws MessagingException {
+        return localStore.database.execute(false, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.rawQuery("SELECT read FROM messages WHERE id = ?",
+                        new String[] { Long.toString(messageId) });
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0) == 1;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
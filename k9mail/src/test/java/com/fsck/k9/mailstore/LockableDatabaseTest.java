@@ -0,0 +1,83 @@
+package com.fsck.k9.mailstore;
+
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.SchemaDefinition;
+import com.fsck.k9.mailstore.LockableDatabase.SynchronousMode;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class LockableDatabaseTest {
+    private static final String DATABASE_UUID = "lockable-database-test";
+
+
+    private LockableDatabase database;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        database = new LockableDatabase(RuntimeEnvironment.application, DATABASE_UUID, mock(SchemaDefinition.class));
+        database.setStorageProviderId(
+                StorageManager.getInstance(RuntimeEnvironment.application).getDefaultProviderId());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void open_withWriteAheadLog_shouldConfigureConnectionUsedForWrites() throws Exception {
+        database.setWriteAheadLoggingEnabled(true);
+        database.setSynchronousMode(SynchronousMode.OFF);
+        database.setWalAutoCheckpoint(123);
+
+        database.open();
+
+        assertEquals(0, queryPragmaInWriteTransaction("synchronous"));
+        assertEquals(123, queryPragmaInWriteTransaction("wal_autocheckpoint"));
+    }
+
+    @Test
+    public void open_withoutWriteAheadLog_shouldSetSynchronousMode() throws Exception {
+        database.setWriteAheadLoggingEnabled(false);
+        database.setSynchronousMode(SynchronousMode.FULL);
+
+        database.open();
+
+        assertEquals(2, queryPragmaInWriteTransaction("synchronous"));
+    }
+
+    private long queryPragmaInWriteTransaction(final String pragma) throws MessagingException {
+        // A write transaction always runs on the primary connection
+        return database.execute(true, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException, MessagingException {
+                Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.List;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.MessageExtractionPipeline.ExtractedData;
+import com.fsck.k9.message.extractors.AttachmentCounter;
+import com.fsck.k9.message.extractors.MessagePreviewCreator;
+import com.fsck.k9.message.extractors.PreviewResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class MessageExtractionPipelineTest {
+    private MessagePreviewCreator previewCreator;
+    private AttachmentCounter attachmentCounter;
+    private MessageExtractionPipeline pipeline;
+
+
+    @Before
+    public void setUp() throws Exception {
+        previewCreator = mock(MessagePreviewCreator.class);
+        attachmentCounter = mock(AttachmentCounter.class);
+
+        pipeline = new MessageExtractionPipeline(previewCreator, attachmentCounter);
+    }
+
+    @Test
+    public void extract_shouldReturnDataOfMessage() throws Exception {
+        Message message = createMessage("text", 2);
+
+        ExtractedData data = pipeline.extract(message);
+
+        assertEquals("text", data.previewResult.getPreviewText());
+        assertEquals(2, data.attachmentCount);
+    }
+
+    @Test
+    public void extract_inParallel_shouldKeepOrderOfMessages() throws Exception {
+        Message first = createMessage("first", 1);
+        Message second = createMessage("second", 2);
+        Message third = createMessage("third", 3);
+
+        List<ExtractedData> data = pipeline.extract(asList(first, second, third), true);
+
+        assertEquals(3, data.size());
+        assertEquals("first", data.get(0).previewResult.getPreviewText());
+        assertEquals("second", data.get(1).previewResult.getPreviewText());
+        assertEquals("third", data.get(2).previewResult.getPreviewText());
+        assertEquals(3, data.get(2).attachmentCount);
+    }
+
+    @Test
+    public void extract_sequentially_shouldKeepOrderOfMessages() throws Exception {
+        Message first = createMessage("first", 1);
+        Message second = createMessage("second", 2);
+
+        List<ExtractedData> data = pipeline.extract(asList(first, second), false);
+
+        assertEquals("first", data.get(0).previewResult.getPreviewText());
+        assertEquals("second", data.get(1).previewResult.getPreviewText());
+    }
+
+    @Test
+    public void extract_withFailingMessage_shouldThrow() throws Exception {
+        Message message = createMessage("text", 0);
+        Message brokenMessage = createMessage("broken", 0);
+        MessagingException exception = new MessagingException("Test");
+        when(attachmentCounter.getAttachmentCount(brokenMessage)).thenThrow(exception);
+
+        try {
+            pipeline.extract(asList(message, brokenMessage), true);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    private Message createMessage(String text, int attachmentCount) throws MessagingException {
+        Message message = mock(Message.class);
+        when(message.getSubject()).thenReturn(text);
+        when(previewCreator.createPreview(message)).thenReturn(PreviewResult.text(text));
+        when(attachmentCounter.getAttachmentCount(message)).thenReturn(attachmentCount);
+
+        return message;
+    }
+}
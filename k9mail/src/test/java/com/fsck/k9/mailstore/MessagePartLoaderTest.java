@@ -0,0 +1,136 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.util.Collections;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.internet.MessageExtractor;
+import com.fsck.k9.mail.internet.SizeAware;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static com.fsck.k9.message.MessageCreationHelper.createMultipart;
+import static com.fsck.k9.message.MessageCreationHelper.createMultipartMessage;
+import static com.fsck.k9.message.MessageCreationHelper.createTextPart;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class MessagePartLoaderTest {
+    private LocalStore localStore;
+    private LocalFolder folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        File databaseFile = StorageManager.getInstance(RuntimeEnvironment.application)
+                .getDatabase(account.getUuid(), account.getLocalStorageProviderId());
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        folder = localStore.getFolder("INBOX");
+        folder.create(FolderType.HOLDS_MESSAGES);
+
+        Message message = createMultipartMessage("multipart/mixed",
+                createTextPart("text/plain", "Hello"),
+                createMultipart("multipart/alternative",
+                        createTextPart("text/plain", "plain"),
+                        createTextPart("text/html", "<p>html</p>")));
+        message.setUid("1");
+        folder.appendMessages(Collections.singletonList(message));
+    }
+
+    @Test
+    public void fetch_shouldBuildPartTreeFromDatabase() throws Exception {
+        LocalMessage message = fetchMessage();
+
+        assertTrue(message.getBody() instanceof LocalMultipart);
+        Multipart multipart = (Multipart) message.getBody();
+        assertEquals(2, multipart.getCount());
+
+        BodyPart textPart = multipart.getBodyPart(0);
+        assertEquals("text/plain", textPart.getMimeType());
+        assertEquals("Hello", MessageExtractor.getTextFromPart(textPart));
+
+        BodyPart alternativePart = multipart.getBodyPart(1);
+        assertEquals("multipart/alternative", alternativePart.getMimeType());
+        Multipart alternative = (Multipart) alternativePart.getBody();
+        assertEquals(2, alternative.getCount());
+        assertEquals("text/html", alternative.getBodyPart(1).getMimeType());
+        assertEquals("<p>html</p>", MessageExtractor.getTextFromPart(alternative.getBodyPart(1)));
+    }
+
+    @Test
+    public void getBodyParts_afterMessagePartsWereDeleted_shouldReturnPartTreeFromFetch() throws Exception {
+        LocalMessage message = fetchMessage();
+
+        deleteMessageParts(message.getMessagePartId());
+
+        Multipart multipart = (Multipart) message.getBody();
+        assertEquals(2, multipart.getCount());
+        assertEquals("text/plain", multipart.getBodyPart(0).getMimeType());
+        Multipart alternative = (Multipart) multipart.getBodyPart(1).getBody();
+        assertEquals("text/html", alternative.getBodyPart(1).getMimeType());
+    }
+
+    @Test
+    public void getInputStream_afterMessagePartsWereDeleted_shouldThrowMessagingException() throws Exception {
+        LocalMessage message = fetchMessage();
+        Body body = ((Multipart) message.getBody()).getBodyPart(0).getBody();
+
+        deleteMessageParts(message.getMessagePartId());
+
+        assertEquals(5, ((SizeAware) body).getSize());
+        try {
+            body.getInputStream();
+            fail("Expected MessagingException");
+        } catch (MessagingException e) {
+            assertEquals("Message part not found", e.getMessage());
+        }
+    }
+
+    private LocalMessage fetchMessage() throws MessagingException {
+        LocalMessage message = folder.getMessage("1");
+
+        FetchProfile fp = new FetchProfile();
+        fp.add(FetchProfile.Item.BODY);
+        folder.fetch(Collections.singletonList(message), fp, null);
+
+        return message;
+    }
+
+    private void deleteMessageParts(final long rootPartId) throws MessagingException {
+        localStore.database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.delete("message_parts", "root = ?", new String[] { Long.toString(rootPartId) });
+                return null;
+            }
+        });
+    }
+}
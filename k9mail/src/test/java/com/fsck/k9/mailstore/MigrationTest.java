@@ -181,6 +181,33 @@ public class MigrationTest {
         Assert.assertEquals("nothing special here.\r\n", msgTextContent);
     }
 
+    @Test
+    public void migrateFromV50_shouldUpgradeToCurrentVersionAndKeepFolders() throws Exception {
+        SQLiteDatabase db = createV50Database();
+        insertSimplePlaintextMessage(db);
+        db.close();
+
+        LocalStore localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+
+        int version = localStore.database.execute(false, new LockableDatabase.DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) {
+                return db.getVersion();
+            }
+        });
+        Assert.assertEquals(LocalStore.DB_VERSION, version);
+        LocalFolder folder = localStore.getFolder("dev");
+        folder.open(LocalFolder.OPEN_MODE_RW);
+        Assert.assertEquals(-1L, folder.getUidValidity());
+        Assert.assertEquals(-1L, folder.getHighestModSeq());
+
+        folder.setModSeqState(42L, 23L);
+
+        LocalFolder reloadedFolder = localStore.getFolder("dev");
+        Assert.assertEquals(42L, reloadedFolder.getUidValidity());
+        Assert.assertEquals(23L, reloadedFolder.getHighestModSeq());
+    }
+
     private void insertMixedWithAttachments(SQLiteDatabase db) throws Exception {
         String[] statements = new String[] {
                 "INSERT INTO messages VALUES(3,0,16,'4','mail with attach',1453380649000," +
@@ -0,0 +1,191 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class SmallMessageWriterTest {
+    private static final int MAX_BATCH_MESSAGES = 3;
+    private static final long MAX_BATCH_BYTES = 1000;
+    private static final long MAX_BATCH_DELAY_MILLIS = 500;
+
+
+    private LocalFolder localFolder;
+    private List<Message> storedMessages;
+    private TestSmallMessageWriter writer;
+
+
+    @Before
+    public void setUp() throws Exception {
+        localFolder = mock(LocalFolder.class);
+        when(localFolder.storeSmallMessages(anyListOf(Message.class))).thenAnswer(new Answer<List<LocalMessage>>() {
+            @Override
+            public List<LocalMessage> answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                List<Message> messages = (List<Message>) invocation.getArguments()[0];
+                List<LocalMessage> localMessages = new ArrayList<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    localMessages.add(mock(LocalMessage.class));
+                }
+                return localMessages;
+            }
+        });
+
+        storedMessages = new ArrayList<>();
+        writer = new TestSmallMessageWriter(localFolder, new SmallMessageWriter.Callback() {
+            @Override
+            public void messageStored(Message message, LocalMessage localMessage) {
+                storedMessages.add(message);
+            }
+        });
+    }
+
+    @Test
+    public void add_belowLimits_shouldNotStoreMessages() throws Exception {
+        writer.add(createMessage(10));
+        writer.add(createMessage(10));
+
+        verify(localFolder, never()).storeSmallMessages(anyListOf(Message.class));
+        assertEquals(0, storedMessages.size());
+    }
+
+    @Test
+    public void add_withMessageLimitReached_shouldStoreBatch() throws Exception {
+        Message first = createMessage(10);
+        Message second = createMessage(10);
+        Message third = createMessage(10);
+
+        writer.add(first);
+        writer.add(second);
+        writer.add(third);
+
+        verify(localFolder).storeSmallMessages(asList(first, second, third));
+        assertEquals(asList(first, second, third), storedMessages);
+    }
+
+    @Test
+    public void add_withByteLimitReached_shouldStoreBatch() throws Exception {
+        Message first = createMessage(600);
+        Message second = createMessage(600);
+
+        writer.add(first);
+        writer.add(second);
+
+        verify(localFolder).storeSmallMessages(asList(first, second));
+    }
+
+    @Test
+    public void add_withDelayLimitReached_shouldStoreBatch() throws Exception {
+        Message first = createMessage(10);
+        Message second = createMessage(10);
+
+        writer.add(first);
+        writer.time += MAX_BATCH_DELAY_MILLIS;
+        writer.add(second);
+
+        verify(localFolder).storeSmallMessages(asList(first, second));
+    }
+
+    @Test
+    public void flushIfOverdue_withDelayLimitReached_shouldStoreBatch() throws Exception {
+        Message message = createMessage(10);
+        writer.add(message);
+        writer.time += MAX_BATCH_DELAY_MILLIS;
+
+        writer.flushIfOverdue();
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(message));
+        assertEquals(Collections.singletonList(message), storedMessages);
+    }
+
+    @Test
+    public void flushIfOverdue_belowDelayLimit_shouldNotStoreMessages() throws Exception {
+        writer.add(createMessage(10));
+        writer.time += MAX_BATCH_DELAY_MILLIS - 1;
+
+        writer.flushIfOverdue();
+
+        verify(localFolder, never()).storeSmallMessages(anyListOf(Message.class));
+    }
+
+    @Test
+    public void flush_shouldStoreRemainingMessages() throws Exception {
+        Message message = createMessage(10);
+        writer.add(message);
+
+        writer.flush();
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(message));
+        assertEquals(Collections.singletonList(message), storedMessages);
+    }
+
+    @Test
+    public void flush_withoutMessages_shouldNotStoreAnything() throws Exception {
+        writer.flush();
+
+        verify(localFolder, never()).storeSmallMessages(anyListOf(Message.class));
+    }
+
+    @Test
+    public void flush_withFailingBatch_shouldStoreMessagesIndividually() throws Exception {
+        Message message = createMessage(10);
+        Message brokenMessage = createMessage(10);
+        MessagingException exception = new MessagingException("Test");
+        when(localFolder.storeSmallMessages(asList(message, brokenMessage))).thenThrow(exception);
+        when(localFolder.storeSmallMessages(Collections.singletonList(brokenMessage))).thenThrow(exception);
+        writer.add(message);
+        writer.add(brokenMessage);
+
+        try {
+            writer.flush();
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertSame(exception, e);
+        }
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(message));
+        assertEquals(Collections.singletonList(message), storedMessages);
+    }
+
+    private Message createMessage(long size) {
+        Message message = mock(Message.class);
+        when(message.getSize()).thenReturn(size);
+        return message;
+    }
+
+
+    private static class TestSmallMessageWriter extends SmallMessageWriter {
+        long time = 0;
+
+        TestSmallMessageWriter(LocalFolder localFolder, Callback callback) {
+            super(localFolder, callback, MAX_BATCH_MESSAGES, MAX_BATCH_BYTES, MAX_BATCH_DELAY_MILLIS);
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+}
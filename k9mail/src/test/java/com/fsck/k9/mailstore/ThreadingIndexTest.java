@@ -0,0 +1,139 @@
+package com.fsck.k9.mailstore;
+
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class ThreadingIndexTest {
+    private static final long FOLDER_ID = 1;
+    private static final long OTHER_FOLDER_ID = 2;
+
+
+    private SQLiteDatabase db;
+    private ThreadingIndex threadingIndex;
+
+
+    @Before
+    public void setUp() throws Exception {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, folder_id INTEGER, message_id TEXT, " +
+                "empty INTEGER DEFAULT 0)");
+        db.execSQL("CREATE TABLE threads (id INTEGER PRIMARY KEY, message_id INTEGER, root INTEGER, " +
+                "parent INTEGER)");
+
+        threadingIndex = new ThreadingIndex(db, FOLDER_ID);
+    }
+
+    @Test
+    public void get_withKnownMessageId_shouldReturnThreadInfo() throws Exception {
+        long msgId = insertMessage(FOLDER_ID, "<a@example.com>", false);
+        long threadId = insertThread(msgId, 10, 20);
+
+        ThreadInfo threadInfo = threadingIndex.get("<a@example.com>");
+
+        assertEquals(threadId, threadInfo.threadId);
+        assertEquals(msgId, threadInfo.msgId);
+        assertEquals(10, threadInfo.rootId);
+        assertEquals(20, threadInfo.parentId);
+    }
+
+    @Test
+    public void get_withMessageInOtherFolder_shouldReturnNull() throws Exception {
+        insertThread(insertMessage(OTHER_FOLDER_ID, "<a@example.com>", false), 10, 20);
+
+        assertNull(threadingIndex.get("<a@example.com>"));
+    }
+
+    @Test
+    public void get_withDuplicateMessageIds_shouldReturnMessageWithLowestId() throws Exception {
+        long firstMsgId = insertMessage(FOLDER_ID, "<a@example.com>", false);
+        insertThread(firstMsgId, 1, 1);
+        insertThread(insertMessage(FOLDER_ID, "<a@example.com>", false), 2, 2);
+
+        threadingIndex.preload(asList("<a@example.com>", "<b@example.com>"));
+
+        assertEquals(firstMsgId, threadingIndex.get("<a@example.com>").msgId);
+        assertNull(threadingIndex.get("<b@example.com>"));
+    }
+
+    @Test
+    public void get_afterPreload_shouldNotQueryDatabase() throws Exception {
+        long msgId = insertMessage(FOLDER_ID, "<a@example.com>", false);
+        insertThread(msgId, 1, 1);
+        threadingIndex.preload(asList("<a@example.com>", "<b@example.com>"));
+
+        db.execSQL("DELETE FROM messages");
+
+        assertEquals(msgId, threadingIndex.get("<a@example.com>").msgId);
+        assertNull(threadingIndex.get("<b@example.com>"));
+    }
+
+    @Test
+    public void getEmpty_withNonEmptyMessage_shouldReturnNull() throws Exception {
+        insertThread(insertMessage(FOLDER_ID, "<a@example.com>", false), 1, 1);
+
+        assertNull(threadingIndex.getEmpty("<a@example.com>"));
+    }
+
+    @Test
+    public void messageInserted_shouldReplaceNotFoundEntry() throws Exception {
+        threadingIndex.preload(asList("<a@example.com>"));
+
+        threadingIndex.messageInserted("<a@example.com>", 5, 6, 6, -1, true);
+
+        ThreadInfo threadInfo = threadingIndex.getEmpty("<a@example.com>");
+        assertEquals(5, threadInfo.msgId);
+        assertEquals(6, threadInfo.threadId);
+        assertEquals(6, threadInfo.rootId);
+    }
+
+    @Test
+    public void rootChanged_shouldUpdateAllEntriesOfThread() throws Exception {
+        threadingIndex.preload(asList("<a@example.com>", "<b@example.com>"));
+        threadingIndex.messageInserted("<a@example.com>", 1, 1, 1, -1, true);
+        threadingIndex.messageInserted("<b@example.com>", 2, 2, 1, 1, true);
+
+        threadingIndex.rootChanged(1, 7);
+
+        assertEquals(7, threadingIndex.get("<a@example.com>").rootId);
+        assertEquals(7, threadingIndex.get("<b@example.com>").rootId);
+    }
+
+    @Test
+    public void invalidate_shouldReloadFromDatabase() throws Exception {
+        threadingIndex.preload(asList("<a@example.com>"));
+        long msgId = insertMessage(FOLDER_ID, "<a@example.com>", false);
+        insertThread(msgId, 1, 1);
+
+        threadingIndex.invalidate("<a@example.com>");
+
+        assertEquals(msgId, threadingIndex.get("<a@example.com>").msgId);
+    }
+
+    private long insertMessage(long folderId, String messageId, boolean empty) {
+        ContentValues cv = new ContentValues();
+        cv.put("folder_id", folderId);
+        cv.put("message_id", messageId);
+        cv.put("empty", empty ? 1 : 0);
+        return db.insert("messages", null, cv);
+    }
+
+    private long insertThread(long msgId, long rootId, long parentId) {
+        ContentValues cv = new ContentValues();
+        cv.put("message_id", msgId);
+        cv.put("root", rootId);
+        cv.put("parent", parentId);
+        return db.insert("threads", null, cv);
+    }
+}
@@ -0,0 +1,150 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationTo63Test {
+    private static final long FOLDER_ID = 1;
+    private static final long OTHER_FOLDER_ID = 2;
+
+
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, folder_id INTEGER, date INTEGER, " +
+                "internal_date INTEGER, attachment_count INTEGER, read INTEGER, flagged INTEGER, " +
+                "answered INTEGER, forwarded INTEGER, empty INTEGER DEFAULT 0, deleted INTEGER DEFAULT 0)");
+        database.execSQL("CREATE TABLE threads (id INTEGER PRIMARY KEY, message_id INTEGER, root INTEGER, " +
+                "parent INTEGER)");
+        database.execSQL("CREATE TRIGGER set_thread_root AFTER INSERT ON threads " +
+                "BEGIN UPDATE threads SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; END");
+    }
+
+    @Test
+    public void createThreadSummariesTable_shouldSummarizeExistingThreads() {
+        long rootMessageId = insertMessage(FOLDER_ID, 100, true);
+        long root = insertThread(rootMessageId, -1);
+        long latestMessageId = insertMessage(FOLDER_ID, 200, false);
+        insertThread(latestMessageId, root);
+        insertThread(insertMessage(OTHER_FOLDER_ID, 300, true), root);
+
+        MigrationTo63.createThreadSummariesTable(database);
+
+        assertSummary(FOLDER_ID, root, 2, 200, 0, latestMessageId);
+        assertSummary(OTHER_FOLDER_ID, root, 1, 300, 1, latestMessageId + 1);
+    }
+
+    @Test
+    public void createThreadSummaryTriggers_shouldUpdateSummaryOnInsertAndFlagChange() {
+        MigrationTo63.createThreadSummariesTable(database);
+        MigrationTo63.createThreadSummaryTriggers(database);
+        long firstMessageId = insertMessage(FOLDER_ID, 100, true);
+        long root = insertThread(firstMessageId, -1);
+        long secondMessageId = insertMessage(FOLDER_ID, 200, false);
+        insertThread(secondMessageId, root);
+
+        assertSummary(FOLDER_ID, root, 2, 200, 0, secondMessageId);
+
+        database.execSQL("UPDATE messages SET read = 1 WHERE id = " + secondMessageId);
+
+        assertSummary(FOLDER_ID, root, 2, 200, 1, secondMessageId);
+    }
+
+    @Test
+    public void createThreadSummaryTriggers_shouldUpdateSummaryOnDelete() {
+        MigrationTo63.createThreadSummariesTable(database);
+        MigrationTo63.createThreadSummaryTriggers(database);
+        long firstMessageId = insertMessage(FOLDER_ID, 100, true);
+        long root = insertThread(firstMessageId, -1);
+        long secondMessageId = insertMessage(FOLDER_ID, 200, false);
+        insertThread(secondMessageId, root);
+
+        database.execSQL("DELETE FROM messages WHERE id = " + secondMessageId);
+        database.execSQL("DELETE FROM threads WHERE message_id = " + secondMessageId);
+
+        assertSummary(FOLDER_ID, root, 1, 100, 1, firstMessageId);
+
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + firstMessageId);
+
+        assertFalse(summaryExists(FOLDER_ID, root));
+    }
+
+    @Test
+    public void createThreadSummaryTriggers_shouldUpdateSummariesOnMove() {
+        MigrationTo63.createThreadSummariesTable(database);
+        MigrationTo63.createThreadSummaryTriggers(database);
+        long messageId = insertMessage(FOLDER_ID, 100, true);
+        long root = insertThread(messageId, -1);
+
+        database.execSQL("UPDATE messages SET folder_id = " + OTHER_FOLDER_ID + " WHERE id = " + messageId);
+
+        assertFalse(summaryExists(FOLDER_ID, root));
+        assertTrue(summaryExists(OTHER_FOLDER_ID, root));
+    }
+
+    private long insertMessage(long folderId, long date, boolean read) {
+        ContentValues values = new ContentValues();
+        values.put("folder_id", folderId);
+        values.put("date", date);
+        values.put("internal_date", date);
+        values.put("attachment_count", 0);
+        values.put("read", read ? 1 : 0);
+        values.put("flagged", 0);
+        values.put("answered", 0);
+        values.put("forwarded", 0);
+        return database.insert("messages", null, values);
+    }
+
+    private long insertThread(long messageId, long root) {
+        ContentValues values = new ContentValues();
+        values.put("message_id", messageId);
+        if (root != -1) {
+            values.put("root", root);
+        }
+        return database.insert("threads", null, values);
+    }
+
+    private boolean summaryExists(long folderId, long root) {
+        Cursor cursor = database.rawQuery("SELECT 1 FROM thread_summaries WHERE folder_id = ? AND root = ?",
+                new String[] { Long.toString(folderId), Long.toString(root) });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSummary(long folderId, long root, int messageCount, long date, int read,
+            long latestMessageId) {
+        Cursor cursor = database.rawQuery("SELECT message_count, date, read, latest_message_id " +
+                "FROM thread_summaries WHERE folder_id = ? AND root = ?",
+                new String[] { Long.toString(folderId), Long.toString(root) });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(messageCount, cursor.getInt(0));
+            assertEquals(date, cursor.getLong(1));
+            assertEquals(read, cursor.getInt(2));
+            assertEquals(latestMessageId, cursor.getLong(3));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationTo64Test {
+    private static final long FOLDER_ID = 1;
+    private static final long OTHER_FOLDER_ID = 2;
+
+
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE folders (id INTEGER PRIMARY KEY, name TEXT)");
+        database.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, folder_id INTEGER, read INTEGER DEFAULT 0, " +
+                "flagged INTEGER DEFAULT 0, empty INTEGER DEFAULT 0, deleted INTEGER DEFAULT 0)");
+    }
+
+    @Test
+    public void createFolderCountsTable_shouldCountExistingMessages() {
+        insertMessage(FOLDER_ID, false, true);
+        insertMessage(FOLDER_ID, true, false);
+        insertMessage(FOLDER_ID, false, false);
+        insertMessage(OTHER_FOLDER_ID, true, true);
+        long deletedMessageId = insertMessage(FOLDER_ID, false, true);
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + deletedMessageId);
+
+        MigrationTo64.createFolderCountsTable(database);
+
+        assertCounts(FOLDER_ID, 3, 2, 1);
+        assertCounts(OTHER_FOLDER_ID, 1, 0, 1);
+    }
+
+    @Test
+    public void createFolderCountsTriggers_shouldUpdateCountsOnInsertAndFlagChange() {
+        createTableAndTriggers();
+        long messageId = insertMessage(FOLDER_ID, false, false);
+        insertMessage(FOLDER_ID, true, true);
+
+        assertCounts(FOLDER_ID, 2, 1, 1);
+
+        database.execSQL("UPDATE messages SET read = 1, flagged = 1 WHERE id = " + messageId);
+
+        assertCounts(FOLDER_ID, 2, 0, 2);
+    }
+
+    @Test
+    public void createFolderCountsTriggers_shouldIgnoreEmptyMessages() {
+        createTableAndTriggers();
+        ContentValues values = new ContentValues();
+        values.put("folder_id", FOLDER_ID);
+        values.put("empty", 1);
+        long messageId = database.insert("messages", null, values);
+
+        assertCounts(FOLDER_ID, 0, 0, 0);
+
+        database.execSQL("UPDATE messages SET empty = 0 WHERE id = " + messageId);
+
+        assertCounts(FOLDER_ID, 1, 1, 0);
+    }
+
+    @Test
+    public void createFolderCountsTriggers_shouldUpdateCountsOnDelete() {
+        createTableAndTriggers();
+        long firstMessageId = insertMessage(FOLDER_ID, false, true);
+        long secondMessageId = insertMessage(FOLDER_ID, false, false);
+
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = " + firstMessageId);
+
+        assertCounts(FOLDER_ID, 1, 1, 0);
+
+        database.execSQL("DELETE FROM messages WHERE id = " + secondMessageId);
+        database.execSQL("DELETE FROM messages WHERE id = " + firstMessageId);
+
+        assertCounts(FOLDER_ID, 0, 0, 0);
+    }
+
+    @Test
+    public void createFolderCountsTriggers_shouldUpdateCountsOnMove() {
+        createTableAndTriggers();
+        long messageId = insertMessage(FOLDER_ID, false, true);
+
+        database.execSQL("UPDATE messages SET folder_id = " + OTHER_FOLDER_ID + " WHERE id = " + messageId);
+
+        assertCounts(FOLDER_ID, 0, 0, 0);
+        assertCounts(OTHER_FOLDER_ID, 1, 1, 1);
+    }
+
+    @Test
+    public void createFolderCountsTriggers_shouldRemoveCountsOfDeletedFolder() {
+        createTableAndTriggers();
+        database.execSQL("INSERT INTO folders (id, name) VALUES (" + FOLDER_ID + ", 'INBOX')");
+        insertMessage(FOLDER_ID, false, false);
+
+        database.execSQL("DELETE FROM folders WHERE id = " + FOLDER_ID);
+
+        assertFalse(countsExist(FOLDER_ID));
+    }
+
+    private void createTableAndTriggers() {
+        MigrationTo64.createFolderCountsTable(database);
+        MigrationTo64.createFolderCountsTriggers(database);
+    }
+
+    private long insertMessage(long folderId, boolean read, boolean flagged) {
+        ContentValues values = new ContentValues();
+        values.put("folder_id", folderId);
+        values.put("read", read ? 1 : 0);
+        values.put("flagged", flagged ? 1 : 0);
+        return database.insert("messages", null, values);
+    }
+
+    private boolean countsExist(long folderId) {
+        Cursor cursor = database.rawQuery("SELECT 1 FROM folder_counts WHERE folder_id = ?",
+                new String[] { Long.toString(folderId) });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertCounts(long folderId, int messageCount, int unreadCount, int flaggedCount) {
+        Cursor cursor = database.rawQuery("SELECT message_count, unread_count, flagged_count " +
+                "FROM folder_counts WHERE folder_id = ?", new String[] { Long.toString(folderId) });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(messageCount, cursor.getInt(0));
+            assertEquals(unreadCount, cursor.getInt(1));
+            assertEquals(flaggedCount, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationTo65Test {
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, date INTEGER, message_part_id INTEGER, " +
+                "empty INTEGER DEFAULT 0, deleted INTEGER DEFAULT 0)");
+        database.execSQL("CREATE TABLE message_parts (id INTEGER PRIMARY KEY, root INTEGER)");
+        database.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+    }
+
+    @Test
+    public void createFulltextQueueTable_shouldQueueMessagesNewestFirst() {
+        long oldMessageId = insertMessage(1000L);
+        long newMessageId = insertMessage(2000L);
+        long emptyMessageId = insertMessage(3000L);
+        database.execSQL("UPDATE messages SET empty = 1 WHERE id = " + emptyMessageId);
+
+        MigrationTo65.createFulltextQueueTable(database);
+
+        assertEquals(asList(newMessageId, oldMessageId), getQueuedMessageIds());
+    }
+
+    @Test
+    public void updateDeleteMessageTrigger_shouldRemoveMessageFromQueue() {
+        long messageId = insertMessage(1000L);
+        long otherMessageId = insertMessage(2000L);
+        MigrationTo65.createFulltextQueueTable(database);
+        MigrationTo65.updateDeleteMessageTrigger(database);
+
+        database.execSQL("DELETE FROM messages WHERE id = " + messageId);
+
+        assertEquals(asList(otherMessageId), getQueuedMessageIds());
+    }
+
+    private long insertMessage(long date) {
+        ContentValues values = new ContentValues();
+        values.put("date", date);
+        return database.insert("messages", null, values);
+    }
+
+    private List<Long> getQueuedMessageIds() {
+        Cursor cursor = database.rawQuery("SELECT message_id FROM fulltext_queue ORDER BY id", null);
+        try {
+            List<Long> messageIds = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                messageIds.add(cursor.getLong(0));
+            }
+            return messageIds;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationTo66Test {
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, date INTEGER, " +
+                "empty INTEGER DEFAULT 0, deleted INTEGER DEFAULT 0)");
+        database.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        MigrationTo65.createFulltextQueueTable(database);
+    }
+
+    @Test
+    public void recreateFtsSearchTable_shouldQueueAllMessages() {
+        long queuedMessageId = insertMessage();
+        database.execSQL("INSERT INTO fulltext_queue (message_id) VALUES (" + queuedMessageId + ")");
+        long indexedMessageId = insertMessage();
+        insertFulltext(indexedMessageId);
+
+        MigrationTo66.recreateFtsSearchTable(database);
+
+        assertEquals(2, count("SELECT COUNT(*) FROM fulltext_queue"));
+        assertEquals(0, count("SELECT COUNT(*) FROM messages_fulltext"));
+    }
+
+    @Test
+    public void recreateFtsSearchTable_shouldCreateSeparateColumns() {
+        MigrationTo66.recreateFtsSearchTable(database);
+
+        database.execSQL("INSERT INTO messages_fulltext (docid, subject, sender, recipients, body) " +
+                "VALUES (1, 'Invoice', 'alice@example.com', 'bob@example.com', 'Please pay')");
+
+        assertEquals(1, count("SELECT COUNT(*) FROM messages_fulltext WHERE messages_fulltext MATCH 'inv*'"));
+        assertEquals(1, count("SELECT COUNT(*) FROM messages_fulltext WHERE messages_fulltext MATCH 'sender:alice'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM messages_fulltext WHERE messages_fulltext MATCH 'body:alice'"));
+    }
+
+    private long insertMessage() {
+        ContentValues values = new ContentValues();
+        values.put("date", System.currentTimeMillis());
+        return database.insert("messages", null, values);
+    }
+
+    private void insertFulltext(long messageId) {
+        ContentValues values = new ContentValues();
+        values.put("docid", messageId);
+        values.put("fulltext", "text");
+        database.insert("messages_fulltext", null, values);
+    }
+
+    private int count(String query) {
+        Cursor cursor = database.rawQuery(query, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
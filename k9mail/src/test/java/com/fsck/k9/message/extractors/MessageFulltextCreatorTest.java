@@ -0,0 +1,97 @@
+package com.fsck.k9.message.extractors;
+
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.Message.RecipientType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.fsck.k9.message.MessageCreationHelper.createMessage;
+import static com.fsck.k9.message.MessageCreationHelper.createMultipart;
+import static com.fsck.k9.message.MessageCreationHelper.createMultipartMessage;
+import static com.fsck.k9.message.MessageCreationHelper.createTextMessage;
+import static com.fsck.k9.message.MessageCreationHelper.createTextPart;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class MessageFulltextCreatorTest {
+    private EncryptionDetector encryptionDetector;
+    private MessageFulltextCreator fulltextCreator;
+
+
+    @Before
+    public void setUp() throws Exception {
+        encryptionDetector = mock(EncryptionDetector.class);
+
+        fulltextCreator = new MessageFulltextCreator(encryptionDetector);
+    }
+
+    @Test
+    public void createFulltext_shouldSplitHeadersAndBody() throws Exception {
+        Message message = createTextMessage("text/plain", "Body");
+        message.setSubject("Subject");
+        message.setFrom(new Address("alice@example.com", "Alice"));
+        message.setRecipients(RecipientType.TO, new Address[] { new Address("bob@example.com") });
+        message.setRecipients(RecipientType.CC, new Address[] { new Address("carol@example.com") });
+
+        MessageFulltext fulltext = fulltextCreator.createFulltext(message);
+
+        assertEquals("Subject", fulltext.getSubject());
+        assertEquals("Alice\nalice@example.com", fulltext.getSender());
+        assertEquals("bob@example.com\ncarol@example.com", fulltext.getRecipients());
+        assertEquals("Body", fulltext.getBody());
+    }
+
+    @Test
+    public void createFulltext_withMultipartMixed_shouldIncludeAllTextParts() throws Exception {
+        Message message = createMultipartMessage("multipart/mixed",
+                createTextPart("text/plain", "first"),
+                createTextPart("text/html", "<p>second</p>"));
+
+        MessageFulltext fulltext = fulltextCreator.createFulltext(message);
+
+        assertEquals("first\nsecond", fulltext.getBody());
+    }
+
+    @Test
+    public void createFulltext_withMultipartAlternative_shouldIndexTextOnlyOnce() throws Exception {
+        BodyPart alternative = createMultipart("multipart/alternative",
+                createTextPart("text/plain", "plain"),
+                createTextPart("text/html", "<b>html</b>"));
+        Message message = createMultipartMessage("multipart/mixed", alternative,
+                createTextPart("text/plain", "footer"));
+
+        MessageFulltext fulltext = fulltextCreator.createFulltext(message);
+
+        assertEquals("plain\nfooter", fulltext.getBody());
+    }
+
+    @Test
+    public void createFulltext_withEncryptedMessage_shouldNotIncludeBody() throws Exception {
+        Message message = createTextMessage("text/plain", "secret");
+        message.setSubject("Subject");
+        when(encryptionDetector.isEncrypted(message)).thenReturn(true);
+
+        MessageFulltext fulltext = fulltextCreator.createFulltext(message);
+
+        assertEquals("Subject", fulltext.getSubject());
+        assertNull(fulltext.getBody());
+    }
+
+    @Test
+    public void createFulltext_withoutText_shouldReturnNull() throws Exception {
+        Message message = createMessage("image/jpeg");
+
+        MessageFulltext fulltext = fulltextCreator.createFulltext(message);
+
+        assertNull(fulltext);
+    }
+}
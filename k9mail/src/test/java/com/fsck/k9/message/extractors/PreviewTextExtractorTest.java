@@ -11,6 +11,7 @@ import org.robolectric.annotation.Config;
 
 import static com.fsck.k9.message.MessageCreationHelper.createTextPart;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 
 @RunWith(K9RobolectricTestRunner.class)
@@ -156,4 +157,58 @@ public class PreviewTextExtractorTest {
 
         assertEquals("whitespace is fun", preview);
     }
+
+    @Test
+    public void extractPreview_withQuotedTextBeforeReply_shouldUseReply() throws Exception {
+        StringBuilder text = new StringBuilder("On 01/02/03 someone wrote:\r\n");
+        for (int i = 0; i < 100; i++) {
+            text.append("> quoted line ").append(i).append("\r\n");
+        }
+        text.append("the reply\r\n");
+        Part part = createTextPart("text/plain", text.toString());
+
+        String preview = previewTextExtractor.extractPreview(part);
+
+        assertEquals("the reply", preview);
+    }
+
+    @Test
+    public void extractPreview_withLongBody_shouldStopAfterPreviewLength() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("line ").append(i).append("\r\n");
+        }
+        Part part = createTextPart("text/plain", text.toString());
+
+        String preview = previewTextExtractor.extractPreview(part);
+
+        assertEquals(512, preview.length());
+        assertTrue(preview.startsWith("line 0 line 1 line 2"));
+        assertTrue(preview.endsWith("…"));
+    }
+
+    @Test
+    public void extractPreview_withHtmlStyleBlock_shouldIgnoreStyle() throws Exception {
+        String text = "<html><head><style>p { color: red; }</style></head>" +
+                "<body><p>Hello</p><p>World</p></body></html>";
+        Part part = createTextPart("text/html", text);
+
+        String preview = previewTextExtractor.extractPreview(part);
+
+        assertEquals("Hello World", preview);
+    }
+
+    @Test
+    public void extractPreview_withTextAfterLongHtmlMarkup_shouldOnlyReadBeginningOfBody() throws Exception {
+        StringBuilder text = new StringBuilder("<html><body>");
+        for (int i = 0; i < 2000; i++) {
+            text.append("<p></p>");
+        }
+        text.append("<p>Hidden</p></body></html>");
+        Part part = createTextPart("text/html", text.toString());
+
+        String preview = previewTextExtractor.extractPreview(part);
+
+        assertEquals("", preview);
+    }
 }
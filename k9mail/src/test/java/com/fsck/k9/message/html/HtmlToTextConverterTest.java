@@ -0,0 +1,126 @@
+package com.fsck.k9.message.html;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class HtmlToTextConverterTest {
+
+    @Test
+    public void convert_withSimpleMarkup_shouldReturnText() {
+        String text = HtmlToTextConverter.convert("<strong>K-9 Mail</strong> rocks :&gt;");
+
+        assertEquals("K-9 Mail rocks :>", text);
+    }
+
+    @Test
+    public void convert_shouldCollapseWhitespace() {
+        String text = HtmlToTextConverter.convert("\r\n  <b>one</b>\r\n\t two  three");
+
+        assertEquals("one two three", text);
+    }
+
+    @Test
+    public void convert_withParagraphsAndLineBreaks() {
+        String text = HtmlToTextConverter.convert("<p>first</p><p>second<br>third</p><div>fourth</div>");
+
+        assertEquals("first\n\nsecond\nthird\n\nfourth\n\n", text);
+    }
+
+    @Test
+    public void convert_withHorizontalRule() {
+        String text = HtmlToTextConverter.convert("above<hr/>below");
+
+        assertEquals("above_____________________________________________\r\nbelow", text);
+    }
+
+    @Test
+    public void convert_shouldIgnoreContentOfStyleScriptTitleAndComments() {
+        String text = HtmlToTextConverter.convert("<html><head><title>Title</title>" +
+                "<style type=\"text/css\">p { color: red; }</style></head>" +
+                "<body><!-- a <b>comment</b> -->Hello<script>if (a < b) { document.write('</p>'); }</SCRIPT> world" +
+                "</body></html>");
+
+        assertEquals("Hello world", text);
+    }
+
+    @Test
+    public void convert_shouldIgnoreMarkupInsideAttributes() {
+        String text = HtmlToTextConverter.convert("<a href=\"http://example.com/?a>b\" title='x>y'>link</a>");
+
+        assertEquals("link", text);
+    }
+
+    @Test
+    public void convert_shouldDecodeEntities() {
+        String text = HtmlToTextConverter.convert("&lt;&amp;&gt; &quot;&eacute;&#233;&#xE9;&euro; &unknown; & x");
+
+        assertEquals("<&> \"ééé€ &unknown; & x", text);
+    }
+
+    @Test
+    public void convert_shouldReplaceNonBreakingSpacesAndImages() {
+        String text = HtmlToTextConverter.convert("a&nbsp;&nbsp;b<img src=\"x.png\">c");
+
+        assertEquals("a  b c", text);
+    }
+
+    @Test
+    public void convert_withLessThanSignInText_shouldKeepIt() {
+        String text = HtmlToTextConverter.convert("1 < 2 and 3 <= 4");
+
+        assertEquals("1 < 2 and 3 <= 4", text);
+    }
+
+    @Test
+    public void convert_withMaxLength_shouldTruncateResult() {
+        String text = HtmlToTextConverter.convert("<p>The quick brown fox</p>", 9);
+
+        assertEquals("The quick", text);
+    }
+
+    @Test
+    public void convert_withMaxLength_shouldStopReading() throws IOException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            html.append("<p>paragraph ").append(i).append("</p>");
+        }
+        CountingReader reader = new CountingReader(new StringReader(html.toString()));
+
+        String text = HtmlToTextConverter.convert(reader, 100);
+
+        assertEquals(100, text.length());
+        assertTrue(reader.charactersRead < html.length() / 10);
+    }
+
+
+    private static class CountingReader extends Reader {
+        private final Reader reader;
+        int charactersRead;
+
+        CountingReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = reader.read(buffer, offset, length);
+            if (read > 0) {
+                charactersRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.fsck.k9.search;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class SqlQueryBuilderTest {
+
+    @Test
+    public void createFulltextQuery_shouldMatchAllWordsAsPrefixes() {
+        String query = SqlQueryBuilder.createFulltextQuery(" invoice  march ");
+
+        assertEquals("\"invoice*\" \"march*\"", query);
+    }
+
+    @Test
+    public void createFulltextQuery_shouldRemoveSpecialCharacters() {
+        String query = SqlQueryBuilder.createFulltextQuery("\"foo* -bar");
+
+        assertEquals("\"foo*\" \"-bar*\"", query);
+    }
+
+    @Test
+    public void createFulltextQuery_shouldIgnoreWordsWithoutLettersOrDigits() {
+        String query = SqlQueryBuilder.createFulltextQuery("foo - *");
+
+        assertEquals("\"foo*\"", query);
+    }
+
+    @Test
+    public void createFulltextQuery_withoutWords_shouldReturnNull() {
+        assertNull(SqlQueryBuilder.createFulltextQuery("  \"\" "));
+    }
+}